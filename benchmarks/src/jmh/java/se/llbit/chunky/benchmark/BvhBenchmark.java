@@ -0,0 +1,96 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.llbit.chunky.entity.Entity;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+import se.llbit.math.bvh.BVH;
+import se.llbit.util.TaskTracker;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BVH build and intersection benchmarks for each BVH implementation,
+ * using randomly placed box entities.
+ */
+@State(Scope.Thread)
+public class BvhBenchmark {
+  private static final int NUM_RAYS = 1 << 10;
+  private static final int SIZE = 256;
+
+  @Param({"MIDPOINT", "SAH", "SAH_MA", "SAH_BINNED"})
+  public String bvhImplementation;
+
+  @Param({"20000"})
+  public int entities;
+
+  private List<Entity> entityList;
+  private BVH bvh;
+  private final Vector3 worldOffset = new Vector3();
+  private final double[] rays = new double[6 * NUM_RAYS];
+  private final Ray ray = new Ray();
+  private int next = 0;
+
+  @Setup public void setup() {
+    entityList = SyntheticScene.entities(entities, SIZE, 0);
+    bvh = BVH.Factory.create(bvhImplementation, entityList, worldOffset, TaskTracker.Task.NONE);
+    Random random = new Random(1);
+    for (int i = 0; i < NUM_RAYS; ++i) {
+      rays[6 * i + 0] = random.nextDouble() * SIZE;
+      rays[6 * i + 1] = random.nextDouble() * SIZE;
+      rays[6 * i + 2] = random.nextDouble() * SIZE;
+      double dx = random.nextGaussian();
+      double dy = random.nextGaussian();
+      double dz = random.nextGaussian();
+      double len = Math.sqrt(dx * dx + dy * dy + dz * dz);
+      rays[6 * i + 3] = dx / len;
+      rays[6 * i + 4] = dy / len;
+      rays[6 * i + 5] = dz / len;
+    }
+  }
+
+  /** Rays per second tested for the closest intersection. */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public boolean closestIntersection() {
+    int i = 6 * (next++ & (NUM_RAYS - 1));
+    ray.reset();
+    ray.o.set(rays[i], rays[i + 1], rays[i + 2]);
+    ray.d.set(rays[i + 3], rays[i + 4], rays[i + 5]);
+    ray.t = Double.POSITIVE_INFINITY;
+    return bvh.closestIntersection(ray);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public BVH build() {
+    return BVH.Factory.create(bvhImplementation, entityList, worldOffset, TaskTracker.Task.NONE);
+  }
+}
@@ -0,0 +1,87 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.chunk.ChunkData;
+import se.llbit.chunky.world.Chunk;
+import se.llbit.chunky.world.ChunkPosition;
+import se.llbit.chunky.world.World;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading and decoding one chunk from a region file with
+ * {@link Chunk#getChunkData}. The region file is generated by
+ * {@link SyntheticWorld} in a temporary directory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChunkLoadingBenchmark {
+  private static final int CHUNKS = 8;
+
+  private File worldDirectory;
+  private Chunk[] chunks;
+  private BlockPalette palette;
+  private ChunkData chunkData;
+  private int next = 0;
+
+  @Setup public void setup() throws IOException {
+    SyntheticScene.init();
+    worldDirectory = Files.createTempDirectory("chunky-benchmark").toFile();
+    SyntheticWorld.write(worldDirectory, CHUNKS);
+    World world = World.loadWorld(worldDirectory, World.OVERWORLD_DIMENSION,
+        World.LoggedWarnings.SILENT);
+    world.getRegion(ChunkPosition.get(0, 0)).parse();
+    chunks = new Chunk[CHUNKS * CHUNKS];
+    for (int i = 0; i < chunks.length; ++i) {
+      chunks[i] = world.getChunk(ChunkPosition.get(i % CHUNKS, i / CHUNKS));
+    }
+    palette = new BlockPalette();
+  }
+
+  @TearDown public void tearDown() {
+    File regionDirectory = new File(worldDirectory, "region");
+    File[] files = regionDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    regionDirectory.delete();
+    new File(worldDirectory, "level.dat").delete();
+    worldDirectory.delete();
+  }
+
+  @Benchmark public ChunkData getChunkData() {
+    Chunk chunk = chunks[next++ % chunks.length];
+    chunkData = chunk.getChunkData(chunkData, palette);
+    return chunkData;
+  }
+}
@@ -0,0 +1,85 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmark;
+
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.llbit.chunky.renderer.renderdump.FloatingPointCompressor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compression and decompression of a sample buffer with the FPC
+ * encoder used for render dumps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FloatingPointCompressorBenchmark {
+  /** Canvas size as width x height. */
+  @Param({"400x400"})
+  public String canvas;
+
+  private double[] samples;
+  private byte[] compressed;
+  private double[] output;
+
+  @Setup public void setup() throws IOException {
+    String[] size = canvas.split("x");
+    int pixels = Integer.parseInt(size[0]) * Integer.parseInt(size[1]);
+    samples = new double[3 * pixels];
+    // Smooth gradients with noise, similar to a partially converged render.
+    Random random = new Random(0);
+    for (int i = 0; i < pixels; ++i) {
+      double base = 0.5 + 0.4 * Math.sin(i * 0.001);
+      for (int cc = 0; cc < 3; ++cc) {
+        samples[3 * i + cc] = base * (0.8 + 0.1 * cc) + random.nextGaussian() * 0.05;
+      }
+    }
+    FastByteArrayOutputStream out = new FastByteArrayOutputStream();
+    FloatingPointCompressor.compress(out, samples, pixel -> {});
+    compressed = Arrays.copyOf(out.array, (int) out.length);
+    output = new double[samples.length];
+  }
+
+  @Benchmark public FastByteArrayOutputStream compress() throws IOException {
+    FastByteArrayOutputStream out = new FastByteArrayOutputStream(compressed.length);
+    FloatingPointCompressor.compress(out, samples, pixel -> {});
+    return out;
+  }
+
+  @Benchmark public double[] decompress() throws IOException {
+    FloatingPointCompressor.decompress(new FastByteArrayInputStream(compressed), samples.length,
+        (index, r, g, b) -> {
+          output[3 * index] = r;
+          output[3 * index + 1] = g;
+          output[3 * index + 2] = b;
+        }, pixel -> {});
+    return output;
+  }
+}
@@ -0,0 +1,119 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmark;
+
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.math.Octree;
+import se.llbit.math.Ray;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Octree lookup and traversal benchmarks for each octree implementation.
+ *
+ * <p>{@link #getWithLevel} reports the cost of one point lookup.
+ * {@link #enterBlock} reports the number of rays per second that are
+ * marched through the synthetic terrain until they hit a block.
+ */
+@State(Scope.Thread)
+public class OctreeBenchmark {
+  private static final int NUM_POINTS = 1 << 12;
+  private static final int NUM_RAYS = 1 << 10;
+
+  @Param({"PACKED", "BIGPACKED", "NODE"})
+  public String octreeImplementation;
+
+  @Param({"8"})
+  public int depth;
+
+  private Scene scene;
+  private Octree octree;
+  private Octree.OctreeImplementation impl;
+  private final IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+  private final Octree.NodeStack stack = new Octree.NodeStack();
+  private final int[] points = new int[3 * NUM_POINTS];
+  private final double[] rays = new double[6 * NUM_RAYS];
+  private final Ray ray = new Ray();
+  private int next = 0;
+
+  @Setup public void setup() {
+    scene = SyntheticScene.create(depth, octreeImplementation);
+    octree = scene.getWorldOctree();
+    impl = octree.getImplementation();
+    int size = 1 << depth;
+    Random random = new Random(0);
+    for (int i = 0; i < points.length; ++i) {
+      points[i] = random.nextInt(size);
+    }
+    for (int i = 0; i < NUM_RAYS; ++i) {
+      // Rays start above the terrain and point downwards.
+      rays[6 * i + 0] = random.nextDouble() * size;
+      rays[6 * i + 1] = size * 0.75;
+      rays[6 * i + 2] = random.nextDouble() * size;
+      double dx = random.nextDouble() * 2 - 1;
+      double dy = -0.2 - random.nextDouble();
+      double dz = random.nextDouble() * 2 - 1;
+      double len = Math.sqrt(dx * dx + dy * dy + dz * dz);
+      rays[6 * i + 3] = dx / len;
+      rays[6 * i + 4] = dy / len;
+      rays[6 * i + 5] = dz / len;
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int getWithLevel() {
+    int i = 3 * (next++ & (NUM_POINTS - 1));
+    impl.getWithLevel(typeAndLevel, points[i], points[i + 1], points[i + 2]);
+    return typeAndLevel.leftInt();
+  }
+
+  /** Rays per second marched through the octree. */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public boolean enterBlock() {
+    return enterBlock(null);
+  }
+
+  /** Rays per second marched through the octree with the stackful traversal. */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public boolean enterBlockStack() {
+    return enterBlock(stack);
+  }
+
+  private boolean enterBlock(Octree.NodeStack stack) {
+    int i = 6 * (next++ & (NUM_RAYS - 1));
+    ray.reset();
+    ray.o.set(rays[i], rays[i + 1], rays[i + 2]);
+    ray.d.set(rays[i + 3], rays[i + 4], rays[i + 5]);
+    return octree.enterBlock(scene, ray, scene.getPalette(), typeAndLevel, stack);
+  }
+}
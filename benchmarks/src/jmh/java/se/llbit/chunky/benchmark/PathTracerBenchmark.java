@@ -0,0 +1,89 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.llbit.chunky.renderer.Sampler;
+import se.llbit.chunky.renderer.WorkerState;
+import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.renderer.scene.PathTracer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.math.Ray;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of one path traced camera ray in a synthetic scene.
+ *
+ * <p>Run with the gc profiler (enabled by default in the Gradle build) to check
+ * the allocation rate: {@code gc.alloc.rate.norm} should be close to 0 B/op
+ * once the per-depth ray stack in {@link WorkerState} has been warmed up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PathTracerBenchmark {
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 36;
+
+  @Param({"6"})
+  public int depth;
+
+  /** Compare octree traversal from the root with the stackful traversal. */
+  @Param({"false", "true"})
+  public boolean stackTraversal;
+
+  private Scene scene;
+  private WorkerState state;
+  private final PathTracer tracer = new PathTracer();
+  private int pixel = 0;
+
+  @Setup public void setup() {
+    scene = SyntheticScene.create(depth, "PACKED");
+    scene.setOctreeStackTraversal(stackTraversal);
+    state = new WorkerState();
+    state.ray = new Ray();
+    state.sampler = new Sampler(0);
+    state.random = state.sampler;
+  }
+
+  /**
+   * Path trace one camera ray. Successive calls sweep over a small image so
+   * that the rays hit all materials in the scene.
+   */
+  @Benchmark public double pathTrace() {
+    int x = pixel % WIDTH;
+    int y = (pixel / WIDTH) % HEIGHT;
+    pixel += 1;
+
+    Camera cam = scene.camera();
+    double halfWidth = WIDTH / (2.0 * HEIGHT);
+    double invHeight = 1.0 / HEIGHT;
+    cam.calcViewRay(state.ray, state.random,
+        -halfWidth + (x + state.random.nextDouble()) * invHeight,
+        -0.5 + (y + state.random.nextDouble()) * invHeight);
+    scene.rayTrace(tracer, state);
+    return state.ray.color.x + state.ray.color.y + state.ray.color.z;
+  }
+}
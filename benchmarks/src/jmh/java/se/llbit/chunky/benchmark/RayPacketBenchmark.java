@@ -0,0 +1,115 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmark;
+
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.llbit.chunky.block.Air;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.math.Octree;
+import se.llbit.math.Ray;
+import se.llbit.math.RayPacket;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares tracing the primary rays of an 8x8 pixel block one by one through
+ * the world octree with first traversing them as a packet and then marching
+ * each ray from its packet enter distance.
+ *
+ * <p>Each operation traces the 64 primary rays of one block of the frame to
+ * their first hit.
+ */
+@State(Scope.Thread)
+public class RayPacketBenchmark {
+  private static final int FRAME_SIZE = 256;
+  private static final int PACKET_SIZE = 8;
+  private static final int NUM_PACKETS =
+      (FRAME_SIZE / PACKET_SIZE) * (FRAME_SIZE / PACKET_SIZE);
+
+  @Param({"8"})
+  public int depth;
+
+  private Scene scene;
+  private Octree octree;
+  private final IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+  private final RayPacket[] packets = new RayPacket[NUM_PACKETS];
+  private final Ray ray = new Ray();
+  private int next = 0;
+
+  @Setup public void setup() {
+    scene = SyntheticScene.create(depth, "PACKED");
+    octree = scene.getWorldOctree();
+    Random random = new Random(0);
+    double invSize = 1.0 / FRAME_SIZE;
+    int blocks = FRAME_SIZE / PACKET_SIZE;
+    for (int i = 0; i < NUM_PACKETS; ++i) {
+      RayPacket packet = new RayPacket();
+      int x0 = (i % blocks) * PACKET_SIZE;
+      int y0 = (i / blocks) * PACKET_SIZE;
+      for (int x = x0; x < x0 + PACKET_SIZE; ++x) {
+        for (int y = y0; y < y0 + PACKET_SIZE; ++y) {
+          scene.camera().calcViewRay(ray, random, -0.5 + x * invSize, -0.5 + y * invSize);
+          scene.addToPacket(packet, ray);
+        }
+      }
+      packets[i] = packet;
+    }
+  }
+
+  /** Each ray marched from its origin. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int perRay() {
+    RayPacket packet = packets[next++ & (NUM_PACKETS - 1)];
+    packet.clearEnterDistances();
+    return trace(packet);
+  }
+
+  /** Packet traversal followed by marching each ray from its enter distance. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int packet() {
+    RayPacket packet = packets[next++ & (NUM_PACKETS - 1)];
+    scene.tracePacket(packet);
+    return trace(packet);
+  }
+
+  private int trace(RayPacket packet) {
+    int hits = 0;
+    for (int i = 0; i < packet.size; ++i) {
+      ray.reset();
+      packet.get(i, ray);
+      ray.setCurrentMaterial(Air.INSTANCE);
+      if (octree.enterBlock(scene, ray, scene.getPalette(), typeAndLevel, null,
+          packet.enterDistance[i])) {
+        hits += 1;
+      }
+    }
+    return hits;
+  }
+}
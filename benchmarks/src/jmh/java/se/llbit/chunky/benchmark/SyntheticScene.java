@@ -0,0 +1,178 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmark;
+
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.entity.Entity;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.resources.Texture;
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonValue;
+import se.llbit.math.Octree;
+import se.llbit.math.Vector3;
+import se.llbit.math.Vector4;
+import se.llbit.math.primitive.Box;
+import se.llbit.math.primitive.Primitive;
+import se.llbit.nbt.CompoundTag;
+import se.llbit.nbt.StringTag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates deterministic voxel scenes for benchmarks, so that no Minecraft
+ * world is needed to run them.
+ *
+ * <p>The terrain is a smooth stone heightmap with a water level, a few glass
+ * pillars and leaf blobs. This exercises opaque, refractive and
+ * semi-transparent materials in the path tracer. Entities for BVH benchmarks
+ * are generated as randomly placed textured boxes.
+ */
+public class SyntheticScene {
+  public static final int WATER_LEVEL = 28;
+
+  private static boolean initialized = false;
+
+  /**
+   * Register the block providers used to look up block materials.
+   */
+  public static synchronized void init() {
+    if (!initialized) {
+      new Chunky(ChunkyOptions.getDefaults());
+      initialized = true;
+    }
+  }
+
+  /**
+   * Build a scene with a synthetic world of {@code 2^depth} blocks along each axis.
+   *
+   * @param depth octree depth
+   * @param octreeImplementation the octree implementation to use, for example {@code "PACKED"}
+   */
+  public static Scene create(int depth, String octreeImplementation) {
+    init();
+    int size = 1 << depth;
+    BlockPalette palette = new BlockPalette();
+    int stone = palette.stoneId;
+    int water = palette.waterId;
+    int glass = palette.put(blockTag("minecraft:glass"));
+    int leaves = palette.put(blockTag("minecraft:oak_leaves"));
+
+    Octree worldOctree = new Octree(octreeImplementation, depth);
+    Octree waterOctree = new Octree(octreeImplementation, depth);
+    int waterLevel = Math.min(WATER_LEVEL, size - 1);
+    for (int x = 0; x < size; ++x) {
+      for (int z = 0; z < size; ++z) {
+        int height = terrainHeight(x, z, size);
+        for (int y = 0; y < height; ++y) {
+          worldOctree.set(stone, x, y, z);
+        }
+        for (int y = height; y < waterLevel; ++y) {
+          worldOctree.set(water, x, y, z);
+          waterOctree.set(water, x, y, z);
+        }
+        if (x % 24 == 12 && z % 24 == 12) {
+          for (int y = Math.max(height, waterLevel); y < Math.min(size, height + 12); ++y) {
+            worldOctree.set(glass, x, y, z);
+          }
+        }
+        if (x % 17 < 3 && z % 19 < 3) {
+          int top = Math.max(height, waterLevel);
+          for (int y = top + 4; y < Math.min(size, top + 7); ++y) {
+            worldOctree.set(leaves, x, y, z);
+          }
+        }
+      }
+    }
+
+    Scene scene = new Scene();
+    scene.setOctrees(palette, worldOctree, waterOctree);
+    Camera camera = scene.camera();
+    camera.setPosition(new Vector3(size / 4.0, size * 0.6, size / 4.0));
+    camera.setView(-Math.PI / 4, -Math.PI / 5, 0);
+    return scene;
+  }
+
+  /**
+   * Height of the stone terrain at the given column. Always at least one and
+   * at most half the world height.
+   */
+  public static int terrainHeight(int x, int z, int size) {
+    double h = 20 + 6 * Math.sin(x * 0.11) + 6 * Math.cos(z * 0.07) + 3 * Math.sin((x + z) * 0.23);
+    return Math.max(1, Math.min(size / 2, (int) h));
+  }
+
+  /**
+   * Generate randomly placed boxes, each built from twelve textured triangles.
+   *
+   * @param count number of entities
+   * @param size the entities are placed inside a cube of this size
+   */
+  public static List<Entity> entities(int count, int size, long seed) {
+    Random random = new Random(seed);
+    List<Entity> entities = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      Vector3 position = new Vector3(
+          random.nextDouble() * size, random.nextDouble() * size, random.nextDouble() * size);
+      entities.add(new BoxEntity(position, 0.1 + random.nextDouble() * 0.9));
+    }
+    return entities;
+  }
+
+  /**
+   * A textured axis-aligned box.
+   */
+  static class BoxEntity extends Entity {
+    private final double size;
+
+    BoxEntity(Vector3 position, double size) {
+      super(position);
+      this.size = size;
+    }
+
+    @Override public Collection<Primitive> primitives(Vector3 offset) {
+      double x = position.x + offset.x;
+      double y = position.y + offset.y;
+      double z = position.z + offset.z;
+      Box box = new Box(x, x + size, y, y + size, z, z + size);
+      Vector4 uv = new Vector4(0, 1, 0, 1);
+      Collection<Primitive> primitives = new ArrayList<>(12);
+      box.addFrontFaces(primitives, Texture.stone, uv);
+      box.addBackFaces(primitives, Texture.stone, uv);
+      box.addLeftFaces(primitives, Texture.stone, uv);
+      box.addRightFaces(primitives, Texture.stone, uv);
+      box.addTopFaces(primitives, Texture.stone, uv);
+      box.addBottomFaces(primitives, Texture.stone, uv);
+      return primitives;
+    }
+
+    @Override public JsonValue toJson() {
+      return new JsonObject();
+    }
+  }
+
+  private static CompoundTag blockTag(String name) {
+    CompoundTag tag = new CompoundTag();
+    tag.add("Name", new StringTag(name));
+    return tag;
+  }
+}
@@ -0,0 +1,184 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmark;
+
+import se.llbit.nbt.ByteTag;
+import se.llbit.nbt.CompoundTag;
+import se.llbit.nbt.IntArrayTag;
+import se.llbit.nbt.IntTag;
+import se.llbit.nbt.ListTag;
+import se.llbit.nbt.LongArrayTag;
+import se.llbit.nbt.NamedTag;
+import se.llbit.nbt.StringTag;
+import se.llbit.nbt.Tag;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a minimal Minecraft world (1.16 chunk format) to disk for chunk loading
+ * benchmarks. The world has a single region file with stone terrain, a water
+ * level and a few ores, so that the sections use more than one palette entry.
+ */
+public class SyntheticWorld {
+  /** Data version of Minecraft 1.16.5, which uses 64-bit aligned block states. */
+  public static final int DATA_VERSION = 2586;
+
+  private static final int SECTOR_SIZE = 4096;
+
+  private static final String[] PALETTE = {
+      "minecraft:air", "minecraft:stone", "minecraft:dirt", "minecraft:grass_block",
+      "minecraft:water", "minecraft:coal_ore", "minecraft:iron_ore", "minecraft:bedrock",
+  };
+  private static final int AIR = 0, STONE = 1, DIRT = 2, GRASS = 3, WATER = 4, COAL = 5,
+      IRON = 6, BEDROCK = 7;
+
+  /**
+   * Create a world directory holding the region r.0.0.mca with {@code chunks * chunks}
+   * generated chunks.
+   *
+   * @param directory the world directory, created if it does not exist
+   * @param chunks number of chunks along each side, at most 32
+   */
+  public static void write(File directory, int chunks) throws IOException {
+    File regionDirectory = new File(directory, "region");
+    if (!regionDirectory.isDirectory() && !regionDirectory.mkdirs()) {
+      throw new IOException("Could not create directory " + regionDirectory);
+    }
+    writeLevelDat(new File(directory, "level.dat"));
+
+    try (RandomAccessFile file = new RandomAccessFile(new File(regionDirectory, "r.0.0.mca"), "rw")) {
+      file.setLength(0);
+      int[] locations = new int[32 * 32];
+      int sector = 2; // The first two sectors hold the location and timestamp tables.
+      for (int cz = 0; cz < chunks; ++cz) {
+        for (int cx = 0; cx < chunks; ++cx) {
+          byte[] data = compress(chunkTag(cx, cz));
+          int sectors = (data.length + 5 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+          file.seek((long) sector * SECTOR_SIZE);
+          file.writeInt(data.length + 1);
+          file.writeByte(2); // Zlib compression.
+          file.write(data);
+          locations[cx + cz * 32] = (sector << 8) | sectors;
+          sector += sectors;
+        }
+      }
+      file.setLength((long) sector * SECTOR_SIZE);
+      file.seek(0);
+      for (int location : locations) {
+        file.writeInt(location);
+      }
+      int timestamp = (int) (System.currentTimeMillis() / 1000);
+      for (int location : locations) {
+        file.writeInt(location != 0 ? timestamp : 0);
+      }
+    }
+  }
+
+  private static void writeLevelDat(File file) throws IOException {
+    CompoundTag data = new CompoundTag();
+    data.add("version", new IntTag(19133));
+    data.add("LevelName", new StringTag("Synthetic"));
+    CompoundTag root = new CompoundTag();
+    root.add("Data", data);
+    try (DataOutputStream out = new DataOutputStream(
+        new GZIPOutputStream(new FileOutputStream(file)))) {
+      new NamedTag("", root).write(out);
+    }
+  }
+
+  private static byte[] compress(NamedTag tag) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+      tag.write(out);
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Block at the given world position. */
+  static int blockAt(int x, int y, int z) {
+    if (y == 0) {
+      return BEDROCK;
+    }
+    int height = SyntheticScene.terrainHeight(x, z, 256) + 32;
+    if (y < height - 4) {
+      int hash = (x * 73856093) ^ (y * 19349663) ^ (z * 83492791);
+      if ((hash & 63) == 0) {
+        return COAL;
+      } else if ((hash & 127) == 1) {
+        return IRON;
+      }
+      return STONE;
+    } else if (y < height - 1) {
+      return DIRT;
+    } else if (y < height) {
+      return GRASS;
+    } else if (y < 62) {
+      return WATER;
+    }
+    return AIR;
+  }
+
+  private static NamedTag chunkTag(int cx, int cz) {
+    ListTag sections = new ListTag(Tag.TAG_COMPOUND, new ArrayList<>());
+    for (int sectionY = 0; sectionY < 5; ++sectionY) {
+      // Four bits per block: sixteen blocks per long.
+      long[] blockStates = new long[4096 / 16];
+      int index = 0;
+      for (int y = 0; y < 16; ++y) {
+        for (int z = 0; z < 16; ++z) {
+          for (int x = 0; x < 16; ++x) {
+            long block = blockAt(cx * 16 + x, sectionY * 16 + y, cz * 16 + z);
+            blockStates[index >> 4] |= block << ((index & 15) * 4);
+            index += 1;
+          }
+        }
+      }
+      ListTag palette = new ListTag(Tag.TAG_COMPOUND, new ArrayList<>());
+      for (String name : PALETTE) {
+        CompoundTag block = new CompoundTag();
+        block.add("Name", new StringTag(name));
+        palette.add(block);
+      }
+      CompoundTag section = new CompoundTag();
+      section.add("Y", new ByteTag(sectionY));
+      section.add("Palette", palette);
+      section.add("BlockStates", new LongArrayTag(blockStates));
+      sections.add(section);
+    }
+
+    CompoundTag level = new CompoundTag();
+    level.add("xPos", new IntTag(cx));
+    level.add("zPos", new IntTag(cz));
+    level.add("Sections", sections);
+    level.add("Biomes", new IntArrayTag(new int[1024]));
+    level.add("Entities", new ListTag(Tag.TAG_COMPOUND, new ArrayList<>()));
+    level.add("TileEntities", new ListTag(Tag.TAG_COMPOUND, new ArrayList<>()));
+
+    CompoundTag root = new CompoundTag();
+    root.add("DataVersion", new IntTag(DATA_VERSION));
+    root.add("Level", level);
+    return new NamedTag("", root);
+  }
+}
@@ -61,12 +61,34 @@ public class BlockPalette {
   private final Map<BlockSpec, Integer> blockMap;
   private List<Block> palette;
 
+  /** Palette that creates the blocks of this palette, or {@code null} if this palette creates its own blocks. */
+  private final BlockPalette blocks;
+
   private ReentrantLock lock = new ReentrantLock();
 
   public BlockPalette(Map<BlockSpec, Integer> initialMap, List<Block> initialList) {
+    this(initialMap, initialList, getDefaultMaterialProperties(), null);
+  }
+
+  /**
+   * Create a palette with its own block ids that takes its blocks from another palette.
+   * Blocks added to this palette are also added to the other palette, but the ids in this
+   * palette only depend on the order in which blocks are added to this palette.
+   *
+   * <p>This is used to decode chunks in parallel: each chunk gets its own palette and the
+   * ids are mapped to the scene palette in chunk order, so the scene palette does not
+   * depend on the order in which the chunks were decoded.
+   */
+  public BlockPalette(BlockPalette blocks) {
+    this(new HashMap<>(), new ArrayList<>(), blocks.materialProperties, blocks);
+  }
+
+  private BlockPalette(Map<BlockSpec, Integer> initialMap, List<Block> initialList,
+      Map<String, Consumer<Block>> materialProperties, BlockPalette blocks) {
     this.blockMap = initialMap;
     this.palette = initialList;
-    this.materialProperties = getDefaultMaterialProperties();
+    this.materialProperties = materialProperties;
+    this.blocks = blocks;
     CompoundTag airTag = new CompoundTag();
     airTag.add("Name", new StringTag("minecraft:air"));
     CompoundTag stoneTag = new CompoundTag();
@@ -121,8 +143,13 @@ public class BlockPalette {
       }
       id = palette.size();
       blockMap.put(spec, id);
-      Block block = spec.toBlock();
-      applyMaterial(block);
+      Block block;
+      if (blocks != null) {
+        block = blocks.get(blocks.put(spec));
+      } else {
+        block = spec.toBlock();
+        applyMaterial(block);
+      }
       palette.add(block);
       return id;
     } finally {
@@ -563,13 +590,21 @@ public class BlockPalette {
     return palette;
   }
 
-  /** Writes the block specifications to file. */
-  public void write(DataOutputStream out) throws IOException {
-    out.writeInt(BLOCK_PALETTE_VERSION);
+  /**
+   * @return the block specifications of this palette, indexed by block id
+   */
+  public BlockSpec[] getBlockSpecs() {
     BlockSpec[] specs = new BlockSpec[blockMap.size()];
     for (Map.Entry<BlockSpec, Integer> entry : blockMap.entrySet()) {
       specs[entry.getValue()] = entry.getKey();
     }
+    return specs;
+  }
+
+  /** Writes the block specifications to file. */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(BLOCK_PALETTE_VERSION);
+    BlockSpec[] specs = getBlockSpecs();
     out.writeInt(specs.length);
     for (BlockSpec spec : specs) {
       spec.serialize(out);
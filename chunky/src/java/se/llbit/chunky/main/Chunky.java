@@ -28,8 +28,12 @@ import se.llbit.chunky.plugin.ChunkyPlugin;
 import se.llbit.chunky.plugin.TabTransformer;
 import se.llbit.chunky.renderer.*;
 import se.llbit.chunky.renderer.RenderManager;
+import se.llbit.chunky.renderer.distributed.DistributedRenderWorker;
+import se.llbit.chunky.renderer.distributed.RenderCoordinator;
 import se.llbit.chunky.renderer.export.PictureExportFormat;
+import se.llbit.chunky.renderer.renderdump.DumpMerger;
 import se.llbit.chunky.renderer.scene.AsynchronousSceneManager;
+import se.llbit.chunky.renderer.scene.RenderWriter;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.renderer.scene.SceneFactory;
 import se.llbit.chunky.renderer.scene.SceneManager;
@@ -50,7 +54,10 @@ import se.llbit.util.TaskTracker;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
@@ -118,34 +125,44 @@ public class Chunky {
     SynchronousSceneManager sceneManager = (SynchronousSceneManager) getRenderController()
         .getSceneManager();
     RenderManager renderManager = getRenderController().getRenderManager();
-    TaskTracker taskTracker = new TaskTracker(new ConsoleProgressListener(),
-        (tracker, previous, name, size) -> new TaskTracker.Task(tracker, previous, name, size) {
-          @Override
-          public void close() {
-            super.close();
-            long endTime = System.currentTimeMillis();
-            int seconds = (int) ((endTime - startTime) / 1000);
-            System.out.format("\r%s took %dm %ds%n", name, seconds / 60, seconds % 60);
-          }
-        });
+    TaskTracker taskTracker = headlessTaskTracker();
     sceneManager.setTaskTracker(taskTracker);
     renderManager.setSnapshotControl(SnapshotControl.DEFAULT);
+    // Snapshots and render dumps are written from a copy of the render on a background
+    // thread, so that the render workers do not wait for the files to be written.
+    RenderWriter renderWriter = new RenderWriter(getSceneFactory().newScene());
     renderManager.setOnFrameCompleted((scene, spp) -> {
-      if (renderManager.getSnapshotControl().saveSnapshot(scene, spp)) {
-        scene.saveSnapshot(new File(getRenderContext().getSceneDirectory(), "snapshots"),
-            taskTracker, getRenderContext().numRenderThreads());
-      }
-
-      if (renderManager.getSnapshotControl().saveRenderDump(scene, spp)) {
-        // Save the scene description and current render dump.
+      boolean saveSnapshot = renderManager.getSnapshotControl().saveSnapshot(scene, spp);
+      boolean saveDump = renderManager.getSnapshotControl().saveRenderDump(scene, spp);
+      if (saveSnapshot || saveDump) {
+        File snapshotDirectory = new File(getRenderContext().getSceneDirectory(), "snapshots");
+        int threads = getRenderContext().numRenderThreads();
         try {
-          sceneManager.saveScene();
+          renderWriter.write(scene, render -> {
+            if (saveSnapshot) {
+              render.saveSnapshot(snapshotDirectory, taskTracker, threads);
+            }
+            if (saveDump) {
+              // Save the scene description and current render dump.
+              sceneManager.saveScene(render);
+            }
+          });
         } catch (InterruptedException e) {
           throw new Error(e);
         }
       }
     });
     renderManager.setRenderTask(taskTracker.backgroundTask());
+    RenderStatisticsWriter statisticsWriter = null;
+    if (options.statisticsFile != null) {
+      try {
+        statisticsWriter = new RenderStatisticsWriter(options.statisticsFile);
+        renderManager.addRenderListener(statisticsWriter);
+      } catch (IOException e) {
+        System.err.format("Could not open statistics file (%s)%n", e.getMessage());
+        return 1;
+      }
+    }
     renderManager.setOnRenderCompleted((time, sps) -> {
       System.out.println("Render job finished.");
       int seconds = (int) ((time / 1000) % 60);
@@ -173,6 +190,7 @@ public class Chunky {
 
       renderManager.start();
       renderManager.join();
+      saveHeatmap(sceneManager.getScene(), taskTracker);
       return 0;
     } catch (FileNotFoundException e) {
       System.err.format("Scene \"%s\" not found!%n", options.sceneName);
@@ -187,7 +205,153 @@ public class Chunky {
       e.printStackTrace();
       return 1;
     } finally {
+      renderWriter.close();
       renderManager.shutdown();
+      if (statisticsWriter != null) {
+        try {
+          statisticsWriter.close();
+        } catch (IOException e) {
+          System.err.format("Could not close statistics file (%s)%n", e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Task tracker that prints progress and task durations to the console.
+   */
+  private static TaskTracker headlessTaskTracker() {
+    return new TaskTracker(new ConsoleProgressListener(),
+        (tracker, previous, name, size) -> new TaskTracker.Task(tracker, previous, name, size) {
+          @Override
+          public void close() {
+            super.close();
+            long endTime = System.currentTimeMillis();
+            int seconds = (int) ((endTime - startTime) / 1000);
+            System.out.format("\r%s took %dm %ds%n", name, seconds / 60, seconds % 60);
+          }
+        });
+  }
+
+  /**
+   * Load the scene for a distributed render.
+   *
+   * @return {@code false} if the scene had loading errors and the render should not start
+   */
+  private boolean loadDistributedScene(SynchronousSceneManager sceneManager,
+      HeadlessErrorTrackingLogger logger) throws IOException, InterruptedException {
+    sceneManager.loadScene(options.sceneName);
+    if (logger.getNumErrors() > 0 && !options.force) {
+      System.err.println("\rAborting render due to errors while loading the scene.");
+      System.err.println("Run again with -f to render anyway.");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Distribute a render to worker processes and merge their samples into the scene.
+   *
+   * @return error code
+   */
+  private int doCoordinatorRender() {
+    System.setProperty("java.awt.headless", "true");
+
+    HeadlessErrorTrackingLogger logger = new HeadlessErrorTrackingLogger();
+    Log.setReceiver(logger, Level.INFO, Level.WARNING, Level.ERROR);
+
+    SynchronousSceneManager sceneManager = (SynchronousSceneManager) getRenderController()
+        .getSceneManager();
+    RenderContext context = getRenderContext();
+    TaskTracker taskTracker = headlessTaskTracker();
+    sceneManager.setTaskTracker(taskTracker);
+    try {
+      if (!loadDistributedScene(sceneManager, logger)) {
+        return 1;
+      }
+      Scene scene = sceneManager.getScene();
+      if (options.target != -1) {
+        scene.setTargetSpp(options.target);
+      }
+
+      RenderCoordinator coordinator = new RenderCoordinator(scene, options.batchSpp);
+      coordinator.setRenderTask(taskTracker.backgroundTask());
+      coordinator.setOnBatchMerged((merged, previousSpp) -> {
+        // Batches are not aligned to the dump frequency, so save when a multiple is passed.
+        int frequency = merged.getDumpFrequency();
+        boolean done = merged.spp >= merged.getTargetSpp();
+        boolean dump = done || (merged.shouldSaveDumps()
+            && merged.spp / frequency > previousSpp / frequency);
+        if (done || (dump && merged.shouldSaveSnapshots())) {
+          merged.postProcessFrame(taskTracker);
+          merged.saveSnapshot(new File(context.getSceneDirectory(), "snapshots"),
+              taskTracker, context.numRenderThreads());
+        }
+        if (dump) {
+          try (OutputStream out = context.getSceneDescriptionOutputStream(merged.name)) {
+            merged.saveDescription(out);
+          } catch (IOException e) {
+            Log.warn("Failed to save the scene description", e);
+          }
+          merged.saveDump(context, taskTracker);
+        }
+      });
+
+      try (ServerSocket server = new ServerSocket(options.coordinatorPort)) {
+        System.out.format("Waiting for render workers on port %d.%n", server.getLocalPort());
+        coordinator.run(server);
+      }
+      System.out.println("Render job finished.");
+      return 0;
+    } catch (FileNotFoundException e) {
+      System.err.format("Scene \"%s\" not found!%n", options.sceneName);
+      return 1;
+    } catch (IOException e) {
+      System.err.format("IO error in render coordinator (%s)%n", e.getMessage());
+      e.printStackTrace();
+      return 1;
+    } catch (InterruptedException e) {
+      System.err.println("Interrupted while rendering");
+      return 1;
+    } finally {
+      getRenderController().getRenderManager().shutdown();
+    }
+  }
+
+  /**
+   * Render batches of a distributed render for a coordinator.
+   *
+   * @return error code
+   */
+  private int doWorkerRender() {
+    System.setProperty("java.awt.headless", "true");
+
+    HeadlessErrorTrackingLogger logger = new HeadlessErrorTrackingLogger();
+    Log.setReceiver(logger, Level.INFO, Level.WARNING, Level.ERROR);
+
+    SynchronousSceneManager sceneManager = (SynchronousSceneManager) getRenderController()
+        .getSceneManager();
+    sceneManager.setTaskTracker(headlessTaskTracker());
+    try {
+      if (!loadDistributedScene(sceneManager, logger)) {
+        return 1;
+      }
+      DistributedRenderWorker worker =
+          new DistributedRenderWorker(getRenderContext(), sceneManager.getScene());
+      worker.run(options.coordinatorHost, options.coordinatorPort);
+      return 0;
+    } catch (FileNotFoundException e) {
+      System.err.format("Scene \"%s\" not found!%n", options.sceneName);
+      return 1;
+    } catch (IOException e) {
+      System.err.format("IO error in render worker (%s)%n", e.getMessage());
+      e.printStackTrace();
+      return 1;
+    } catch (InterruptedException e) {
+      System.err.println("Interrupted while rendering");
+      return 1;
+    } finally {
+      getRenderController().getRenderManager().shutdown();
     }
   }
 
@@ -209,7 +373,9 @@ public class Chunky {
       commonThreads = new ForkJoinPool(PersistentSettings.getNumThreads());
 
       Chunky chunky = new Chunky(cmdline.options);
-      chunky.headless = cmdline.mode == Mode.HEADLESS_RENDER || cmdline.mode == Mode.SNAPSHOT;
+      chunky.headless = cmdline.mode == Mode.HEADLESS_RENDER || cmdline.mode == Mode.SNAPSHOT
+          || cmdline.mode == Mode.COORDINATOR || cmdline.mode == Mode.WORKER
+          || cmdline.mode == Mode.MERGE_DUMPS;
       chunky.loadPlugins();
 
       try {
@@ -220,6 +386,15 @@ public class Chunky {
           case SNAPSHOT:
             exitCode = chunky.doSnapshot();
             break;
+          case COORDINATOR:
+            exitCode = chunky.doCoordinatorRender();
+            break;
+          case WORKER:
+            exitCode = chunky.doWorkerRender();
+            break;
+          case MERGE_DUMPS:
+            exitCode = chunky.doMergeDumps();
+            break;
           case DEFAULT:
             ChunkyFx.startChunkyUI(chunky);
             break;
@@ -280,6 +455,30 @@ public class Chunky {
     }
   }
 
+  /**
+   * Save the heatmap of a headless render with a heatmap renderer to the snapshot directory.
+   * Heatmap renderers do not change the render, so no snapshots are saved while rendering.
+   */
+  private void saveHeatmap(Scene scene, TaskTracker taskTracker) {
+    Renderer renderer = DefaultRenderManager.renderers.get(scene.getRenderer());
+    if (renderer instanceof CostHeatmapRenderer) {
+      CostHeatmapRenderer heatmap = (CostHeatmapRenderer) renderer;
+      File snapshotDirectory = new File(getRenderContext().getSceneDirectory(), "snapshots");
+      if (!snapshotDirectory.exists()) {
+        snapshotDirectory.mkdirs();
+      }
+      PictureExportFormat format = scene.getOutputMode();
+      File file = new File(snapshotDirectory, String.format("%s-%s-%d%s", scene.name(),
+          renderer.getId(), heatmap.getHeatmapSpp(), format.getExtension()));
+      try {
+        heatmap.saveHeatmap(file, format, taskTracker);
+        Log.info("Saved heatmap to " + file.getAbsolutePath());
+      } catch (IOException e) {
+        Log.warn("Failed to save heatmap: " + file.getAbsolutePath(), e);
+      }
+    }
+  }
+
   /**
    * Save a snapshot for a scene.
    *
@@ -324,6 +523,49 @@ public class Chunky {
     }
   }
 
+  /**
+   * Merge render dumps into the render dump of the scene, without loading the world.
+   * If an image output file is given the merged image is also saved.
+   *
+   * @return the exit code
+   */
+  private int doMergeDumps() {
+    Log.setReceiver(HEADLESS_LOG_RECEIVER, Level.INFO, Level.WARNING, Level.ERROR);
+    try {
+      File file = options.getSceneDescriptionFile();
+      Scene scene = new Scene();
+      try (FileInputStream in = new FileInputStream(file)) {
+        scene.loadDescription(in); // Load description to get current SPP & canvas size.
+      }
+      RenderContext context = new RenderContext(this);
+      context.setSceneDirectory(file.getParentFile());
+      TaskTracker taskTracker = new TaskTracker(new ConsoleProgressListener(),
+          TaskTracker.Task::new,
+          (tracker, previous, name, size) -> new TaskTracker.Task(tracker, previous, name, size) {
+            @Override
+            public void update() {
+              // Don't report task state to progress listener.
+            }
+          });
+      scene.loadDump(context, taskTracker); // Starts from zero spp if the scene has no dump.
+      Log.info("Original scene SPP: " + scene.spp);
+      DumpMerger.merge(scene, options.mergeDumps, taskTracker);
+      Log.info("Current scene SPP: " + scene.spp);
+      scene.saveDump(context, taskTracker);
+      try (FileOutputStream out = new FileOutputStream(file)) {
+        scene.saveDescription(out);
+      }
+      if (!options.imageOutputFile.isEmpty()) {
+        scene.saveFrame(new File(options.imageOutputFile), taskTracker, context.numRenderThreads());
+        System.out.println("Saved image to " + options.imageOutputFile);
+      }
+      return 0;
+    } catch (IOException | IllegalStateException e) {
+      System.err.println("Failed to merge render dumps: " + e.getMessage());
+      return 1;
+    }
+  }
+
   /**
    * Get the common thread pool. This should only be used for parallelized processing, not for wait tasks.
    */
@@ -21,6 +21,8 @@ import se.llbit.chunky.renderer.RenderConstants;
 import se.llbit.chunky.renderer.scene.Scene;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Various options for Chunky, set via the configuration file and/or command-line flags.
@@ -42,9 +44,39 @@ public class ChunkyOptions {
   public int tileWidth = RenderConstants.TILE_WIDTH_DEFAULT;
   public int sppPerPass = RenderConstants.SPP_PER_PASS_DEFAULT;
 
+  /**
+   * Target duration of a render pass in milliseconds. When set, the samples
+   * per pixel per pass are tuned from the measured pass time. Zero to always
+   * render {@link #sppPerPass} samples per pass.
+   */
+  public int passTime = 0;
+
+  /**
+   * Collect render statistics for each pass, see {@link se.llbit.chunky.renderer.RenderStatistics}.
+   */
+  public boolean collectStatistics = false;
+
+  /** File to append the render statistics to as JSON lines during headless renders. */
+  public File statisticsFile = null;
+
+  /** Use the work-stealing render worker pool. */
+  public boolean workStealing = false;
+
   /** Ignore scene loading errors when starting a headless render. */
   public boolean force = false;
 
+  /** Host of the render coordinator, for render workers. */
+  public String coordinatorHost = null;
+
+  /** Port the render coordinator listens on. */
+  public int coordinatorPort = -1;
+
+  /** Samples per pixel in each batch of a distributed render. */
+  public int batchSpp = 16;
+
+  /** Render dumps to merge into the scene. */
+  public List<File> mergeDumps = Collections.emptyList();
+
   private ChunkyOptions() {
   }
 
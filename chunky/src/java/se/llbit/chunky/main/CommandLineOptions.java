@@ -55,6 +55,9 @@ public class CommandLineOptions {
     NOTHING,
     HEADLESS_RENDER,
     SNAPSHOT,
+    COORDINATOR,
+    WORKER,
+    MERGE_DUMPS,
   }
 
   /**
@@ -69,6 +72,9 @@ public class CommandLineOptions {
           "  -threads <NUM>         use the specified number of threads for rendering",
           "  -tile-width <NUM>      use the specified tile width for rendering",
           "  -spp-per-pass <NUM>    use the specified samples per pixel per pass for rendering",
+          "  -pass-time <MS>        tune the samples per pixel per pass toward passes of MS milliseconds",
+          "  -stats <FILE>          append render pass statistics as JSON lines to FILE",
+          "  -work-stealing         use per-thread work queues with work stealing for rendering",
           "  -target <NUM>          override target SPP to be NUM in headless mode",
           "  -set <NAME> <VALUE>    set a global configuration option and exit",
           "  -set <NAME> <VALUE> <SCENE>",
@@ -79,6 +85,16 @@ public class CommandLineOptions {
           "  -list-scenes           print a list of all scenes in the scene directory",
           "  -merge-dump <SCENE> <PATH>",
           "                         merge a render dump into the given scene",
+          "  -merge-dumps <SCENE> <PATH>...",
+          "                         merge any number of render dumps into the given scene",
+          "                         without loading the world",
+          "  -image <FILE>          with -merge-dumps, also save the merged image to FILE",
+          "  -coordinator <SCENE> <PORT>",
+          "                         distribute the render of a scene to workers",
+          "                         connecting to PORT",
+          "  -worker <SCENE> <HOST:PORT>",
+          "                         render batches of a scene for a coordinator",
+          "  -batch-spp <NUM>       samples per pixel in each batch of a distributed render",
           "  -help                  show this text", "", "Notes:",
           "<SCENE> can be either the path to a Scene Description File ("
               + Scene.EXTENSION + "),",
@@ -109,6 +125,11 @@ public class CommandLineOptions {
 
   protected ChunkyOptions options = ChunkyOptions.getDefaults();
 
+  /**
+   * The image file given with -image. This is only used by -merge-dumps.
+   */
+  private String mergeImageFile = null;
+
   static class Range {
     public final int start;
     public final int end;
@@ -207,6 +228,29 @@ public class CommandLineOptions {
           configurationError = true;
         });
 
+    registerOption("-coordinator", new Range(2), arguments -> {
+      mode = Mode.COORDINATOR;
+      options.sceneName = arguments.get(0);
+      options.coordinatorPort = parsePort(arguments.get(1));
+    });
+
+    registerOption("-worker", new Range(2), arguments -> {
+      mode = Mode.WORKER;
+      options.sceneName = arguments.get(0);
+      String address = arguments.get(1);
+      int colon = address.lastIndexOf(':');
+      if (colon <= 0) {
+        System.err.println("Expected coordinator address as HOST:PORT, got " + address);
+        configurationError = true;
+        return;
+      }
+      options.coordinatorHost = address.substring(0, colon);
+      options.coordinatorPort = parsePort(address.substring(colon + 1));
+    });
+
+    registerOption("-batch-spp", new Range(1),
+        arguments -> options.batchSpp = Math.max(1, Integer.parseInt(arguments.get(0))));
+
     registerOption("-f", new Range(0), arguments -> {
       options.force = true;
     });
@@ -223,6 +267,16 @@ public class CommandLineOptions {
     registerOption("-spp-per-pass", new Range(1),
         arguments -> options.sppPerPass = Math.max(1, Integer.parseInt(arguments.get(0))));
 
+    registerOption("-pass-time", new Range(1),
+        arguments -> options.passTime = Math.max(0, Integer.parseInt(arguments.get(0))));
+
+    registerOption("-stats", new Range(1), arguments -> {
+      options.collectStatistics = true;
+      options.statisticsFile = new File(arguments.get(0));
+    });
+
+    registerOption("-work-stealing", new Range(0), arguments -> options.workStealing = true);
+
     registerOption("-version", new Range(0), arguments -> {
       mode = Mode.NOTHING;
       System.out.println("Chunky " + Version.getVersion());
@@ -395,6 +449,24 @@ public class CommandLineOptions {
       }
     });
 
+    registerOption("-merge-dumps", new Range(2, Integer.MAX_VALUE), arguments -> {
+      mode = Mode.MERGE_DUMPS;
+      options.sceneName = arguments.get(0);
+      List<File> dumps = new ArrayList<>();
+      for (String dumpPath : arguments.subList(1, arguments.size())) {
+        File dumpfile = new File(dumpPath);
+        if (!dumpfile.isFile()) {
+          Log.error("Not a valid render dump file: " + dumpPath);
+          configurationError = true;
+          return;
+        }
+        dumps.add(dumpfile);
+      }
+      options.mergeDumps = dumps;
+    });
+
+    registerOption("-image", new Range(1), arguments -> mergeImageFile = arguments.get(0));
+
     // When mode is set to Mode.NOTHING, then an option handler has performed
     // something and we should quit.
     // If configurationError is set to true then an option handler encountered an
@@ -421,6 +493,16 @@ public class CommandLineOptions {
       }
     }
 
+    if (mergeImageFile != null && !configurationError && mode != Mode.NOTHING) {
+      if (mode == Mode.MERGE_DUMPS) {
+        options.imageOutputFile = mergeImageFile;
+      } else {
+        System.err.println("The -image option can only be used with -merge-dumps.");
+        printUsage();
+        configurationError = true;
+      }
+    }
+
     if (options.sceneName != null
         && options.sceneName.endsWith(Scene.EXTENSION)) {
       File possibleSceneFile = new File(options.sceneName);
@@ -432,7 +514,8 @@ public class CommandLineOptions {
       }
     }
 
-    if (!configurationError && mode != Mode.NOTHING && mode != Mode.SNAPSHOT) {
+    if (!configurationError && mode != Mode.NOTHING && mode != Mode.SNAPSHOT
+        && mode != Mode.MERGE_DUMPS) {
       if (options.texturePack == null || options.texturePack.isEmpty()) {
         options.texturePack = PersistentSettings.getLastTexturePack();
       }
@@ -462,6 +545,19 @@ public class CommandLineOptions {
     optionHandlers.put(flag, handler);
   }
 
+  private int parsePort(String port) {
+    try {
+      int value = Integer.parseInt(port);
+      if (value >= 0 && value <= 0xFFFF) {
+        return value;
+      }
+    } catch (NumberFormatException ignored) {
+    }
+    System.err.println("Invalid port number: " + port);
+    configurationError = true;
+    return -1;
+  }
+
   private void printAvailableScenes() {
     System.err.println("Scene directory: " + options.sceneDir.getAbsolutePath());
     List<File> fileList = SceneHelper.getAvailableSceneFiles(options.sceneDir);
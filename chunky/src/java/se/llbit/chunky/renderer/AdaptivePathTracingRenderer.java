@@ -0,0 +1,231 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.chunky.renderer.scene.CropWindow;
+import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.TileSpp;
+import se.llbit.log.Log;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A path tracing renderer that stops rendering tiles once they are converged.
+ *
+ * <p>For every pixel the renderer keeps the sum and the sum of squares of the
+ * luminance of each pass. From these it estimates the relative standard error
+ * of the pixel. A tile is converged when the average error of its pixels is
+ * below the noise threshold of the scene, after which it is no longer rendered.
+ * Rendering stops when all tiles are converged or when the target spp is reached.
+ *
+ * <p>{@code scene.spp} counts the passes rendered by the tiles that are still
+ * active, so converged tiles have fewer samples than {@code scene.spp}. The
+ * sample buffer always holds the average of the samples each pixel received.
+ * The samples of each tile are recorded in the {@link TileSpp} of the scene,
+ * which is saved with the render dump, so that a resumed render merges new
+ * samples with the right weight. The error of each tile is saved with the tile
+ * samples, so that tiles that were converged stay converged in a resumed render.
+ *
+ * <p>When all tiles are converged the render is completed early, see
+ * {@link DefaultRenderManager#completeRender()}.
+ */
+public class AdaptivePathTracingRenderer extends PathTracingRenderer {
+  /**
+   * Number of passes a tile renders before its error is estimated.
+   */
+  private static final int MIN_PASSES = 4;
+
+  /**
+   * Added to the mean luminance when estimating the relative error, so that the
+   * error of dark pixels is bounded: 0.01 is 1% of the luminance of a white surface.
+   */
+  private static final double DARK_LUMINANCE = 0.01;
+
+  private static class TileState {
+    final RenderTile tile;
+
+    /** Samples per pixel merged into the sample buffer for this tile. */
+    int spp;
+
+    /** Number of passes accumulated in the moment buffer for this tile. */
+    int passes = 0;
+
+    /** Average relative error of the pixels in this tile. */
+    double error = Double.POSITIVE_INFINITY;
+
+    /**
+     * Error saved with the render dump this tile was loaded from. The moments are
+     * not saved, so it is only used until the tile is rendered again.
+     */
+    final double loadedError;
+
+    TileState(RenderTile tile, int spp, double loadedError) {
+      this.tile = tile;
+      this.spp = spp;
+      this.loadedError = loadedError;
+    }
+
+    boolean isConverged(double threshold) {
+      if (passes == 0) {
+        return loadedError < threshold;
+      }
+      return passes >= MIN_PASSES && error < threshold;
+    }
+
+    /**
+     * @return the error to save with the tile samples, infinite if it is not known
+     */
+    double savedError() {
+      if (passes == 0) {
+        return loadedError;
+      }
+      return passes >= MIN_PASSES ? error : Double.POSITIVE_INFINITY;
+    }
+  }
+
+  private TileState[] tileStates = new TileState[0];
+
+  /**
+   * Sum and sum of squares of the pass luminance, two values per pixel.
+   */
+  private double[] moments = new double[0];
+
+  /** The sample buffer the tile states belong to. */
+  private SampleBuffer stateSampleBuffer = null;
+
+  /** The crop window the tile states belong to. */
+  private CropWindow stateCrop = null;
+
+  /** The spp at the end of the last render, used to detect a reset render. */
+  private int stateSpp = -1;
+
+  public AdaptivePathTracingRenderer(String id, String name, String description,
+      RayTracer tracer) {
+    super(id, name, description, tracer);
+  }
+
+  @Override
+  public void render(DefaultRenderManager manager) throws InterruptedException {
+    Scene scene = manager.bufferedScene;
+    int width = scene.width;
+    int sppPerPass = manager.context.sppPerPass();
+    double halfWidth = width / (2.0 * scene.height);
+    double invHeight = 1.0 / scene.height;
+    int tileWidth = manager.context.tileWidth();
+    SampleBuffer sampleBuffer = scene.getSamples();
+
+    List<RenderTile> tiles = getTiles(manager);
+    if (sampleBuffer != stateSampleBuffer || scene.getRenderSpp() != stateSpp
+        || tiles.size() != tileStates.length || !Objects.equals(scene.getCropWindow(), stateCrop)) {
+      // The render was reset or a different render was loaded. A loaded render
+      // dump may have converged tiles with fewer samples than the frame.
+      int[] tileSpp = scene.getTileSpp().get(scene.getRenderSpp(), tileWidth, tiles.size());
+      double[] tileError = scene.getTileSpp().getError(scene.getRenderSpp(), tileWidth, tiles.size());
+      tileStates = new TileState[tiles.size()];
+      for (int i = 0; i < tileStates.length; ++i) {
+        tileStates[i] = new TileState(tiles.get(i),
+            tileSpp != null ? tileSpp[i] : scene.getRenderSpp(),
+            tileError != null ? tileError[i] : Double.POSITIVE_INFINITY);
+      }
+      moments = new double[2 * width * scene.height];
+      stateSampleBuffer = sampleBuffer;
+      stateCrop = scene.getCropWindow();
+    }
+
+    try {
+      while (scene.getRenderSpp() < scene.getTargetSpp()) {
+        double threshold = scene.getNoiseThreshold();
+        int active = 0;
+        for (TileState tile : tileStates) {
+          if (!tile.isConverged(threshold)) {
+            active += 1;
+            manager.pool.submit(worker -> renderTile(scene, createWorkerState(worker), tile,
+                sampleBuffer, sppPerPass, halfWidth, invHeight));
+          }
+        }
+        if (active == 0) {
+          Log.infof("All tiles converged at %d spp.", scene.getRenderSpp());
+          manager.completeRender();
+          break;
+        }
+
+        manager.pool.awaitEmpty();
+        scene.setRenderSpp(scene.getRenderSpp() + sppPerPass);
+        stateSpp = scene.getRenderSpp();
+        recordTileSpp(scene.getTileSpp(), scene.getRenderSpp(), tileWidth);
+        if (postRender.getAsBoolean()) break;
+      }
+    } finally {
+      stateSpp = scene.getRenderSpp();
+    }
+  }
+
+  private void recordTileSpp(TileSpp tileSpp, int frameSpp, int tileWidth) {
+    int[] spp = new int[tileStates.length];
+    double[] error = new double[tileStates.length];
+    for (int i = 0; i < spp.length; ++i) {
+      spp[i] = tileStates[i].spp;
+      error[i] = tileStates[i].savedError();
+    }
+    tileSpp.set(frameSpp, tileWidth, spp, error);
+  }
+
+  /**
+   * Render one pass of a tile and update the error estimate of the tile.
+   */
+  private void renderTile(Scene scene, WorkerState state, TileState tile, SampleBuffer sampleBuffer,
+      int sppPerPass, double halfWidth, double invHeight) {
+    RenderTile t = tile.tile;
+    int width = scene.width;
+    int spp = tile.spp;
+    int passes = tile.passes + 1;
+    double passinv = 1.0 / sppPerPass;
+    double errorSum = 0;
+
+    for (int x = t.x0; x < t.x1; x++) {
+      for (int y = t.y0; y < t.y1; y++) {
+        samplePixel(scene, state, x, y, spp, sppPerPass, halfWidth, invHeight);
+        double sr = state.sampleSum.x * passinv;
+        double sg = state.sampleSum.y * passinv;
+        double sb = state.sampleSum.z * passinv;
+
+        int pixel = y * width + x;
+        sampleBuffer.mergeSamples(pixel, spp, sppPerPass, state.sampleSum.x, state.sampleSum.y,
+            state.sampleSum.z);
+
+        double luminance = 0.2126 * sr + 0.7152 * sg + 0.0722 * sb;
+        double sum = moments[2 * pixel] += luminance;
+        double sumSquares = moments[2 * pixel + 1] += luminance * luminance;
+        if (passes > 1) {
+          double mean = sum / passes;
+          double variance = Math.max(0, (sumSquares - sum * mean) / (passes - 1));
+          // Relative standard error of the mean.
+          errorSum += Math.sqrt(variance / passes) / (mean + DARK_LUMINANCE);
+        }
+      }
+    }
+
+    // Only this job writes the tile state during a pass. The pool barrier makes
+    // the update visible to the render thread.
+    tile.spp = spp + sppPerPass;
+    tile.passes = passes;
+    tile.error = errorSum / ((t.x1 - t.x0) * (t.y1 - t.y0));
+  }
+}
@@ -0,0 +1,295 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.chunky.renderer.export.PictureExportFormat;
+import se.llbit.chunky.renderer.postprocessing.PostProcessingFilters;
+import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.math.ColorUtil;
+import se.llbit.util.TaskTracker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A diagnostic renderer that path traces the scene like {@link PathTracingRenderer} but
+ * shows the cost of each pixel instead of its color, as a false-color heatmap.
+ *
+ * <p>The cost of a pixel is the average cost per sample of all passes, measured with one
+ * of the {@link Metric}s. Costs are mapped to colors on a logarithmic scale between the
+ * cheapest and the most expensive pixel of the frame, from dark blue to red.
+ *
+ * <p>The heatmap is kept in a buffer of this renderer and has its own sample count, which
+ * is rendered up to the target SPP of the scene. The samples and the SPP of the scene are
+ * not changed and no frames are saved, so a heatmap can be rendered for a finished render
+ * without losing it. The heatmap is shown on top of the current frame and can be saved
+ * with any of the picture export formats by {@link #saveHeatmap}.
+ */
+public class CostHeatmapRenderer extends PathTracingRenderer {
+  public enum Metric {
+    /** Wall time per sample in nanoseconds. */
+    TIME,
+
+    /** Octree leaves visited per sample. */
+    OCTREE_STEPS,
+
+    /** Rays traced per sample, including the camera ray. */
+    BOUNCES,
+  }
+
+  /**
+   * Heatmap color ramp, from the cheapest to the most expensive pixels.
+   */
+  private static final double[][] RAMP = {
+      { 0.0, 0.0, 0.3 },
+      { 0.0, 0.3, 1.0 },
+      { 0.0, 0.9, 0.6 },
+      { 0.9, 0.9, 0.0 },
+      { 1.0, 0.1, 0.0 },
+  };
+
+  private final Metric metric;
+
+  /** Average cost per sample of each pixel. */
+  private double[] costs = new double[0];
+
+  /**
+   * The heatmap colors. Only the canvas of this scene is used, so that the
+   * heatmap can be written by the picture export formats.
+   */
+  private Scene heatmap = null;
+
+  /** Samples per pixel of the heatmap. */
+  private int heatmapSpp = 0;
+
+  public CostHeatmapRenderer(String id, String name, String description, RayTracer tracer,
+      Metric metric) {
+    super(id, name, description, tracer);
+    this.metric = metric;
+  }
+
+  public Metric getMetric() {
+    return metric;
+  }
+
+  @Override
+  public boolean rendersSamples() {
+    return false;
+  }
+
+  @Override
+  public synchronized void sceneReset(DefaultRenderManager manager, ResetReason reason,
+      int resetCount) {
+    if (reason.overwriteState()) {
+      heatmap = null;
+    }
+  }
+
+  @Override
+  public void render(DefaultRenderManager manager) throws InterruptedException {
+    Scene scene = manager.bufferedScene;
+    int width = scene.width;
+    int height = scene.height;
+
+    double halfWidth = width / (2.0 * height);
+    double invHeight = 1.0 / height;
+
+    synchronized (this) {
+      if (heatmap == null || heatmap.width != width || heatmap.height != height) {
+        heatmap = createHeatmap(width, height);
+        costs = new double[width * height];
+        heatmapSpp = 0;
+      }
+    }
+    double[] costs = this.costs;
+
+    // The current frame is shown where there are no costs, for example outside the crop window.
+    int[] frame;
+    synchronized (scene) {
+      scene.postProcessFrame(TaskTracker.Task.NONE);
+      frame = scene.getBackBuffer().data.clone();
+    }
+
+    int target = scene.getTargetSpp();
+    while (heatmapSpp < target) {
+      int spp = heatmapSpp;
+      int sppPerPass = Math.min(manager.context.sppPerPass(), target - spp);
+      submitTiles(manager, (state, pixel) -> {
+        int x = pixel.firstInt();
+        int y = pixel.secondInt();
+
+        RenderStatistics statistics = state.statistics;
+        long steps = statistics.octreeSteps;
+        long rays = statistics.getTotalRays();
+        long start = System.nanoTime();
+        samplePixel(scene, state, x, y, spp, sppPerPass, halfWidth, invHeight, false);
+        double cost;
+        switch (metric) {
+          case OCTREE_STEPS:
+            cost = statistics.octreeSteps - steps;
+            break;
+          case BOUNCES:
+            cost = statistics.getTotalRays() - rays;
+            break;
+          default:
+            cost = System.nanoTime() - start;
+            break;
+        }
+        int index = y * width + x;
+        costs[index] = (costs[index] * spp + cost) / (spp + sppPerPass);
+      });
+
+      manager.pool.awaitEmpty();
+      synchronized (this) {
+        heatmapSpp = spp + sppPerPass;
+        writeHeatmap(costs, heatmap.getSamples());
+      }
+      showHeatmap(manager, costs, frame);
+      manager.getRenderTask().update("Rendering heatmap", target, heatmapSpp);
+      if (manager.pollSceneStateChange()) {
+        return;
+      }
+    }
+    manager.pauseRender();
+  }
+
+  @Override
+  protected WorkerState createWorkerState(RenderWorkerPool.RenderWorker worker) {
+    WorkerState state = super.createWorkerState(worker);
+    if (state.statistics == null) {
+      // The worker does not collect statistics for the render manager. The costs
+      // are measured with counters private to this tile.
+      state.statistics = new RenderStatistics();
+    }
+    return state;
+  }
+
+  /**
+   * @return the samples per pixel of the current heatmap
+   */
+  public synchronized int getHeatmapSpp() {
+    return heatmap != null ? heatmapSpp : 0;
+  }
+
+  /**
+   * @return the heatmap colors, or {@code null} if no heatmap has been rendered
+   */
+  public synchronized SampleBuffer getHeatmapSamples() {
+    return heatmap != null ? heatmap.getSamples() : null;
+  }
+
+  /**
+   * Write the current heatmap into the given output stream, using the given format.
+   */
+  public synchronized void writeHeatmap(OutputStream out, PictureExportFormat format,
+      TaskTracker taskTracker) throws IOException {
+    if (heatmap == null) {
+      throw new IOException("No heatmap has been rendered.");
+    }
+    heatmap.postProcessFrame(taskTracker);
+    format.write(out, heatmap, taskTracker);
+  }
+
+  /**
+   * Save the current heatmap (e.g. as a PNG, TIFF, or PFM image), using the given format.
+   */
+  public void saveHeatmap(File targetFile, PictureExportFormat format, TaskTracker taskTracker)
+      throws IOException {
+    try (FileOutputStream out = new FileOutputStream(targetFile)) {
+      writeHeatmap(out, format, taskTracker);
+    }
+  }
+
+  private static Scene createHeatmap(int width, int height) {
+    Scene heatmap = new Scene();
+    heatmap.setRenderMode(RenderMode.PAUSED);
+    heatmap.setPostprocess(PostProcessingFilters.NONE);
+    heatmap.setCanvasSize(width, height);
+    if (heatmap.getSamples() == null) {
+      heatmap.initBuffers();
+    }
+    return heatmap;
+  }
+
+  /**
+   * Draw the heatmap over the given frame, where there are costs, and show it on the canvas.
+   */
+  private void showHeatmap(DefaultRenderManager manager, double[] costs, int[] frame) {
+    Scene scene = manager.bufferedScene;
+    synchronized (this) {
+      SampleBuffer samples = heatmap.getSamples();
+      double[] rgb = new double[3];
+      synchronized (scene) {
+        int[] pixels = scene.getBackBuffer().data;
+        for (int i = 0; i < costs.length; ++i) {
+          if (costs[i] > 0) {
+            for (int cc = 0; cc < 3; ++cc) {
+              rgb[cc] = samples.get(i, cc);
+            }
+            pixels[i] = ColorUtil.getRGB(rgb);
+          } else {
+            pixels[i] = frame[i];
+          }
+        }
+      }
+    }
+    manager.redrawScreen();
+  }
+
+  /**
+   * Write the heatmap colors of the given costs to the sample buffer.
+   * Pixels without cost, for example outside the crop window, are black.
+   */
+  static void writeHeatmap(double[] costs, SampleBuffer sampleBuffer) {
+    double min = Double.POSITIVE_INFINITY;
+    double max = 0;
+    for (double cost : costs) {
+      if (cost > 0) {
+        min = Math.min(min, cost);
+        max = Math.max(max, cost);
+      }
+    }
+    double logMin = Math.log(min);
+    double logRange = Math.log(max) - logMin;
+    double[] rgb = new double[3];
+    for (int i = 0; i < costs.length; ++i) {
+      if (costs[i] > 0) {
+        double t = logRange > 0 ? (Math.log(costs[i]) - logMin) / logRange : 1;
+        heatmapColor(t, rgb);
+        sampleBuffer.setPixel(i, rgb[0], rgb[1], rgb[2]);
+      } else {
+        sampleBuffer.setPixel(i, 0, 0, 0);
+      }
+    }
+  }
+
+  /**
+   * @param t the relative cost, from zero for the cheapest to one for the most expensive pixels
+   */
+  static void heatmapColor(double t, double[] rgb) {
+    double position = Math.max(0, Math.min(1, t)) * (RAMP.length - 1);
+    int i = Math.min((int) position, RAMP.length - 2);
+    double f = position - i;
+    for (int cc = 0; cc < 3; ++cc) {
+      rgb[cc] = RAMP[i][cc] * (1 - f) + RAMP[i + 1][cc] * f;
+    }
+  }
+}
@@ -23,6 +23,7 @@ import se.llbit.chunky.renderer.postprocessing.PostProcessingFilter;
 import se.llbit.chunky.renderer.postprocessing.PreviewFilter;
 import se.llbit.chunky.renderer.scene.PathTracer;
 import se.llbit.chunky.renderer.scene.PreviewRayTracer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.log.Log;
@@ -71,10 +72,32 @@ public class DefaultRenderManager extends Thread implements RenderManager {
    */
   public static final String ChunkyPathTracerID = "PathTracingRenderer";
   public static final String ChunkyPreviewID = "PreviewRenderer";
+  public static final String ChunkyStreamingPathTracerID = "StreamingPathTracingRenderer";
+  public static final String ChunkyAdaptivePathTracerID = "AdaptivePathTracingRenderer";
+  public static final String ChunkyTimeHeatmapID = "TimeHeatmapRenderer";
+  public static final String ChunkyOctreeStepsHeatmapID = "OctreeStepsHeatmapRenderer";
+  public static final String ChunkyBouncesHeatmapID = "BouncesHeatmapRenderer";
 
   static {
     addRenderer(new PathTracingRenderer(ChunkyPathTracerID, "Chunky Path Tracer",
         "A photorealistic Path Tracing renderer.", new PathTracer()));
+    addRenderer(new StreamingPathTracingRenderer(ChunkyStreamingPathTracerID,
+        "Chunky Streaming Path Tracer",
+        "Path Tracing renderer where tiles render passes independently, without waiting for the slowest tile.",
+        new PathTracer()));
+    addRenderer(new AdaptivePathTracingRenderer(ChunkyAdaptivePathTracerID,
+        "Chunky Adaptive Path Tracer",
+        "Path Tracing renderer that stops rendering tiles when their noise is below the noise threshold.",
+        new PathTracer()));
+    addRenderer(new CostHeatmapRenderer(ChunkyTimeHeatmapID, "Render Time Heatmap",
+        "Shows the render time per sample of each pixel as a heatmap.",
+        new PathTracer(), CostHeatmapRenderer.Metric.TIME));
+    addRenderer(new CostHeatmapRenderer(ChunkyOctreeStepsHeatmapID, "Octree Steps Heatmap",
+        "Shows the octree leaves visited per sample of each pixel as a heatmap.",
+        new PathTracer(), CostHeatmapRenderer.Metric.OCTREE_STEPS));
+    addRenderer(new CostHeatmapRenderer(ChunkyBouncesHeatmapID, "Ray Bounces Heatmap",
+        "Shows the rays traced per sample of each pixel as a heatmap.",
+        new PathTracer(), CostHeatmapRenderer.Metric.BOUNCES));
     addPreviewRenderer(new PreviewRenderer(ChunkyPreviewID, "Chunky Preview",
         "A simple ray marching preview renderer.", new PreviewRayTracer()));
   }
@@ -90,8 +113,9 @@ public class DefaultRenderManager extends Thread implements RenderManager {
    * The buffered scene is only updated when the workers are quiescent.
    *
    * Render workers should:
-   *  * Increment {@code bufferedScene.spp} after rendering each frame
-   *  * Merge the new frame with {@code bufferedScene.getSampleBuffer()}
+   *  * Increment {@code bufferedScene.getRenderSpp()} after rendering each frame, using
+   *    {@code setRenderSpp()} so that crop window renders keep the spp of the full frame
+   *  * Merge the new frame with {@code bufferedScene.getSamples()}
    *
    * Render workers should not otherwise modify this.
    */
@@ -141,6 +165,9 @@ public class DefaultRenderManager extends Thread implements RenderManager {
 
   private long frameStart;
 
+  /** Start of the current render pass from {@code System.nanoTime()}, for render statistics. */
+  private long passStart;
+
   /**
    * Decides if render threads shut down after reaching the target SPP.
    */
@@ -186,6 +213,7 @@ public class DefaultRenderManager extends Thread implements RenderManager {
 
     // Create a new pool. Set the seed to the current time in milliseconds.
     this.pool = context.renderPoolFactory.create(context.numRenderThreads(), System.currentTimeMillis());
+    pool.setCollectStatistics(context.collectStatistics());
 
     // Initialize callbacks here since java will complain `bufferedScene` is not initialized yet.
     // (nothing important in the rest of the constructor)
@@ -207,6 +235,9 @@ public class DefaultRenderManager extends Thread implements RenderManager {
 
     this.renderCallback = () -> {
       long elapsedTime = System.currentTimeMillis() - frameStart;
+      if (pool.collectsStatistics()) {
+        sendRenderStatistics(System.nanoTime() - passStart);
+      }
 
       sceneProvider.withSceneProtected(scene -> {
         synchronized (bufferedScene) {
@@ -220,16 +251,16 @@ public class DefaultRenderManager extends Thread implements RenderManager {
 
         this.finalizeFrame(getRenderer().autoPostProcess() && finalizeAllFrames);
 
-        frameCompletionListener.accept(bufferedScene, bufferedScene.spp);
+        frameCompletionListener.accept(bufferedScene, bufferedScene.getRenderSpp());
         updateRenderProgress();
 
-        if (bufferedScene.spp > bufferedScene.getTargetSpp()) {
+        if (bufferedScene.getRenderSpp() > bufferedScene.getTargetSpp()) {
           renderCompletionListener.accept(bufferedScene.renderTime, samplesPerSecond());
           return true;
         }
       }
 
-      frameStart = System.currentTimeMillis();
+      startPass();
       return mode == RenderMode.PAUSED || sceneProvider.pollSceneStateChange();
     };
   }
@@ -301,12 +332,11 @@ public class DefaultRenderManager extends Thread implements RenderManager {
           }
         } else {
           // Bail early if render is already done
-          if (bufferedScene.spp >= bufferedScene.getTargetSpp()) {
-            sceneProvider.withEditSceneProtected(scene -> {
-              scene.pauseRender();
-              updateRenderState(scene);
-            });
+          if (render.rendersSamples()
+              && bufferedScene.getRenderSpp() >= bufferedScene.getTargetSpp()) {
+            pauseRender();
           } else if (mode != RenderMode.PAUSED) {
+            startPass();
             render.setPostRender(renderCallback);
             render.render(this);
           }
@@ -330,12 +360,52 @@ public class DefaultRenderManager extends Thread implements RenderManager {
     canvas.repaint();
   }
 
+  /**
+   * Complete the render before the target SPP is reached, for example when a
+   * renderer finds that the frame has converged. The frame is finalized and
+   * passed to the frame completion listener as the final frame, so that the
+   * final snapshot and render dump are saved, and the render is paused.
+   * Call this from {@link Renderer#render} before returning.
+   */
+  @PluginApi
+  public void completeRender() {
+    synchronized (bufferedScene) {
+      finalizeFrame(true);
+      // The snapshot control saves the final frame when the target is reached.
+      frameCompletionListener.accept(bufferedScene, bufferedScene.getTargetSpp());
+      updateRenderProgress();
+      renderCompletionListener.accept(bufferedScene.renderTime, samplesPerSecond());
+    }
+    pauseRender();
+  }
+
+  /**
+   * Pause the render without finalizing or saving the frame, for example when a
+   * renderer that does not render into the sample buffer of the scene has finished.
+   */
+  @PluginApi
+  public void pauseRender() {
+    sceneProvider.withEditSceneProtected(scene -> {
+      scene.pauseRender();
+      updateRenderState(scene);
+    });
+  }
+
   /**
    * Get if there is a need for this frame to be finalized.
    */
   @PluginApi
   public boolean shouldFinalize() {
-    return finalizeAllFrames || snapshotControl.saveSnapshot(bufferedScene, bufferedScene.spp);
+    return finalizeAllFrames || snapshotControl.saveSnapshot(bufferedScene, bufferedScene.getRenderSpp());
+  }
+
+  /**
+   * Check if the scene state has changed. Can be called from render workers
+   * to stop work that would be discarded by the next scene reset.
+   */
+  @PluginApi
+  public boolean pollSceneStateChange() {
+    return sceneProvider.pollSceneStateChange();
   }
 
   protected Renderer getRenderer() {
@@ -372,11 +442,9 @@ public class DefaultRenderManager extends Thread implements RenderManager {
    * @return the current rendering speed in samples per second (SPS)
    */
   private int samplesPerSecond() {
-    int canvasWidth = bufferedScene.canvasWidth();
-    int canvasHeight = bufferedScene.canvasHeight();
-    long pixelsPerFrame = canvasWidth * canvasHeight;
+    long pixelsPerFrame = bufferedScene.renderPixels();
     double renderTime = bufferedScene.renderTime / 1000.0;
-    return (int) ((bufferedScene.spp * pixelsPerFrame) / renderTime);
+    return (int) ((bufferedScene.getRenderSpp() * pixelsPerFrame) / renderTime);
   }
 
   private void updateRenderProgress() {
@@ -384,15 +452,16 @@ public class DefaultRenderManager extends Thread implements RenderManager {
 
     // Notify progress listener.
     int target = bufferedScene.getTargetSpp();
-    long etaSeconds = (long) (((target - bufferedScene.spp) * renderTime) / bufferedScene.spp);
+    int spp = bufferedScene.getRenderSpp();
+    long etaSeconds = (long) (((target - spp) * renderTime) / spp);
     if (etaSeconds > 0) {
       int seconds = (int) ((etaSeconds) % 60);
       int minutes = (int) ((etaSeconds / 60) % 60);
       int hours = (int) (etaSeconds / 3600);
       String eta = String.format("%d:%02d:%02d", hours, minutes, seconds);
-      renderTask.update("Rendering", target, bufferedScene.spp, eta);
+      renderTask.update("Rendering", target, spp, eta);
     } else {
-      renderTask.update("Rendering", target, bufferedScene.spp, "");
+      renderTask.update("Rendering", target, spp, "");
     }
 
     synchronized (this) {
@@ -400,16 +469,46 @@ public class DefaultRenderManager extends Thread implements RenderManager {
       renderStatusListeners.forEach(listener -> {
         listener.setRenderTime(bufferedScene.renderTime);
         listener.setSamplesPerSecond(samplesPerSecond());
-        listener.setSpp(bufferedScene.spp);
+        listener.setSpp(spp);
       });
     }
   }
 
+  /**
+   * Start timing a render pass. Work done by the workers before this, for example
+   * post processing, is not counted in the pass statistics.
+   */
+  private void startPass() {
+    frameStart = System.currentTimeMillis();
+    if (pool.collectsStatistics()) {
+      passStart = System.nanoTime();
+      pool.collectStatistics(null);
+    }
+  }
+
+  /**
+   * Sum the worker statistics of the render pass that just finished and send them
+   * to the render status listeners.
+   *
+   * @param passTime wall time of the pass in nanoseconds
+   */
+  private void sendRenderStatistics(long passTime) {
+    RenderStatistics statistics = new RenderStatistics();
+    pool.collectStatistics(statistics);
+    statistics.spp = bufferedScene.getRenderSpp();
+    statistics.threads = pool.threads;
+    statistics.passTime = passTime;
+    statistics.idleTime = Math.max(0, pool.threads * passTime - statistics.busyTime);
+    synchronized (this) {
+      renderStatusListeners.forEach(listener -> listener.setRenderStatistics(statistics));
+    }
+  }
+
   /**
    * Finalize the frame if necessary. This uses the internal {@code RenderWorkerPool}.
    */
   protected void finalizeFrame(boolean force) {
-    if (force || snapshotControl.saveSnapshot(bufferedScene, bufferedScene.spp)) {
+    if (force || snapshotControl.saveSnapshot(bufferedScene, bufferedScene.getRenderSpp())) {
       PostProcessingFilter filter = bufferedScene.getPostProcessingFilter();
       if (mode == RenderMode.PREVIEW) filter = PreviewFilter.INSTANCE;
 
@@ -418,7 +517,7 @@ public class DefaultRenderManager extends Thread implements RenderManager {
 
         int width = bufferedScene.width;
         int height = bufferedScene.height;
-        double[] sampleBuffer = bufferedScene.getSampleBuffer();
+        SampleBuffer sampleBuffer = bufferedScene.getSamples();
         double exposure = bufferedScene.getExposure();
 
         // Split up to 10 tasks per thread
@@ -563,9 +662,9 @@ public class DefaultRenderManager extends Thread implements RenderManager {
   }
 
   @Override
-  public void withSampleBufferProtected(SampleBufferConsumer consumer) {
+  public void withSamplesProtected(SamplesConsumer consumer) {
     synchronized (bufferedScene) {
-      consumer.accept(bufferedScene.getSampleBuffer(), bufferedScene.width, bufferedScene.height);
+      consumer.accept(bufferedScene.getSamples(), bufferedScene.width, bufferedScene.height);
     }
   }
 
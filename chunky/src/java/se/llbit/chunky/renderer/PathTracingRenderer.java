@@ -18,9 +18,16 @@ package se.llbit.chunky.renderer;
 
 import se.llbit.chunky.renderer.scene.Camera;
 import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.math.Ray;
 
 public class PathTracingRenderer extends TileBasedRenderer {
+  /**
+   * Number of samples per pixel used for the feature buffers of the scene.
+   */
+  protected static final int FEATURE_SPP = 16;
+
   protected final String id;
   protected final String name;
   protected final String description;
@@ -54,49 +61,122 @@ public class PathTracingRenderer extends TileBasedRenderer {
     int width = scene.width;
     int height = scene.height;
 
-    int sppPerPass = manager.context.sppPerPass();
-    Camera cam = scene.camera();
     double halfWidth = width / (2.0 * height);
     double invHeight = 1.0 / height;
 
-    double[] sampleBuffer = scene.getSampleBuffer();
-
-    while (scene.spp < scene.getTargetSpp()) {
-      int spp = scene.spp;
-      double passinv = 1.0 / sppPerPass;
-      double sinv = 1.0 / (sppPerPass + spp);
+    SampleBuffer sampleBuffer = scene.getSamples();
 
+    while (scene.getRenderSpp() < scene.getTargetSpp()) {
+      int spp = scene.getRenderSpp();
+      int sppPerPass = getSppPerPass(manager);
+      long passStart = System.nanoTime();
       submitTiles(manager, (state, pixel) -> {
         int x = pixel.firstInt();
         int y = pixel.secondInt();
 
-        double sr = 0;
-        double sg = 0;
-        double sb = 0;
-
-        for (int k = 0; k < sppPerPass; k++) {
-          double ox = state.random.nextDouble();
-          double oy = state.random.nextDouble();
-
-          cam.calcViewRay(state.ray, state.random,
-              -halfWidth + (x + ox) * invHeight,
-              -0.5 + (y + oy) * invHeight);
-          scene.rayTrace(tracer, state);
+        samplePixel(scene, state, x, y, sppPerPass, halfWidth, invHeight);
+        double sr = state.sampleSum.x;
+        double sg = state.sampleSum.y;
+        double sb = state.sampleSum.z;
 
-          sr += state.ray.color.x;
-          sg += state.ray.color.y;
-          sb += state.ray.color.z;
-        }
-
-        int offset = 3 * (y*width + x);
-        sampleBuffer[offset + 0] = (sampleBuffer[offset + 0] * spp + (sr * passinv)) * sinv;
-        sampleBuffer[offset + 1] = (sampleBuffer[offset + 1] * spp + (sg * passinv)) * sinv;
-        sampleBuffer[offset + 2] = (sampleBuffer[offset + 2] * spp + (sb * passinv)) * sinv;
+        sampleBuffer.mergeSamples(y*width + x, spp, sppPerPass, sr, sg, sb);
       });
 
       manager.pool.awaitEmpty();
-      scene.spp += sppPerPass;
+      passFinished(manager, sppPerPass, System.nanoTime() - passStart);
+      scene.setRenderSpp(spp + sppPerPass);
       if (postRender.getAsBoolean()) break;
     }
   }
+
+  /**
+   * Trace {@code sppPerPass} jittered samples through pixel (x, y).
+   * The summed (not averaged) color is stored in {@code state.sampleSum}.
+   */
+  protected void samplePixel(Scene scene, WorkerState state, int x, int y, int sppPerPass,
+      double halfWidth, double invHeight) {
+    samplePixel(scene, state, x, y, scene.getRenderSpp(), sppPerPass, halfWidth, invHeight);
+  }
+
+  /**
+   * Trace {@code sppPerPass} jittered samples through pixel (x, y).
+   * The summed (not averaged) color is stored in {@code state.sampleSum}.
+   *
+   * @param firstSample number of samples the pixel already has, used to
+   * select the low-discrepancy samples for this pass
+   */
+  protected void samplePixel(Scene scene, WorkerState state, int x, int y, int firstSample,
+      int sppPerPass, double halfWidth, double invHeight) {
+    samplePixel(scene, state, x, y, firstSample, sppPerPass, halfWidth, invHeight, true);
+  }
+
+  /**
+   * Trace {@code sppPerPass} jittered samples through pixel (x, y).
+   * The summed (not averaged) color is stored in {@code state.sampleSum}.
+   *
+   * @param firstSample number of samples the pixel already has, used to
+   * select the low-discrepancy samples for this pass
+   * @param features {@code false} to leave the feature buffers of the scene
+   * unchanged, for samples that are not merged into the sample buffer
+   */
+  protected void samplePixel(Scene scene, WorkerState state, int x, int y, int firstSample,
+      int sppPerPass, double halfWidth, double invHeight, boolean features) {
+    Camera cam = scene.camera();
+    Sampler sampler = scene.isLowDiscrepancySampling() ? state.sampler : null;
+    int sampleIndexOffset = scene.getSampleIndexOffset();
+    int sampleSeed = scene.getSampleSeed();
+    float[] albedo = features ? scene.getAlbedoBuffer() : null;
+    float[] normal = scene.getNormalBuffer();
+    double sr = 0;
+    double sg = 0;
+    double sb = 0;
+
+    for (int k = 0; k < sppPerPass; k++) {
+      if (sampler != null) {
+        sampler.startSample(x, y, sampleIndexOffset + firstSample + k, sampleSeed);
+      }
+      double ox = state.random.nextDouble();
+      double oy = state.random.nextDouble();
+
+      cam.calcViewRay(state.ray, state.random,
+          -halfWidth + (x + ox) * invHeight,
+          -0.5 + (y + oy) * invHeight);
+      if (albedo != null && firstSample + k < FEATURE_SPP) {
+        sampleFeatures(scene, state, 3 * (y * scene.width + x), firstSample + k, albedo, normal);
+      }
+      scene.rayTrace(tracer, state);
+
+      sr += state.ray.color.x;
+      sg += state.ray.color.y;
+      sb += state.ray.color.z;
+    }
+    if (sampler != null) {
+      sampler.endSample();
+    }
+    state.sampleSum.set(sr, sg, sb);
+  }
+
+  /**
+   * Trace the current camera ray to its first hit and add the albedo and
+   * normal to the running averages in the feature buffers.
+   */
+  private void sampleFeatures(Scene scene, WorkerState state, int offset, int sampleIndex,
+      float[] albedo, float[] normal) {
+    Ray ray = state.featureRay;
+    ray.reset();
+    ray.o.set(state.ray.o);
+    ray.d.set(state.ray.d);
+    if (!scene.traceFeatureRay(ray, state)) {
+      // The sky has no features.
+      ray.color.set(0, 0, 0, 0);
+      ray.n.set(0, 0, 0);
+    }
+    float weight = 1.0f / (sampleIndex + 1);
+    albedo[offset] += (ray.color.x - albedo[offset]) * weight;
+    albedo[offset + 1] += (ray.color.y - albedo[offset + 1]) * weight;
+    albedo[offset + 2] += (ray.color.z - albedo[offset + 2]) * weight;
+    normal[offset] += (ray.n.x - normal[offset]) * weight;
+    normal[offset + 1] += (ray.n.y - normal[offset + 1]) * weight;
+    normal[offset + 2] += (ray.n.z - normal[offset + 2]) * weight;
+  }
 }
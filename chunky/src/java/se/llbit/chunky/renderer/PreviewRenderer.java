@@ -17,18 +17,152 @@
 
 package se.llbit.chunky.renderer;
 
-import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.block.Air;
+import se.llbit.chunky.renderer.scene.CropWindow;
+import se.llbit.chunky.renderer.scene.PreviewRayTracer;
 import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.math.Octree;
 import se.llbit.math.Ray;
+import se.llbit.math.RayPacket;
+import se.llbit.math.Vector3i;
 import se.llbit.util.TaskTracker;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Renders the preview progressively. The first pass traces one pixel in each
+ * block of {@code COARSE_BLOCK_SIZE} squared pixels and fills the block with
+ * its color. Each following pass halves the block size and traces only the
+ * pixels that were not traced before, until every pixel has been traced.
+ * The frame is shown after each pass, and refinement stops as soon as the
+ * scene state changes, so a large canvas does not slow down camera movement.
+ *
+ * <p>With the {@link PreviewRayTracer} the primary hit of each traced pixel
+ * is cached. When only the lighting changes the cached hits are shaded again
+ * without tracing the scene. The primary rays of each pass are first traversed
+ * through the world octree in packets of up to 8x8 rays, which lets each ray
+ * skip the empty space in front of its first hit.
+ */
 public class PreviewRenderer extends TileBasedRenderer {
+  /**
+   * Block size of the first pass.
+   */
+  protected static final int COARSE_BLOCK_SIZE = 8;
+
+  /**
+   * Maximum number of pixels traced by the first pass. The first block size
+   * is doubled for large canvases until the first pass is below this.
+   */
+  protected static final int MAX_COARSE_PIXELS = 1 << 16;
+
+  /**
+   * Primary rays are traversed through the octree in packets of this many
+   * pixels squared, see {@link Scene#tracePacket}.
+   */
+  protected static final int PACKET_SIZE = 8;
+
   protected final String id;
   protected final String name;
   protected final String description;
   protected RayTracer tracer;
 
+  /** Traces to the first hit without shading, for the primary hit cache. */
+  private final RayTracer primaryTracer =
+      (scene, state) -> ((PreviewRayTracer) tracer).tracePrimary(scene, state);
+
+  private PrimaryHitCache hitCache = null;
+
+  /** {@code false} if the camera or geometry changed since the hit cache was filled. */
+  private boolean hitCacheValid = false;
+
+  /**
+   * Primary ray hits of the preview. For each pixel this stores flags and the
+   * surface color as 8-bit RGB, and the surface normal or the ray direction if
+   * the ray hit the sky.
+   */
+  private static class PrimaryHitCache {
+    static final int TRACED = 1 << 24;
+    static final int SURFACE = 1 << 25;
+    static final int TARGET = 1 << 26;
+
+    final int width, height;
+
+    /** The world octree the hits were traced in. */
+    final Octree octree;
+
+    final int[] hits;
+    final float[] vectors;
+
+    PrimaryHitCache(int width, int height, Octree octree) {
+      this.width = width;
+      this.height = height;
+      this.octree = octree;
+      hits = new int[width * height];
+      vectors = new float[3 * width * height];
+    }
+
+    void clear() {
+      Arrays.fill(hits, 0);
+    }
+
+    boolean isTraced(int index) {
+      return (hits[index] & TRACED) != 0;
+    }
+
+    boolean isTarget(int index) {
+      return (hits[index] & TARGET) != 0;
+    }
+
+    void store(int index, Ray ray, boolean target) {
+      boolean surface = ray.getCurrentMaterial() != Air.INSTANCE;
+      int hit = TRACED;
+      if (surface) {
+        hit |= SURFACE | channel(ray.color.x) << 16 | channel(ray.color.y) << 8
+            | channel(ray.color.z);
+        vectors[3 * index] = (float) ray.n.x;
+        vectors[3 * index + 1] = (float) ray.n.y;
+        vectors[3 * index + 2] = (float) ray.n.z;
+      } else {
+        vectors[3 * index] = (float) ray.d.x;
+        vectors[3 * index + 1] = (float) ray.d.y;
+        vectors[3 * index + 2] = (float) ray.d.z;
+      }
+      if (target) {
+        hit |= TARGET;
+      }
+      hits[index] = hit;
+    }
+
+    private static int channel(double value) {
+      return (int) (255 * Math.max(0, Math.min(1, value)) + .5);
+    }
+
+    /**
+     * Restore the hit of a pixel into the ray.
+     *
+     * @return {@code true} if the ray hit a surface
+     */
+    boolean load(int index, Ray ray) {
+      int hit = hits[index];
+      double x = vectors[3 * index];
+      double y = vectors[3 * index + 1];
+      double z = vectors[3 * index + 2];
+      if ((hit & SURFACE) != 0) {
+        ray.color.set(((hit >>> 16) & 0xFF) / 255.0, ((hit >>> 8) & 0xFF) / 255.0,
+            (hit & 0xFF) / 255.0, 1);
+        ray.n.set(x, y, z);
+        return true;
+      } else {
+        ray.d.set(x, y, z);
+        return false;
+      }
+    }
+  }
+
   public PreviewRenderer(String id, String name, String description, RayTracer tracer) {
     this.id = id;
     this.name = name;
@@ -51,78 +185,216 @@ public class PreviewRenderer extends TileBasedRenderer {
     return description;
   }
 
+  /**
+   * The preview always covers the whole canvas.
+   */
   @Override
-  public void render(DefaultRenderManager manager) throws InterruptedException {
-    TaskTracker.Task task = manager.getRenderTask();
-    task.update("Preview", 2, 0, "");
+  protected CropWindow getCropWindow(Scene scene) {
+    return null;
+  }
 
+  @Override
+  public void sceneReset(DefaultRenderManager manager, ResetReason reason, int resetCount) {
+    if (reason != ResetReason.LIGHTING_CHANGED && reason != ResetReason.MODE_CHANGE
+        && reason != ResetReason.NONE) {
+      hitCacheValid = false;
+    }
+  }
+
+  @Override
+  public void render(DefaultRenderManager manager) throws InterruptedException {
     Scene scene = manager.bufferedScene;
     int width = scene.width;
     int height = scene.height;
 
-    Camera cam = scene.camera();
+    int blockSize = COARSE_BLOCK_SIZE;
+    while ((long) (width / blockSize) * (height / blockSize) > MAX_COARSE_PIXELS) {
+      blockSize *= 2;
+    }
+    int passes = Integer.numberOfTrailingZeros(blockSize) + 1;
+
+    TaskTracker.Task task = manager.getRenderTask();
+    task.update("Preview", passes, 0, "");
+
     double halfWidth = width / (2.0 * height);
     double invHeight = 1.0 / height;
 
-    Ray target = new Ray();
-    boolean hit = scene.traceTarget(target);
-    int tx = (int) Math.floor(target.o.x + target.d.x * Ray.OFFSET);
-    int ty = (int) Math.floor(target.o.y + target.d.y * Ray.OFFSET);
-    int tz = (int) Math.floor(target.o.z + target.d.z * Ray.OFFSET);
-
-    double[] sampleBuffer = scene.getSampleBuffer();
-
-    for (int i = 0; i < 2; i++) {
-      int sampleNum = i;
-
-      submitTiles(manager, (state, pixel) -> {
-        int x = pixel.firstInt();
-        int y = pixel.secondInt();
-
-        int offset = 3 * (y*width + x);
-
-        // Interlacing
-        if (((x + y) % 2) == sampleNum) return;
-
-        // Draw crosshairs
-        if (x == width / 2 && (y >= height / 2 - 5 && y <= height / 2 + 5) || y == height / 2 && (
-            x >= width / 2 - 5 && x <= width / 2 + 5)) {
-          sampleBuffer[offset + 0] = 0xFF;
-          sampleBuffer[offset + 1] = 0xFF;
-          sampleBuffer[offset + 2] = 0xFF;
-          return;
-        }
-
-        cam.calcViewRay(state.ray, state.random,
-            -halfWidth + x * invHeight,
-            -0.5 + y * invHeight);
-        scene.rayTrace(tracer, state);
-
-        // Target highlighting.
-        int rx = (int) Math.floor(state.ray.o.x + state.ray.d.x * Ray.OFFSET);
-        int ry = (int) Math.floor(state.ray.o.y + state.ray.d.y * Ray.OFFSET);
-        int rz = (int) Math.floor(state.ray.o.z + state.ray.d.z * Ray.OFFSET);
-        if (hit && tx == rx && ty == ry && tz == rz) {
-          state.ray.color.x = 1 - state.ray.color.x;
-          state.ray.color.y = 1 - state.ray.color.y;
-          state.ray.color.z = 1 - state.ray.color.z;
-          state.ray.color.w = 1;
-        }
-
-        sampleBuffer[offset + 0] = state.ray.color.x;
-        sampleBuffer[offset + 1] = state.ray.color.y;
-        sampleBuffer[offset + 2] = state.ray.color.z;
-
-        if (sampleNum == 0 && x < (width - 1)) {
-          sampleBuffer[offset + 3] = state.ray.color.x;
-          sampleBuffer[offset + 4] = state.ray.color.y;
-          sampleBuffer[offset + 5] = state.ray.color.z;
-        }
-      });
+    Ray targetRay = new Ray();
+    Vector3i target = null;
+    if (scene.traceTarget(targetRay)) {
+      target = blockPosition(targetRay);
+    }
+
+    PrimaryHitCache cache = null;
+    if (tracer instanceof PreviewRayTracer) {
+      if (hitCache == null || hitCache.width != width || hitCache.height != height
+          || hitCache.octree != scene.getWorldOctree()) {
+        hitCache = new PrimaryHitCache(width, height, scene.getWorldOctree());
+      } else if (!hitCacheValid) {
+        hitCache.clear();
+      }
+      hitCacheValid = true;
+      cache = hitCache;
+    }
+    PrimaryHitCache hits = cache;
+    Vector3i targetBlock = target;
+
+    SampleBuffer sampleBuffer = scene.getSamples();
+    List<RenderTile> tiles = getTiles(manager);
+    AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    for (int pass = 0; pass < passes; pass++) {
+      int size = blockSize >> pass;
+      boolean firstPass = pass == 0;
+
+      for (RenderTile tile : tiles) {
+        manager.pool.submit(worker -> {
+          // Stop refining as soon as the camera or scene changes.
+          if (cancelled.get()) return;
+          if (manager.pollSceneStateChange()) {
+            cancelled.set(true);
+            return;
+          }
+
+          WorkerState state = createWorkerState(worker);
+          RayPacket packet = hits != null ? new RayPacket() : null;
+          int x0 = tile.x0 + Math.floorMod(-tile.x0, size);
+          int y0 = tile.y0 + Math.floorMod(-tile.y0, size);
+          int step = PACKET_SIZE * size;
+          for (int px = x0; px < tile.x1; px += step) {
+            for (int py = y0; py < tile.y1; py += step) {
+              int px1 = Math.min(px + step, tile.x1);
+              int py1 = Math.min(py + step, tile.y1);
+              if (hits != null) {
+                // Traverse the octree with the primary rays of the pixels that
+                // are not in the hit cache as one packet.
+                packet.clear();
+                for (int x = px; x < px1; x += size) {
+                  for (int y = py; y < py1; y += size) {
+                    if (!isTracedByPreviousPass(x, y, size, firstPass)
+                        && !hits.isTraced(y * width + x)) {
+                      scene.camera().calcViewRay(state.ray, state.random,
+                          -halfWidth + x * invHeight, -0.5 + y * invHeight);
+                      scene.addToPacket(packet, state.ray);
+                    }
+                  }
+                }
+                scene.tracePacket(packet);
+              }
+
+              int next = 0;
+              for (int x = px; x < px1; x += size) {
+                for (int y = py; y < py1; y += size) {
+                  if (isTracedByPreviousPass(x, y, size, firstPass)) {
+                    continue;
+                  }
+
+                  if (hits == null) {
+                    tracePixel(scene, state, targetBlock, x, y, halfWidth, invHeight);
+                  } else {
+                    int index = y * width + x;
+                    if (!hits.isTraced(index)) {
+                      scene.rayTrace(primaryTracer, state, packet, next++);
+                      hits.store(index, state.ray, isTarget(state.ray, targetBlock));
+                    }
+                    shadePixel(scene, state, hits, index);
+                  }
+
+                  // Fill the block of this pixel, which the following passes refine.
+                  // Blocks do not overlap, so tiles never write the same pixels.
+                  int x1 = Math.min(x + size, width);
+                  int y1 = Math.min(y + size, height);
+                  for (int bx = x; bx < x1; bx++) {
+                    for (int by = y; by < y1; by++) {
+                      int index = by * width + bx;
+                      if (isCrosshair(bx, by, width, height)) {
+                        sampleBuffer.setPixel(index, 0xFF, 0xFF, 0xFF);
+                      } else {
+                        sampleBuffer.setPixel(index, state.ray.color.x, state.ray.color.y,
+                            state.ray.color.z);
+                      }
+                    }
+                  }
+                }
+              }
+            }
+          }
+        });
+      }
 
       manager.pool.awaitEmpty();
-      task.update(i+1);
+      if (cancelled.get()) break;
+      task.update(pass + 1);
       if (postRender.getAsBoolean()) break;
     }
   }
+
+  /**
+   * Trace pixel (x, y) without the hit cache and store the shaded color in
+   * {@code state.ray.color}.
+   */
+  private void tracePixel(Scene scene, WorkerState state, Vector3i target,
+      int x, int y, double halfWidth, double invHeight) {
+    Ray ray = state.ray;
+    scene.camera().calcViewRay(ray, state.random, -halfWidth + x * invHeight,
+        -0.5 + y * invHeight);
+    scene.rayTrace(tracer, state);
+    if (isTarget(ray, target)) {
+      highlight(ray);
+    }
+  }
+
+  /**
+   * Shade the cached hit of a pixel and store the color in {@code state.ray.color}.
+   * Fresh hits are also shaded from the cache, so that they look the same as
+   * hits that are shaded again later.
+   */
+  private void shadePixel(Scene scene, WorkerState state, PrimaryHitCache cache, int index) {
+    Ray ray = state.ray;
+    boolean surface = cache.load(index, ray);
+    ((PreviewRayTracer) tracer).shade(scene, ray, surface);
+    if (cache.isTarget(index)) {
+      highlight(ray);
+    }
+  }
+
+  /**
+   * Target highlighting.
+   */
+  private static void highlight(Ray ray) {
+    ray.color.x = 1 - ray.color.x;
+    ray.color.y = 1 - ray.color.y;
+    ray.color.z = 1 - ray.color.z;
+    ray.color.w = 1;
+  }
+
+  /**
+   * @return {@code true} if pixel (x, y) was traced by a pass before the one
+   * with the given block size
+   */
+  private static boolean isTracedByPreviousPass(int x, int y, int size, boolean firstPass) {
+    return !firstPass && x % (2 * size) == 0 && y % (2 * size) == 0;
+  }
+
+  private static Vector3i blockPosition(Ray ray) {
+    return new Vector3i(
+        (int) Math.floor(ray.o.x + ray.d.x * Ray.OFFSET),
+        (int) Math.floor(ray.o.y + ray.d.y * Ray.OFFSET),
+        (int) Math.floor(ray.o.z + ray.d.z * Ray.OFFSET));
+  }
+
+  /**
+   * @return {@code true} if the ray hit the target block
+   */
+  private static boolean isTarget(Ray ray, Vector3i target) {
+    return target != null
+        && target.x == (int) Math.floor(ray.o.x + ray.d.x * Ray.OFFSET)
+        && target.y == (int) Math.floor(ray.o.y + ray.d.y * Ray.OFFSET)
+        && target.z == (int) Math.floor(ray.o.z + ray.d.z * Ray.OFFSET);
+  }
+
+  private static boolean isCrosshair(int x, int y, int width, int height) {
+    return x == width / 2 && (y >= height / 2 - 5 && y <= height / 2 + 5)
+        || y == height / 2 && (x >= width / 2 - 5 && x <= width / 2 + 5);
+  }
 }
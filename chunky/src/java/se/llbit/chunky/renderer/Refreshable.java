@@ -26,4 +26,12 @@ public interface Refreshable {
    * Refresh the refreshable object.
    */
   void refresh();
+
+  /**
+   * Refresh after a change that only affects lighting, not the camera or
+   * the scene geometry.
+   */
+  default void refreshLighting() {
+    refresh();
+  }
 }
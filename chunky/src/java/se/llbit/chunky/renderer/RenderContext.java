@@ -37,7 +37,7 @@ public class RenderContext {
 
   protected final Chunky chunky;
   protected final ChunkyOptions config;
-  public RenderWorkerPool.Factory renderPoolFactory = RenderWorkerPool::new;
+  public RenderWorkerPool.Factory renderPoolFactory;
   private File sceneDirectory;
 
   /**
@@ -47,6 +47,9 @@ public class RenderContext {
     this.chunky = chunky;
     this.config = chunky.options;
     this.sceneDirectory = config.sceneDir;
+    this.renderPoolFactory = config.workStealing
+        ? WorkStealingRenderWorkerPool::new
+        : RenderWorkerPool::new;
   }
 
   public Chunky getChunky() {
@@ -146,6 +149,21 @@ public class RenderContext {
     return config.sppPerPass;
   }
 
+  /**
+   * @return The target render pass duration in milliseconds, or zero if the
+   * samples per pixel per pass are not tuned
+   */
+  public int passTime() {
+    return config.passTime;
+  }
+
+  /**
+   * @return {@code true} if render statistics should be collected for each pass
+   */
+  public boolean collectStatistics() {
+    return config.collectStatistics;
+  }
+
   /**
    * @param fileName  the filename with the extension
    * @param timestamp the last file modification timestamp to compare against
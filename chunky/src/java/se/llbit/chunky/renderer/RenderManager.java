@@ -17,6 +17,8 @@
  */
 package se.llbit.chunky.renderer;
 
+import se.llbit.chunky.renderer.scene.DoubleSampleBuffer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.util.Registerable;
@@ -119,7 +121,28 @@ public interface RenderManager {
   /**
    * Run something with the sample buffer (synchronized).
    */
-  void withSampleBufferProtected(SampleBufferConsumer consumer);
+  void withSamplesProtected(SamplesConsumer consumer);
+
+  /**
+   * Run something with the sample buffer as a double array (synchronized).
+   * If the samples are not stored as a double array they are copied to one,
+   * and changes to the array are copied back when the consumer returns.
+   *
+   * @deprecated Use {@link #withSamplesProtected(SamplesConsumer)}, which works for all sample buffer types.
+   */
+  @Deprecated
+  default void withSampleBufferProtected(SampleBufferConsumer consumer) {
+    withSamplesProtected((samples, width, height) -> {
+      if (samples instanceof DoubleSampleBuffer) {
+        consumer.accept(((DoubleSampleBuffer) samples).getData(), width, height);
+      } else {
+        DoubleSampleBuffer copy = new DoubleSampleBuffer(width, height);
+        copy.copyFrom(samples);
+        consumer.accept(copy.getData(), width, height);
+        samples.copyFrom(copy);
+      }
+    });
+  }
 
   /**
    * Shut down the renderer.
@@ -127,7 +150,15 @@ public interface RenderManager {
    */
   void shutdown();
 
+  /**
+   * @deprecated Use {@link SamplesConsumer}, which works for all sample buffer types.
+   */
+  @Deprecated
   interface SampleBufferConsumer {
     void accept(double[] samples, int width, int height);
   }
+
+  interface SamplesConsumer {
+    void accept(SampleBuffer samples, int width, int height);
+  }
 }
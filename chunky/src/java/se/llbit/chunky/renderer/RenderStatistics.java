@@ -0,0 +1,164 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.json.JsonArray;
+import se.llbit.json.JsonObject;
+
+import java.util.Arrays;
+
+/**
+ * Counters for the work done while rendering.
+ *
+ * <p>Each render worker has its own counters, which are only updated by the
+ * worker thread, see {@link RenderWorkerPool.RenderWorker#getStatistics()}.
+ * After each render pass the render manager sums the worker counters into one
+ * object and publishes it with the pass time and idle time to the
+ * {@link RenderStatusListener}s.
+ *
+ * <p>Statistics are only collected when enabled in the render context,
+ * otherwise the hot paths see {@code null} and skip the counters.
+ */
+public class RenderStatistics {
+  /** Number of rays traced per bounce depth. */
+  private long[] rays = new long[8];
+
+  /** Number of octree traversals and the summed number of leaves they visited. */
+  public long octreeTraversals;
+  public long octreeSteps;
+
+  /** Number of BVH nodes and primitives tested for intersection. */
+  public long bvhNodes;
+  public long bvhPrimitives;
+
+  /** Number of shadow rays: emitter, sun and fog inscatter visibility tests. */
+  public long shadowRays;
+
+  /** Number of traced rays that hit the sky. */
+  public long skyMisses;
+
+  /** Samples per pixel of the render after the pass. */
+  public int spp;
+
+  /** Number of render worker threads. */
+  public int threads;
+
+  /** Wall time of the pass in nanoseconds. */
+  public long passTime;
+
+  /** Time the workers did not run jobs during the pass, summed over all workers, in nanoseconds. */
+  public long idleTime;
+
+  /** Time the workers ran jobs, summed over all workers, in nanoseconds. */
+  public long busyTime;
+
+  /**
+   * Count a ray traced at the given bounce depth.
+   */
+  public void countRay(int depth) {
+    if (depth >= rays.length) {
+      rays = Arrays.copyOf(rays, Math.max(depth + 1, rays.length * 2));
+    }
+    rays[depth] += 1;
+  }
+
+  /**
+   * @return the number of rays traced at the given bounce depth
+   */
+  public long getRays(int depth) {
+    return depth < rays.length ? rays[depth] : 0;
+  }
+
+  /**
+   * @return the number of rays traced at all depths
+   */
+  public long getTotalRays() {
+    long sum = 0;
+    for (long count : rays) {
+      sum += count;
+    }
+    return sum;
+  }
+
+  /**
+   * @return the average number of octree leaves visited per octree traversal
+   */
+  public double getOctreeStepsPerTraversal() {
+    return octreeTraversals > 0 ? octreeSteps / (double) octreeTraversals : 0;
+  }
+
+  /**
+   * Add the counters of another statistics object to this one.
+   */
+  public void add(RenderStatistics other) {
+    if (other.rays.length > rays.length) {
+      rays = Arrays.copyOf(rays, other.rays.length);
+    }
+    for (int i = 0; i < other.rays.length; ++i) {
+      rays[i] += other.rays[i];
+    }
+    octreeTraversals += other.octreeTraversals;
+    octreeSteps += other.octreeSteps;
+    bvhNodes += other.bvhNodes;
+    bvhPrimitives += other.bvhPrimitives;
+    shadowRays += other.shadowRays;
+    skyMisses += other.skyMisses;
+    busyTime += other.busyTime;
+  }
+
+  /**
+   * Reset all counters to zero.
+   */
+  public void clear() {
+    Arrays.fill(rays, 0);
+    octreeTraversals = 0;
+    octreeSteps = 0;
+    bvhNodes = 0;
+    bvhPrimitives = 0;
+    shadowRays = 0;
+    skyMisses = 0;
+    spp = 0;
+    threads = 0;
+    passTime = 0;
+    idleTime = 0;
+    busyTime = 0;
+  }
+
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    json.add("spp", spp);
+    json.add("threads", threads);
+    json.add("passTime", passTime / 1e6);
+    json.add("idleTime", idleTime / 1e6);
+    JsonArray raysPerDepth = new JsonArray();
+    int depths = rays.length;
+    while (depths > 0 && rays[depths - 1] == 0) {
+      depths -= 1;
+    }
+    for (int i = 0; i < depths; ++i) {
+      raysPerDepth.add(rays[i]);
+    }
+    json.add("rays", raysPerDepth);
+    json.add("octreeTraversals", octreeTraversals);
+    json.add("octreeSteps", octreeSteps);
+    json.add("bvhNodes", bvhNodes);
+    json.add("bvhPrimitives", bvhPrimitives);
+    json.add("shadowRays", shadowRays);
+    json.add("skyMisses", skyMisses);
+    return json;
+  }
+}
@@ -0,0 +1,69 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.log.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Appends the render statistics of each pass to a file, one JSON object per line.
+ * Each line is flushed, so the file can be followed while rendering.
+ */
+public class RenderStatisticsWriter implements RenderStatusListener, AutoCloseable {
+  private final Writer out;
+
+  /**
+   * @param file the statistics file. Existing content is kept, new lines are appended.
+   */
+  public RenderStatisticsWriter(File file) throws IOException {
+    out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+        StandardCharsets.UTF_8));
+  }
+
+  @Override public synchronized void setRenderStatistics(RenderStatistics statistics) {
+    try {
+      out.write(statistics.toJson().toCompactString());
+      out.write('\n');
+      out.flush();
+    } catch (IOException e) {
+      Log.warn("Failed to write render statistics: " + e.getMessage());
+    }
+  }
+
+  @Override public void setRenderTime(long time) {
+  }
+
+  @Override public void setSamplesPerSecond(int sps) {
+  }
+
+  @Override public void setSpp(int spp) {
+  }
+
+  @Override public void renderStateChanged(RenderMode state) {
+  }
+
+  @Override public synchronized void close() throws IOException {
+    out.close();
+  }
+}
@@ -55,6 +55,16 @@ public interface RenderStatusListener {
    */
   void setSpp(int spp);
 
+  /**
+   * Called after each render pass if render statistics are collected,
+   * see {@link RenderContext#collectStatistics()}.
+   *
+   * @param statistics the statistics of the pass. The object is not reused
+   * by the render manager, so it may be kept by the listener.
+   */
+  default void setRenderStatistics(RenderStatistics statistics) {
+  }
+
   /**
    * Called when the current scene has been saved.
    */
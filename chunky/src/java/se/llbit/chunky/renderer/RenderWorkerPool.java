@@ -42,16 +42,20 @@ public class RenderWorkerPool {
     private final RenderWorkerPool pool;
 
     public final Random random;
+    public final Sampler sampler;
     public final int id;
 
     private long lastSleep;
 
+    private final RenderStatistics statistics = new RenderStatistics();
+
     public RenderWorker(RenderWorkerPool pool, int id, long seed) {
       super("3D Render Worker " + id);
 
       this.pool = pool;
       this.id = id;
-      this.random = new Random(seed);
+      this.sampler = new Sampler(seed);
+      this.random = sampler;
 
       lastSleep = System.currentTimeMillis();
     }
@@ -85,6 +89,32 @@ public class RenderWorkerPool {
       lastSleep = System.currentTimeMillis();
     }
 
+    /**
+     * Get the render statistics counters of this worker. The counters must only be
+     * updated by this worker.
+     *
+     * @return {@code null} if the pool does not collect statistics
+     */
+    public RenderStatistics getStatistics() {
+      return pool.collectStatistics ? statistics : null;
+    }
+
+    /**
+     * Run a job on this worker, recording the run time if statistics are collected.
+     */
+    protected void runJob(RenderJob job) throws Throwable {
+      if (pool.collectStatistics) {
+        long start = System.nanoTime();
+        try {
+          job.accept(this);
+        } finally {
+          statistics.busyTime += System.nanoTime() - start;
+        }
+      } else {
+        job.accept(this);
+      }
+    }
+
     @Override
     public void run() {
       try {
@@ -101,6 +131,8 @@ public class RenderWorkerPool {
 
   private volatile int cpuLoad = 100;
 
+  private volatile boolean collectStatistics = false;
+
   private final ConcurrentLinkedQueue<RenderJobFuture> workQueue = new ConcurrentLinkedQueue<>();
   private final AtomicInteger progress = new AtomicInteger(0);
   private final AtomicInteger localProgress = new AtomicInteger(0);
@@ -108,16 +140,36 @@ public class RenderWorkerPool {
   protected final RenderWorker[] workers;
 
   public RenderWorkerPool(int threads, long seed) {
+    this(threads, seed, true);
+  }
+
+  /**
+   * @param start {@code false} if the workers should not be started yet. Subclasses that
+   *              need to initialize their own state before any worker runs should pass
+   *              {@code false} and call {@link #startWorkers()} at the end of their constructor.
+   */
+  protected RenderWorkerPool(int threads, long seed, boolean start) {
     this.threads = threads;
 
     workers = new RenderWorker[threads];
     for (int i = 0; i < threads; i++) {
       workers[i] = new RenderWorker(this, i, seed + i);
-      workers[i].start();
+    }
+    if (start) {
+      startWorkers();
+    }
+  }
+
+  protected void startWorkers() {
+    for (RenderWorker worker : workers) {
+      worker.start();
     }
   }
 
-  private void work(RenderWorker worker) throws Throwable {
+  /**
+   * Run one unit of work on the given worker. Called repeatedly by each worker until it is interrupted.
+   */
+  protected void work(RenderWorker worker) throws Throwable {
     synchronized (workQueue) {
       while (workQueue.isEmpty()) {
         workQueue.wait();
@@ -128,7 +180,7 @@ public class RenderWorkerPool {
 
     RenderJobFuture task = workQueue.poll();
     if (task == null) return;
-    task.task.accept(worker);
+    worker.runJob(task.task);
     task.finished();
 
     worker.workSleep();
@@ -154,6 +206,32 @@ public class RenderWorkerPool {
     this.cpuLoad = Math.max(Math.min(cpuLoad, 100), 1);
   }
 
+  /**
+   * Enable or disable collection of render statistics by the workers.
+   */
+  public void setCollectStatistics(boolean collectStatistics) {
+    this.collectStatistics = collectStatistics;
+  }
+
+  public boolean collectsStatistics() {
+    return collectStatistics;
+  }
+
+  /**
+   * Add the statistics of all workers to the given object and reset the worker statistics.
+   * Must only be called while the pool is empty, after {@link #awaitEmpty()}.
+   *
+   * @param statistics the sum of the worker statistics, or {@code null} to only reset them
+   */
+  public void collectStatistics(RenderStatistics statistics) {
+    for (RenderWorker worker : workers) {
+      if (statistics != null) {
+        statistics.add(worker.statistics);
+      }
+      worker.statistics.clear();
+    }
+  }
+
   /**
    * Wait for the pool to become empty.
    */
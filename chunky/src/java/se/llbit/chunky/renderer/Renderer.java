@@ -45,10 +45,10 @@ public interface Renderer extends Registerable {
    *
    * Generally the render loop will look like:
    * {@code
-   *   while (scene.spp < scene.getTargetSpp()) {
+   *   while (scene.getRenderSpp() < scene.getTargetSpp()) {
    *     submitTiles(manager, (state, pixel) -> {});
    *     manager.pool.awaitEmpty();
-   *     scene.spp += 1; // update spp
+   *     scene.setRenderSpp(scene.getRenderSpp() + 1); // update spp
    *     if (postRender.getAsBoolean()) break;
    *   }
    * }
@@ -89,4 +89,12 @@ public interface Renderer extends Registerable {
    *                postprocessing on snapshots.
    */
   default boolean autoPostProcess() { return true; }
+
+  /**
+   * This should return if this renderer renders into the sample buffer of the scene.
+   * {@code true}:  The render manager only starts this renderer until the target SPP is reached.
+   * {@code false}: This renderer keeps its own render state, like a diagnostic renderer. It is
+   *                started even if the scene has reached the target SPP.
+   */
+  default boolean rendersSamples() { return true; }
 }
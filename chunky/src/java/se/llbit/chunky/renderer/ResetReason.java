@@ -25,6 +25,11 @@ public enum ResetReason {
   MODE_CHANGE(false),
   MATERIALS_CHANGED(true),
   SETTINGS_CHANGED(true),
+  /**
+   * Only lighting settings changed: the sun, sky, fog, emitters or exposure.
+   * The camera and the scene geometry are the same as before.
+   */
+  LIGHTING_CHANGED(true),
   SCENE_LOADED(true);
 
   /** Determines if the non-transitive scene state needs to be modified. */
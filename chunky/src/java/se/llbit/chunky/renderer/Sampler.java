@@ -0,0 +1,148 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.util.FastRandom;
+
+/**
+ * Random number stream for a render worker.
+ *
+ * <p>By default this is a plain {@link FastRandom}. After {@link #startSample}
+ * the first {@link #LOW_DISCREPANCY_DIMENSIONS} values returned by
+ * {@link #nextDouble()} and {@link #nextFloat()} are instead taken from a
+ * per-pixel shuffled and Owen-scrambled 2D Sobol sequence, one sequence for
+ * each pair of dimensions. For the path tracer these dimensions are used for
+ * pixel jitter, the camera aperture and the first bounce. Further values come
+ * from the pseudo-random generator.
+ *
+ * <p>The scrambling only depends on the pixel position and the seed passed to
+ * {@link #startSample}, so samples of a pixel that are rendered by different
+ * workers with the same seed still belong to the same sequence as long as each
+ * sample uses a distinct sample index. Samples rendered with the same seed and
+ * sample index are identical, so independent renders that are merged later
+ * must use different seeds.
+ */
+public class Sampler extends FastRandom {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Number of leading dimensions of each sample that are low-discrepancy.
+   */
+  public static final int LOW_DISCREPANCY_DIMENSIONS = 6;
+
+  /** Sobol direction numbers for the second dimension. */
+  private static final int[] SOBOL_DIRECTIONS = new int[32];
+
+  static {
+    int v = 1 << 31;
+    for (int i = 0; i < 32; ++i) {
+      SOBOL_DIRECTIONS[i] = v;
+      v ^= v >>> 1;
+    }
+  }
+
+  private int pixelSeed;
+  private int sampleIndex;
+  private int dimension = LOW_DISCREPANCY_DIMENSIONS;
+
+  /** Second coordinate of the current dimension pair. */
+  private int pairY;
+
+  public Sampler(long seed) {
+    super(seed);
+  }
+
+  /**
+   * Start a new sample for a pixel. Each sample of a pixel should use a
+   * different sample index, starting from zero.
+   *
+   * @param seed scrambles the sequences of all pixels
+   */
+  public void startSample(int x, int y, int sampleIndex, int seed) {
+    this.pixelSeed = hash(hash(hash(seed) ^ x) ^ y);
+    this.sampleIndex = sampleIndex;
+    this.dimension = 0;
+  }
+
+  /**
+   * Use the pseudo-random generator for all values until the next call to
+   * {@link #startSample}.
+   */
+  public void endSample() {
+    dimension = LOW_DISCREPANCY_DIMENSIONS;
+  }
+
+  @Override public double nextDouble() {
+    if (dimension >= LOW_DISCREPANCY_DIMENSIONS) {
+      return super.nextDouble();
+    }
+    return (nextLowDiscrepancy() & 0xFFFFFFFFL) * 0x1.0p-32;
+  }
+
+  @Override public float nextFloat() {
+    if (dimension >= LOW_DISCREPANCY_DIMENSIONS) {
+      return super.nextFloat();
+    }
+    return (nextLowDiscrepancy() >>> 8) * 0x1.0p-24f;
+  }
+
+  /**
+   * @return the next low-discrepancy value as a 32-bit fixed point fraction
+   */
+  private int nextLowDiscrepancy() {
+    int pair = dimension >> 1;
+    boolean first = (dimension & 1) == 0;
+    dimension += 1;
+    if (!first) {
+      return pairY;
+    }
+    int seed = hash(pixelSeed ^ (pair * 0x9E3779B9));
+    int index = nestedUniformScramble(sampleIndex, seed);
+    int sx = Integer.reverse(index);
+    int sy = 0;
+    for (int bit = 0; index != 0; index >>>= 1, bit++) {
+      if ((index & 1) != 0) {
+        sy ^= SOBOL_DIRECTIONS[bit];
+      }
+    }
+    pairY = nestedUniformScramble(sy, hash(seed + 1));
+    return nestedUniformScramble(sx, hash(seed));
+  }
+
+  /**
+   * Owen scrambling in base 2, using the hash based permutation from
+   * Burley, "Practical Hash-based Owen Scrambling", JCGT 2020.
+   */
+  private static int nestedUniformScramble(int x, int seed) {
+    x = Integer.reverse(x);
+    x += seed;
+    x ^= x * 0x6c50b47c;
+    x ^= x * 0xb82f1e52;
+    x ^= x * 0xc7afe638;
+    x ^= x * 0x8d22f6e6;
+    return Integer.reverse(x);
+  }
+
+  private static int hash(int x) {
+    x ^= x >>> 16;
+    x *= 0x85ebca6b;
+    x ^= x >>> 13;
+    x *= 0xc2b2ae35;
+    x ^= x >>> 16;
+    return x;
+  }
+}
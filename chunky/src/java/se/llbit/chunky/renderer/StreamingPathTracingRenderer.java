@@ -0,0 +1,228 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
+import se.llbit.chunky.renderer.scene.Scene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A path tracing renderer without a barrier between passes.
+ *
+ * <p>Each tile is a self-rescheduling job that keeps rendering passes into
+ * its own region of the sample buffer and tracks its own spp. A tile that
+ * finishes the current frame may render one pass ahead into a tile-local
+ * buffer while the slower tiles catch up, so workers do not idle at the end
+ * of each pass or while the frame is being finalized.
+ *
+ * <p>The shared sample buffer is only written for the frame currently being
+ * collected. Once every tile has merged its pass for that frame, the buffer is
+ * consistent at {@code scene.spp} samples and the post-render callback runs.
+ * Passes that are rendered ahead are held in the tile until the next frame
+ * starts, and are discarded if rendering stops.
+ *
+ * <p>Tiles do not render ahead while they still take feature samples, so the
+ * albedo and normal buffers are not written while the frame is finalized,
+ * for example by the denoiser. Tiles also do not render ahead while render
+ * statistics are collected, so that the statistics of a frame are collected
+ * after all workers have stopped.
+ */
+public class StreamingPathTracingRenderer extends PathTracingRenderer {
+
+  private static class TileState {
+    final RenderTile tile;
+
+    /** Summed colors of the last rendered pass that has not been merged yet. */
+    final double[] pass;
+
+    /** Samples per pixel merged into the sample buffer for this tile. */
+    int spp;
+
+    /** {@code true} if {@code pass} holds a rendered pass that has not been merged. */
+    boolean pending = false;
+
+    TileState(RenderTile tile, int spp) {
+      this.tile = tile;
+      this.spp = spp;
+      this.pass = new double[3 * (tile.x1 - tile.x0) * (tile.y1 - tile.y0)];
+    }
+  }
+
+  /**
+   * Synchronization state for one call to {@code render()}. All fields are
+   * guarded by the frame object's monitor.
+   */
+  private static class Frame {
+    /** The spp the sample buffer reaches when the current frame is complete. */
+    int frameSpp;
+
+    /** Target spp, updated at frame boundaries. */
+    int targetSpp;
+
+    /** Number of tiles that have merged their pass for the current frame. */
+    int arrived = 0;
+
+    final int tiles;
+
+    boolean stopped = false;
+
+    /** Tiles that are waiting for the next frame to start. */
+    final List<TileState> parked = new ArrayList<>();
+
+    Frame(int tiles) {
+      this.tiles = tiles;
+    }
+  }
+
+  public StreamingPathTracingRenderer(String id, String name, String description,
+      RayTracer tracer) {
+    super(id, name, description, tracer);
+  }
+
+  @Override
+  public void render(DefaultRenderManager manager) throws InterruptedException {
+    Scene scene = manager.bufferedScene;
+    int sppPerPass = manager.context.sppPerPass();
+
+    List<RenderTile> tiles = getTiles(manager);
+    List<TileState> states = new ArrayList<>(tiles.size());
+    for (RenderTile tile : tiles) {
+      states.add(new TileState(tile, scene.getRenderSpp()));
+    }
+
+    Frame frame = new Frame(states.size());
+    frame.frameSpp = scene.getRenderSpp() + sppPerPass;
+    frame.targetSpp = scene.getTargetSpp();
+
+    try {
+      if (scene.getRenderSpp() < scene.getTargetSpp()) {
+        for (TileState tile : states) {
+          submitTile(manager, frame, tile, sppPerPass);
+        }
+      }
+
+      while (scene.getRenderSpp() < scene.getTargetSpp()) {
+        synchronized (frame) {
+          while (frame.arrived < frame.tiles) {
+            frame.wait();
+          }
+          frame.arrived = 0;
+        }
+        if (manager.pool.collectsStatistics()) {
+          // No tile renders ahead, wait for the workers to finish their jobs.
+          manager.pool.awaitEmpty();
+        }
+
+        scene.setRenderSpp(scene.getRenderSpp() + sppPerPass);
+        if (postRender.getAsBoolean()) break;
+        if (scene.getRenderSpp() >= scene.getTargetSpp()) break;
+
+        List<TileState> resume;
+        synchronized (frame) {
+          frame.frameSpp = scene.getRenderSpp() + sppPerPass;
+          frame.targetSpp = scene.getTargetSpp();
+          resume = new ArrayList<>(frame.parked);
+          frame.parked.clear();
+        }
+        for (TileState tile : resume) {
+          submitTile(manager, frame, tile, sppPerPass);
+        }
+      }
+    } finally {
+      synchronized (frame) {
+        frame.stopped = true;
+      }
+    }
+
+    // Drain tiles that are still rendering ahead. Their passes are discarded.
+    manager.pool.awaitEmpty();
+  }
+
+  private void submitTile(DefaultRenderManager manager, Frame frame, TileState tile,
+      int sppPerPass) {
+    Scene scene = manager.bufferedScene;
+    int width = scene.width;
+    double halfWidth = width / (2.0 * scene.height);
+    double invHeight = 1.0 / scene.height;
+    SampleBuffer sampleBuffer = scene.getSamples();
+    boolean features = scene.getAlbedoBuffer() != null;
+    boolean statistics = manager.pool.collectsStatistics();
+
+    manager.pool.submit(worker -> {
+      WorkerState state = createWorkerState(worker);
+      RenderTile t = tile.tile;
+
+      while (true) {
+        boolean merge;
+        synchronized (frame) {
+          if (frame.stopped) return;
+          merge = tile.pending && tile.spp < frame.frameSpp;
+          if (!merge) {
+            boolean needed = tile.spp < frame.frameSpp
+                || (!tile.pending && frame.frameSpp < frame.targetSpp
+                && !(features && tile.spp < FEATURE_SPP) && !statistics);
+            if (!needed) {
+              frame.parked.add(tile);
+              return;
+            }
+          }
+        }
+
+        if (merge) {
+          // The frame can not complete before this tile arrives, so nobody
+          // reads this region of the sample buffer while it is merged.
+          int spp = tile.spp;
+          int index = 0;
+          for (int x = t.x0; x < t.x1; x++) {
+            for (int y = t.y0; y < t.y1; y++) {
+              sampleBuffer.mergeSamples(y * width + x, spp, sppPerPass,
+                  tile.pass[index], tile.pass[index + 1], tile.pass[index + 2]);
+              index += 3;
+            }
+          }
+          synchronized (frame) {
+            tile.pending = false;
+            tile.spp += sppPerPass;
+            frame.arrived += 1;
+            if (frame.arrived == frame.tiles) {
+              frame.notifyAll();
+            }
+          }
+          continue;
+        }
+
+        int index = 0;
+        for (int x = t.x0; x < t.x1; x++) {
+          for (int y = t.y0; y < t.y1; y++) {
+            samplePixel(scene, state, x, y, tile.spp, sppPerPass, halfWidth, invHeight);
+            tile.pass[index + 0] = state.sampleSum.x;
+            tile.pass[index + 1] = state.sampleSum.y;
+            tile.pass[index + 2] = state.sampleSum.z;
+            index += 3;
+          }
+        }
+        synchronized (frame) {
+          tile.pending = true;
+        }
+        worker.workSleep();
+      }
+    });
+  }
+}
@@ -16,16 +16,23 @@
  */
 package se.llbit.chunky.renderer;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
 import it.unimi.dsi.fastutil.ints.IntIntPair;
 import org.apache.commons.math3.util.FastMath;
 import se.llbit.chunky.renderer.DefaultRenderManager;
 import se.llbit.chunky.renderer.Renderer;
 import se.llbit.chunky.renderer.WorkerState;
+import se.llbit.chunky.renderer.scene.CropWindow;
+import se.llbit.chunky.renderer.scene.RenderTuning;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.math.Ray;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.BiConsumer;
 import java.util.function.BooleanSupplier;
 
@@ -34,6 +41,15 @@ import java.util.function.BooleanSupplier;
  * Call {@code manager.pool.awaitEmpty()} to block until all tiles are finished rendering.
  * Call {@code postRender.getAsBoolean()} after each frame (and terminate if it returns {@code true}).
  *
+ * If the scene has a crop window, only the parts of the tiles inside the window are submitted.
+ *
+ * The tiles submitted by {@code submitTiles} adapt to the measured render cost: each tile's wall
+ * time is recorded in the {@link RenderTuning} of the scene, for cells of {@code CELL_TILES}
+ * squared tiles. Expensive cells are split into smaller tiles, cheap cells are rendered as fewer
+ * larger tiles, and the most expensive tiles are submitted first so that the workers finish the
+ * frame at about the same time. Call {@code passFinished} after each frame to record the costs.
+ * With a target pass time, {@code getSppPerPass} tunes the samples per pass from the pass time.
+ *
  * Implementation detail: Tiles are cached for faster rendering.
  */
 public abstract class TileBasedRenderer implements Renderer {
@@ -42,6 +58,36 @@ public abstract class TileBasedRenderer implements Renderer {
   private final ArrayList<RenderTile> cachedTiles = new ArrayList<>();
   private int prevWidth = -1;
   private int prevHeight = -1;
+  private CropWindow prevCrop = null;
+
+  /**
+   * Width of the tile cost cells in tiles.
+   */
+  protected static final int CELL_TILES = 4;
+
+  /**
+   * Tiles are split down to the tile width divided by this.
+   */
+  private static final int MAX_SPLIT = 4;
+
+  /**
+   * Tiles of the last frame submitted by {@code submitTiles}: the number of tiles, the bounds
+   * {@code x0, x1, y0, y1} of each tile and the cost cell of each tile, in submission order.
+   * The arrays are reallocated when the cost grid changes, or grown when they are too small.
+   */
+  private int tileCount = 0;
+  private int[] tileBounds = new int[0];
+  private int[] tileCells = new int[0];
+
+  /** Tiles in layout order, their estimated cost, and the order to submit them in. */
+  private int[] layoutBounds = new int[0];
+  private int[] layoutCells = new int[0];
+  private double[] layoutEstimates = new double[0];
+  private int[] layoutOrder = new int[0];
+
+  /** Rendered pixels and summed tile time of each cost cell in the last frame. */
+  private long[] cellPixels = new long[0];
+  private AtomicLongArray cellNanos = new AtomicLongArray(0);
 
   public static class RenderTile {
     public int x0, x1;
@@ -68,25 +114,226 @@ public abstract class TileBasedRenderer implements Renderer {
    *                 The second argument is the current pixel (x, y).
    */
   protected void submitTiles(DefaultRenderManager manager, BiConsumer<WorkerState, IntIntPair> perPixel) {
-    initTiles(manager);
+    layoutTiles(manager);
+
+    AtomicLongArray nanos = cellNanos;
+    for (int t = 0; t < tileCount; ++t) {
+      int x0 = tileBounds[4 * t];
+      int x1 = tileBounds[4 * t + 1];
+      int y0 = tileBounds[4 * t + 2];
+      int y1 = tileBounds[4 * t + 3];
+      int cell = tileCells[t];
+      manager.pool.submit(worker -> {
+        long start = System.nanoTime();
+        WorkerState state = createWorkerState(worker);
 
-    cachedTiles.forEach(tile ->
-        manager.pool.submit(worker -> {
-          WorkerState state = new WorkerState();
-          state.ray = new Ray();
-          state.ray.n.set(0, 0, -1);
-          state.random = worker.random;
+        IntIntMutablePair pair = new IntIntMutablePair(0, 0);
 
-          IntIntMutablePair pair = new IntIntMutablePair(0, 0);
+        for (int i = x0; i < x1; i++) {
+          for (int j = y0; j < y1; j++) {
+            pair.left(i).right(j);
+            perPixel.accept(state, pair);
+          }
+        }
+        nanos.addAndGet(cell, System.nanoTime() - start);
+      });
+    }
+  }
 
-          for (int i = tile.x0; i < tile.x1; i++) {
-            for (int j = tile.y0; j < tile.y1; j++) {
-              pair.left(i).right(j);
-              perPixel.accept(state, pair);
+  /**
+   * Lay out the tiles for the next frame from the cell costs of the scene's render tuning,
+   * ordered by decreasing estimated cost.
+   */
+  private void layoutTiles(DefaultRenderManager manager) {
+    Scene scene = manager.bufferedScene;
+    int width = scene.width;
+    int height = scene.height;
+    int tileWidth = manager.context.tileWidth();
+    int cellSize = tileWidth * CELL_TILES;
+    int minSize = Math.max(1, tileWidth / MAX_SPLIT);
+    RenderTuning tuning = scene.getRenderTuning();
+    tuning.setGrid(width, height, cellSize);
+    int columns = tuning.getColumns();
+    float[] costs = tuning.getCellCosts();
+
+    double sum = 0;
+    int measured = 0;
+    for (float cost : costs) {
+      if (cost > 0) {
+        sum += cost;
+        measured += 1;
+      }
+    }
+    double mean = measured > 0 ? sum / measured : 0;
+
+    int x0 = 0, x1 = width;
+    int y0 = 0, y1 = height;
+    CropWindow crop = getCropWindow(scene);
+    if (crop != null) {
+      x0 = crop.x0;
+      x1 = crop.x1;
+      y0 = crop.y0;
+      y1 = crop.y1;
+    }
+
+    if (cellPixels.length != costs.length) {
+      cellPixels = new long[costs.length];
+      cellNanos = new AtomicLongArray(costs.length);
+      // Unmeasured frames get CELL_TILES squared tiles per cell.
+      allocateTiles(costs.length * CELL_TILES * CELL_TILES);
+    } else {
+      Arrays.fill(cellPixels, 0);
+      for (int i = 0; i < costs.length; ++i) {
+        cellNanos.set(i, 0);
+      }
+    }
+
+    int count = 0;
+    for (int cx = x0 / cellSize; cx * cellSize < x1; ++cx) {
+      for (int cy = y0 / cellSize; cy * cellSize < y1; ++cy) {
+        int cell = cy * columns + cx;
+        double cost = costs[cell] > 0 ? costs[cell] : mean;
+        // Split the cell into tiles that cost about as much as a tile of the configured width
+        // in an average cell. Unmeasured frames get tiles of the configured width.
+        int size = tileWidth;
+        if (mean > 0) {
+          size = cellSize;
+          while (size > minSize && cost * size * size > 2 * mean * tileWidth * tileWidth) {
+            size = Math.max(minSize, size / 2);
+          }
+        }
+        int cellX1 = Math.min((cx + 1) * cellSize, x1);
+        int cellY1 = Math.min((cy + 1) * cellSize, y1);
+        for (int i = Math.max(cx * cellSize, x0 - x0 % size); i < cellX1; i += size) {
+          for (int j = Math.max(cy * cellSize, y0 - y0 % size); j < cellY1; j += size) {
+            if (count == layoutCells.length) {
+              allocateTiles(2 * count);
             }
+            int tileX0 = FastMath.max(i, x0);
+            int tileX1 = FastMath.min(i + size, cellX1);
+            int tileY0 = FastMath.max(j, y0);
+            int tileY1 = FastMath.min(j + size, cellY1);
+            int area = (tileX1 - tileX0) * (tileY1 - tileY0);
+            layoutBounds[4 * count] = tileX0;
+            layoutBounds[4 * count + 1] = tileX1;
+            layoutBounds[4 * count + 2] = tileY0;
+            layoutBounds[4 * count + 3] = tileY1;
+            layoutCells[count] = cell;
+            layoutEstimates[count] = cost * area;
+            layoutOrder[count] = count;
+            cellPixels[cell] += area;
+            count += 1;
           }
-        })
-    );
+        }
+      }
+    }
+
+    // Most expensive tiles first, so that no worker starts a slow tile at the end of the frame.
+    double[] estimates = layoutEstimates;
+    IntArrays.quickSort(layoutOrder, 0, count, (a, b) -> Double.compare(estimates[b], estimates[a]));
+    for (int i = 0; i < count; ++i) {
+      int tile = layoutOrder[i];
+      System.arraycopy(layoutBounds, 4 * tile, tileBounds, 4 * i, 4);
+      tileCells[i] = layoutCells[tile];
+    }
+    tileCount = count;
+  }
+
+  /**
+   * Allocate the tile layout arrays for the given number of tiles, keeping the tiles
+   * laid out so far.
+   */
+  private void allocateTiles(int capacity) {
+    tileBounds = new int[4 * capacity];
+    tileCells = new int[capacity];
+    layoutBounds = Arrays.copyOf(layoutBounds, 4 * capacity);
+    layoutCells = Arrays.copyOf(layoutCells, capacity);
+    layoutEstimates = Arrays.copyOf(layoutEstimates, capacity);
+    layoutOrder = Arrays.copyOf(layoutOrder, capacity);
+  }
+
+  /**
+   * Record the tile costs of the frame rendered by the last {@code submitTiles} call, and tune
+   * the samples per pixel per pass if there is a target pass time.
+   * Call this after {@code manager.pool.awaitEmpty()}.
+   *
+   * @param sppPerPass samples per pixel rendered in the frame
+   * @param passTime wall time of the frame in nanoseconds
+   */
+  protected void passFinished(DefaultRenderManager manager, int sppPerPass, long passTime) {
+    RenderTuning tuning = manager.bufferedScene.getRenderTuning();
+    double[] measured = new double[cellPixels.length];
+    for (int i = 0; i < measured.length; ++i) {
+      if (cellPixels[i] > 0) {
+        measured[i] = cellNanos.get(i) / (double) (cellPixels[i] * sppPerPass);
+      }
+    }
+    tuning.addMeasurement(measured);
+
+    int target = manager.context.passTime();
+    if (target > 0 && passTime > 0) {
+      int previous = tuning.getSppPerPass() > 0
+          ? tuning.getSppPerPass()
+          : manager.context.sppPerPass();
+      double sppTime = passTime / (double) sppPerPass;
+      long tuned = Math.round(target * 1e6 / sppTime);
+      // Limit the change per pass, single passes can be much slower than usual.
+      tuning.setSppPerPass((int) Math.max(Math.max(1, previous / 2),
+          Math.min(2L * previous, tuned)));
+    }
+  }
+
+  /**
+   * Get the samples per pixel to render in the next pass. Without a target pass time this is
+   * the configured samples per pass. With a target pass time it is the tuned samples per pass,
+   * reduced so that the pass does not go past the target SPP or the next render dump.
+   */
+  protected int getSppPerPass(DefaultRenderManager manager) {
+    if (manager.context.passTime() <= 0) {
+      return manager.context.sppPerPass();
+    }
+    Scene scene = manager.bufferedScene;
+    int sppPerPass = scene.getRenderTuning().getSppPerPass();
+    if (sppPerPass <= 0) {
+      sppPerPass = manager.context.sppPerPass();
+    }
+    int spp = scene.getRenderSpp();
+    if (scene.getTargetSpp() > spp) {
+      sppPerPass = Math.min(sppPerPass, scene.getTargetSpp() - spp);
+    }
+    if (scene.shouldSaveDumps() && scene.getDumpFrequency() > 0) {
+      sppPerPass = Math.min(sppPerPass, scene.getDumpFrequency() - spp % scene.getDumpFrequency());
+    }
+    return sppPerPass;
+  }
+
+  /**
+   * Create the per-job worker state used when rendering a tile.
+   */
+  protected WorkerState createWorkerState(RenderWorkerPool.RenderWorker worker) {
+    WorkerState state = new WorkerState();
+    state.ray = new Ray();
+    state.ray.n.set(0, 0, -1);
+    state.random = worker.random;
+    state.sampler = worker.sampler;
+    state.statistics = worker.getStatistics();
+    return state;
+  }
+
+  /**
+   * Get the crop window this renderer should render, or {@code null} to render the whole canvas.
+   */
+  protected CropWindow getCropWindow(Scene scene) {
+    return scene.getCropWindow();
+  }
+
+  /**
+   * Get the tiles covering the current canvas, or the crop window if there is
+   * one. The returned list is cached and must not be modified.
+   */
+  protected List<RenderTile> getTiles(DefaultRenderManager manager) {
+    initTiles(manager);
+    return cachedTiles;
   }
 
   private void initTiles(DefaultRenderManager manager) {
@@ -94,16 +341,28 @@ public abstract class TileBasedRenderer implements Renderer {
     int width = bufferedScene.width;
     int height = bufferedScene.height;
     int tileWidth = manager.context.tileWidth();
+    CropWindow crop = getCropWindow(bufferedScene);
 
-    if (prevWidth != width || prevHeight != height) {
+    if (prevWidth != width || prevHeight != height || !Objects.equals(prevCrop, crop)) {
       prevWidth = width;
       prevHeight = height;
+      prevCrop = crop;
       cachedTiles.clear();
 
-      for (int i = 0; i < width; i += tileWidth) {
-        for (int j = 0; j < height; j += tileWidth) {
-          cachedTiles.add(new RenderTile(i, FastMath.min(i + tileWidth, width),
-              j, FastMath.min(j + tileWidth, height)));
+      int x0 = 0, x1 = width;
+      int y0 = 0, y1 = height;
+      if (crop != null) {
+        x0 = crop.x0;
+        x1 = crop.x1;
+        y0 = crop.y0;
+        y1 = crop.y1;
+      }
+
+      // Tiles stay aligned to the full frame grid, clipped to the crop window.
+      for (int i = x0 - x0 % tileWidth; i < x1; i += tileWidth) {
+        for (int j = y0 - y0 % tileWidth; j < y1; j += tileWidth) {
+          cachedTiles.add(new RenderTile(FastMath.max(i, x0), FastMath.min(i + tileWidth, x1),
+              FastMath.max(j, y0), FastMath.min(j + tileWidth, y1)));
         }
       }
     }
@@ -0,0 +1,118 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A render worker pool where each worker has its own job deque.
+ *
+ * <p>Submitted jobs are distributed round-robin over the worker deques. A worker takes
+ * jobs from the head of its own deque and steals from the tail of the other deques when
+ * its own deque is empty. Idle workers block on a semaphore holding one permit per queued
+ * job, so a submit wakes at most one worker instead of all of them.
+ *
+ * <p>Pass completion is tracked with a countdown of pending jobs: only the job that brings
+ * the count to zero signals threads waiting in {@link #awaitEmpty()}.
+ *
+ * <p>Select this pool by setting {@code RenderContext.renderPoolFactory} to
+ * {@code WorkStealingRenderWorkerPool::new}, or with the {@code -work-stealing}
+ * command-line flag.
+ */
+public class WorkStealingRenderWorkerPool extends RenderWorkerPool {
+  private final ConcurrentLinkedDeque<RenderJobFuture>[] queues;
+
+  /** One permit per job that has been queued but not yet taken by a worker. */
+  private final Semaphore available = new Semaphore(0);
+
+  /** Number of submitted jobs that have not yet finished. */
+  private final AtomicInteger pending = new AtomicInteger(0);
+  private final Object emptyMonitor = new Object();
+
+  private final AtomicInteger nextQueue = new AtomicInteger(0);
+
+  public WorkStealingRenderWorkerPool(int threads, long seed) {
+    super(threads, seed, false);
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ConcurrentLinkedDeque<RenderJobFuture>[] queues = new ConcurrentLinkedDeque[threads];
+    this.queues = queues;
+    for (int i = 0; i < threads; i++) {
+      queues[i] = new ConcurrentLinkedDeque<>();
+    }
+    startWorkers();
+  }
+
+  @Override
+  protected void work(RenderWorker worker) throws Throwable {
+    available.acquire();
+
+    worker.resetSleep();
+
+    RenderJobFuture task = take(worker.id);
+    try {
+      worker.runJob(task.task);
+    } finally {
+      task.finished();
+      if (pending.decrementAndGet() == 0) {
+        synchronized (emptyMonitor) {
+          emptyMonitor.notifyAll();
+        }
+      }
+    }
+
+    worker.workSleep();
+  }
+
+  /**
+   * Take a job, preferring the worker's own deque. A permit has been acquired by the caller,
+   * so there is at least one job queued that no other worker can claim.
+   */
+  private RenderJobFuture take(int id) {
+    RenderJobFuture task = queues[id].pollFirst();
+    while (task == null) {
+      for (int i = 1; i <= threads && task == null; i++) {
+        task = queues[(id + i) % threads].pollLast();
+      }
+    }
+    return task;
+  }
+
+  @Override
+  public RenderJobFuture submit(RenderJob task) {
+    RenderJobFuture future = new RenderJobFuture(task);
+    pending.incrementAndGet();
+    int queue = (nextQueue.getAndIncrement() & Integer.MAX_VALUE) % threads;
+    queues[queue].addLast(future);
+    available.release();
+    return future;
+  }
+
+  /**
+   * Wait for all submitted jobs to finish.
+   */
+  @Override
+  public void awaitEmpty() throws InterruptedException {
+    synchronized (emptyMonitor) {
+      while (pending.get() != 0) {
+        emptyMonitor.wait();
+      }
+    }
+  }
+}
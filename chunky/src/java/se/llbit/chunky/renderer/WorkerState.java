@@ -16,9 +16,13 @@
  */
 package se.llbit.chunky.renderer;
 
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
+import se.llbit.math.Octree;
 import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
 import se.llbit.math.Vector4;
 
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -27,5 +31,83 @@ import java.util.Random;
 public class WorkerState {
   public Ray ray;
   public Vector4 attenuation = new Vector4();
+
+  /**
+   * Summed sample color for the pixel currently being rendered.
+   */
+  public Vector3 sampleSum = new Vector3();
   public Random random;
+
+  /**
+   * The worker's sampler, or {@code null} if the state is not used by a render worker.
+   * When set, {@link #random} refers to the same object.
+   */
+  public Sampler sampler;
+
+  /**
+   * Reusable state for one level of recursive path tracing.
+   */
+  public static class PathFrame {
+    /** Ray for the next recursion level (reflected, refracted or transmitted ray). */
+    public final Ray child = new Ray();
+
+    /** Origin of the ray traced at this level. */
+    public final Vector3 origin = new Vector3();
+
+    /** Direction of the ray traced at this level. */
+    public final Vector3 direction = new Vector3();
+
+    /** Accumulated emitter sampling contribution. */
+    public final Vector4 emitterColor = new Vector4();
+  }
+
+  private PathFrame[] pathFrames = new PathFrame[0];
+
+  /**
+   * Scratch ray for shadow rays that do not recurse: emitter sampling and fog inscatter.
+   */
+  public final Ray shadowRay = new Ray();
+
+  /** Scratch ray for sampling the denoiser feature buffers. */
+  public final Ray featureRay = new Ray();
+
+  /** Scratch vector used when sampling emitters. */
+  public final Vector3 emitterTarget = new Vector3();
+
+  /** Scratch rays for intersection tests against the octrees. */
+  public final Ray intersectStart = new Ray();
+  public final Ray intersectRay = new Ray();
+
+  /** Scratch pair for octree lookups. */
+  public final IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+
+  /** Node stack for octree traversal. */
+  public final Octree.NodeStack octreeStack = new Octree.NodeStack();
+
+  /**
+   * Empty space that the next intersection test of {@link #ray} skips in the
+   * world octree, found by a ray packet traversal. Reset by the test.
+   */
+  public double octreeEnterDistance = 0;
+
+  /**
+   * Render statistics counters of the worker, or {@code null} if statistics
+   * are not collected.
+   */
+  public RenderStatistics statistics;
+
+  /**
+   * Get the reusable state for the given ray depth. The frames form a stack
+   * that grows as needed, so after warm-up no allocation is done.
+   */
+  public PathFrame pathFrame(int depth) {
+    if (depth >= pathFrames.length) {
+      int size = pathFrames.length;
+      pathFrames = Arrays.copyOf(pathFrames, Math.max(depth + 1, size * 2));
+      for (int i = size; i < pathFrames.length; ++i) {
+        pathFrames[i] = new PathFrame();
+      }
+    }
+    return pathFrames[depth];
+  }
 }
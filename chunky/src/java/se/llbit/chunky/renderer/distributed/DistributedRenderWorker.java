@@ -0,0 +1,201 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import se.llbit.chunky.renderer.DefaultRenderManager;
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.RenderWorkerPool;
+import se.llbit.chunky.renderer.ResetReason;
+import se.llbit.chunky.renderer.SceneProvider;
+import se.llbit.chunky.renderer.renderdump.RenderDump;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.log.Log;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.function.Consumer;
+
+/**
+ * Renders batches of samples for a {@link RenderCoordinator}.
+ *
+ * <p>Each batch is rendered from zero samples into a new sample buffer, with
+ * the sample index offset of the scene set to the first sample of the batch.
+ * The result is sent to the coordinator as a render dump.
+ */
+public class DistributedRenderWorker {
+  private final RenderContext context;
+  private final Scene scene;
+
+  /**
+   * @param scene the loaded scene to render. It must be the same scene as
+   * the scene of the coordinator.
+   */
+  public DistributedRenderWorker(RenderContext context, Scene scene) {
+    this.context = context;
+    this.scene = scene;
+  }
+
+  /**
+   * Connect to the coordinator and render batches until the render is done.
+   */
+  public void run(String host, int port) throws IOException, InterruptedException {
+    try (Socket socket = new Socket(host, port);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+      socket.setKeepAlive(true);
+      out.writeInt(RenderCoordinator.MAGIC);
+      out.writeInt(RenderCoordinator.VERSION);
+      out.flush();
+
+      int id = in.readInt();
+      int width = in.readInt();
+      int height = in.readInt();
+      int sampleSeed = in.readInt();
+      if (width != scene.canvasWidth() || height != scene.canvasHeight()) {
+        throw new IOException(String.format(
+            "The canvas size %dx%d does not match the canvas size %dx%d of the coordinator.",
+            scene.canvasWidth(), scene.canvasHeight(), width, height));
+      }
+      Log.infof("Connected to render coordinator as worker %d.", id);
+      synchronized (scene) {
+        scene.setSampleSeed(sampleSeed);
+      }
+
+      while (true) {
+        int firstSample = in.readInt();
+        int spp = in.readInt();
+        if (spp <= 0) {
+          Log.info("Render job finished.");
+          return;
+        }
+        byte[] dump = renderBatch(firstSample, spp, () -> {
+          try {
+            out.writeInt(RenderCoordinator.PROGRESS);
+            out.flush();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        out.writeInt(dump.length);
+        out.write(dump);
+        out.flush();
+        Log.infof("Sent samples %d to %d.", firstSample, firstSample + spp - 1);
+      }
+    }
+  }
+
+  /**
+   * Render a batch and return it as a render dump.
+   *
+   * @param progress called after each finished render pass
+   */
+  private byte[] renderBatch(int firstSample, int spp, Runnable progress)
+      throws IOException, InterruptedException {
+    // The renderers are shared by all render managers in the process, so
+    // workers running in the same process render one batch at a time.
+    synchronized (DistributedRenderWorker.class) {
+      return renderBatchLocked(firstSample, spp, progress);
+    }
+  }
+
+  private byte[] renderBatchLocked(int firstSample, int spp, Runnable progress)
+      throws IOException, InterruptedException {
+    synchronized (scene) {
+      // Batches are merged into the full frame of the coordinator.
+      scene.setCropWindow(null);
+      scene.spp = 0;
+      scene.renderTime = 0;
+      scene.initBuffers();
+      scene.setTargetSpp(spp);
+      scene.setSampleIndexOffset(firstSample);
+      scene.startHeadlessRender();
+    }
+
+    // Mix the batch into the seed, so that workers started at the same time
+    // do not trace the same paths.
+    RenderWorkerPool.Factory poolFactory = context.renderPoolFactory;
+    context.renderPoolFactory = (threads, seed) ->
+        poolFactory.create(threads, seed ^ (firstSample * 0x9E3779B97F4A7C15L));
+    DefaultRenderManager renderManager;
+    try {
+      renderManager = new DefaultRenderManager(context, true);
+    } finally {
+      context.renderPoolFactory = poolFactory;
+    }
+    renderManager.setSceneProvider(new BatchSceneProvider(scene));
+    renderManager.setOnFrameCompleted((rendered, renderedSpp) -> progress.run());
+    try {
+      renderManager.start();
+      renderManager.join();
+    } finally {
+      renderManager.shutdown();
+    }
+
+    Scene rendered = renderManager.bufferedScene;
+    synchronized (rendered) {
+      if (rendered.spp != spp) {
+        throw new IOException("The render stopped before the batch was complete.");
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      RenderDump.save(bytes, rendered, TaskTracker.NONE);
+      return bytes.toByteArray();
+    }
+  }
+
+  /**
+   * Provides the scene for a single batch render.
+   */
+  private static class BatchSceneProvider implements SceneProvider {
+    private final Scene scene;
+    private boolean loaded = false;
+
+    BatchSceneProvider(Scene scene) {
+      this.scene = scene;
+    }
+
+    @Override public synchronized ResetReason awaitSceneStateChange() throws InterruptedException {
+      while (loaded) {
+        wait();
+      }
+      loaded = true;
+      return ResetReason.SCENE_LOADED;
+    }
+
+    @Override public synchronized boolean pollSceneStateChange() {
+      return !loaded;
+    }
+
+    @Override public void withSceneProtected(Consumer<Scene> fun) {
+      synchronized (scene) {
+        fun.accept(scene);
+      }
+    }
+
+    @Override public void withEditSceneProtected(Consumer<Scene> fun) {
+      synchronized (scene) {
+        fun.accept(scene);
+      }
+    }
+  }
+}
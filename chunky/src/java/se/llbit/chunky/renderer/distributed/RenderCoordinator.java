@@ -0,0 +1,339 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import se.llbit.chunky.renderer.renderdump.RenderDump;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.log.Log;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Coordinates a render that is distributed over several worker processes.
+ *
+ * <p>Workers connect over TCP and are assigned batches of samples. Each worker
+ * renders its batch into an empty sample buffer and sends it back as a render
+ * dump, which is merged into the scene in the same way as {@code -merge-dump}.
+ * A batch that was assigned to a worker that disconnects before delivering it
+ * is given to the next worker that asks for work.
+ *
+ * <p>Protocol, all values are big-endian 32-bit integers:
+ * <ol>
+ *   <li>Worker: {@link #MAGIC}, {@link #VERSION}.
+ *   <li>Coordinator: worker id, canvas width, canvas height, sample seed.
+ *   <li>Coordinator: first sample index and sample count of the next batch.
+ *   A sample count of zero means that the render is done and the worker should
+ *   disconnect.
+ *   <li>Worker: {@link #PROGRESS} after each finished render pass of the
+ *   batch, then the length of the render dump of the batch, followed by the
+ *   dump. Continue at step 3.
+ * </ol>
+ *
+ * <p>A worker that sends nothing for the batch timeout while it has a batch
+ * is considered hung, and its batch is given to another worker.
+ */
+public class RenderCoordinator {
+  static final int MAGIC = 0x43484B57;
+  static final int VERSION = 2;
+
+  /** Sent by a worker while it renders a batch, to show that it makes progress. */
+  static final int PROGRESS = -1;
+
+  /** Workers must complete the handshake within this time, in milliseconds. */
+  private static final int HANDSHAKE_TIMEOUT = 10000;
+
+  /** Default time a worker may render a single pass of a batch, in milliseconds. */
+  private static final int DEFAULT_BATCH_TIMEOUT = 600000;
+
+  /** Size of the render dump header: magic number, version, width, height, spp and render time. */
+  private static final int DUMP_HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 8;
+
+  private final Scene scene;
+  private final int batchSpp;
+  private final int targetSpp;
+  private int batchTimeout = DEFAULT_BATCH_TIMEOUT;
+
+  /** Sample index of the next new batch. */
+  private int nextSample;
+  private int mergedSpp;
+  private int nextWorkerId = 1;
+  private final Deque<Batch> unfinished = new ArrayDeque<>();
+  private ServerSocket server;
+
+  private BiConsumer<Scene, Integer> onBatchMerged = (scene, previousSpp) -> {};
+  private TaskTracker.Task renderTask = TaskTracker.Task.NONE;
+
+  private static class Batch {
+    final int firstSample;
+    final int spp;
+
+    Batch(int firstSample, int spp) {
+      this.firstSample = firstSample;
+      this.spp = spp;
+    }
+  }
+
+  /**
+   * @param scene the scene to merge the batches into. Rendering continues
+   * from the current samples of the scene until the target SPP is reached.
+   * @param batchSpp number of samples per pixel in each batch
+   */
+  public RenderCoordinator(Scene scene, int batchSpp) {
+    this.scene = scene;
+    this.batchSpp = Math.max(1, batchSpp);
+    synchronized (scene) {
+      this.targetSpp = scene.getTargetSpp();
+      this.nextSample = scene.spp;
+      this.mergedSpp = scene.spp;
+    }
+  }
+
+  /**
+   * Set a listener that is called after each merged batch, with the scene
+   * and the SPP of the scene before the merge. The scene is locked while
+   * the listener runs.
+   */
+  public void setOnBatchMerged(BiConsumer<Scene, Integer> listener) {
+    onBatchMerged = listener;
+  }
+
+  /**
+   * Set the time a worker may go without reporting progress while it renders
+   * a batch, in milliseconds. The default is ten minutes.
+   */
+  public void setBatchTimeout(int millis) {
+    batchTimeout = millis;
+  }
+
+  public void setRenderTask(TaskTracker.Task task) {
+    renderTask = task;
+  }
+
+  /**
+   * Accept workers on the given server socket until the target SPP has been
+   * merged. The server socket is closed when the render is done.
+   */
+  public void run(ServerSocket server) throws IOException, InterruptedException {
+    synchronized (this) {
+      this.server = server;
+      if (isDone()) {
+        server.close();
+        return;
+      }
+    }
+    renderTask.update("Rendering", targetSpp, mergedSpp);
+    List<Thread> handlers = new ArrayList<>();
+    try {
+      while (true) {
+        Socket socket;
+        try {
+          socket = server.accept();
+        } catch (IOException e) {
+          synchronized (this) {
+            if (isDone()) {
+              break;
+            }
+          }
+          throw e;
+        }
+        Thread handler = new Thread(() -> handleWorker(socket), "Render Worker Connection");
+        handler.setDaemon(true);
+        handler.start();
+        handlers.add(handler);
+      }
+      for (Thread handler : handlers) {
+        handler.join();
+      }
+    } finally {
+      server.close();
+    }
+  }
+
+  private void handleWorker(Socket socket) {
+    SocketAddress address = socket.getRemoteSocketAddress();
+    int id = 0;
+    Batch batch = null;
+    // Batches are decoded into this scene before they are merged into the render.
+    Scene decoded = null;
+    try (Socket s = socket;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+      s.setSoTimeout(HANDSHAKE_TIMEOUT);
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        Log.warnf("Rejected connection from %s: not a compatible render worker.", address);
+        return;
+      }
+      s.setKeepAlive(true);
+      synchronized (this) {
+        id = nextWorkerId++;
+      }
+      out.writeInt(id);
+      out.writeInt(scene.canvasWidth());
+      out.writeInt(scene.canvasHeight());
+      // Batches continue the low-discrepancy sequences of the scene.
+      out.writeInt(scene.getSampleSeed());
+      out.flush();
+      Log.infof("Render worker %d connected from %s.", id, address);
+      // Longer dumps are rejected before they are allocated, so that a broken
+      // worker can not run the coordinator out of memory.
+      long maxDumpSize = RenderDump.maxSize(scene.canvasWidth(), scene.canvasHeight());
+
+      while (true) {
+        batch = nextBatch();
+        if (batch == null) {
+          out.writeInt(0);
+          out.writeInt(0);
+          out.flush();
+          return;
+        }
+        out.writeInt(batch.firstSample);
+        out.writeInt(batch.spp);
+        out.flush();
+
+        // A worker that stops sending progress is hung and loses its batch.
+        s.setSoTimeout(batchTimeout);
+        int length;
+        do {
+          length = in.readInt();
+        } while (length == PROGRESS);
+        if (length < DUMP_HEADER_SIZE || length > maxDumpSize) {
+          throw new IOException("Invalid render dump length: " + length);
+        }
+        byte[] dump = new byte[length];
+        in.readFully(dump);
+        s.setSoTimeout(0);
+        if (decoded == null) {
+          decoded = new Scene();
+          decoded.setCanvasSize(scene.canvasWidth(), scene.canvasHeight());
+          decoded.initBuffers();
+        }
+        merge(batch, dump, decoded);
+        batch = null;
+      }
+    } catch (IOException e) {
+      Log.warnf("Render worker %d (%s) disconnected: %s", id, address, e.getMessage());
+    } catch (InterruptedException e) {
+      // Interrupted.
+    } finally {
+      if (batch != null) {
+        retry(batch);
+      }
+    }
+  }
+
+  private boolean isDone() {
+    return mergedSpp >= targetSpp;
+  }
+
+  /**
+   * Wait until there is a batch to render.
+   *
+   * @return {@code null} if the render is done
+   */
+  private synchronized Batch nextBatch() throws InterruptedException {
+    while (true) {
+      if (isDone()) {
+        return null;
+      }
+      if (!unfinished.isEmpty()) {
+        return unfinished.pop();
+      }
+      if (nextSample < targetSpp) {
+        Batch batch = new Batch(nextSample, Math.min(batchSpp, targetSpp - nextSample));
+        nextSample += batch.spp;
+        return batch;
+      }
+      // Wait for the remaining batches, they may need to be rendered again.
+      wait();
+    }
+  }
+
+  private synchronized void retry(Batch batch) {
+    Log.infof("Samples %d to %d will be rendered by another worker.",
+        batch.firstSample, batch.firstSample + batch.spp - 1);
+    unfinished.push(batch);
+    notifyAll();
+  }
+
+  /**
+   * Decode the batch into the scratch scene and merge it into the scene.
+   * A dump that can not be decoded does not modify the scene.
+   */
+  private void merge(Batch batch, byte[] dump, Scene decoded) throws IOException {
+    DataInputStream header = new DataInputStream(new ByteArrayInputStream(dump));
+    header.skipBytes(8); // Magic number and version.
+    int width = header.readInt();
+    int height = header.readInt();
+    int spp = header.readInt();
+    if (spp != batch.spp) {
+      throw new IOException(String.format("Expected %d SPP in batch, got %d", batch.spp, spp));
+    }
+    if (width != decoded.canvasWidth() || height != decoded.canvasHeight()) {
+      throw new IOException("Render dump size does not match the scene canvas size");
+    }
+    try {
+      RenderDump.load(new ByteArrayInputStream(dump), decoded, TaskTracker.NONE);
+    } catch (IllegalStateException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+
+    synchronized (scene) {
+      if (width != scene.canvasWidth() || height != scene.canvasHeight()) {
+        throw new IOException("Render dump size does not match the scene canvas size");
+      }
+      int previousSpp = scene.spp;
+      double sa = previousSpp / (double) (previousSpp + spp);
+      double sb = 1 - sa;
+      SampleBuffer samples = scene.getSamples();
+      SampleBuffer batchSamples = decoded.getSamples();
+      for (int pixel = 0; pixel < width * height; ++pixel) {
+        samples.setPixel(pixel,
+            samples.get(pixel, 0) * sa + batchSamples.get(pixel, 0) * sb,
+            samples.get(pixel, 1) * sa + batchSamples.get(pixel, 1) * sb,
+            samples.get(pixel, 2) * sa + batchSamples.get(pixel, 2) * sb);
+      }
+      scene.spp += spp;
+      scene.renderTime += decoded.renderTime;
+      onBatchMerged.accept(scene, previousSpp);
+      renderTask.update("Rendering", targetSpp, scene.spp);
+    }
+
+    synchronized (this) {
+      mergedSpp += batch.spp;
+      if (isDone()) {
+        // Stop accepting workers.
+        server.close();
+      }
+      notifyAll();
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package se.llbit.chunky.renderer.postprocessing;
+
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.math.ColorUtil;
+import se.llbit.util.TaskTracker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Edge-avoiding à-trous wavelet denoiser, following Dammertz et al.,
+ * "Edge-Avoiding À-Trous Wavelet Transform for fast Global Illumination
+ * Filtering", HPG 2010.
+ *
+ * <p>Each iteration applies a 5x5 B3 spline kernel with holes, doubling the
+ * step between the kernel taps. Taps are weighted by their color difference
+ * and, when the feature buffers are available, by their first-hit albedo and
+ * normal differences, so that edges in the scene are preserved.
+ * After denoising the pixels are tone mapped by another filter.
+ */
+public class DenoisingFilter implements FeatureBufferPostProcessingFilter {
+  private static final int ITERATIONS = 5;
+  private static final double[] KERNEL = { 1 / 16.0, 1 / 4.0, 3 / 8.0, 1 / 4.0, 1 / 16.0 };
+
+  /** Color weight falloff. Halved at each iteration. */
+  private static final double SIGMA_COLOR = 0.5;
+  private static final double SIGMA_ALBEDO = 0.1;
+  /** Exponent for the normal weight. */
+  private static final double NORMAL_POWER = 64;
+
+  private final String id;
+  private final String name;
+  private final SimplePixelPostProcessingFilter toneMapping;
+
+  /**
+   * Scratch buffers for the filter iterations, kept between frames while the
+   * frame size and sample buffer type do not change. Guarded by this filter.
+   */
+  private SampleBuffer[] scratch = null;
+
+  /**
+   * @param toneMapping filter applied to each pixel after denoising
+   */
+  public DenoisingFilter(String id, String name, SimplePixelPostProcessingFilter toneMapping) {
+    this.id = id;
+    this.name = name;
+    this.toneMapping = toneMapping;
+  }
+
+  @Override
+  public void processFrame(int width, int height, SampleBuffer input, float[] albedo, float[] normal,
+      BitmapImage output, double exposure, TaskTracker.Task task) {
+    task.update(height * (ITERATIONS + 1), 0);
+    AtomicInteger done = new AtomicInteger(0);
+    SampleBuffer source = input;
+    SampleBuffer[] buffers = takeScratch(input);
+    for (int i = 0; i < ITERATIONS; ++i) {
+      int step = 1 << i;
+      double sigmaColor = SIGMA_COLOR / step;
+      SampleBuffer src = source;
+      SampleBuffer dst = buffers[i & 1];
+      Chunky.getCommonThreads().submit(() -> {
+        IntStream.range(0, height).parallel().forEach(y -> {
+          for (int x = 0; x < width; x++) {
+            filterPixel(width, height, src, dst, albedo, normal, x, y, step, sigmaColor, exposure);
+          }
+          task.update(height * (ITERATIONS + 1), done.incrementAndGet());
+        });
+      }).join();
+      source = dst;
+    }
+
+    SampleBuffer result = source;
+    Chunky.getCommonThreads().submit(() -> {
+      IntStream.range(0, height).parallel().forEach(y -> {
+        double[] pixel = new double[3];
+        for (int x = 0; x < width; x++) {
+          int index = y * width + x;
+          for (int cc = 0; cc < 3; ++cc) {
+            pixel[cc] = result.get(index, cc) * exposure;
+          }
+          toneMapping.processPixel(pixel);
+          for (int cc = 0; cc < 3; ++cc) {
+            pixel[cc] = Math.min(1.0, pixel[cc]);
+          }
+          output.setPixel(x, y, ColorUtil.getRGB(pixel));
+        }
+        task.update(height * (ITERATIONS + 1), done.incrementAndGet());
+      });
+    }).join();
+    releaseScratch(buffers);
+  }
+
+  /**
+   * Take the cached scratch buffers, or allocate new ones if they do not match the
+   * input or are in use by another frame.
+   */
+  private synchronized SampleBuffer[] takeScratch(SampleBuffer input) {
+    SampleBuffer[] buffers = scratch;
+    scratch = null;
+    if (buffers == null || buffers[0].getType() != input.getType()
+        || buffers[0].getWidth() != input.getWidth() || buffers[0].getHeight() != input.getHeight()) {
+      buffers = new SampleBuffer[] { input.newBuffer(), input.newBuffer() };
+    }
+    return buffers;
+  }
+
+  private synchronized void releaseScratch(SampleBuffer[] buffers) {
+    scratch = buffers;
+  }
+
+  private static void filterPixel(int width, int height, SampleBuffer src, SampleBuffer dst,
+      float[] albedo, float[] normal, int x, int y, int step, double sigmaColor, double exposure) {
+    int centerPixel = y * width + x;
+    int center = centerPixel * 3;
+    double cr = compress(src.get(centerPixel, 0) * exposure);
+    double cg = compress(src.get(centerPixel, 1) * exposure);
+    double cb = compress(src.get(centerPixel, 2) * exposure);
+    boolean features = normal != null && albedo != null
+        && (normal[center] != 0 || normal[center + 1] != 0 || normal[center + 2] != 0);
+    double normalLength = features ? length(normal, center) : 0;
+
+    double sr = 0, sg = 0, sb = 0;
+    double weightSum = 0;
+    for (int j = -2; j <= 2; ++j) {
+      int py = y + j * step;
+      if (py < 0 || py >= height) {
+        continue;
+      }
+      for (int i = -2; i <= 2; ++i) {
+        int px = x + i * step;
+        if (px < 0 || px >= width) {
+          continue;
+        }
+        int pixel = py * width + px;
+        int offset = pixel * 3;
+        double r = src.get(pixel, 0);
+        double g = src.get(pixel, 1);
+        double b = src.get(pixel, 2);
+        double dr = compress(r * exposure) - cr;
+        double dg = compress(g * exposure) - cg;
+        double db = compress(b * exposure) - cb;
+        double weight = KERNEL[i + 2] * KERNEL[j + 2]
+            * Math.exp(-(dr * dr + dg * dg + db * db) / (sigmaColor * sigmaColor));
+        if (features) {
+          double ar = albedo[offset] - albedo[center];
+          double ag = albedo[offset + 1] - albedo[center + 1];
+          double ab = albedo[offset + 2] - albedo[center + 2];
+          weight *= Math.exp(-(ar * ar + ag * ag + ab * ab) / (SIGMA_ALBEDO * SIGMA_ALBEDO));
+          double dot = normal[offset] * normal[center] + normal[offset + 1] * normal[center + 1]
+              + normal[offset + 2] * normal[center + 2];
+          double length = normalLength * length(normal, offset);
+          weight *= length > 0 ? Math.pow(Math.max(0, dot / length), NORMAL_POWER) : 0;
+        }
+        sr += r * weight;
+        sg += g * weight;
+        sb += b * weight;
+        weightSum += weight;
+      }
+    }
+    // The center tap always has a positive weight.
+    dst.setPixel(centerPixel, sr / weightSum, sg / weightSum, sb / weightSum);
+  }
+
+  private static double length(float[] vectors, int offset) {
+    double x = vectors[offset];
+    double y = vectors[offset + 1];
+    double z = vectors[offset + 2];
+    return Math.sqrt(x * x + y * y + z * z);
+  }
+
+  /**
+   * Compress the dynamic range of a color channel, so that the color weight
+   * is not dominated by very bright pixels.
+   */
+  private static double compress(double value) {
+    return value / (1 + value);
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getDescription() {
+    return "Reduces noise with an edge-aware filter. Uses the albedo and normal of the first hit "
+        + "for renders that were started with this filter selected.";
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+}
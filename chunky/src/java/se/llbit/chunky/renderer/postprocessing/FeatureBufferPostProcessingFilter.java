@@ -0,0 +1,40 @@
+package se.llbit.chunky.renderer.postprocessing;
+
+import se.llbit.chunky.renderer.scene.DoubleSampleBuffer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.util.TaskTracker;
+
+/**
+ * A post processing filter that also uses the first-hit albedo and normal
+ * feature buffers of the scene.
+ */
+public interface FeatureBufferPostProcessingFilter extends PostProcessingFilter {
+  /**
+   * Post process the entire frame
+   * @param width The width of the image
+   * @param height The height of the image
+   * @param input The input linear image, exposure has not been applied
+   * @param albedo First-hit albedo, three values per pixel, or {@code null} if not available
+   * @param normal First-hit normal, three values per pixel, or {@code null} if not available.
+   *               A zero normal means that no feature sample was taken for the pixel.
+   * @param output The output image
+   * @param exposure The exposure value
+   * @param task Task
+   */
+  void processFrame(int width, int height, SampleBuffer input, float[] albedo, float[] normal,
+      BitmapImage output, double exposure, TaskTracker.Task task);
+
+  @Override
+  default void processFrame(int width, int height, SampleBuffer input, BitmapImage output,
+      double exposure, TaskTracker.Task task) {
+    processFrame(width, height, input, null, null, output, exposure, task);
+  }
+
+  @Override
+  default void processFrame(int width, int height, double[] input, BitmapImage output,
+      double exposure, TaskTracker.Task task) {
+    processFrame(width, height, new DoubleSampleBuffer(width, height, input), null, null, output,
+        exposure, task);
+  }
+}
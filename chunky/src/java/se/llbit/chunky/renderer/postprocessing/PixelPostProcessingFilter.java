@@ -1,6 +1,8 @@
 package se.llbit.chunky.renderer.postprocessing;
 
 import se.llbit.chunky.plugin.PluginApi;
+import se.llbit.chunky.renderer.scene.DoubleSampleBuffer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 
 /**
  * Post processing filter that supports processing one pixel at a time.
@@ -18,4 +20,28 @@ public interface PixelPostProcessingFilter extends PostProcessingFilter {
    * @param output The output buffer for the processed pixel
    */
   void processPixel(int width, int height, double[] input, int x, int y, double exposure, double[] output);
+
+  /**
+   * Post process a single pixel
+   * <p>
+   * The default implementation passes the pixel to
+   * {@link #processPixel(int, int, double[], int, int, double, double[])} as a one pixel image
+   * if the samples are not stored in a double array.
+   * @param width The width of the image
+   * @param height The height of the image
+   * @param input The input linear image
+   * @param x The x position of the pixel to process
+   * @param y The y position of the pixel to process
+   * @param exposure The exposure value
+   * @param output The output buffer for the processed pixel
+   */
+  default void processPixel(int width, int height, SampleBuffer input, int x, int y, double exposure, double[] output) {
+    if (input instanceof DoubleSampleBuffer) {
+      processPixel(width, height, ((DoubleSampleBuffer) input).getData(), x, y, exposure, output);
+    } else {
+      double[] pixel = new double[3];
+      input.getPixel(y * width + x, pixel);
+      processPixel(1, 1, pixel, 0, 0, exposure, output);
+    }
+  }
 }
@@ -1,6 +1,8 @@
 package se.llbit.chunky.renderer.postprocessing;
 
 import se.llbit.chunky.plugin.PluginApi;
+import se.llbit.chunky.renderer.scene.DoubleSampleBuffer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.util.TaskTracker;
 
@@ -26,6 +28,29 @@ public interface PostProcessingFilter {
    */
   void processFrame(int width, int height, double[] input, BitmapImage output, double exposure, TaskTracker.Task task);
 
+  /**
+   * Post process the entire frame
+   * <p>
+   * The default implementation copies the samples to a double array if needed. Filters should
+   * override this to read other sample buffer types directly.
+   * @param width The width of the image
+   * @param height The height of the image
+   * @param input The input linear image, exposure has not been applied
+   * @param output The output image
+   * @param exposure The exposure value
+   * @param task Task
+   */
+  default void processFrame(int width, int height, SampleBuffer input, BitmapImage output, double exposure, TaskTracker.Task task) {
+    DoubleSampleBuffer samples;
+    if (input instanceof DoubleSampleBuffer) {
+      samples = (DoubleSampleBuffer) input;
+    } else {
+      samples = new DoubleSampleBuffer(width, height);
+      samples.copyFrom(input);
+    }
+    processFrame(width, height, samples.getData(), output, exposure, task);
+  }
+
   /**
    * Get name of the post processing filter
    * @return The name of the post processing filter
@@ -18,6 +18,8 @@ public abstract class PostProcessingFilters {
     addPostProcessingFilter(new Tonemap1Filter());
     addPostProcessingFilter(new ACESFilmicFilter());
     addPostProcessingFilter(new HableToneMappingFilter());
+    addPostProcessingFilter(new DenoisingFilter("DENOISE", "Denoise + gamma correction",
+        new GammaCorrectionFilter()));
   }
 
   public static Optional<PostProcessingFilter> getPostProcessingFilterFromId(String id) {
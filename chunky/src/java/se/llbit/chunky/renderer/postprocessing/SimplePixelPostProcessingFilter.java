@@ -1,6 +1,8 @@
 package se.llbit.chunky.renderer.postprocessing;
 
 import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.renderer.scene.DoubleSampleBuffer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.math.ColorUtil;
 import se.llbit.util.TaskTracker;
@@ -21,6 +23,11 @@ public abstract class SimplePixelPostProcessingFilter implements PixelPostProces
 
   @Override
   public void processFrame(int width, int height, double[] input, BitmapImage output, double exposure, TaskTracker.Task task) {
+    processFrame(width, height, new DoubleSampleBuffer(width, height, input), output, exposure, task);
+  }
+
+  @Override
+  public void processFrame(int width, int height, SampleBuffer input, BitmapImage output, double exposure, TaskTracker.Task task) {
     task.update(height, 0);
     AtomicInteger done = new AtomicInteger(0);
     Chunky.getCommonThreads().submit(() -> {
@@ -29,9 +36,9 @@ public abstract class SimplePixelPostProcessingFilter implements PixelPostProces
 
         int rowOffset = y * width;
         for (int x = 0; x < width; x++) {
-          int pixelOffset = (rowOffset + x) * 3;
+          int pixel = rowOffset + x;
           for(int i = 0; i < 3; ++i) {
-            pixelBuffer[i] = input[pixelOffset + i] * exposure;
+            pixelBuffer[i] = input.get(pixel, i) * exposure;
           }
           processPixel(pixelBuffer);
           for(int i = 0; i < 3; ++i) {
@@ -52,4 +59,12 @@ public abstract class SimplePixelPostProcessingFilter implements PixelPostProces
       output[i] = input[index + i] * exposure;
     processPixel(output);
   }
+
+  @Override
+  public void processPixel(int width, int height, SampleBuffer input, int x, int y, double exposure, double[] output) {
+    int pixel = y * width + x;
+    for(int i = 0; i < 3; ++i)
+      output[i] = input.get(pixel, i) * exposure;
+    processPixel(output);
+  }
 }
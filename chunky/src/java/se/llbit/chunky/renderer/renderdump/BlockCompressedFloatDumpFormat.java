@@ -0,0 +1,152 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.renderdump;
+
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
+import se.llbit.chunky.renderer.scene.Scene;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Render dump format that splits the samples into blocks of rows which are compressed
+ * independently with {@link FloatingPointCompressor}. The blocks are compressed and
+ * decompressed in parallel.
+ * <p>
+ * After the header the dump contains the block index: the number of rows per block, the
+ * number of blocks and the compressed size in bytes of each block. The compressed blocks
+ * follow in order, so a reader can skip to the block containing any row, see
+ * {@link BlockIndex}.
+ */
+class BlockCompressedFloatDumpFormat extends DumpFormat {
+
+  public static final DumpFormat INSTANCE = new BlockCompressedFloatDumpFormat();
+
+  /**
+   * Approximate number of pixels per block. Large enough for the compressor to
+   * adapt to the samples, small enough to split an image into many blocks.
+   */
+  private static final int BLOCK_PIXELS = 1 << 16;
+
+  private BlockCompressedFloatDumpFormat() {
+  }
+
+  /**
+   * @return the largest possible size in bytes of the block index and the compressed
+   * samples of a dump with the given size
+   */
+  static long maxSampleSize(int width, int height) {
+    // Blocks have at least one row. The compressor writes at most 17 bytes per pair of
+    // values in a channel, and the odd last pixel of a block takes a pair of its own.
+    long index = 4 + 4 + 4L * height;
+    return index + 17L * 3 * ((long) width * height + height + 1) / 2;
+  }
+
+  @Override
+  public void readSamples(DataInputStream inputStream, Scene scene, PixelConsumer consumer, IntConsumer pixelProgress)
+      throws IOException {
+    BlockIndex index = BlockIndex.read(inputStream, scene.width, scene.height);
+    byte[][] blocks = new byte[index.blocks()][];
+    for (int block = 0; block < blocks.length; ++block) {
+      blocks[block] = new byte[index.size(block)];
+      inputStream.readFully(blocks[block]);
+    }
+    Progress progress = new Progress(pixelProgress);
+    parallel(blocks.length, block -> {
+      decompressBlock(blocks[block], index, block, consumer);
+      progress.done(index.pixels(block));
+    });
+  }
+
+  @Override
+  public void writeSamples(DataOutputStream outputStream, Scene scene, IntConsumer pixelProgress) throws IOException {
+    SampleBuffer samples = scene.getSamples();
+    BlockIndex index = new BlockIndex(scene.width, scene.height, Math.max(1, BLOCK_PIXELS / scene.width));
+    byte[][] blocks = new byte[index.blocks()][];
+    Progress progress = new Progress(pixelProgress);
+    parallel(blocks.length, block -> {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      FloatingPointCompressor.compress(bytes, samples, index.firstPixel(block), index.pixels(block), i -> {});
+      blocks[block] = bytes.toByteArray();
+      progress.done(index.pixels(block));
+    });
+    for (int block = 0; block < blocks.length; ++block) {
+      index.setSize(block, blocks[block].length);
+    }
+    index.write(outputStream);
+    for (byte[] block : blocks) {
+      outputStream.write(block);
+    }
+  }
+
+  /**
+   * Decompress one block of a dump and pass its pixels to the consumer.
+   *
+   * @param data the compressed block
+   */
+  static void decompressBlock(byte[] data, BlockIndex index, int block, PixelConsumer consumer) throws IOException {
+    FloatingPointCompressor.decompress(new ByteArrayInputStream(data), index.firstPixel(block), index.pixels(block),
+        consumer, i -> {});
+  }
+
+  interface BlockTask {
+    void run(int block) throws IOException;
+  }
+
+  /**
+   * Run the task for all blocks on the common thread pool.
+   */
+  static void parallel(int blocks, BlockTask task) throws IOException {
+    try {
+      Chunky.getCommonThreads().submit(() -> {
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+          try {
+            task.run(block);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      }).join();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Reports the number of finished pixels in increasing order, from any thread.
+   */
+  static class Progress {
+    private final IntConsumer pixelProgress;
+    private int done = 0;
+
+    Progress(IntConsumer pixelProgress) {
+      this.pixelProgress = pixelProgress;
+    }
+
+    synchronized void done(int pixels) {
+      done += pixels;
+      pixelProgress.accept(done);
+    }
+  }
+}
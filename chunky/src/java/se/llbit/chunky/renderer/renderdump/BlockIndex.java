@@ -0,0 +1,112 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.renderdump;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Index table of a {@link BlockCompressedFloatDumpFormat} dump. The image is split into
+ * blocks of whole rows, each block is compressed independently. The index holds the
+ * compressed size of each block, so the position of any block in the dump is known
+ * without decompressing the blocks before it.
+ */
+class BlockIndex {
+  private final int width;
+  private final int height;
+  private final int blockHeight;
+  private final int[] sizes;
+
+  BlockIndex(int width, int height, int blockHeight) {
+    this.width = width;
+    this.height = height;
+    this.blockHeight = blockHeight;
+    this.sizes = new int[(height + blockHeight - 1) / blockHeight];
+  }
+
+  /**
+   * Read the index of a dump with the given size.
+   *
+   * @throws IOException if the index does not match the size
+   */
+  static BlockIndex read(DataInputStream in, int width, int height) throws IOException {
+    int blockHeight = in.readInt();
+    if (blockHeight <= 0) {
+      throw new IOException("Invalid dump block height: " + blockHeight);
+    }
+    BlockIndex index = new BlockIndex(width, height, blockHeight);
+    int blocks = in.readInt();
+    if (blocks != index.blocks()) {
+      throw new IOException("Dump block count does not match dump size");
+    }
+    for (int block = 0; block < blocks; ++block) {
+      index.sizes[block] = in.readInt();
+    }
+    return index;
+  }
+
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(blockHeight);
+    out.writeInt(sizes.length);
+    for (int size : sizes) {
+      out.writeInt(size);
+    }
+  }
+
+  int blocks() {
+    return sizes.length;
+  }
+
+  /**
+   * @return the block containing the given row
+   */
+  int blockOfRow(int y) {
+    return y / blockHeight;
+  }
+
+  int firstPixel(int block) {
+    return block * blockHeight * width;
+  }
+
+  int pixels(int block) {
+    int rows = Math.min(blockHeight, height - block * blockHeight);
+    return rows * width;
+  }
+
+  /**
+   * @return the compressed size of the block in bytes
+   */
+  int size(int block) {
+    return sizes[block];
+  }
+
+  void setSize(int block, int size) {
+    sizes[block] = size;
+  }
+
+  /**
+   * @return the position of the block relative to the end of the index
+   */
+  long offset(int block) {
+    long offset = 0;
+    for (int i = 0; i < block; ++i) {
+      offset += sizes[i];
+    }
+    return offset;
+  }
+}
@@ -16,6 +16,7 @@
  */
 package se.llbit.chunky.renderer.renderdump;
 
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
 
 import java.io.DataInputStream;
@@ -50,16 +51,15 @@ class ClassicDumpFormat extends DumpFormat {
 
   @Override
   public void writeSamples(DataOutputStream outputStream, Scene scene, IntConsumer pixelProgress) throws IOException {
-    double[] samples = scene.getSampleBuffer();
-    int pixelIndex, index;
+    SampleBuffer samples = scene.getSamples();
+    int pixelIndex;
     // Warning: This format writes in columns instead of rows
     for (int x = 0; x < scene.width; ++x) {
       for (int y = 0; y < scene.height; ++y) {
         pixelIndex = (y * scene.width + x);
-        index = pixelIndex * 3;
-        outputStream.writeDouble(samples[index]);
-        outputStream.writeDouble(samples[index + 1]);
-        outputStream.writeDouble(samples[index + 2]);
+        outputStream.writeDouble(samples.get(pixelIndex, 0));
+        outputStream.writeDouble(samples.get(pixelIndex, 1));
+        outputStream.writeDouble(samples.get(pixelIndex, 2));
         pixelProgress.accept(pixelIndex);
       }
     }
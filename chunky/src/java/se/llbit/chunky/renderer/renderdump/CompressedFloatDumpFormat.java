@@ -33,11 +33,11 @@ class CompressedFloatDumpFormat extends DumpFormat {
   @Override
   public void readSamples(DataInputStream inputStream, Scene scene, PixelConsumer consumer, IntConsumer pixelProgress)
       throws IOException {
-    FloatingPointCompressor.decompress(inputStream, scene.getSampleBuffer().length, consumer, pixelProgress);
+    FloatingPointCompressor.decompress(inputStream, scene.width * scene.height * 3, consumer, pixelProgress);
   }
 
   @Override
   public void writeSamples(DataOutputStream outputStream, Scene scene, IntConsumer pixelProgress) throws IOException {
-    FloatingPointCompressor.compress(outputStream, scene.getSampleBuffer(), pixelProgress);
+    FloatingPointCompressor.compress(outputStream, scene.getSamples(), pixelProgress);
   }
 }
@@ -16,6 +16,7 @@
  */
 package se.llbit.chunky.renderer.renderdump;
 
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.util.TaskTracker;
 
@@ -42,7 +43,7 @@ abstract class DumpFormat {
       throws IOException, IllegalStateException {
     try (TaskTracker.Task task = taskTracker.task("Loading render dump", scene.canvasWidth() * scene.canvasHeight())) {
       readHeader(inputStream, scene);
-      readSamples(inputStream, scene, pixelProgress -> updateTask(task, scene, pixelProgress));
+      readSamples(inputStream, scene, taskProgress(task, scene));
     }
   }
 
@@ -59,13 +60,8 @@ abstract class DumpFormat {
   }
 
   protected void readSamples(DataInputStream inputStream, Scene scene, IntConsumer pixelProgress) throws IOException {
-    double[] buffer = scene.getSampleBuffer();
-    PixelConsumer px = (pixelIndex, r, g, b) -> {
-      int index = 3 * pixelIndex;
-      buffer[index + 0] = r;
-      buffer[index + 1] = g;
-      buffer[index + 2] = b;
-    };
+    SampleBuffer buffer = scene.getSamples();
+    PixelConsumer px = buffer::setPixel;
 
     readSamples(inputStream, scene, px, pixelProgress);
   }
@@ -92,13 +88,11 @@ abstract class DumpFormat {
     int dumpSpp = scene.spp;
     double sa = previousSpp / (double) (previousSpp + dumpSpp);
     double sb = 1 - sa;
-    double[] buffer = scene.getSampleBuffer();
-    PixelConsumer px = (pixelIndex, r, g, b) -> {
-      int index = 3 * pixelIndex;
-      buffer[index] = buffer[index] * sa + r * sb;
-      buffer[index + 1] = buffer[index + 1] * sa + g * sb;
-      buffer[index + 2] = buffer[index + 2] * sa + b * sb;
-    };
+    SampleBuffer buffer = scene.getSamples();
+    PixelConsumer px = (pixelIndex, r, g, b) -> buffer.setPixel(pixelIndex,
+        buffer.get(pixelIndex, 0) * sa + r * sb,
+        buffer.get(pixelIndex, 1) * sa + g * sb,
+        buffer.get(pixelIndex, 2) * sa + b * sb);
     readSamples(inputStream, scene, px, pixelProgress);
   }
 
@@ -111,7 +105,7 @@ abstract class DumpFormat {
   public void save(DataOutputStream outputStream, Scene scene, TaskTracker taskTracker) throws IOException {
     try (TaskTracker.Task task = taskTracker.task("Saving render dump", scene.canvasWidth() * scene.canvasHeight())) {
       writeHeader(outputStream, scene);
-      writeSamples(outputStream, scene, pixelProgress -> updateTask(task, scene, pixelProgress));
+      writeSamples(outputStream, scene, taskProgress(task, scene));
       outputStream.flush();
     }
   }
@@ -126,12 +120,16 @@ abstract class DumpFormat {
   protected abstract void writeSamples(DataOutputStream outputStream, Scene scene, IntConsumer pixelProgress)
       throws IOException;
 
-  private void updateTask(TaskTracker.Task task, Scene scene, int pixelProgress) {
-    int x = scene.width * scene.height / 100;
+  private IntConsumer taskProgress(TaskTracker.Task task, Scene scene) {
     // reduce number of update calls (performance reasons)
     // this results in steps of 1% progress each
-    if (pixelProgress % x == 0) {
-      task.update(pixelProgress);
-    }
+    int step = Math.max(1, scene.width * scene.height / 100);
+    int[] next = { 0 };
+    return pixelProgress -> {
+      if (pixelProgress >= next[0]) {
+        task.update(pixelProgress);
+        next[0] = pixelProgress - pixelProgress % step + step;
+      }
+    };
   }
 }
@@ -0,0 +1,213 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.renderdump;
+
+import se.llbit.chunky.renderer.scene.SampleBuffer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.log.Log;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merges any number of render dump files into the samples of a scene, weighting each
+ * dump by its spp.
+ * <p>
+ * Dumps in the block compressed format with the same block layout are merged together
+ * in one parallel pass over the blocks: each block of the scene is combined with the
+ * same block of every dump, read directly from its position in the dump file. Only the
+ * compressed blocks in flight are held in memory, no dump is fully decompressed.
+ * Dumps in older formats are merged one after the other with {@link RenderDump#merge}.
+ */
+public class DumpMerger {
+
+  /**
+   * Size of the header of a block compressed dump before the block index: magic number,
+   * version, width, height, spp and render time.
+   */
+  private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 8;
+
+  /** An open block compressed dump. */
+  private static class BlockDump {
+    final FileChannel channel;
+    final int spp;
+    final long renderTime;
+    final BlockIndex index;
+    final long[] positions;
+
+    BlockDump(FileChannel channel, int spp, long renderTime, BlockIndex index) {
+      this.channel = channel;
+      this.spp = spp;
+      this.renderTime = renderTime;
+      this.index = index;
+      positions = new long[index.blocks()];
+      long position = HEADER_SIZE + 4 + 4 + 4L * index.blocks();
+      for (int block = 0; block < positions.length; ++block) {
+        positions[block] = position;
+        position += index.size(block);
+      }
+    }
+
+    byte[] readBlock(int block) throws IOException {
+      byte[] data = new byte[index.size(block)];
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      long position = positions[block];
+      while (buffer.hasRemaining()) {
+        int read = channel.read(buffer, position + buffer.position());
+        if (read < 0) {
+          throw new EOFException("Unexpected end of render dump");
+        }
+      }
+      return data;
+    }
+  }
+
+  /**
+   * Merge the dumps into the samples of the scene. The spp and render time of the
+   * scene are updated to include the dumps.
+   *
+   * @throws IllegalStateException If the width or height of the scene do not match the width or height in a dump.
+   * @throws IOException           If a dump format is unknown or file access fails
+   */
+  public static void merge(Scene scene, List<File> dumpFiles, TaskTracker taskTracker)
+      throws IOException, IllegalStateException {
+    List<BlockDump> blockDumps = new ArrayList<>();
+    List<File> otherDumps = new ArrayList<>();
+    try {
+      for (File file : dumpFiles) {
+        BlockDump dump = open(file, scene);
+        if (dump != null && (blockDumps.isEmpty() || sameLayout(blockDumps.get(0).index, dump.index))) {
+          blockDumps.add(dump);
+        } else {
+          if (dump != null) {
+            dump.channel.close();
+          }
+          otherDumps.add(file);
+        }
+      }
+      if (!blockDumps.isEmpty()) {
+        mergeBlocks(scene, blockDumps, taskTracker);
+      }
+    } finally {
+      for (BlockDump dump : blockDumps) {
+        dump.channel.close();
+      }
+    }
+    for (File file : otherDumps) {
+      Log.info("Merging render dump: " + file);
+      try (FileInputStream in = new FileInputStream(file)) {
+        RenderDump.merge(in, scene, taskTracker);
+      }
+    }
+  }
+
+  /**
+   * Open a dump file and read its header and block index.
+   *
+   * @return {@code null} if the dump is not in the block compressed format
+   */
+  private static BlockDump open(File file, Scene scene) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      byte[] magicNumber = new byte[RenderDump.DUMP_FORMAT_MAGIC_NUMBER.length];
+      if (in.read(magicNumber) != magicNumber.length
+          || !Arrays.equals(RenderDump.DUMP_FORMAT_MAGIC_NUMBER, magicNumber)
+          || in.readInt() != 2) {
+        channel.close();
+        return null;
+      }
+      int width = in.readInt();
+      int height = in.readInt();
+      if (width != scene.canvasWidth() || height != scene.canvasHeight()) {
+        throw new IllegalStateException("Scene size does not match dump size: " + file);
+      }
+      int spp = in.readInt();
+      long renderTime = in.readLong();
+      return new BlockDump(channel, spp, renderTime, BlockIndex.read(in, width, height));
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static boolean sameLayout(BlockIndex a, BlockIndex b) {
+    if (a.blocks() != b.blocks()) {
+      return false;
+    }
+    for (int block = 0; block < a.blocks(); ++block) {
+      if (a.firstPixel(block) != b.firstPixel(block)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void mergeBlocks(Scene scene, List<BlockDump> dumps, TaskTracker taskTracker) throws IOException {
+    long totalSpp = scene.spp;
+    long renderTime = scene.renderTime;
+    for (BlockDump dump : dumps) {
+      totalSpp += dump.spp;
+      renderTime += dump.renderTime;
+    }
+    double sceneWeight = totalSpp > 0 ? scene.spp / (double) totalSpp : 0;
+    double[] weights = new double[dumps.size()];
+    for (int i = 0; i < weights.length; ++i) {
+      weights[i] = totalSpp > 0 ? dumps.get(i).spp / (double) totalSpp : 0;
+    }
+
+    SampleBuffer buffer = scene.getSamples();
+    BlockIndex index = dumps.get(0).index;
+    try (TaskTracker.Task task = taskTracker.task("Merging render dumps", index.blocks())) {
+      BlockCompressedFloatDumpFormat.Progress progress = new BlockCompressedFloatDumpFormat.Progress(
+          blocks -> task.update(blocks));
+      BlockCompressedFloatDumpFormat.parallel(index.blocks(), block -> {
+        int first = index.firstPixel(block);
+        int end = first + index.pixels(block);
+        for (int pixel = first; pixel < end; ++pixel) {
+          buffer.setPixel(pixel,
+              buffer.get(pixel, 0) * sceneWeight,
+              buffer.get(pixel, 1) * sceneWeight,
+              buffer.get(pixel, 2) * sceneWeight);
+        }
+        for (int i = 0; i < dumps.size(); ++i) {
+          double weight = weights[i];
+          BlockCompressedFloatDumpFormat.decompressBlock(dumps.get(i).readBlock(block), index, block,
+              (pixel, r, g, b) -> buffer.setPixel(pixel,
+                  buffer.get(pixel, 0) + r * weight,
+                  buffer.get(pixel, 1) + g * weight,
+                  buffer.get(pixel, 2) + b * weight));
+        }
+        progress.done(1);
+      });
+    }
+    scene.spp = (int) totalSpp;
+    scene.renderTime = renderTime;
+  }
+}
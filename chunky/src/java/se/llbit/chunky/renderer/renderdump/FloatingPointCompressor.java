@@ -18,6 +18,8 @@ package se.llbit.chunky.renderer.renderdump;
 
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import se.llbit.chunky.renderer.scene.DoubleSampleBuffer;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -152,31 +154,43 @@ public class FloatingPointCompressor {
   }
 
   public static void compress(OutputStream output, double[] input, IntConsumer pixelProgress) throws IOException {
-    try (FastBufferedOutputStream out = new FastBufferedOutputStream(output)) {
-      if (input.length % 3 != 0)
-        throw new IllegalArgumentException("Dump doesn't have a multiple of 3 values");
+    if (input.length % 3 != 0)
+      throw new IllegalArgumentException("Dump doesn't have a multiple of 3 values");
+    compress(output, new DoubleSampleBuffer(input.length / 3, 1, input), pixelProgress);
+  }
+
+  public static void compress(OutputStream output, SampleBuffer input, IntConsumer pixelProgress) throws IOException {
+    compress(output, input, 0, input.getWidth() * input.getHeight(), pixelProgress);
+  }
 
-      int pixels = input.length / 3;
-      int size = pixels - 1;
+  /**
+   * Compress a range of pixels of the sample buffer as an independent stream.
+   *
+   * @param first  index of the first pixel to compress
+   * @param pixels number of pixels to compress
+   */
+  public static void compress(OutputStream output, SampleBuffer input, int first, int pixels,
+      IntConsumer pixelProgress) throws IOException {
+    try (FastBufferedOutputStream out = new FastBufferedOutputStream(output)) {
+      int end = first + pixels;
+      int size = end - 1;
 
       EncoderDecoder rEncoder = new EncoderDecoder();
       EncoderDecoder gEncoder = new EncoderDecoder();
       EncoderDecoder bEncoder = new EncoderDecoder();
 
-      for (int i = 0; i < size; i += 2) {
-        int idx = 3 * i;
-        rEncoder.encodePair(input[idx], input[idx + 3], out);
-        gEncoder.encodePair(input[idx + 1], input[idx + 4], out);
-        bEncoder.encodePair(input[idx + 2], input[idx + 5], out);
+      for (int i = first; i < size; i += 2) {
+        rEncoder.encodePair(input.get(i, 0), input.get(i + 1, 0), out);
+        gEncoder.encodePair(input.get(i, 1), input.get(i + 1, 1), out);
+        bEncoder.encodePair(input.get(i, 2), input.get(i + 1, 2), out);
         pixelProgress.accept(i);
       }
 
       // Add the last one and a special terminator if there is an odd number
       if (pixels % 2 == 1) {
-        int idx = 3 * size;
-        rEncoder.encodeSingleWithOddTerminator(input[idx], out);
-        gEncoder.encodeSingleWithOddTerminator(input[idx + 1], out);
-        bEncoder.encodeSingleWithOddTerminator(input[idx + 2], out);
+        rEncoder.encodeSingleWithOddTerminator(input.get(size, 0), out);
+        gEncoder.encodeSingleWithOddTerminator(input.get(size, 1), out);
+        bEncoder.encodeSingleWithOddTerminator(input.get(size, 2), out);
         pixelProgress.accept(size);
       }
     }
@@ -184,18 +198,28 @@ public class FloatingPointCompressor {
 
   public static void decompress(InputStream input, int bufferLength, PixelConsumer consumer, IntConsumer pixelProgress)
       throws IOException {
-    try (FastBufferedInputStream in = new FastBufferedInputStream(input)) {
-      if (bufferLength % 3 != 0)
-        throw new IllegalArgumentException("Dump doesn't have a multiple of 3 values");
+    if (bufferLength % 3 != 0)
+      throw new IllegalArgumentException("Dump doesn't have a multiple of 3 values");
+    decompress(input, 0, bufferLength / 3, consumer, pixelProgress);
+  }
 
-      int pixels = bufferLength / 3;
-      int size = pixels - 1;
+  /**
+   * Decompress a stream written by {@link #compress(OutputStream, SampleBuffer, int, int, IntConsumer)}.
+   *
+   * @param first  index of the first pixel in the stream, passed to the consumer
+   * @param pixels number of pixels in the stream
+   */
+  public static void decompress(InputStream input, int first, int pixels, PixelConsumer consumer,
+      IntConsumer pixelProgress) throws IOException {
+    try (FastBufferedInputStream in = new FastBufferedInputStream(input)) {
+      int end = first + pixels;
+      int size = end - 1;
 
       EncoderDecoder rDecoder = new EncoderDecoder();
       EncoderDecoder gDecoder = new EncoderDecoder();
       EncoderDecoder bDecoder = new EncoderDecoder();
 
-      for (int i = 0; i < size; i += 2) {
+      for (int i = first; i < size; i += 2) {
         byte rGroupedHeader = (byte) in.read();
         byte rFirstHeader = (byte) ((rGroupedHeader >>> 4) & 0x0F);
         byte rSecondHeader = (byte) (rGroupedHeader & 0x0F);
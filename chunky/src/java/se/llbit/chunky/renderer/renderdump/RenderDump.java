@@ -39,12 +39,14 @@ import java.util.zip.GZIPInputStream;
 public class RenderDump {
   static final byte[] DUMP_FORMAT_MAGIC_NUMBER = {0x44, 0x55, 0x4D, 0x50};
 
-  static final int CURRENT_DUMP_VERSION = 1;
+  static final int CURRENT_DUMP_VERSION = 2;
 
   private static DumpFormat getDumpFormatForVersion(int version) {
     switch (version) {
       case 1:
         return CompressedFloatDumpFormat.INSTANCE;
+      case 2:
+        return BlockCompressedFloatDumpFormat.INSTANCE;
       default:
         return ClassicDumpFormat.INSTANCE;
     }
@@ -106,11 +108,28 @@ public class RenderDump {
     }
   }
 
+  /**
+   * Get the largest possible size in bytes of a render dump with the given size written by
+   * {@link #save(OutputStream, Scene, TaskTracker)}, including the magic number and version.
+   */
+  public static long maxSize(int width, int height) {
+    // Magic number, version and the width, height, spp and render time header.
+    long header = DUMP_FORMAT_MAGIC_NUMBER.length + 4 + 4 + 4 + 4 + 8;
+    return header + BlockCompressedFloatDumpFormat.maxSampleSize(width, height);
+  }
+
   public static void save(OutputStream outputStream, Scene scene, TaskTracker taskTracker) throws IOException {
+    save(outputStream, scene, taskTracker, CURRENT_DUMP_VERSION);
+  }
+
+  /**
+   * Save a render dump in the format of the given dump version.
+   */
+  static void save(OutputStream outputStream, Scene scene, TaskTracker taskTracker, int version) throws IOException {
     outputStream.write(DUMP_FORMAT_MAGIC_NUMBER);
     DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(outputStream));
-    DumpFormat format = getDumpFormatForVersion(CURRENT_DUMP_VERSION);
-    dataOutputStream.writeInt(CURRENT_DUMP_VERSION);
+    DumpFormat format = getDumpFormatForVersion(version);
+    dataOutputStream.writeInt(version);
     format.save(dataOutputStream, scene, taskTracker);
   }
 }
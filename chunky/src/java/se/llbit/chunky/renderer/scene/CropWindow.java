@@ -0,0 +1,102 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonValue;
+
+/**
+ * A rectangle of canvas pixels that is rendered on its own, so that a part
+ * of a large render can be re-rendered without restarting the whole frame.
+ * The rectangle includes {@code (x0, y0)} and excludes {@code (x1, y1)}.
+ */
+public final class CropWindow {
+  public final int x0, y0;
+  public final int x1, y1;
+
+  public CropWindow(int x0, int y0, int x1, int y1) {
+    this.x0 = x0;
+    this.y0 = y0;
+    this.x1 = x1;
+    this.y1 = y1;
+  }
+
+  public int width() {
+    return x1 - x0;
+  }
+
+  public int height() {
+    return y1 - y0;
+  }
+
+  public boolean isEmpty() {
+    return x1 <= x0 || y1 <= y0;
+  }
+
+  public boolean contains(int x, int y) {
+    return x >= x0 && x < x1 && y >= y0 && y < y1;
+  }
+
+  /**
+   * @return this window clipped to a canvas of the given size, or
+   * {@code null} if nothing of the window is inside the canvas
+   */
+  public CropWindow clip(int width, int height) {
+    CropWindow clipped = new CropWindow(Math.max(0, x0), Math.max(0, y0),
+        Math.min(width, x1), Math.min(height, y1));
+    return clipped.isEmpty() ? null : clipped;
+  }
+
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    json.add("x0", x0);
+    json.add("y0", y0);
+    json.add("x1", x1);
+    json.add("y1", y1);
+    return json;
+  }
+
+  /**
+   * @return the crop window stored in the JSON value, or {@code null} if the
+   * value is not a valid crop window
+   */
+  public static CropWindow fromJson(JsonValue value) {
+    if (!value.isObject()) {
+      return null;
+    }
+    JsonObject json = value.object();
+    CropWindow window = new CropWindow(json.get("x0").intValue(0), json.get("y0").intValue(0),
+        json.get("x1").intValue(0), json.get("y1").intValue(0));
+    return window.isEmpty() ? null : window;
+  }
+
+  @Override public boolean equals(Object obj) {
+    if (!(obj instanceof CropWindow)) {
+      return false;
+    }
+    CropWindow other = (CropWindow) obj;
+    return x0 == other.x0 && y0 == other.y0 && x1 == other.x1 && y1 == other.y1;
+  }
+
+  @Override public int hashCode() {
+    return ((x0 * 31 + y0) * 31 + x1) * 31 + y1;
+  }
+
+  @Override public String toString() {
+    return String.format("%d,%d,%d,%d", x0, y0, x1, y1);
+  }
+}
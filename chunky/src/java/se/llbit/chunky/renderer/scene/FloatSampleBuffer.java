@@ -0,0 +1,54 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+/**
+ * Sample buffer backed by a float array. Uses half the memory of
+ * {@link DoubleSampleBuffer}, which is enough precision for the final image
+ * but loses some precision when many passes are averaged.
+ */
+public class FloatSampleBuffer implements SampleBuffer {
+  private final int width;
+  private final int height;
+  private final float[] data;
+
+  public FloatSampleBuffer(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.data = new float[Math.multiplyExact(3, Math.multiplyExact(width, height))];
+  }
+
+  @Override public Type getType() {
+    return Type.FLOAT;
+  }
+
+  @Override public int getWidth() {
+    return width;
+  }
+
+  @Override public int getHeight() {
+    return height;
+  }
+
+  @Override public double get(int pixel, int channel) {
+    return data[pixel * 3 + channel];
+  }
+
+  @Override public void set(int pixel, int channel, double value) {
+    data[pixel * 3 + channel] = (float) value;
+  }
+}
@@ -0,0 +1,73 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Sample buffer stored as floats in direct byte buffers.
+ *
+ * <p>The samples are split over several buffers, so the buffer is not limited
+ * by the maximum array length and does not count against the Java heap size.
+ * The direct memory limit can be raised with {@code -XX:MaxDirectMemorySize}.
+ */
+public class OffHeapSampleBuffer implements SampleBuffer {
+  /** Log2 of the number of floats in each buffer. */
+  private static final int TILE_BITS = 26;
+  private static final long TILE_MASK = (1L << TILE_BITS) - 1;
+
+  private final int width;
+  private final int height;
+  private final FloatBuffer[] tiles;
+
+  public OffHeapSampleBuffer(int width, int height) {
+    this.width = width;
+    this.height = height;
+    long size = 3L * width * height;
+    tiles = new FloatBuffer[(int) ((size + TILE_MASK) >>> TILE_BITS)];
+    for (int i = 0; i < tiles.length; ++i) {
+      long tileSize = Math.min(TILE_MASK + 1, size - ((long) i << TILE_BITS));
+      tiles[i] = ByteBuffer.allocateDirect((int) tileSize * Float.BYTES)
+          .order(ByteOrder.nativeOrder())
+          .asFloatBuffer();
+    }
+  }
+
+  @Override public Type getType() {
+    return Type.OFF_HEAP;
+  }
+
+  @Override public int getWidth() {
+    return width;
+  }
+
+  @Override public int getHeight() {
+    return height;
+  }
+
+  @Override public double get(int pixel, int channel) {
+    long offset = pixel * 3L + channel;
+    return tiles[(int) (offset >>> TILE_BITS)].get((int) (offset & TILE_MASK));
+  }
+
+  @Override public void set(int pixel, int channel, double value) {
+    long offset = pixel * 3L + channel;
+    tiles[(int) (offset >>> TILE_BITS)].put((int) (offset & TILE_MASK), (float) value);
+  }
+}
@@ -21,6 +21,7 @@ import se.llbit.chunky.block.Air;
 import se.llbit.chunky.block.Water;
 import se.llbit.chunky.model.WaterModel;
 import se.llbit.chunky.renderer.EmitterSamplingStrategy;
+import se.llbit.chunky.renderer.RenderStatistics;
 import se.llbit.chunky.renderer.WorkerState;
 import se.llbit.chunky.world.Material;
 import se.llbit.math.*;
@@ -53,6 +54,9 @@ public class PathTracer implements RayTracer {
   /**
    * Path trace the ray in this scene.
    *
+   * <p>Secondary rays and scratch vectors are taken from the per-depth
+   * stack in the worker state, so path tracing does not allocate.
+   *
    * @param firstReflection {@code true} if the ray has not yet hit the first
    * diffuse or specular reflection
    */
@@ -61,13 +65,23 @@ public class PathTracer implements RayTracer {
 
     boolean hit = false;
     Random random = state.random;
-    Vector3 ox = new Vector3(ray.o);
-    Vector3 od = new Vector3(ray.d);
+    WorkerState.PathFrame frame = state.pathFrame(ray.depth);
+    Vector3 ox = frame.origin;
+    Vector3 od = frame.direction;
+    ox.set(ray.o);
+    od.set(ray.d);
     double airDistance = 0;
+    RenderStatistics statistics = state.statistics;
+    if (statistics != null) {
+      statistics.countRay(ray.depth);
+    }
 
     while (true) {
 
-      if (!PreviewRayTracer.nextIntersection(scene, ray)) {
+      if (!PreviewRayTracer.nextIntersection(scene, ray, state)) {
+        if (statistics != null && !ray.getPrevMaterial().isWater()) {
+          statistics.skyMisses += 1;
+        }
         if (ray.getPrevMaterial().isWater()) {
           ray.color.set(0, 0, 0, 1);
           hit = true;
@@ -134,7 +148,8 @@ public class PathTracer implements RayTracer {
         firstReflection = false;
 
         if (!scene.kill(ray.depth + 1, random)) {
-          Ray reflected = new Ray();
+          Ray reflected = frame.child;
+          reflected.reset();
           reflected.specularReflection(ray, random);
 
           if (pathTrace(scene, reflected, state, 1, false)) {
@@ -160,11 +175,13 @@ public class PathTracer implements RayTracer {
           firstReflection = false;
 
           if (!scene.kill(ray.depth + 1, random)) {
-            Ray reflected = new Ray();
+            Ray reflected = frame.child;
+            reflected.reset();
 
             float emittance = 0;
 
-            Vector4 indirectEmitterColor = new Vector4(0, 0, 0, 0);
+            Vector4 indirectEmitterColor = frame.emitterColor;
+            indirectEmitterColor.set(0, 0, 0, 0);
 
             if (scene.emittersEnabled && (!scene.isPreventNormalEmitterWithSampling() || scene.getEmitterSamplingStrategy() == EmitterSamplingStrategy.NONE || ray.depth == 0) && currentMat.emittance > Ray.EPSILON) {
 
@@ -182,11 +199,16 @@ public class PathTracer implements RayTracer {
               if(sampleOne) {
                 Grid.EmitterPosition pos = scene.getEmitterGrid().sampleEmitterPosition((int) ray.o.x, (int) ray.o.y, (int) ray.o.z, random);
                 if(pos != null) {
-                  indirectEmitterColor = sampleEmitter(scene, ray, pos,  random);
+                  sampleEmitter(scene, ray, pos, state, indirectEmitterColor);
                 }
               } else {
-                for(Grid.EmitterPosition pos : scene.getEmitterGrid().getEmitterPositions((int) ray.o.x, (int) ray.o.y, (int) ray.o.z)) {
-                  indirectEmitterColor.scaleAdd(1, sampleEmitter(scene, ray, pos, random));
+                Grid grid = scene.getEmitterGrid();
+                int x = (int) ray.o.x;
+                int y = (int) ray.o.y;
+                int z = (int) ray.o.z;
+                int count = grid.getEmitterCount(x, y, z);
+                for(int i = 0; i < count; ++i) {
+                  sampleEmitter(scene, ray, grid.getEmitterPosition(x, y, z, i), state, indirectEmitterColor);
                 }
               }
             }
@@ -271,7 +293,8 @@ public class PathTracer implements RayTracer {
           if (doRefraction && radicand < Ray.EPSILON) {
             // Total internal reflection.
             if (!scene.kill(ray.depth + 1, random)) {
-              Ray reflected = new Ray();
+              Ray reflected = frame.child;
+              reflected.reset();
               reflected.specularReflection(ray, random);
               if (pathTrace(scene, reflected, state, 1, false)) {
 
@@ -283,9 +306,6 @@ public class PathTracer implements RayTracer {
             }
           } else {
             if (!scene.kill(ray.depth + 1, random)) {
-              Ray refracted = new Ray();
-              refracted.set(ray);
-
               // Calculate angle-dependent reflectance using
               // Fresnel equation approximation:
               // R(cosineAngle) = R0 + (1 - R0) * (1 - cos(cosineAngle))^5
@@ -296,7 +316,8 @@ public class PathTracer implements RayTracer {
               double Rtheta = R0 + (1 - R0) * c * c * c * c * c;
 
               if (random.nextFloat() < Rtheta) {
-                Ray reflected = new Ray();
+                Ray reflected = frame.child;
+                reflected.reset();
                 reflected.specularReflection(ray, random);
                 if (pathTrace(scene, reflected, state, 1, false)) {
                   ray.color.x = reflected.color.x;
@@ -305,6 +326,10 @@ public class PathTracer implements RayTracer {
                   hit = true;
                 }
               } else {
+                Ray refracted = frame.child;
+                refracted.reset();
+                refracted.set(ray);
+
                 if (doRefraction) {
 
                   double t2 = FastMath.sqrt(radicand);
@@ -338,7 +363,8 @@ public class PathTracer implements RayTracer {
 
         } else {
 
-          Ray transmitted = new Ray();
+          Ray transmitted = frame.child;
+          transmitted.reset();
           transmitted.set(ray);
           transmitted.o.scaleAdd(Ray.OFFSET, transmitted.d);
 
@@ -391,7 +417,8 @@ public class PathTracer implements RayTracer {
       // travelled through glass or other materials between air gaps.
       // However, the results are probably close enough to not be distracting,
       // so this seems like a reasonable approximation.
-      Ray atmos = new Ray();
+      Ray atmos = state.shadowRay;
+      atmos.reset();
       double offset = QuickMath.clamp(airDistance * random.nextFloat(),
           Ray.EPSILON, airDistance - Ray.EPSILON);
       atmos.o.scaleAdd(offset, od, ox);
@@ -428,15 +455,18 @@ public class PathTracer implements RayTracer {
    * @param scene The scene being rendered
    * @param ray The ray that generated the intersection
    * @param pos The position of the emitter to sample
-   * @param random RNG
-   * @return The contribution of the emitter
+   * @param state The worker state, providing the RNG and scratch objects
+   * @param result The contribution of the emitter is added to this vector
    */
-  private static Vector4 sampleEmitter(Scene scene, Ray ray, Grid.EmitterPosition pos, Random random) {
-    Vector4 indirectEmitterColor = new Vector4();
-    Ray emitterRay = new Ray();
+  private static void sampleEmitter(Scene scene, Ray ray, Grid.EmitterPosition pos,
+      WorkerState state, Vector4 result) {
+    Random random = state.random;
+    Ray emitterRay = state.shadowRay;
+    emitterRay.reset();
     emitterRay.set(ray);
     // TODO Sampling a random point on the model would be better than using a random point in the middle of the cube
-    Vector3 target = new Vector3(pos.x + (random.nextDouble() - 0.5) * pos.radius, pos.y + (random.nextDouble() - 0.5) * pos.radius, pos.z  + (random.nextDouble() - 0.5) * pos.radius);
+    Vector3 target = state.emitterTarget;
+    target.set(pos.x + (random.nextDouble() - 0.5) * pos.radius, pos.y + (random.nextDouble() - 0.5) * pos.radius, pos.z  + (random.nextDouble() - 0.5) * pos.radius);
     emitterRay.d.set(target);
     emitterRay.d.sub(emitterRay.o);
     double distance = emitterRay.d.length();
@@ -455,26 +485,31 @@ public class PathTracer implements RayTracer {
       emitterRay.setCurrentMaterial(prev, prevData);
       emitterRay.emittance.set(0, 0, 0);
       emitterRay.o.scaleAdd(Ray.EPSILON, emitterRay.d);
-      PreviewRayTracer.nextIntersection(scene, emitterRay);
+      if (state.statistics != null) {
+        state.statistics.shadowRays += 1;
+      }
+      PreviewRayTracer.nextIntersection(scene, emitterRay, state);
       if(emitterRay.getCurrentMaterial().emittance > Ray.EPSILON) {
-        indirectEmitterColor.set(emitterRay.color);
-        indirectEmitterColor.scale(emitterRay.getCurrentMaterial().emittance);
+        double emittance = emitterRay.getCurrentMaterial().emittance;
         // TODO Take fog into account
         indirectEmitterCoef *= scene.emitterIntensity;
         // Dont know if really realistic but offer better convergence and is better artistically
         indirectEmitterCoef /= Math.max(distance * distance, 1);
+        result.x += emitterRay.color.x * emittance * indirectEmitterCoef;
+        result.y += emitterRay.color.y * emittance * indirectEmitterCoef;
+        result.z += emitterRay.color.z * emittance * indirectEmitterCoef;
+        result.w += emitterRay.color.w * emittance * indirectEmitterCoef;
       }
-    } else {
-      indirectEmitterCoef = 0;
     }
-    indirectEmitterColor.scale(indirectEmitterCoef);
-    return indirectEmitterColor;
   }
 
   /**
    * Calculate direct lighting attenuation.
    */
   public static void getDirectLightAttenuation(Scene scene, Ray ray, WorkerState state) {
+    if (state.statistics != null) {
+      state.statistics.shadowRays += 1;
+    }
 
     Vector4 attenuation = state.attenuation;
     attenuation.x = 1;
@@ -483,7 +518,7 @@ public class PathTracer implements RayTracer {
     attenuation.w = 1;
     while (attenuation.w > 0) {
       ray.o.scaleAdd(Ray.OFFSET, ray.d);
-      if (!PreviewRayTracer.nextIntersection(scene, ray)) {
+      if (!PreviewRayTracer.nextIntersection(scene, ray, state)) {
         break;
       }
       double mult = 1 - ray.color.w;
@@ -34,14 +34,35 @@ public class PreviewRayTracer implements RayTracer {
    * Do a quick preview ray tracing for the current ray.
    */
   @Override public void trace(Scene scene, WorkerState state) {
-    Ray ray = state.ray;
+    tracePrimary(scene, state.ray);
+    shade(scene, state.ray);
+  }
+
+  /**
+   * Find the first surface hit by the ray, without shading it. The surface
+   * color and normal are stored in the ray. If no surface was hit the current
+   * material of the ray is air.
+   */
+  public void tracePrimary(Scene scene, Ray ray) {
+    tracePrimary(scene, ray, null);
+  }
+
+  /**
+   * Find the first surface hit by the ray of the worker state, using the
+   * scratch objects of the state for the intersection tests.
+   */
+  public void tracePrimary(Scene scene, WorkerState state) {
+    tracePrimary(scene, state.ray, state);
+  }
+
+  private void tracePrimary(Scene scene, Ray ray, WorkerState state) {
     if (scene.isInWater(ray)) {
       ray.setCurrentMaterial(Water.INSTANCE);
     } else {
       ray.setCurrentMaterial(Air.INSTANCE);
     }
     while (true) {
-      if (!nextIntersection(scene, ray)) {
+      if (!nextIntersection(scene, ray, state)) {
         if (mapIntersection(scene, ray)) {
           break;
         }
@@ -52,11 +73,26 @@ public class PreviewRayTracer implements RayTracer {
         ray.o.scaleAdd(Ray.OFFSET, ray.d);
       }
     }
+  }
 
-    if (ray.getCurrentMaterial() == Air.INSTANCE) {
-      scene.sky.getSkySpecularColor(ray);
-    } else {
+  /**
+   * Shade a ray traced by {@link #tracePrimary}. Only the sun and sky settings
+   * of the scene are used, so cached primary hits can be shaded again when
+   * the lighting changes.
+   */
+  public void shade(Scene scene, Ray ray) {
+    shade(scene, ray, ray.getCurrentMaterial() != Air.INSTANCE);
+  }
+
+  /**
+   * Shade a surface hit with the color and normal stored in the ray, or the
+   * sky in the direction of the ray.
+   */
+  public void shade(Scene scene, Ray ray, boolean surface) {
+    if (surface) {
       scene.sun.flatShading(ray);
+    } else {
+      scene.sky.getSkySpecularColor(ray);
     }
   }
 
@@ -86,6 +122,16 @@ public class PreviewRayTracer implements RayTracer {
    * @return Next intersection
    */
   public static boolean nextIntersection(Scene scene, Ray ray) {
+    return nextIntersection(scene, ray, null);
+  }
+
+  /**
+   * Find next ray intersection, using the scratch objects of the worker state
+   * for the intersection tests.
+   * @param state worker state, or {@code null} to allocate scratch objects as needed
+   * @return Next intersection
+   */
+  public static boolean nextIntersection(Scene scene, Ray ray, WorkerState state) {
     ray.setPrevMaterial(ray.getCurrentMaterial(), ray.getCurrentData());
     ray.t = Double.POSITIVE_INFINITY;
     boolean hit = false;
@@ -95,7 +141,7 @@ public class PreviewRayTracer implements RayTracer {
     if (scene.isWaterPlaneEnabled()) {
       hit = waterPlaneIntersection(scene, ray) || hit;
     }
-    if (scene.intersect(ray)) {
+    if (state != null ? scene.intersect(ray, state) : scene.intersect(ray)) {
       // Octree tracer handles updating distance.
       return true;
     }
@@ -113,9 +159,9 @@ public class PreviewRayTracer implements RayTracer {
   private static boolean waterPlaneIntersection(Scene scene, Ray ray) {
     double t = (scene.getEffectiveWaterPlaneHeight() - ray.o.y - scene.origin.y) / ray.d.y;
     if (scene.getWaterPlaneChunkClip()) {
-      Vector3 pos = new Vector3(ray.o);
-      pos.scaleAdd(t, ray.d);
-      if (scene.isChunkLoaded((int)Math.floor(pos.x), (int)Math.floor(pos.z)))
+      double x = ray.o.x + t * ray.d.x;
+      double z = ray.o.z + t * ray.d.z;
+      if (scene.isChunkLoaded((int)Math.floor(x), (int)Math.floor(z)))
         return false;
     }
     if (ray.d.y < 0) {
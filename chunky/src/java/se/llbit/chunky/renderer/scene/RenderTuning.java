@@ -0,0 +1,186 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.json.JsonObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Render tuning measured while rendering: the cost of each part of the frame
+ * and the tuned samples per pixel per pass. It is saved with the scene, so a
+ * resumed render starts with tuned tiles and passes. The samples per pass are
+ * stored in the scene description and the cell costs in a separate file.
+ *
+ * <p>The frame is divided into a grid of square cells aligned to the tile
+ * grid. For each cell the tuning stores the measured time to trace one sample
+ * of one pixel, in nanoseconds, or zero if the cell was not measured.
+ *
+ * <p>The tuning is shared by the copies of a scene, so it is thread safe.
+ */
+public class RenderTuning {
+  /**
+   * Weight of a new measurement in the cell costs. Costs are smoothed
+   * because tile times are noisy.
+   */
+  private static final double MEASUREMENT_WEIGHT = 0.5;
+
+  private int width = 0;
+  private int height = 0;
+  private int cellSize = 0;
+  private int columns = 0;
+  private int rows = 0;
+  private float[] costs = new float[0];
+  private int sppPerPass = 0;
+
+  /**
+   * Use a cell grid for a frame of the given size. The cell costs are
+   * cleared if the frame size or cell size changed.
+   */
+  public synchronized void setGrid(int width, int height, int cellSize) {
+    if (width != this.width || height != this.height || cellSize != this.cellSize) {
+      this.width = width;
+      this.height = height;
+      this.cellSize = cellSize;
+      columns = (width + cellSize - 1) / cellSize;
+      rows = (height + cellSize - 1) / cellSize;
+      costs = new float[columns * rows];
+    }
+  }
+
+  public synchronized int getCellSize() {
+    return cellSize;
+  }
+
+  public synchronized int getColumns() {
+    return columns;
+  }
+
+  public synchronized int getRows() {
+    return rows;
+  }
+
+  /**
+   * @return a copy of the cell costs in row-major order, in nanoseconds per
+   * pixel sample, zero for cells that were not measured
+   */
+  public synchronized float[] getCellCosts() {
+    return Arrays.copyOf(costs, costs.length);
+  }
+
+  /**
+   * Blend measured cell costs into the tuning.
+   *
+   * @param measured cost per pixel sample of each cell in nanoseconds, or
+   * zero for cells that were not rendered
+   */
+  public synchronized void addMeasurement(double[] measured) {
+    if (measured.length != costs.length) {
+      return;
+    }
+    for (int i = 0; i < costs.length; ++i) {
+      if (measured[i] > 0) {
+        if (costs[i] > 0) {
+          costs[i] += (float) ((measured[i] - costs[i]) * MEASUREMENT_WEIGHT);
+        } else {
+          costs[i] = (float) measured[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the tuned samples per pixel per pass, or zero if not tuned
+   */
+  public synchronized int getSppPerPass() {
+    return sppPerPass;
+  }
+
+  public synchronized void setSppPerPass(int sppPerPass) {
+    this.sppPerPass = Math.max(0, sppPerPass);
+  }
+
+  /**
+   * @return {@code true} if any cell cost was measured
+   */
+  public synchronized boolean hasCellCosts() {
+    for (float cost : costs) {
+      if (cost > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Forget all measurements.
+   */
+  public synchronized void clear() {
+    Arrays.fill(costs, 0);
+    sppPerPass = 0;
+  }
+
+  public synchronized JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    json.add("sppPerPass", sppPerPass);
+    return json;
+  }
+
+  public synchronized void importFromJson(JsonObject json) {
+    sppPerPass = Math.max(0, json.get("sppPerPass").intValue(0));
+  }
+
+  /**
+   * Write the cell grid and cell costs.
+   */
+  public synchronized void store(DataOutputStream out) throws IOException {
+    out.writeInt(width);
+    out.writeInt(height);
+    out.writeInt(cellSize);
+    out.writeInt(costs.length);
+    for (float cost : costs) {
+      out.writeFloat(cost);
+    }
+  }
+
+  /**
+   * Read the cell grid and cell costs written by {@link #store}. The tuning is
+   * not changed if the costs can not be read.
+   *
+   * @throws IOException if the costs do not match the grid
+   */
+  public synchronized void load(DataInputStream in) throws IOException {
+    int width = in.readInt();
+    int height = in.readInt();
+    int cellSize = in.readInt();
+    int cells = in.readInt();
+    if (width <= 0 || height <= 0 || cellSize <= 0
+        || cells != ((width + cellSize - 1) / cellSize) * ((height + cellSize - 1) / cellSize)) {
+      throw new IOException("Invalid render tuning grid");
+    }
+    float[] loaded = new float[cells];
+    for (int i = 0; i < cells; ++i) {
+      loaded[i] = Math.max(0, in.readFloat());
+    }
+    this.width = this.height = this.cellSize = -1;
+    setGrid(width, height, cellSize);
+    costs = loaded;
+  }
+}
@@ -0,0 +1,97 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.log.Log;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Writes snapshots and render dumps on a background thread, so that rendering
+ * continues while the files are written.
+ *
+ * <p>Each write works on a copy of the render, see {@link Scene#copyRender(Scene)}.
+ * Only one copy is kept: if the previous write is still in progress when the next
+ * one is requested, the caller waits for it to finish first. The copy is reused
+ * between writes.
+ */
+public class RenderWriter implements AutoCloseable {
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "Render Writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /** Copy of the render that is being written. */
+  private final Scene render;
+
+  private Future<?> pending = null;
+
+  /**
+   * @param render scene object to hold the copies of the render
+   */
+  public RenderWriter(Scene render) {
+    this.render = render;
+  }
+
+  /**
+   * Copy the render of the scene and pass the copy to the writer on the background
+   * thread. The scene must not be modified during this call, for example it can be
+   * called from the frame completion listener of the render manager.
+   *
+   * @param writer writes the files of the copied render
+   */
+  public synchronized void write(Scene scene, Consumer<Scene> writer) throws InterruptedException {
+    awaitWrite();
+    render.copyRender(scene);
+    pending = executor.submit(() -> writer.accept(render));
+  }
+
+  /**
+   * Wait for the write in progress, if any, to finish.
+   */
+  public synchronized void awaitWrite() throws InterruptedException {
+    if (pending != null) {
+      try {
+        pending.get();
+      } catch (ExecutionException e) {
+        Log.error("Failed to write the render.", e.getCause());
+      }
+      pending = null;
+    }
+  }
+
+  /**
+   * Wait for the write in progress to finish and stop the writer thread.
+   * If the calling thread is interrupted the write is abandoned and the
+   * interrupt flag of the thread is set again.
+   */
+  @Override public void close() {
+    try {
+      awaitWrite();
+    } catch (InterruptedException e) {
+      Log.warn("Interrupted while writing the render.");
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
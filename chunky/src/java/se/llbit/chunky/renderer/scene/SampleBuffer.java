@@ -0,0 +1,137 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.chunky.plugin.PluginApi;
+
+/**
+ * Linear RGB sample buffer of a render.
+ *
+ * <p>Pixels are addressed by their index {@code y * width + x}. Each pixel has
+ * three channels: red, green and blue.
+ */
+@PluginApi
+public interface SampleBuffer {
+
+  /**
+   * The available sample buffer implementations.
+   */
+  enum Type {
+    DOUBLE("Double precision", "64-bit samples. Highest precision."),
+    FLOAT("Single precision", "32-bit samples. Half the memory of double precision."),
+    OFF_HEAP("Single precision, off-heap",
+        "32-bit samples stored outside the Java heap, for canvases too large for the heap.");
+
+    private final String name;
+    private final String description;
+
+    Type(String name, String description) {
+      this.name = name;
+      this.description = description;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+
+    /**
+     * Create a new zero-filled sample buffer of this type.
+     */
+    public SampleBuffer create(int width, int height) {
+      switch (this) {
+        case FLOAT:
+          return new FloatSampleBuffer(width, height);
+        case OFF_HEAP:
+          return new OffHeapSampleBuffer(width, height);
+        default:
+          return new DoubleSampleBuffer(width, height);
+      }
+    }
+  }
+
+  Type getType();
+
+  int getWidth();
+
+  int getHeight();
+
+  /**
+   * @param pixel pixel index, {@code y * width + x}
+   * @param channel 0 for red, 1 for green, 2 for blue
+   */
+  double get(int pixel, int channel);
+
+  /**
+   * @param pixel pixel index, {@code y * width + x}
+   * @param channel 0 for red, 1 for green, 2 for blue
+   */
+  void set(int pixel, int channel, double value);
+
+  /**
+   * Read the three channels of a pixel into {@code rgb}.
+   */
+  default void getPixel(int pixel, double[] rgb) {
+    rgb[0] = get(pixel, 0);
+    rgb[1] = get(pixel, 1);
+    rgb[2] = get(pixel, 2);
+  }
+
+  default void setPixel(int pixel, double r, double g, double b) {
+    set(pixel, 0, r);
+    set(pixel, 1, g);
+    set(pixel, 2, b);
+  }
+
+  /**
+   * Merge new samples into a pixel.
+   *
+   * @param spp number of samples already in the pixel
+   * @param newSpp number of new samples
+   * @param r sum of the red channel of the new samples
+   * @param g sum of the green channel of the new samples
+   * @param b sum of the blue channel of the new samples
+   */
+  default void mergeSamples(int pixel, int spp, int newSpp, double r, double g, double b) {
+    double sinv = 1.0 / (spp + newSpp);
+    set(pixel, 0, (get(pixel, 0) * spp + r) * sinv);
+    set(pixel, 1, (get(pixel, 1) * spp + g) * sinv);
+    set(pixel, 2, (get(pixel, 2) * spp + b) * sinv);
+  }
+
+  /**
+   * Create a new zero-filled buffer with the same type and size as this buffer.
+   */
+  default SampleBuffer newBuffer() {
+    return getType().create(getWidth(), getHeight());
+  }
+
+  /**
+   * Copy all samples of another buffer of the same size into this buffer.
+   */
+  default void copyFrom(SampleBuffer other) {
+    int pixels = getWidth() * getHeight();
+    for (int pixel = 0; pixel < pixels; ++pixel) {
+      for (int cc = 0; cc < 3; ++cc) {
+        set(pixel, cc, other.get(pixel, cc));
+      }
+    }
+  }
+}
@@ -45,6 +45,8 @@ import java.util.stream.IntStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
 import se.llbit.chunky.PersistentSettings;
@@ -66,6 +68,7 @@ import se.llbit.chunky.renderer.*;
 import se.llbit.chunky.renderer.export.PictureExportFormats;
 import se.llbit.chunky.renderer.export.PictureExportFormat;
 import se.llbit.chunky.renderer.projection.ProjectionMode;
+import se.llbit.chunky.renderer.postprocessing.FeatureBufferPostProcessingFilter;
 import se.llbit.chunky.renderer.postprocessing.PostProcessingFilter;
 import se.llbit.chunky.renderer.postprocessing.PostProcessingFilters;
 import se.llbit.chunky.renderer.postprocessing.PreviewFilter;
@@ -90,11 +93,13 @@ import se.llbit.json.JsonValue;
 import se.llbit.json.PrettyPrinter;
 import se.llbit.log.Log;
 import se.llbit.math.bvh.BVH;
+import se.llbit.math.bvh.BVHFileFormat;
 import se.llbit.math.Grid;
 import se.llbit.math.Octree;
 import se.llbit.math.PackedOctree;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
+import se.llbit.math.RayPacket;
 import se.llbit.math.Vector3;
 import se.llbit.math.Vector3i;
 import se.llbit.nbt.CompoundTag;
@@ -147,6 +152,11 @@ public class Scene implements JsonSerializable, Refreshable {
 
   public static final boolean DEFAULT_EMITTERS_ENABLED = false;
 
+  /**
+   * Default noise threshold for adaptive sampling.
+   */
+  public static final double DEFAULT_NOISE_THRESHOLD = 0.02;
+
   /**
    * Default emitter intensity.
    */
@@ -212,6 +222,10 @@ public class Scene implements JsonSerializable, Refreshable {
    * Target SPP for the scene.
    */
   protected int sppTarget = PersistentSettings.getSppTargetDefault();
+  /**
+   * Relative noise level at which the adaptive renderer stops rendering a tile.
+   */
+  protected double noiseThreshold = DEFAULT_NOISE_THRESHOLD;
   /**
    * Recursive ray depth limit (not including Russian Roulette).
    */
@@ -308,6 +322,10 @@ public class Scene implements JsonSerializable, Refreshable {
   private BVH bvh = BVH.EMPTY;
   private BVH actorBvh = BVH.EMPTY;
 
+  /** The BVHs last written to or read from the BVH file, used to skip redundant writes. */
+  private BVH storedBvh = null;
+  private BVH storedActorBvh = null;
+
   /**
    * Current time in seconds. Adjusts animated blocks like fire.
    */
@@ -334,7 +352,14 @@ public class Scene implements JsonSerializable, Refreshable {
    * should really be moved somewhere else and not be so tightly
    * coupled to the scene settings.
    */
-  protected double[] samples;
+  protected SampleBuffer samples;
+
+  /**
+   * First-hit albedo and normal of each pixel, used by denoising filters.
+   * Only allocated when the post processing filter uses them.
+   */
+  protected float[] albedoBuffer;
+  protected float[] normalBuffer;
 
   private byte[] alphaChannel;
 
@@ -355,6 +380,65 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   private String octreeImplementation = PersistentSettings.getOctreeImplementation();
 
+  /**
+   * Resume octree lookups from the previous leaf node instead of
+   * descending from the root at every traversal step.
+   */
+  private boolean octreeStackTraversal = false;
+
+  /**
+   * Take pixel jitter, aperture and first bounce samples from per-pixel
+   * low-discrepancy sequences instead of the pseudo-random generator.
+   */
+  private boolean lowDiscrepancySampling = true;
+
+  /**
+   * Storage used for the sample buffer.
+   */
+  private SampleBuffer.Type sampleBufferType = SampleBuffer.Type.DOUBLE;
+
+  /**
+   * Added to the sample index of the low-discrepancy sequences. Distributed
+   * render workers render their batches from zero samples, so this makes each
+   * batch continue the sequence where the previous batch ended.
+   * Not stored in the scene description.
+   */
+  private int sampleIndexOffset = 0;
+
+  /**
+   * Scrambles the low-discrepancy sequences. Each scene gets a random seed, so
+   * renders in separate processes, whose dumps may be merged later, do not
+   * draw the same sample points. Distributed render workers use the seed of
+   * the coordinator. Not stored in the scene description.
+   */
+  private int sampleSeed = new Random().nextInt();
+
+  /**
+   * When set, only the pixels inside this window are rendered and the rest of
+   * the sample buffer keeps the frame that was rendered before.
+   */
+  private CropWindow cropWindow = null;
+
+  /**
+   * Samples per pixel rendered inside the crop window. While a crop window is
+   * set, {@code spp} keeps the sample count of the full frame, which is the
+   * count stored in render dumps. Stored in the scene description with the
+   * crop window, since the window pixels of a render dump have this count.
+   */
+  private int cropSpp = 0;
+
+  /**
+   * Measured tile costs and tuned samples per pass. Shared by the copies of
+   * the scene, so that the tuning done by the renderer is saved with the scene.
+   */
+  private RenderTuning renderTuning = new RenderTuning();
+
+  /**
+   * Samples per pixel of the tiles of an adaptive render. Shared by the copies
+   * of the scene, and saved next to the render dump.
+   */
+  private TileSpp tileSpp = new TileSpp();
+
   /**
    * The BVH implementation to use
    */
@@ -394,7 +478,8 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public static void delete(String name, File sceneDir) {
     String[] extensions = {
-        ".json", ".dump", ".octree2", ".emittergrid", ".foliage", ".grass", ".json.backup", ".dump.backup",
+        ".json", ".dump", ".tiles", ".tuning", ".octree2", ".emittergrid", ".bvh", ".foliage", ".grass",
+        ".json.backup", ".dump.backup",
     };
     for (String extension : extensions) {
       File file = new File(sceneDir, name + extension);
@@ -409,7 +494,7 @@ public class Scene implements JsonSerializable, Refreshable {
    * Export the scene to a zip file.
    */
   public static void exportToZip(String name, File targetFile) {
-    String[] extensions = { ".json", ".dump", ".octree2", ".foliage", ".grass", ".emittergrid", };
+    String[] extensions = { ".json", ".dump", ".tiles", ".tuning", ".octree2", ".foliage", ".grass", ".emittergrid", };
     ZipExport.zip(targetFile, SynchronousSceneManager.resolveSceneDirectory(name), name, extensions);
   }
 
@@ -421,7 +506,21 @@ public class Scene implements JsonSerializable, Refreshable {
     frontBuffer = new BitmapImage(width, height);
     backBuffer = new BitmapImage(width, height);
     alphaChannel = new byte[width * height];
-    samples = new double[width * height * 3];
+    samples = sampleBufferType.create(width, height);
+    albedoBuffer = null;
+    normalBuffer = null;
+    initFeatureBuffers();
+  }
+
+  /**
+   * Allocate the feature buffers if the post processing filter uses them.
+   */
+  private void initFeatureBuffers() {
+    if (postProcessingFilter instanceof FeatureBufferPostProcessingFilter
+        && samples != null && albedoBuffer == null) {
+      albedoBuffer = new float[width * height * 3];
+      normalBuffer = new float[width * height * 3];
+    }
   }
 
   /**
@@ -432,6 +531,40 @@ public class Scene implements JsonSerializable, Refreshable {
     copyTransients(other);
   }
 
+  /**
+   * Copy the state of another scene together with a copy of its samples, so that the
+   * render can be written while the other scene continues rendering. The sample buffer
+   * and frame buffers of this scene are reused when they have the right size, so repeated
+   * copies do not allocate.
+   *
+   * <p>The other scene must not be modified during the copy.
+   */
+  public synchronized void copyRender(Scene other) {
+    SampleBuffer copy = samples;
+    BitmapImage back = backBuffer;
+    BitmapImage front = frontBuffer;
+    byte[] alpha = alphaChannel;
+    boolean reuse = copy != null && copy != other.samples
+        && copy.getType() == other.samples.getType()
+        && copy.getWidth() == other.width && copy.getHeight() == other.height;
+    copyState(other);
+    copyTransients(other);
+    if (!reuse) {
+      copy = other.samples.newBuffer();
+      back = new BitmapImage(width, height);
+      front = new BitmapImage(width, height);
+      alpha = new byte[width * height];
+    }
+    copy.copyFrom(other.samples);
+    samples = copy;
+    backBuffer = back;
+    frontBuffer = front;
+    alphaChannel = alpha;
+    finalized = false;
+    // The render keeps recording tile samples while the copy is written.
+    tileSpp = other.tileSpp.copy();
+  }
+
   /**
    * Import scene state from another scene.
    */
@@ -499,6 +632,10 @@ public class Scene implements JsonSerializable, Refreshable {
 
     spp = other.spp;
     renderTime = other.renderTime;
+    cropWindow = other.cropWindow;
+    cropSpp = other.cropSpp;
+    renderTuning = other.renderTuning;
+    tileSpp = other.tileSpp;
 
     resetReason = other.resetReason;
 
@@ -512,8 +649,15 @@ public class Scene implements JsonSerializable, Refreshable {
       alphaChannel = other.alphaChannel;
       samples = other.samples;
     }
+    albedoBuffer = other.albedoBuffer;
+    normalBuffer = other.normalBuffer;
 
     octreeImplementation = other.octreeImplementation;
+    octreeStackTraversal = other.octreeStackTraversal;
+    lowDiscrepancySampling = other.lowDiscrepancySampling;
+    sampleBufferType = other.sampleBufferType;
+    sampleIndexOffset = other.sampleIndexOffset;
+    sampleSeed = other.sampleSeed;
     bvhImplementation = other.bvhImplementation;
 
     animationTime = other.animationTime;
@@ -547,7 +691,9 @@ public class Scene implements JsonSerializable, Refreshable {
         saveDescription(out);
       }
 
+      saveRenderTuning(context);
       saveOctree(context, taskTracker);
+      saveBvh(context, taskTracker);
       saveDump(context, taskTracker);
       saveEmitterGrid(context, taskTracker);
     }
@@ -570,6 +716,8 @@ public class Scene implements JsonSerializable, Refreshable {
         loadDescription(context.getSceneFileInputStream(sceneName + Scene.EXTENSION + ".backup"));
       }
 
+      loadRenderTuning(context);
+
       if (sdfVersion < SDF_VERSION) {
         Log.warn("Old scene version detected! The scene may not have been loaded correctly.");
       } else if (sdfVersion > SDF_VERSION) {
@@ -623,7 +771,7 @@ public class Scene implements JsonSerializable, Refreshable {
     exposure = value;
     if (mode == RenderMode.PREVIEW) {
       // don't interrupt the render if we are currently rendering
-      refresh();
+      refreshLighting();
     }
   }
 
@@ -657,7 +805,7 @@ public class Scene implements JsonSerializable, Refreshable {
   public synchronized void setEmittersEnabled(boolean value) {
     if (value != emittersEnabled) {
       emittersEnabled = value;
-      refresh();
+      refreshLighting();
     }
   }
 
@@ -667,7 +815,7 @@ public class Scene implements JsonSerializable, Refreshable {
   public synchronized void setDirectLight(boolean value) {
     if (value != sunEnabled) {
       sunEnabled = value;
-      refresh();
+      refreshLighting();
     }
   }
 
@@ -688,17 +836,79 @@ public class Scene implements JsonSerializable, Refreshable {
    * move it into the scene coordinate space.
    */
   public void rayTrace(RayTracer rayTracer, WorkerState state) {
-    state.ray.o.x -= origin.x;
-    state.ray.o.y -= origin.y;
-    state.ray.o.z -= origin.z;
+    toSceneSpace(state.ray);
+    rayTracer.trace(this, state);
+  }
+
+  /**
+   * Move a camera ray into the scene coordinate space and add it to a packet
+   * of primary rays.
+   *
+   * @return the index of the ray in the packet
+   */
+  public int addToPacket(RayPacket packet, Ray ray) {
+    toSceneSpace(ray);
+    return packet.add(ray);
+  }
+
+  /**
+   * Traverse the world octree with a packet of primary rays, to find how much
+   * empty space each ray can skip when it is traced.
+   */
+  public void tracePacket(RayPacket packet) {
+    if (!worldOctree.packetEnterDistance(packet, palette)) {
+      packet.clearEnterDistances();
+    }
+  }
+
+  /**
+   * Trace a ray of a packet that was passed to {@link #tracePacket}. The ray
+   * is already in the scene coordinate space. The first world octree test of
+   * the ray starts at the packet enter distance, after that the ray is traced
+   * as a single ray.
+   */
+  public void rayTrace(RayTracer rayTracer, WorkerState state, RayPacket packet, int index) {
+    packet.get(index, state.ray);
+    state.octreeEnterDistance = packet.enterDistance[index];
+    rayTracer.trace(this, state);
+    state.octreeEnterDistance = 0;
+  }
+
+  /**
+   * Trace a camera ray to the first surface it hits, for the feature buffers
+   * of the denoiser. Fully transparent surfaces are skipped. This offsets the
+   * ray origin to move it into the scene coordinate space.
+   *
+   * @return {@code true} if a surface was hit, in which case the surface
+   * color is stored in {@code ray.color} and the normal in {@code ray.n}
+   */
+  public boolean traceFeatureRay(Ray ray, WorkerState state) {
+    toSceneSpace(ray);
+    ray.setCurrentMaterial(isInWater(ray) ? Water.INSTANCE : Air.INSTANCE);
+    while (PreviewRayTracer.nextIntersection(this, ray, state)) {
+      if (ray.getCurrentMaterial() != Air.INSTANCE && ray.color.w > 0) {
+        return true;
+      }
+      ray.o.scaleAdd(Ray.OFFSET, ray.d);
+    }
+    return false;
+  }
+
+  /**
+   * Move a camera ray from world coordinates to scene coordinates.
+   */
+  private void toSceneSpace(Ray ray) {
+    ray.o.x -= origin.x;
+    ray.o.y -= origin.y;
+    ray.o.z -= origin.z;
 
     if(camera.getProjectionMode() == ProjectionMode.PARALLEL
-      && worldOctree.isInside(state.ray.o)) {
+      && worldOctree.isInside(ray.o)) {
       // When in parallel projection, push the ray origin back so the
       // ray start outside the octree to prevent ray spawning inside some blocks
       int limit = (1 << worldOctree.getDepth());
-      Vector3 o = state.ray.o;
-      Vector3 d = state.ray.d;
+      Vector3 o = ray.o;
+      Vector3 d = ray.d;
       double t = 0;
       // simplified intersection test with the 6 planes that form the bounding box of the octree
       if(Math.abs(d.x) > Ray.EPSILON) {
@@ -719,8 +929,6 @@ public class Scene implements JsonSerializable, Refreshable {
       // will do the same amount of math for the same result no matter what the exact point is
       o.scaleAdd(t, d);
     }
-
-    rayTracer.trace(this, state);
   }
 
   /**
@@ -731,16 +939,41 @@ public class Scene implements JsonSerializable, Refreshable {
    * @return <code>true</code> if an intersection was found
    */
   public boolean intersect(Ray ray) {
+    return intersect(ray, new Ray(), new Ray(), new IntIntMutablePair(0, 0),
+        octreeStackTraversal ? new Octree.NodeStack() : null, 0, null);
+  }
+
+  /**
+   * Find closest intersection between ray and scene, using the scratch objects
+   * of the worker state so that no allocation is done.
+   * This advances the ray by updating the ray origin if an intersection is found.
+   *
+   * @param ray ray to test against scene
+   * @return <code>true</code> if an intersection was found
+   */
+  public boolean intersect(Ray ray, WorkerState state) {
+    double enterDistance = 0;
+    if (ray == state.ray) {
+      // A ray packet enter distance is only valid for the first intersection test.
+      enterDistance = state.octreeEnterDistance;
+      state.octreeEnterDistance = 0;
+    }
+    return intersect(ray, state.intersectStart, state.intersectRay, state.typeAndLevel,
+        octreeStackTraversal ? state.octreeStack : null, enterDistance, state.statistics);
+  }
+
+  private boolean intersect(Ray ray, Ray start, Ray r, IntIntMutablePair typeAndLevel,
+      Octree.NodeStack stack, double enterDistance, RenderStatistics statistics) {
     boolean hit = false;
-    if (bvh.closestIntersection(ray)) {
+    if (bvh.closestIntersection(ray, statistics)) {
       hit = true;
     }
     if (renderActors) {
-      if (actorBvh.closestIntersection(ray)) {
+      if (actorBvh.closestIntersection(ray, statistics)) {
         hit = true;
       }
     }
-    if (worldIntersection(ray)) {
+    if (worldIntersection(ray, start, r, typeAndLevel, stack, enterDistance, statistics)) {
       hit = true;
     }
     if (hit) {
@@ -756,15 +989,24 @@ public class Scene implements JsonSerializable, Refreshable {
    * Test whether the ray intersects any voxel before exiting the Octree.
    *
    * @param ray   the ray
+   * @param start scratch ray holding the starting state
+   * @param r     scratch ray used for the octree traversals
+   * @param stack node stack for octree traversal, or {@code null} to descend from the root
+   * @param enterDistance empty space to skip in the world octree, see {@link Octree#packetEnterDistance}
+   * @param statistics counters for the traversals, or {@code null}
    * @return {@code true} if the ray intersects a voxel
    */
-  private boolean worldIntersection(Ray ray) {
-    Ray start = new Ray(ray);
+  private boolean worldIntersection(Ray ray, Ray start, Ray r, IntIntMutablePair typeAndLevel,
+      Octree.NodeStack stack, double enterDistance, RenderStatistics statistics) {
+    start.reset();
+    start.set(ray);
     start.setCurrentMaterial(ray.getPrevMaterial(), ray.getPrevData());
     boolean hit = false;
-    Ray r = new Ray(start);
+    r.reset();
+    r.set(start);
     r.setCurrentMaterial(start.getPrevMaterial(), start.getPrevData());
-    if (worldOctree.enterBlock(this, r, palette) && r.distance < ray.t) {
+    if (worldOctree.enterBlock(this, r, palette, typeAndLevel, stack, enterDistance, statistics)
+        && r.distance < ray.t) {
       ray.t = r.distance;
       ray.n.set(r.n);
       ray.color.set(r.color);
@@ -773,9 +1015,10 @@ public class Scene implements JsonSerializable, Refreshable {
       hit = true;
     }
     if (start.getCurrentMaterial().isWater()) {
-      r = new Ray(start);
+      r.reset();
+      r.set(start);
       r.setCurrentMaterial(start.getPrevMaterial(), start.getPrevData());
-      if(waterOctree.exitWater(this, r, palette) && r.distance < ray.t - Ray.EPSILON) {
+      if(waterOctree.exitWater(this, r, palette, typeAndLevel, stack, statistics) && r.distance < ray.t - Ray.EPSILON) {
         ray.t = r.distance;
         ray.n.set(r.n);
         ray.color.set(r.color);
@@ -786,9 +1029,10 @@ public class Scene implements JsonSerializable, Refreshable {
         ray.setPrevMaterial(Water.INSTANCE, 1 << Water.FULL_BLOCK);
       }
     } else {
-      r = new Ray(start);
+      r.reset();
+      r.set(start);
       r.setCurrentMaterial(start.getPrevMaterial(), start.getPrevData());
-      if (waterOctree.enterBlock(this, r, palette) && r.distance < ray.t) {
+      if (waterOctree.enterBlock(this, r, palette, typeAndLevel, stack, 0, statistics) && r.distance < ray.t) {
         ray.t = r.distance;
         ray.n.set(r.n);
         ray.color.set(r.color);
@@ -936,501 +1180,581 @@ public class Scene implements JsonSerializable, Refreshable {
     Set<ChunkPosition> legacyChunks = new HashSet<>();
     Heightmap biomeIdMap = new Heightmap();
 
-    ChunkData chunkData1;
-    ChunkData chunkData2;
-    if (isTallWorld) { //snapshot 21w06a, treat as -64 - 320
-      chunkData1 = new GenericChunkData(); // chunk loading will switch between these two, using one asynchronously to load the data
-      chunkData2 = new GenericChunkData(); // while the other is used to add to the octree
-    } else { //Treat as 0 - 256 world
-      chunkData1 = new SimpleChunkData();
-      chunkData2 = new SimpleChunkData();
-    }
-
     try (TaskTracker.Task task = taskTracker.task("(3/6) Loading chunks")) {
+      // Chunks are decoded and converted to octree subtrees in parallel. The results are
+      // merged into the scene in the order of chunksToLoad, so the octrees, entity
+      // lists and emitter grid are the same as when loading on a single thread.
+      List<ChunkPosition> chunkPositions = new ArrayList<>(new LinkedHashSet<>(chunksToLoad));
       int done = 1;
-      int target = chunksToLoad.size();
+      int target = chunkPositions.size();
+      // The chunks get block ids from their own palettes, which are merged into the scene
+      // palette in chunk order. This keeps the scene palette ids the same as when loading
+      // on a single thread. The blocks are shared between the chunks through this palette.
+      BlockPalette blocks = new BlockPalette();
+      ThreadLocal<ChunkLoadBuffers> buffers = ThreadLocal.withInitial(() ->
+          new ChunkLoadBuffers(isTallWorld ? new GenericChunkData() : new SimpleChunkData()));
+      int numThreads = PersistentSettings.getNumThreads();
+      int maxPending = numThreads * 4; // Bounds memory used by decoded chunks waiting to be merged.
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      try {
+        ArrayDeque<Future<LoadedChunk>> pending = new ArrayDeque<>(maxPending);
+        int next = 0;
+        while (next < chunkPositions.size() || !pending.isEmpty()) {
+          while (next < chunkPositions.size() && pending.size() < maxPending) {
+            ChunkPosition cp = chunkPositions.get(next++);
+            pending.add(executor.submit(() -> loadChunk(world, cp, blocks, buffers.get())));
+          }
 
-      boolean usingFirstChunkData = true;
+          LoadedChunk chunk;
+          try {
+            chunk = pending.remove().get();
+          } catch (InterruptedException e) {
+            throw new RuntimeException("Chunk loading interrupted", e);
+          } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+          }
 
-      ChunkPosition[] chunkPositions = chunksToLoad.toArray(new ChunkPosition[0]);
+          task.updateEta(target, done);
+          done += 1;
+          mergeChunk(chunk, biomeIdMap);
+          loadedChunks.add(chunk.position);
+          numChunks += 1;
+
+          if (chunk.nonEmpty) {
+            nonEmptyChunks.add(chunk.position);
+            if (chunk.legacy) {
+              legacyChunks.add(chunk.position);
+            }
+          }
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
 
-      int[] cubeWorldBlocks = new int[16*16*16];
-      int[] cubeWaterBlocks = new int[16*16*16];
+    palette.unsynchronize();
 
-      ExecutorService executor = Executors.newSingleThreadExecutor();
-      Future<?> nextChunkDataTask = executor.submit(() -> { //Initialise first chunk data for the for loop
-        world.getChunk(chunkPositions[0]).getChunkData(chunkData1, palette);
-      });
-      for (int i = 0; i < chunkPositions.length; i++) {
-        ChunkPosition cp = chunkPositions[i];
+    grassTexture = new WorldTexture();
+    foliageTexture = new WorldTexture();
+    waterTexture = new WorldTexture();
 
-        task.updateEta(target, done);
-        done += 1;
+    try (TaskTracker.Task task = taskTracker.task("(4/6) Finalizing octree")) {
 
-        if (loadedChunks.contains(cp)) {
-          continue;
-        }
+      worldOctree.startFinalization();
+      waterOctree.startFinalization();
 
-        loadedChunks.add(cp);
+      int done = 0;
+      int target = nonEmptyChunks.size();
+      for (ChunkPosition cp : nonEmptyChunks) {
+        // Finalize grass and foliage textures.
+        // 3x3 box blur.
+        for (int x = 0; x < 16; ++x) {
+          for (int z = 0; z < 16; ++z) {
 
-        try {
-          nextChunkDataTask.get(50, TimeUnit.MILLISECONDS);
-        } catch(TimeoutException | InterruptedException logged) { // If except, load the chunk synchronously
-          if (logged instanceof TimeoutException) {
-            Log.info("Chunk loading timed out.");
-          } else {
-            Log.warn("Chunky loading interrupted.", logged);
-          }
+            int nsum = 0;
+            float[] grassMix = {0, 0, 0};
+            float[] foliageMix = {0, 0, 0};
+            float[] waterMix = {0, 0, 0};
+            for (int sx = x - 1; sx <= x + 1; ++sx) {
+              int wx = cp.x * 16 + sx;
+              for (int sz = z - 1; sz <= z + 1; ++sz) {
+                int wz = cp.z * 16 + sz;
 
-          if(usingFirstChunkData) {
-            world.getChunk(chunkPositions[i]).getChunkData(chunkData1, palette);
-          }
-          else {
-            world.getChunk(chunkPositions[i]).getChunkData(chunkData2, palette);
-          }
-        } catch(ExecutionException e) {
-          throw new RuntimeException(e.getCause());
-        }
+                ChunkPosition ccp = ChunkPosition.get(wx >> 4, wz >> 4);
+                if (nonEmptyChunks.contains(ccp)) {
+                  nsum += 1;
+                  int biomeId = biomeIdMap.get(wx, wz);
+                  float[] grassColor = Biomes.getGrassColorLinear(biomeId);
+                  grassMix[0] += grassColor[0];
+                  grassMix[1] += grassColor[1];
+                  grassMix[2] += grassColor[2];
+                  float[] foliageColor = Biomes.getFoliageColorLinear(biomeId);
+                  foliageMix[0] += foliageColor[0];
+                  foliageMix[1] += foliageColor[1];
+                  foliageMix[2] += foliageColor[2];
+                  float[] waterColor = Biomes.getWaterColorLinear(biomeId);
+                  waterMix[0] += waterColor[0];
+                  waterMix[1] += waterColor[1];
+                  waterMix[2] += waterColor[2];
+                }
+              }
+            }
+            grassMix[0] /= nsum;
+            grassMix[1] /= nsum;
+            grassMix[2] /= nsum;
+            grassTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, grassMix);
 
-        ChunkData chunkData; //the chunk data to be used for THIS iteration
-        {
-          ChunkData nextChunkData; //the chunk data to be used for the next iteration
-          if (usingFirstChunkData) {
-            chunkData = chunkData1;
-            nextChunkData = chunkData2;
-          } else {
-            chunkData = chunkData2;
-            nextChunkData = chunkData1;
-          }
-          usingFirstChunkData = !usingFirstChunkData;
+            foliageMix[0] /= nsum;
+            foliageMix[1] /= nsum;
+            foliageMix[2] /= nsum;
+            foliageTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, foliageMix);
 
-          if (i + 1 < chunkPositions.length) { //if has next request next
-            final int finalI = i;
-            nextChunkDataTask = executor.submit(() -> { //Initialise first chunk data for the for loop
-              world.getChunk(chunkPositions[finalI + 1]).getChunkData(nextChunkData, palette);
-            });
+            waterMix[0] /= nsum;
+            waterMix[1] /= nsum;
+            waterMix[2] /= nsum;
+            waterTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, waterMix);
           }
         }
+        task.updateEta(target, done);
+        done += 1;
+        OctreeFinalizer.finalizeChunk(worldOctree, waterOctree, palette, origin, cp, yMin, yMax);
+        if (legacyChunks.contains(cp)) {
+          LegacyBlocksFinalizer
+              .finalizeChunk(worldOctree, waterOctree, palette, origin, cp, yMin, yMax);
+        }
+      }
 
-        numChunks += 1;
+      worldOctree.endFinalization();
+      waterOctree.endFinalization();
 
-        int wx0 = cp.x * 16; // Start of this chunk in world coordinates.
-        int wz0 = cp.z * 16;
-        for (int cz = 0; cz < 16; ++cz) {
-          int wz = cz + wz0;
-          for (int cx = 0; cx < 16; ++cx) {
-            int wx = cx + wx0;
-            int biomeId = 0xFF & chunkData.getBiomeAt(cx, 0, cz); // TODO add vertical biomes support (1.15+)
-            biomeIdMap.set(biomeId, wx, wz);
-          }
-        }
+      grassTexture.compact();
+      foliageTexture.compact();
+      waterTexture.compact();
+    }
 
-        // Load entities from the chunk:
-        for (CompoundTag tag : chunkData.getEntities()) {
-          Tag posTag = tag.get("Pos");
-          if (posTag.isList()) {
-            ListTag pos = posTag.asList();
-            double x = pos.get(0).doubleValue();
-            double y = pos.get(1).doubleValue();
-            double z = pos.get(2).doubleValue();
-
-            if (y >= yClipMin && y < yClipMax) {
-              String id = tag.get("id").stringValue("");
-              if (id.equals("minecraft:painting") || id.equals("Painting")) {
-                // Before 1.12 paintings had id=Painting.
-                // After 1.12 paintings had id=minecraft:painting.
-                float yaw = tag.get("Rotation").get(0).floatValue();
-                entities.add(
-                    new PaintingEntity(new Vector3(x, y, z), tag.get("Motive").stringValue(), yaw));
-              } else if (id.equals("minecraft:armor_stand")) {
-                actors.add(new ArmorStand(new Vector3(x, y, z), tag));
-              }
-            }
+    for (Entity entity : actors) {
+      entity.loadDataFromOctree(worldOctree, palette, origin);
+    }
+
+    for (Entity entity : entities) {
+      entity.loadDataFromOctree(worldOctree, palette, origin);
+    }
+
+    if (emitterGrid != null)
+      emitterGrid.prepare();
+
+    chunks = loadedChunks;
+    camera.setWorldSize(1 << worldOctree.getDepth());
+    try (TaskTracker.Task task = taskTracker.task("(5/6) Building world BVH")) {
+      buildBvh(task);
+    }
+    try (TaskTracker.Task task = taskTracker.task("(6/6) Building actor BVH")) {
+      buildActorBvh(task);
+    }
+    Log.info(String.format("Loaded %d chunks", numChunks));
+
+    isLoading = false;
+  }
+
+  /**
+   * Decoded chunk converted to octree subtrees, entities and emitters, ready to be
+   * merged into the scene by {@link #mergeChunk}.
+   */
+  private static class LoadedChunk {
+    final ChunkPosition position;
+
+    /** Palette of the block ids used in this chunk, in the order they were first used. */
+    final BlockPalette palette;
+
+    final int yCubeMin;
+
+    final int[] biomes = new int[16 * 16];
+
+    /** Octree subtrees for each 16x16x16 section. */
+    final Octree.Subtree[] worldCubes;
+    final Octree.Subtree[] waterCubes;
+
+    /** Blocks changed by block entities, as (id, x, y, z) tuples in octree coordinates. */
+    final IntArrayList blockUpdates = new IntArrayList();
+
+    final List<Entity> entities = new ArrayList<>();
+
+    /** Actors loaded from entity tags, always added to the scene. */
+    final List<Entity> actors = new ArrayList<>();
+
+    /** Actors loaded from blocks, only added if no actor is already loaded at the same position. */
+    final List<Entity> poseables = new ArrayList<>();
+
+    final List<Grid.EmitterPosition> emitters = new ArrayList<>();
+
+    boolean nonEmpty;
+    boolean legacy;
+
+    LoadedChunk(ChunkPosition position, BlockPalette palette, int yCubeMin, int yCubeMax) {
+      this.position = position;
+      this.palette = palette;
+      this.yCubeMin = yCubeMin;
+      this.worldCubes = new Octree.Subtree[yCubeMax - yCubeMin];
+      this.waterCubes = new Octree.Subtree[yCubeMax - yCubeMin];
+    }
+  }
+
+  /**
+   * Buffers reused by a chunk loading thread.
+   */
+  private static class ChunkLoadBuffers {
+    final ChunkData chunkData;
+    final int[] cubeWorldBlocks = new int[16*16*16];
+    final int[] cubeWaterBlocks = new int[16*16*16];
+    final Octree.SubtreeBuilder subtreeBuilder = new Octree.SubtreeBuilder();
+
+    ChunkLoadBuffers(ChunkData chunkData) {
+      this.chunkData = chunkData;
+    }
+  }
+
+  /**
+   * Decode a chunk and build its octree subtrees. This only reads scene state
+   * that is fixed while chunks are loading, so it can run on several threads at once.
+   * Block ids in the result are ids in a palette of the chunk, they are mapped to
+   * the scene palette by {@link #mergeChunk}.
+   *
+   * @param blocks palette shared by the chunk loading threads to create blocks
+   */
+  private LoadedChunk loadChunk(World world, ChunkPosition cp, BlockPalette blocks, ChunkLoadBuffers buffers) {
+    Chunk worldChunk = world.getChunk(cp);
+    BlockPalette chunkPalette = new BlockPalette(blocks);
+    ChunkData chunkData = worldChunk.getChunkData(buffers.chunkData, chunkPalette);
+    int[] cubeWorldBlocks = buffers.cubeWorldBlocks;
+    int[] cubeWaterBlocks = buffers.cubeWaterBlocks;
+
+    int yCubeMin = yMin / 16;
+    int yCubeMax = (yMax+15) / 16;
+    LoadedChunk chunk = new LoadedChunk(cp, chunkPalette, yCubeMin, yCubeMax);
+
+    int wx0 = cp.x * 16; // Start of this chunk in world coordinates.
+    int wz0 = cp.z * 16;
+    for (int cz = 0; cz < 16; ++cz) {
+      for (int cx = 0; cx < 16; ++cx) {
+        chunk.biomes[cz * 16 + cx] = 0xFF & chunkData.getBiomeAt(cx, 0, cz); // TODO add vertical biomes support (1.15+)
+      }
+    }
+
+    // Load entities from the chunk:
+    for (CompoundTag tag : chunkData.getEntities()) {
+      Tag posTag = tag.get("Pos");
+      if (posTag.isList()) {
+        ListTag pos = posTag.asList();
+        double x = pos.get(0).doubleValue();
+        double y = pos.get(1).doubleValue();
+        double z = pos.get(2).doubleValue();
+
+        if (y >= yClipMin && y < yClipMax) {
+          String id = tag.get("id").stringValue("");
+          if (id.equals("minecraft:painting") || id.equals("Painting")) {
+            // Before 1.12 paintings had id=Painting.
+            // After 1.12 paintings had id=minecraft:painting.
+            float yaw = tag.get("Rotation").get(0).floatValue();
+            chunk.entities.add(
+                new PaintingEntity(new Vector3(x, y, z), tag.get("Motive").stringValue(), yaw));
+          } else if (id.equals("minecraft:armor_stand")) {
+            chunk.actors.add(new ArmorStand(new Vector3(x, y, z), tag));
           }
         }
+      }
+    }
 
-        int yCubeMin = yMin / 16;
-        int yCubeMax = (yMax+15) / 16;
-        for(int yCube = yCubeMin; yCube < yCubeMax; ++yCube) {
-          // Reset the cubes
-          Arrays.fill(cubeWorldBlocks, 0);
-          Arrays.fill(cubeWaterBlocks, 0);
-          for(int cy = 0; cy < 16; ++cy) { //Uses chunk min and max, rather than global - minor optimisation for pre1.13 worlds
-            int y = yCube * 16 + cy;
-            if(y < yMin || y >= yMax)
-              continue;
-            for(int cz = 0; cz < 16; ++cz) {
-              int z = cz + cp.z * 16 - origin.z;
-              for(int cx = 0; cx < 16; ++cx) {
-                int x = cx + cp.x * 16 - origin.x;
-
-                int cubeIndex = (cz * 16 + cy) * 16 + cx;
-
-                // Change the type of hidden blocks to ANY_TYPE
-                boolean onEdge = y <= yMin || y >= yMax - 1 || chunkData.isBlockOnEdge(cx, y, cz);
-                boolean isHidden = !onEdge
-                        && palette.get(chunkData.getBlockAt(cx + 1, y, cz)).opaque
-                        && palette.get(chunkData.getBlockAt(cx - 1, y, cz)).opaque
-                        && palette.get(chunkData.getBlockAt(cx, y + 1, cz)).opaque
-                        && palette.get(chunkData.getBlockAt(cx, y - 1, cz)).opaque
-                        && palette.get(chunkData.getBlockAt(cx, y, cz + 1)).opaque
-                        && palette.get(chunkData.getBlockAt(cx, y, cz - 1)).opaque;
-
-                if(isHidden) {
-                  cubeWorldBlocks[cubeIndex] = Octree.ANY_TYPE;
+    for(int yCube = yCubeMin; yCube < yCubeMax; ++yCube) {
+      // Reset the cubes
+      Arrays.fill(cubeWorldBlocks, 0);
+      Arrays.fill(cubeWaterBlocks, 0);
+      for(int cy = 0; cy < 16; ++cy) { //Uses chunk min and max, rather than global - minor optimisation for pre1.13 worlds
+        int y = yCube * 16 + cy;
+        if(y < yMin || y >= yMax)
+          continue;
+        for(int cz = 0; cz < 16; ++cz) {
+          int z = cz + cp.z * 16 - origin.z;
+          for(int cx = 0; cx < 16; ++cx) {
+            int x = cx + cp.x * 16 - origin.x;
+
+            int cubeIndex = (cz * 16 + cy) * 16 + cx;
+
+            // Change the type of hidden blocks to ANY_TYPE
+            boolean onEdge = y <= yMin || y >= yMax - 1 || chunkData.isBlockOnEdge(cx, y, cz);
+            boolean isHidden = !onEdge
+                    && chunkPalette.get(chunkData.getBlockAt(cx + 1, y, cz)).opaque
+                    && chunkPalette.get(chunkData.getBlockAt(cx - 1, y, cz)).opaque
+                    && chunkPalette.get(chunkData.getBlockAt(cx, y + 1, cz)).opaque
+                    && chunkPalette.get(chunkData.getBlockAt(cx, y - 1, cz)).opaque
+                    && chunkPalette.get(chunkData.getBlockAt(cx, y, cz + 1)).opaque
+                    && chunkPalette.get(chunkData.getBlockAt(cx, y, cz - 1)).opaque;
+
+            if(isHidden) {
+              cubeWorldBlocks[cubeIndex] = Octree.ANY_TYPE;
+            } else {
+              int currentBlock = chunkData.getBlockAt(cx, y, cz);
+              int octNode = currentBlock;
+              Block block = chunkPalette.get(currentBlock);
+
+              if(block.isEntity()) {
+                Vector3 position = new Vector3(cx + cp.x * 16, y, cz + cp.z * 16);
+                Entity entity = block.toEntity(position);
+
+                if(entity instanceof Poseable && !(entity instanceof Lectern && !((Lectern) entity).hasBook())) {
+                  chunk.poseables.add(entity);
                 } else {
-                  int currentBlock = chunkData.getBlockAt(cx, y, cz);
-                  int octNode = currentBlock;
-                  Block block = palette.get(currentBlock);
-
-                  if(block.isEntity()) {
-                    Vector3 position = new Vector3(cx + cp.x * 16, y, cz + cp.z * 16);
-                    Entity entity = block.toEntity(position);
-
-                    if(entity instanceof Poseable && !(entity instanceof Lectern && !((Lectern) entity).hasBook())) {
-                      // don't add the actor again if it was already loaded from json
-                      if(actors.stream().noneMatch(actor -> {
-                        if(actor.getClass().equals(entity.getClass())) {
-                          Vector3 distance = new Vector3(actor.position);
-                          distance.sub(entity.position);
-                          return distance.lengthSquared() < Ray.EPSILON;
-                        }
-                        return false;
-                      })) {
-                        actors.add(entity);
-                      }
-                    } else {
-                      entities.add(entity);
-                      if(emitterGrid != null) {
-                        for(Grid.EmitterPosition emitterPos : entity.getEmitterPosition()) {
-                          emitterPos.x -= origin.x;
-                          emitterPos.y -= origin.y;
-                          emitterPos.z -= origin.z;
-                          emitterGrid.addEmitter(emitterPos);
-                        }
-                      }
+                  chunk.entities.add(entity);
+                  if(emitterGrid != null) {
+                    for(Grid.EmitterPosition emitterPos : entity.getEmitterPosition()) {
+                      emitterPos.x -= origin.x;
+                      emitterPos.y -= origin.y;
+                      emitterPos.z -= origin.z;
+                      chunk.emitters.add(emitterPos);
                     }
+                  }
+                }
 
-                    if(!block.isBlockWithEntity()) {
-                      if(block.waterlogged) {
-                        block = palette.water;
-                        octNode = palette.waterId;
-                      } else {
-                        block = Air.INSTANCE;
-                        octNode = palette.airId;
-                      }
-                    }
+                if(!block.isBlockWithEntity()) {
+                  if(block.waterlogged) {
+                    block = chunkPalette.water;
+                    octNode = chunkPalette.waterId;
+                  } else {
+                    block = Air.INSTANCE;
+                    octNode = chunkPalette.airId;
                   }
+                }
+              }
 
-                  if(block.isWaterFilled()) {
-                    int waterNode = palette.waterId;
-                    if(y + 1 < yMax) {
-                      if(palette.get(chunkData.getBlockAt(cx, y + 1, cz)).isWaterFilled()) {
-                        waterNode = palette.getWaterId(0, 1 << Water.FULL_BLOCK);
-                      }
-                    }
-                    if(block.isWater()) {
-                      // Move plain water blocks to the water octree.
-                      octNode = palette.airId;
-
-                      if(!onEdge) {
-                        // Perform water computation now for water blocks that are not on th edge of the chunk
-                        // Test if the block has not already be marked as full
-                        if(((Water) palette.get(waterNode)).data == 0) {
-                          int level0 = 8 - ((Water) block).level;
-                          int corner0 = level0;
-                          int corner1 = level0;
-                          int corner2 = level0;
-                          int corner3 = level0;
-
-                          int level = Chunk.waterLevelAt(chunkData, palette, cx - 1, y, cz, level0);
-                          corner3 += level;
-                          corner0 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx - 1, y, cz + 1, level0);
-                          corner0 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx, y, cz + 1, level0);
-                          corner0 += level;
-                          corner1 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx + 1, y, cz + 1, level0);
-                          corner1 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx + 1, y, cz, level0);
-                          corner1 += level;
-                          corner2 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx + 1, y, cz - 1, level0);
-                          corner2 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx, y, cz - 1, level0);
-                          corner2 += level;
-                          corner3 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx - 1, y, cz - 1, level0);
-                          corner3 += level;
-
-                          corner0 = Math.min(7, 8 - (corner0 / 4));
-                          corner1 = Math.min(7, 8 - (corner1 / 4));
-                          corner2 = Math.min(7, 8 - (corner2 / 4));
-                          corner3 = Math.min(7, 8 - (corner3 / 4));
-                          waterNode = palette.getWaterId(((Water) block).level, (corner0 << Water.CORNER_0)
-                                          | (corner1 << Water.CORNER_1)
-                                          | (corner2 << Water.CORNER_2)
-                                          | (corner3 << Water.CORNER_3));
-                        }
-                      } else {
-                        // Water computation for water blocks on the edge of a chunk is done by the OctreeFinalizer but we need the water level information
-                        waterNode = palette.getWaterId(((Water) block).level, 0);
-                      }
-                    }
-                    cubeWaterBlocks[cubeIndex] = waterNode;
-                  } else if(y + 1 < yMax && block instanceof Lava) {
-                    if(palette.get(chunkData.getBlockAt(cx, y + 1, cz)) instanceof Lava) {
-                      octNode = palette.getLavaId(0, 1 << Water.FULL_BLOCK);
-                    } else if(!onEdge) {
-                      // Compute lava level for blocks not on edge
-                      Lava lava = (Lava) block;
-                      int level0 = 8 - lava.level;
+              if(block.isWaterFilled()) {
+                int waterNode = chunkPalette.waterId;
+                if(y + 1 < yMax) {
+                  if(chunkPalette.get(chunkData.getBlockAt(cx, y + 1, cz)).isWaterFilled()) {
+                    waterNode = chunkPalette.getWaterId(0, 1 << Water.FULL_BLOCK);
+                  }
+                }
+                if(block.isWater()) {
+                  // Move plain water blocks to the water octree.
+                  octNode = chunkPalette.airId;
+
+                  if(!onEdge) {
+                    // Perform water computation now for water blocks that are not on th edge of the chunk
+                    // Test if the block has not already be marked as full
+                    if(((Water) chunkPalette.get(waterNode)).data == 0) {
+                      int level0 = 8 - ((Water) block).level;
                       int corner0 = level0;
                       int corner1 = level0;
                       int corner2 = level0;
                       int corner3 = level0;
 
-                      int level = Chunk.lavaLevelAt(chunkData, palette, cx - 1, y, cz, level0);
+                      int level = Chunk.waterLevelAt(chunkData, chunkPalette, cx - 1, y, cz, level0);
                       corner3 += level;
                       corner0 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx - 1, y, cz + 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, chunkPalette, cx - 1, y, cz + 1, level0);
                       corner0 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx, y, cz + 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, chunkPalette, cx, y, cz + 1, level0);
                       corner0 += level;
                       corner1 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx + 1, y, cz + 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, chunkPalette, cx + 1, y, cz + 1, level0);
                       corner1 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx + 1, y, cz, level0);
+                      level = Chunk.waterLevelAt(chunkData, chunkPalette, cx + 1, y, cz, level0);
                       corner1 += level;
                       corner2 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx + 1, y, cz - 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, chunkPalette, cx + 1, y, cz - 1, level0);
                       corner2 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx, y, cz - 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, chunkPalette, cx, y, cz - 1, level0);
                       corner2 += level;
                       corner3 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx - 1, y, cz - 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, chunkPalette, cx - 1, y, cz - 1, level0);
                       corner3 += level;
 
                       corner0 = Math.min(7, 8 - (corner0 / 4));
                       corner1 = Math.min(7, 8 - (corner1 / 4));
                       corner2 = Math.min(7, 8 - (corner2 / 4));
                       corner3 = Math.min(7, 8 - (corner3 / 4));
-                      octNode = palette.getLavaId(
-                              lava.level,
-                              (corner0 << Water.CORNER_0)
+                      waterNode = chunkPalette.getWaterId(((Water) block).level, (corner0 << Water.CORNER_0)
                                       | (corner1 << Water.CORNER_1)
                                       | (corner2 << Water.CORNER_2)
-                                      | (corner3 << Water.CORNER_3)
-                      );
+                                      | (corner3 << Water.CORNER_3));
                     }
+                  } else {
+                    // Water computation for water blocks on the edge of a chunk is done by the OctreeFinalizer but we need the water level information
+                    waterNode = chunkPalette.getWaterId(((Water) block).level, 0);
                   }
-                  cubeWorldBlocks[cubeIndex] = octNode;
-
-                  if(emitterGrid != null && block.emittance > 1e-4) {
-                    emitterGrid.addEmitter(new Grid.EmitterPosition(x + 0.5f, y - origin.y + 0.5f, z + 0.5f));
-                  }
-                }
-              }
-            }
-          }
-          worldOctree.setCube(4, cubeWorldBlocks, cp.x*16 - origin.x, yCube*16 - origin.y, cp.z*16 - origin.z);
-          waterOctree.setCube(4, cubeWaterBlocks, cp.x*16 - origin.x, yCube*16 - origin.y, cp.z*16 - origin.z);
-        }
-
-        // Block entities are also called "tile entities". These are extra bits of metadata
-        // about certain blocks or entities.
-        // Block entities are loaded after the base block data so that metadata can be updated.
-        for (CompoundTag entityTag : chunkData.getTileEntities()) {
-          int y = entityTag.get("y").intValue(0);
-          if (y >= yMin && y < yMax) {
-            int x = entityTag.get("x").intValue(0) - wx0; // Chunk-local coordinates.
-            int z = entityTag.get("z").intValue(0) - wz0;
-            if (x < 0 || x > 15 || z < 0 || z > 15) {
-              // Block entity is out of range (bad chunk data?), ignore it
-              continue;
-            }
-            Block block = palette.get(chunkData.getBlockAt(x, y, z));
-            // Metadata is the old block data (to be replaced in future Minecraft versions?).
-            Vector3 position = new Vector3(x + wx0, y, z + wz0);
-            if (block.isModifiedByBlockEntity()) {
-              Tag newTag = block.getNewTagWithBlockEntity(palette.getBlockSpec(chunkData.getBlockAt(x, y, z)).getTag(), entityTag);
-              if (newTag != null) {
-                int id = palette.put(newTag);
-                block = palette.get(id);
-                chunkData.setBlockAt(x, y, z, id);
-                worldOctree.set(id, cp.x * 16 + x - origin.x, y - origin.y, cp.z * 16 + z - origin.z);
-              }
-            }
-            if (block.isBlockEntity()) {
-              Entity blockEntity = block.toBlockEntity(position, entityTag);
-              if (blockEntity == null) {
-                continue;
-              }
-              if (blockEntity instanceof Poseable) {
-                // don't add the actor again if it was already loaded from json
-                if (actors.stream().noneMatch(actor -> {
-                  if (actor.getClass().equals(blockEntity.getClass())) {
-                    Vector3 distance = new Vector3(actor.position);
-                    distance.sub(blockEntity.position);
-                    return distance.lengthSquared() < Ray.EPSILON;
-                  }
-                  return false;
-                })) {
-                  actors.add(blockEntity);
                 }
-              } else {
-                entities.add(blockEntity);
-                if(emitterGrid != null) {
-                  for(Grid.EmitterPosition emitterPos : blockEntity.getEmitterPosition()) {
-                    emitterPos.x -= origin.x;
-                    emitterPos.y -= origin.y;
-                    emitterPos.z -= origin.z;
-                    emitterGrid.addEmitter(emitterPos);
-                  }
+                cubeWaterBlocks[cubeIndex] = waterNode;
+              } else if(y + 1 < yMax && block instanceof Lava) {
+                if(chunkPalette.get(chunkData.getBlockAt(cx, y + 1, cz)) instanceof Lava) {
+                  octNode = chunkPalette.getLavaId(0, 1 << Water.FULL_BLOCK);
+                } else if(!onEdge) {
+                  // Compute lava level for blocks not on edge
+                  Lava lava = (Lava) block;
+                  int level0 = 8 - lava.level;
+                  int corner0 = level0;
+                  int corner1 = level0;
+                  int corner2 = level0;
+                  int corner3 = level0;
+
+                  int level = Chunk.lavaLevelAt(chunkData, chunkPalette, cx - 1, y, cz, level0);
+                  corner3 += level;
+                  corner0 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, chunkPalette, cx - 1, y, cz + 1, level0);
+                  corner0 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, chunkPalette, cx, y, cz + 1, level0);
+                  corner0 += level;
+                  corner1 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, chunkPalette, cx + 1, y, cz + 1, level0);
+                  corner1 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, chunkPalette, cx + 1, y, cz, level0);
+                  corner1 += level;
+                  corner2 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, chunkPalette, cx + 1, y, cz - 1, level0);
+                  corner2 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, chunkPalette, cx, y, cz - 1, level0);
+                  corner2 += level;
+                  corner3 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, chunkPalette, cx - 1, y, cz - 1, level0);
+                  corner3 += level;
+
+                  corner0 = Math.min(7, 8 - (corner0 / 4));
+                  corner1 = Math.min(7, 8 - (corner1 / 4));
+                  corner2 = Math.min(7, 8 - (corner2 / 4));
+                  corner3 = Math.min(7, 8 - (corner3 / 4));
+                  octNode = chunkPalette.getLavaId(
+                          lava.level,
+                          (corner0 << Water.CORNER_0)
+                                  | (corner1 << Water.CORNER_1)
+                                  | (corner2 << Water.CORNER_2)
+                                  | (corner3 << Water.CORNER_3)
+                  );
                 }
               }
-            }
-            /*
-            switch (block) {
-              case Block.HEAD_ID:
-                entities.add(new SkullEntity(position, entityTag, metadata));
-                break;
-              case Block.WALL_BANNER_ID: {
-                entities.add(new WallBanner(position, metadata, entityTag));
-                break;
+              cubeWorldBlocks[cubeIndex] = octNode;
+
+              if(emitterGrid != null && block.emittance > 1e-4) {
+                chunk.emitters.add(new Grid.EmitterPosition(x + 0.5f, y - origin.y + 0.5f, z + 0.5f));
               }
             }
-            */
-          }
-        }
-
-        if (!chunkData.isEmpty()){
-          nonEmptyChunks.add(cp);
-          if (world.getChunk(cp).getVersion().equals("1.12")) {
-            legacyChunks.add(cp);
           }
         }
       }
-      executor.shutdown();
+      chunk.worldCubes[yCube - yCubeMin] = buffers.subtreeBuilder.build(4, cubeWorldBlocks);
+      chunk.waterCubes[yCube - yCubeMin] = buffers.subtreeBuilder.build(4, cubeWaterBlocks);
     }
 
-    palette.unsynchronize();
-
-    grassTexture = new WorldTexture();
-    foliageTexture = new WorldTexture();
-    waterTexture = new WorldTexture();
-
-    try (TaskTracker.Task task = taskTracker.task("(4/6) Finalizing octree")) {
-
-      worldOctree.startFinalization();
-      waterOctree.startFinalization();
-
-      int done = 0;
-      int target = nonEmptyChunks.size();
-      for (ChunkPosition cp : nonEmptyChunks) {
-        // Finalize grass and foliage textures.
-        // 3x3 box blur.
-        for (int x = 0; x < 16; ++x) {
-          for (int z = 0; z < 16; ++z) {
-
-            int nsum = 0;
-            float[] grassMix = {0, 0, 0};
-            float[] foliageMix = {0, 0, 0};
-            float[] waterMix = {0, 0, 0};
-            for (int sx = x - 1; sx <= x + 1; ++sx) {
-              int wx = cp.x * 16 + sx;
-              for (int sz = z - 1; sz <= z + 1; ++sz) {
-                int wz = cp.z * 16 + sz;
-
-                ChunkPosition ccp = ChunkPosition.get(wx >> 4, wz >> 4);
-                if (nonEmptyChunks.contains(ccp)) {
-                  nsum += 1;
-                  int biomeId = biomeIdMap.get(wx, wz);
-                  float[] grassColor = Biomes.getGrassColorLinear(biomeId);
-                  grassMix[0] += grassColor[0];
-                  grassMix[1] += grassColor[1];
-                  grassMix[2] += grassColor[2];
-                  float[] foliageColor = Biomes.getFoliageColorLinear(biomeId);
-                  foliageMix[0] += foliageColor[0];
-                  foliageMix[1] += foliageColor[1];
-                  foliageMix[2] += foliageColor[2];
-                  float[] waterColor = Biomes.getWaterColorLinear(biomeId);
-                  waterMix[0] += waterColor[0];
-                  waterMix[1] += waterColor[1];
-                  waterMix[2] += waterColor[2];
-                }
+    // Block entities are also called "tile entities". These are extra bits of metadata
+    // about certain blocks or entities.
+    // Block entities are loaded after the base block data so that metadata can be updated.
+    for (CompoundTag entityTag : chunkData.getTileEntities()) {
+      int y = entityTag.get("y").intValue(0);
+      if (y >= yMin && y < yMax) {
+        int x = entityTag.get("x").intValue(0) - wx0; // Chunk-local coordinates.
+        int z = entityTag.get("z").intValue(0) - wz0;
+        if (x < 0 || x > 15 || z < 0 || z > 15) {
+          // Block entity is out of range (bad chunk data?), ignore it
+          continue;
+        }
+        Block block = chunkPalette.get(chunkData.getBlockAt(x, y, z));
+        // Metadata is the old block data (to be replaced in future Minecraft versions?).
+        Vector3 position = new Vector3(x + wx0, y, z + wz0);
+        if (block.isModifiedByBlockEntity()) {
+          Tag newTag = block.getNewTagWithBlockEntity(chunkPalette.getBlockSpec(chunkData.getBlockAt(x, y, z)).getTag(), entityTag);
+          if (newTag != null) {
+            int id = chunkPalette.put(newTag);
+            block = chunkPalette.get(id);
+            chunkData.setBlockAt(x, y, z, id);
+            chunk.blockUpdates.add(id);
+            chunk.blockUpdates.add(cp.x * 16 + x - origin.x);
+            chunk.blockUpdates.add(y - origin.y);
+            chunk.blockUpdates.add(cp.z * 16 + z - origin.z);
+          }
+        }
+        if (block.isBlockEntity()) {
+          Entity blockEntity = block.toBlockEntity(position, entityTag);
+          if (blockEntity == null) {
+            continue;
+          }
+          if (blockEntity instanceof Poseable) {
+            chunk.poseables.add(blockEntity);
+          } else {
+            chunk.entities.add(blockEntity);
+            if(emitterGrid != null) {
+              for(Grid.EmitterPosition emitterPos : blockEntity.getEmitterPosition()) {
+                emitterPos.x -= origin.x;
+                emitterPos.y -= origin.y;
+                emitterPos.z -= origin.z;
+                chunk.emitters.add(emitterPos);
               }
             }
-            grassMix[0] /= nsum;
-            grassMix[1] /= nsum;
-            grassMix[2] /= nsum;
-            grassTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, grassMix);
-
-            foliageMix[0] /= nsum;
-            foliageMix[1] /= nsum;
-            foliageMix[2] /= nsum;
-            foliageTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, foliageMix);
-
-            waterMix[0] /= nsum;
-            waterMix[1] /= nsum;
-            waterMix[2] /= nsum;
-            waterTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, waterMix);
           }
         }
-        task.updateEta(target, done);
-        done += 1;
-        OctreeFinalizer.finalizeChunk(worldOctree, waterOctree, palette, origin, cp, yMin, yMax);
-        if (legacyChunks.contains(cp)) {
-          LegacyBlocksFinalizer
-              .finalizeChunk(worldOctree, waterOctree, palette, origin, cp, yMin, yMax);
+        /*
+        switch (block) {
+          case Block.HEAD_ID:
+            entities.add(new SkullEntity(position, entityTag, metadata));
+            break;
+          case Block.WALL_BANNER_ID: {
+            entities.add(new WallBanner(position, metadata, entityTag));
+            break;
+          }
         }
+        */
       }
+    }
 
-      worldOctree.endFinalization();
-      waterOctree.endFinalization();
 
-      grassTexture.compact();
-      foliageTexture.compact();
-      waterTexture.compact();
+    if (!chunkData.isEmpty()) {
+      chunk.nonEmpty = true;
+      chunk.legacy = worldChunk.getVersion().equals("1.12");
     }
+    return chunk;
+  }
 
-    for (Entity entity : actors) {
-      entity.loadDataFromOctree(worldOctree, palette, origin);
+  /**
+   * Add a loaded chunk to the octrees, entity lists and emitter grid. Must be
+   * called in chunk order from the thread loading the scene.
+   */
+  private void mergeChunk(LoadedChunk chunk, Heightmap biomeIdMap) {
+    ChunkPosition cp = chunk.position;
+    for (int cz = 0; cz < 16; ++cz) {
+      for (int cx = 0; cx < 16; ++cx) {
+        biomeIdMap.set(chunk.biomes[cz * 16 + cx], cp.x * 16 + cx, cp.z * 16 + cz);
+      }
     }
 
-    for (Entity entity : entities) {
-      entity.loadDataFromOctree(worldOctree, palette, origin);
+    // Map the block ids of the chunk to the scene palette.
+    BlockSpec[] specs = chunk.palette.getBlockSpecs();
+    int[] ids = new int[specs.length];
+    for (int i = 0; i < specs.length; ++i) {
+      ids[i] = palette.put(specs[i]);
     }
 
-    if (emitterGrid != null)
-      emitterGrid.prepare();
-
-    chunks = loadedChunks;
-    camera.setWorldSize(1 << worldOctree.getDepth());
-    try (TaskTracker.Task task = taskTracker.task("(5/6) Building world BVH")) {
-      buildBvh(task);
+    for (int i = 0; i < chunk.worldCubes.length; ++i) {
+      int yCube = chunk.yCubeMin + i;
+      chunk.worldCubes[i].remap(ids);
+      chunk.waterCubes[i].remap(ids);
+      worldOctree.setSubtree(chunk.worldCubes[i], cp.x*16 - origin.x, yCube*16 - origin.y, cp.z*16 - origin.z);
+      waterOctree.setSubtree(chunk.waterCubes[i], cp.x*16 - origin.x, yCube*16 - origin.y, cp.z*16 - origin.z);
     }
-    try (TaskTracker.Task task = taskTracker.task("(6/6) Building actor BVH")) {
-      buildActorBvh(task);
+
+    IntArrayList updates = chunk.blockUpdates;
+    for (int i = 0; i < updates.size(); i += 4) {
+      worldOctree.set(ids[updates.getInt(i)], updates.getInt(i + 1), updates.getInt(i + 2), updates.getInt(i + 3));
     }
-    Log.info(String.format("Loaded %d chunks", numChunks));
 
-    isLoading = false;
+    entities.addAll(chunk.entities);
+    actors.addAll(chunk.actors);
+    for (Entity entity : chunk.poseables) {
+      // don't add the actor again if it was already loaded from json
+      if (actors.stream().noneMatch(actor -> {
+        if (actor.getClass().equals(entity.getClass())) {
+          Vector3 distance = new Vector3(actor.position);
+          distance.sub(entity.position);
+          return distance.lengthSquared() < Ray.EPSILON;
+        }
+        return false;
+      })) {
+        actors.add(entity);
+      }
+    }
+    if (emitterGrid != null) {
+      for (Grid.EmitterPosition emitterPos : chunk.emitters) {
+        emitterGrid.addEmitter(emitterPos);
+      }
+    }
   }
 
   private void buildBvh(TaskTracker.Task task) {
@@ -1774,6 +2098,7 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public synchronized void setPostprocess(PostProcessingFilter p) {
     postProcessingFilter = p;
+    initFeatureBuffers();
     if (mode == RenderMode.PREVIEW) {
       // Don't interrupt the render if we are currently rendering.
       refresh();
@@ -1792,7 +2117,7 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public void setEmitterIntensity(double value) {
     emitterIntensity = value;
-    refresh();
+    refreshLighting();
   }
 
   /**
@@ -1801,7 +2126,7 @@ public class Scene implements JsonSerializable, Refreshable {
   public void setTransparentSky(boolean value) {
     if (value != transparentSky) {
       transparentSky = value;
-      refresh();
+      refreshLighting();
     }
   }
 
@@ -1922,10 +2247,15 @@ public class Scene implements JsonSerializable, Refreshable {
   public synchronized void copyTransients(Scene other) {
     name = other.name;
     postProcessingFilter = other.postProcessingFilter;
+    if (samples == other.samples) {
+      albedoBuffer = other.albedoBuffer;
+      normalBuffer = other.normalBuffer;
+    }
     exposure = other.exposure;
     dumpFrequency = other.dumpFrequency;
     saveSnapshots = other.saveSnapshots;
     sppTarget = other.sppTarget;
+    noiseThreshold = other.noiseThreshold;
     rayDepth = other.rayDepth;
     mode = other.mode;
     outputMode = other.outputMode;
@@ -1937,10 +2267,12 @@ public class Scene implements JsonSerializable, Refreshable {
   }
 
   /**
-   * @return The target SPP
+   * @return The target SPP. While a crop window is set the target is at least
+   * the SPP of the frame, so that the window is rendered to as many samples
+   * as the rest of the frame.
    */
   public int getTargetSpp() {
-    return sppTarget;
+    return cropWindow != null ? Math.max(sppTarget, spp) : sppTarget;
   }
 
   /**
@@ -1950,6 +2282,23 @@ public class Scene implements JsonSerializable, Refreshable {
     sppTarget = value;
   }
 
+  /**
+   * @return the relative noise level at which the adaptive renderer stops rendering a tile
+   */
+  public double getNoiseThreshold() {
+    return noiseThreshold;
+  }
+
+  /**
+   * Set the noise threshold used by the adaptive renderer. Tiles are rendered
+   * until the average relative standard error of their pixels is below this
+   * value. Zero or less disables the threshold, so that only the target spp
+   * stops the render.
+   */
+  public void setNoiseThreshold(double value) {
+    noiseThreshold = value;
+  }
+
   /**
    * Change the canvas size for this scene. This will refresh
    * the scene and reinitialize the sample buffers if the
@@ -1961,6 +2310,8 @@ public class Scene implements JsonSerializable, Refreshable {
     if (newWidth != width || newHeight != height) {
       width = newWidth;
       height = newHeight;
+      // The old frame is gone, so the crop window would be surrounded by an empty frame.
+      cropWindow = null;
       initBuffers();
       refresh();
     }
@@ -2080,7 +2431,12 @@ public class Scene implements JsonSerializable, Refreshable {
     if(mode == RenderMode.PREVIEW) {
       filter = PreviewFilter.INSTANCE;
     }
-    filter.processFrame(width, height, samples, backBuffer, exposure, task);
+    if (filter instanceof FeatureBufferPostProcessingFilter) {
+      ((FeatureBufferPostProcessingFilter) filter).processFrame(width, height, samples,
+          albedoBuffer, normalBuffer, backBuffer, exposure, task);
+    } else {
+      filter.processFrame(width, height, samples, backBuffer, exposure, task);
+    }
     finalized = true;
   }
 
@@ -2143,6 +2499,30 @@ public class Scene implements JsonSerializable, Refreshable {
     }
   }
 
+  private synchronized void saveBvh(RenderContext context, TaskTracker taskTracker) {
+    String fileName = name + ".bvh";
+    if (bvh == storedBvh && actorBvh == storedActorBvh && context.getSceneFile(fileName).isFile()) {
+      Log.info("Skipping redundant BVH write");
+      return;
+    }
+    try (TaskTracker.Task task = taskTracker.task("Saving BVH", 3)) {
+      task.update(1);
+      Log.info("Saving BVH " + fileName);
+      try (DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(new GZIPOutputStream(context.getSceneFileOutputStream(fileName))))) {
+        BVHFileFormat.store(out, bvh, bvhImplementation);
+        task.update(2);
+        BVHFileFormat.store(out, actorBvh, bvhImplementation);
+        storedBvh = bvh;
+        storedActorBvh = actorBvh;
+
+        task.update(3);
+        Log.info("BVH saved");
+      } catch (IOException e) {
+        Log.warn("Failed to save the BVH", e);
+      }
+    }
+  }
+
   public synchronized void saveDump(RenderContext context, TaskTracker taskTracker) {
     File dumpFile = context.getSceneFile(name + ".dump");
     Log.info("Saving render dump: " + dumpFile);
@@ -2152,6 +2532,67 @@ public class Scene implements JsonSerializable, Refreshable {
       Log.warn("Failed to save the render dump", e);
     }
     Log.info("Render dump saved: " + dumpFile);
+    saveTileSpp(context);
+  }
+
+  /**
+   * Save the measured tile costs. They are not stored in the scene description
+   * because the cost grid can be large.
+   */
+  private void saveRenderTuning(RenderContext context) {
+    File file = context.getSceneFile(name + ".tuning");
+    if (!renderTuning.hasCellCosts()) {
+      if (file.isFile()) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+      }
+      return;
+    }
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file)))) {
+      renderTuning.store(out);
+    } catch (IOException e) {
+      Log.warn("Failed to save the render tuning", e);
+    }
+  }
+
+  private void loadRenderTuning(RenderContext context) {
+    File file = context.getSceneFile(name + ".tuning");
+    if (file.isFile()) {
+      try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)))) {
+        renderTuning.load(in);
+      } catch (IOException e) {
+        Log.warn("Failed to load the render tuning", e);
+      }
+    }
+  }
+
+  private void saveTileSpp(RenderContext context) {
+    File file = context.getSceneFile(name + ".tiles");
+    if (tileSpp.isEmpty()) {
+      if (file.isFile()) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+      }
+      return;
+    }
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file)))) {
+      tileSpp.store(out);
+    } catch (IOException e) {
+      Log.warn("Failed to save the tile samples", e);
+    }
+  }
+
+  private void loadTileSpp(RenderContext context) {
+    tileSpp.clear();
+    File file = context.getSceneFile(name + ".tiles");
+    if (file.isFile()) {
+      try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)))) {
+        tileSpp.load(in);
+      } catch (IOException e) {
+        Log.warn("Failed to load the tile samples", e);
+        tileSpp.clear();
+      }
+    }
   }
 
   private synchronized boolean loadEmitterGrid(RenderContext context, TaskTracker taskTracker) {
@@ -2206,12 +2647,7 @@ public class Scene implements JsonSerializable, Refreshable {
         calculateOctreeOrigin(chunks, data.version < 6);
         camera.setWorldSize(1 << worldOctree.getDepth());
 
-        try (TaskTracker.Task bvhTask = taskTracker.task("(2/3) Building world BVH")) {
-          buildBvh(bvhTask);
-        }
-        try (TaskTracker.Task bvhTask = taskTracker.task("(3/3) Building actor BVH")) {
-          buildActorBvh(bvhTask);
-        }
+        loadBvh(context, taskTracker);
 
         return true;
       } catch (IOException e) {
@@ -2221,12 +2657,56 @@ public class Scene implements JsonSerializable, Refreshable {
     }
   }
 
+  /**
+   * Load the BVHs stored by {@link #saveBvh}. BVHs that were not stored, or were
+   * built from other entities or with another BVH implementation, are rebuilt.
+   */
+  private void loadBvh(RenderContext context, TaskTracker taskTracker) {
+    String fileName = name + ".bvh";
+    BVH loadedBvh = null;
+    BVH loadedActorBvh = null;
+    if (context.getSceneFile(fileName).isFile()) {
+      try (TaskTracker.Task task = taskTracker.task("(2/3) Loading BVH", 1000)) {
+        Log.info("Loading BVH " + fileName);
+        double progressScale = 1000.0 / context.getSceneFile(fileName).length();
+        Vector3 worldOffset = new Vector3(-origin.x, -origin.y, -origin.z);
+        try (DataInputStream in = new DataInputStream(new FastBufferedInputStream(new GZIPInputStream(new PositionalInputStream(context.getSceneFileInputStream(fileName), pos -> {
+          task.updateInterval((int) (pos * progressScale), 1);
+        }))))) {
+          loadedBvh = BVHFileFormat.load(in, bvhImplementation, entities, worldOffset);
+          loadedActorBvh = BVHFileFormat.load(in, bvhImplementation, actors, worldOffset);
+        } catch (IOException e) {
+          Log.info("Failed to load the BVH", e);
+        }
+      }
+    }
+
+    if (loadedBvh != null) {
+      bvh = loadedBvh;
+    } else {
+      try (TaskTracker.Task bvhTask = taskTracker.task("(2/3) Building world BVH")) {
+        buildBvh(bvhTask);
+      }
+    }
+    if (loadedActorBvh != null) {
+      actorBvh = loadedActorBvh;
+    } else {
+      try (TaskTracker.Task bvhTask = taskTracker.task("(3/3) Building actor BVH")) {
+        buildActorBvh(bvhTask);
+      }
+    }
+    storedBvh = loadedBvh;
+    storedActorBvh = loadedActorBvh;
+  }
+
   public synchronized boolean loadDump(RenderContext context, TaskTracker taskTracker) {
+    tileSpp.clear();
     if (!tryLoadDump(context, name + ".dump", taskTracker)) {
       // Failed to load the default render dump - try the backup file.
       if (!tryLoadDump(context, name + ".dump.backup", taskTracker)) {
         // we don't have the old render state, so reset spp and render time
         spp = 0;
+        cropSpp = 0;
         renderTime = 0;
         return false;
       }
@@ -2251,6 +2731,8 @@ public class Scene implements JsonSerializable, Refreshable {
     Log.info("Loading render dump: " + dumpFile);
     try (FileInputStream inputStream = new FileInputStream(dumpFile)) {
       RenderDump.load(inputStream, this, taskTracker);
+      clearFeatureBuffers();
+      loadTileSpp(context);
     } catch (IOException | IllegalStateException e) {
       // The render dump was possibly corrupt.
       Log.warn("Failed to load the render dump", e);
@@ -2311,7 +2793,9 @@ public class Scene implements JsonSerializable, Refreshable {
    * Copies a pixel in-buffer.
    */
   public void copyPixel(int jobId, int offset) {
-    System.arraycopy(samples, jobId * 3, samples, (jobId + offset) * 3, 3);
+    for (int cc = 0; cc < 3; ++cc) {
+      samples.set(jobId + offset, cc, samples.get(jobId, cc));
+    }
   }
 
   /**
@@ -2380,10 +2864,56 @@ public class Scene implements JsonSerializable, Refreshable {
    *
    * @return The sample buffer for this scene
    */
-  public double[] getSampleBuffer() {
+  public SampleBuffer getSamples() {
     return samples;
   }
 
+  /**
+   * Get direct access to the sample buffer array.
+   *
+   * @return The sample buffer for this scene
+   * @throws IllegalStateException if the sample buffer is not stored as a double array
+   * @deprecated Use {@link #getSamples()}, which works for all sample buffer types.
+   */
+  @Deprecated
+  public double[] getSampleBuffer() {
+    if (samples == null) {
+      return null;
+    }
+    if (!(samples instanceof DoubleSampleBuffer)) {
+      throw new IllegalStateException("The sample buffer is not stored as a double array.");
+    }
+    return ((DoubleSampleBuffer) samples).getData();
+  }
+
+  /**
+   * @return first-hit albedo, three values per pixel, or {@code null} if
+   * the post processing filter does not use it
+   */
+  public float[] getAlbedoBuffer() {
+    return albedoBuffer;
+  }
+
+  /**
+   * @return first-hit normal, three values per pixel, or {@code null} if
+   * the post processing filter does not use it
+   */
+  public float[] getNormalBuffer() {
+    return normalBuffer;
+  }
+
+  /**
+   * Mark the feature buffers as not sampled. This is needed when the sample
+   * buffer is replaced by samples that were not rendered in this session,
+   * for example from a render dump.
+   */
+  public void clearFeatureBuffers() {
+    if (albedoBuffer != null) {
+      Arrays.fill(albedoBuffer, 0);
+      Arrays.fill(normalBuffer, 0);
+    }
+  }
+
   /**
    * Get the back buffer of the current frame (in ARGB format).
    * @return Back buffer
@@ -2549,7 +3079,7 @@ public class Scene implements JsonSerializable, Refreshable {
 
   public void setFogColor(Vector3 color) {
     fogColor.set(color);
-    refresh();
+    refreshLighting();
   }
 
   public boolean getUseCustomWaterColor() {
@@ -2579,6 +3109,12 @@ public class Scene implements JsonSerializable, Refreshable {
     json.add("renderTime", renderTime);
     json.add("spp", spp);
     json.add("sppTarget", sppTarget);
+    if (cropWindow != null) {
+      json.add("cropWindow", cropWindow.toJson());
+      json.add("cropSpp", cropSpp);
+    }
+    json.add("renderTuning", renderTuning.toJson());
+    json.add("noiseThreshold", noiseThreshold);
     json.add("rayDepth", rayDepth);
     json.add("pathTrace", mode != RenderMode.PREVIEW);
     json.add("dumpFrequency", dumpFrequency);
@@ -2654,6 +3190,9 @@ public class Scene implements JsonSerializable, Refreshable {
       json.add("actors", actorArray);
     }
     json.add("octreeImplementation", octreeImplementation);
+    json.add("octreeStackTraversal", octreeStackTraversal);
+    json.add("lowDiscrepancySampling", lowDiscrepancySampling);
+    json.add("sampleBufferType", sampleBufferType.name());
     json.add("bvhImplementation", bvhImplementation);
     json.add("emitterSamplingStrategy", emitterSamplingStrategy.name());
     json.add("preventNormalEmitterWithSampling", preventNormalEmitterWithSampling);
@@ -2836,12 +3375,31 @@ public class Scene implements JsonSerializable, Refreshable {
 
     int newWidth = json.get("width").intValue(width);
     int newHeight = json.get("height").intValue(height);
-    if (width != newWidth || height != newHeight || samples == null) {
+    SampleBuffer.Type newSampleBufferType = sampleBufferType;
+    try {
+      newSampleBufferType = SampleBuffer.Type.valueOf(
+          json.get("sampleBufferType").stringValue(sampleBufferType.name()));
+    } catch (IllegalArgumentException e) {
+      Log.warn("Unknown sample buffer type, keeping " + sampleBufferType.name());
+    }
+    if (width != newWidth || height != newHeight || sampleBufferType != newSampleBufferType
+        || samples == null) {
       width = newWidth;
       height = newHeight;
+      sampleBufferType = newSampleBufferType;
       initBuffers();
     }
 
+    cropWindow = CropWindow.fromJson(json.get("cropWindow"));
+    if (cropWindow != null) {
+      cropWindow = cropWindow.clip(width, height);
+    }
+
+    renderTuning = new RenderTuning();
+    if (json.get("renderTuning").isObject()) {
+      renderTuning.importFromJson(json.get("renderTuning").object());
+    }
+
     yClipMin = json.get("yClipMin").asInt(yClipMin);
     yClipMax = json.get("yClipMax").asInt(yClipMax);
     yMin = json.get("yMin").asInt(Math.max(yClipMin, yMin));
@@ -2857,10 +3415,12 @@ public class Scene implements JsonSerializable, Refreshable {
               }
               return DEFAULT_POSTPROCESSING_FILTER;
             });
+    initFeatureBuffers();
     outputMode = PictureExportFormats
       .getFormat(json.get("outputMode").stringValue(outputMode.getName()))
       .orElse(PictureExportFormats.PNG);
     sppTarget = json.get("sppTarget").intValue(sppTarget);
+    noiseThreshold = json.get("noiseThreshold").doubleValue(noiseThreshold);
     rayDepth = json.get("rayDepth").intValue(rayDepth);
     if (!json.get("pathTrace").isUnknown()) {
       boolean pathTrace = json.get("pathTrace").boolValue(false);
@@ -2938,6 +3498,7 @@ public class Scene implements JsonSerializable, Refreshable {
     // other settings which can reset the render status.
     spp = json.get("spp").intValue(spp);
     renderTime = json.get("renderTime").longValue(renderTime);
+    cropSpp = cropWindow != null ? Math.max(0, json.get("cropSpp").intValue(0)) : 0;
 
     if (json.get("chunkList").isArray()) {
       JsonArray chunkList = json.get("chunkList").array();
@@ -2975,6 +3536,8 @@ public class Scene implements JsonSerializable, Refreshable {
     }
 
     octreeImplementation = json.get("octreeImplementation").asString(PersistentSettings.getOctreeImplementation());
+    octreeStackTraversal = json.get("octreeStackTraversal").boolValue(octreeStackTraversal);
+    lowDiscrepancySampling = json.get("lowDiscrepancySampling").boolValue(lowDiscrepancySampling);
     bvhImplementation = json.get("bvhImplementation").asString(PersistentSettings.getBvhMethod());
 
     emitterSamplingStrategy = EmitterSamplingStrategy.valueOf(json.get("emitterSamplingStrategy").asString("NONE"));
@@ -2996,12 +3559,27 @@ public class Scene implements JsonSerializable, Refreshable {
     refresh(ResetReason.SETTINGS_CHANGED);
   }
 
+  /**
+   * Called when only lighting settings changed, such as the sun, sky, fog or
+   * emitter settings. This restarts the render like {@link #refresh()}, but
+   * renderers may reuse cached primary ray hits because the camera and scene
+   * geometry did not change.
+   */
+  @Override public synchronized void refreshLighting() {
+    refresh(ResetReason.LIGHTING_CHANGED);
+  }
+
   private synchronized void refresh(ResetReason reason) {
     if (mode == RenderMode.PAUSED) {
       mode = RenderMode.RENDERING;
     }
-    spp = 0;
-    renderTime = 0;
+    if (cropWindow != null) {
+      // Only the crop window is restarted. The rest of the frame keeps its samples.
+      cropSpp = 0;
+    } else {
+      spp = 0;
+      renderTime = 0;
+    }
     setResetReason(reason);
     notifyAll();
   }
@@ -3060,7 +3638,7 @@ public class Scene implements JsonSerializable, Refreshable {
   public void setFogDensity(double newValue) {
     if (newValue != fogDensity) {
       this.fogDensity = newValue;
-      refresh();
+      refreshLighting();
     }
   }
 
@@ -3071,7 +3649,7 @@ public class Scene implements JsonSerializable, Refreshable {
   public void setSkyFogDensity(double newValue) {
     if (newValue != skyFogDensity) {
       this.skyFogDensity = newValue;
-      refresh();
+      refreshLighting();
     }
   }
 
@@ -3081,7 +3659,7 @@ public class Scene implements JsonSerializable, Refreshable {
   public void setFastFog(boolean value) {
     if (fastFog != value) {
       fastFog = value;
-      refresh();
+      refreshLighting();
     }
   }
 
@@ -3121,9 +3699,14 @@ public class Scene implements JsonSerializable, Refreshable {
   }
 
   public void setResetReason(ResetReason resetReason) {
-    if (this.resetReason != ResetReason.SCENE_LOADED) {
-      this.resetReason = resetReason;
+    if (this.resetReason == ResetReason.SCENE_LOADED) {
+      return;
+    }
+    if (resetReason == ResetReason.LIGHTING_CHANGED && this.resetReason.overwriteState()) {
+      // The pending reset also covers the lighting change.
+      return;
     }
+    this.resetReason = resetReason;
   }
 
   public void importMaterials() {
@@ -3254,6 +3837,160 @@ public class Scene implements JsonSerializable, Refreshable {
     this.octreeImplementation = octreeImplementation;
   }
 
+  public boolean isOctreeStackTraversal() {
+    return octreeStackTraversal;
+  }
+
+  /**
+   * Select the octree traversal mode. Both modes give the same result; the
+   * setting exists to compare their performance.
+   */
+  public void setOctreeStackTraversal(boolean value) {
+    octreeStackTraversal = value;
+  }
+
+  public boolean isLowDiscrepancySampling() {
+    return lowDiscrepancySampling;
+  }
+
+  /**
+   * Select between low-discrepancy and pseudo-random sampling for the first
+   * dimensions of each path. Low-discrepancy sampling usually converges faster.
+   */
+  public void setLowDiscrepancySampling(boolean value) {
+    if (value != lowDiscrepancySampling) {
+      lowDiscrepancySampling = value;
+      refresh();
+    }
+  }
+
+  public int getSampleIndexOffset() {
+    return sampleIndexOffset;
+  }
+
+  /**
+   * Set the offset added to the sample index of the low-discrepancy sequences.
+   *
+   * <p>Renders whose samples are merged into the same frame must either use
+   * different sample seeds, or the same sample seed and sample index ranges
+   * that do not overlap. Otherwise they draw the same sample points and the
+   * merged frame has no more information than each of them.
+   *
+   * @see #setSampleSeed(int)
+   */
+  public void setSampleIndexOffset(int value) {
+    sampleIndexOffset = value;
+  }
+
+  public int getSampleSeed() {
+    return sampleSeed;
+  }
+
+  /**
+   * Set the seed that scrambles the low-discrepancy sequences.
+   */
+  public void setSampleSeed(int value) {
+    sampleSeed = value;
+  }
+
+  /**
+   * @return the crop window, or {@code null} if the whole frame is rendered
+   */
+  public CropWindow getCropWindow() {
+    return cropWindow;
+  }
+
+  /**
+   * Render only the pixels inside the given window, or the whole frame if the
+   * window is {@code null}. The window is clipped to the canvas.
+   *
+   * <p>Setting a window restarts the render inside the window while the rest
+   * of the sample buffer keeps the current frame and its spp, so saving a dump
+   * merges the re-rendered window back into the full frame. The window is
+   * rendered at least to the spp of the frame, see {@link #getTargetSpp()}.
+   * Clearing the window does not reset the render; continuing to render the
+   * full frame adds samples to the whole buffer as if the window had the same
+   * spp as the rest of the frame, so the window should be cleared only after
+   * it has reached the frame spp.
+   */
+  public synchronized void setCropWindow(CropWindow window) {
+    if (window != null) {
+      window = window.clip(width, height);
+    }
+    if (!Objects.equals(window, cropWindow)) {
+      if (cropWindow != null && cropSpp > 0 && cropSpp < spp) {
+        Log.warnf("The crop window was cleared at %d of %d SPP. Its pixels are merged "
+            + "as if they had %d SPP.", cropSpp, spp, spp);
+      }
+      cropWindow = window;
+      cropSpp = 0;
+      if (window != null) {
+        refresh();
+      } else {
+        setResetReason(ResetReason.SETTINGS_CHANGED);
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * @return the samples per pixel of the pixels that are being rendered:
+   * the crop window spp if a crop window is set, otherwise the frame spp
+   */
+  public int getRenderSpp() {
+    return cropWindow != null ? cropSpp : spp;
+  }
+
+  /**
+   * Update the samples per pixel of the pixels that are being rendered.
+   * Renderers call this instead of changing {@code spp} directly, so that
+   * rendering a crop window does not change the spp of the full frame.
+   */
+  public void setRenderSpp(int value) {
+    if (cropWindow != null) {
+      cropSpp = value;
+    } else {
+      spp = value;
+    }
+  }
+
+  /**
+   * @return the number of pixels that are being rendered
+   */
+  public int renderPixels() {
+    return cropWindow != null ? cropWindow.width() * cropWindow.height() : width * height;
+  }
+
+  /**
+   * @return the render tuning of this scene, shared with its copies
+   */
+  public RenderTuning getRenderTuning() {
+    return renderTuning;
+  }
+
+  /**
+   * @return the samples per pixel of the tiles of an adaptive render
+   */
+  public TileSpp getTileSpp() {
+    return tileSpp;
+  }
+
+  public SampleBuffer.Type getSampleBufferType() {
+    return sampleBufferType;
+  }
+
+  /**
+   * Select how the sample buffer is stored. Changing the type clears the
+   * sample buffer and restarts the render.
+   */
+  public synchronized void setSampleBufferType(SampleBuffer.Type type) {
+    if (type != sampleBufferType) {
+      sampleBufferType = type;
+      initBuffers();
+      refresh();
+    }
+  }
+
   public String getBvhImplementation() {
     return bvhImplementation;
   }
@@ -3272,6 +4009,21 @@ public class Scene implements JsonSerializable, Refreshable {
     return waterOctree;
   }
 
+  /**
+   * Replace the voxel data of this scene. The octree origin is placed at world
+   * coordinates (0, 0, 0).
+   *
+   * <p>This makes it possible to render generated voxel data, for example in
+   * benchmarks, without loading a Minecraft world.
+   */
+  @PluginApi
+  public synchronized void setOctrees(BlockPalette palette, Octree worldOctree, Octree waterOctree) {
+    this.palette = palette;
+    this.worldOctree = worldOctree;
+    this.waterOctree = waterOctree;
+    origin.set(0, 0, 0);
+  }
+
   public EmitterSamplingStrategy getEmitterSamplingStrategy() {
     return emitterSamplingStrategy;
   }
@@ -3297,7 +4049,7 @@ public class Scene implements JsonSerializable, Refreshable {
 
   public void setPreventNormalEmitterWithSampling(boolean preventNormalEmitterWithSampling) {
     this.preventNormalEmitterWithSampling = preventNormalEmitterWithSampling;
-    refresh();
+    refreshLighting();
   }
 
   public void setAnimationTime(double animationTime) {
@@ -207,7 +207,7 @@ public class Sky implements JsonSerializable {
   public void loadSkymap(String fileName) {
     skymapFileName = fileName;
     skymap = loadSkyTexture(fileName, skymap);
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   /**
@@ -464,7 +464,7 @@ public class Sky implements JsonSerializable {
    */
   public void setRotation(double value) {
     rotation = value;
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   /**
@@ -480,7 +480,7 @@ public class Sky implements JsonSerializable {
   public void setMirrored(boolean b) {
     if (b != mirrored) {
       mirrored = b;
-      scene.refresh();
+      scene.refreshLighting();
     }
   }
 
@@ -507,7 +507,7 @@ public class Sky implements JsonSerializable {
           skyboxFileName[i] = "";
         }
       }
-      scene.refresh();
+      scene.refreshLighting();
     }
   }
 
@@ -525,7 +525,7 @@ public class Sky implements JsonSerializable {
     this.simulatedSkyMode = skies.get(mode);
     this.simulatedSkyMode.updateSun(scene.sun, horizonOffset);
     skyCache.setSimulatedSkyMode(this.simulatedSkyMode);
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   /**
@@ -659,7 +659,7 @@ public class Sky implements JsonSerializable {
    */
   public void setSkyLight(double newValue) {
     skyLightModifier = newValue;
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   /**
@@ -671,7 +671,7 @@ public class Sky implements JsonSerializable {
 
   public void setGradient(List<Vector4> newGradient) {
     gradient = newGradient.stream().map(Vector4::new).collect(Collectors.toList());
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   public List<Vector4> getGradient() {
@@ -747,7 +747,7 @@ public class Sky implements JsonSerializable {
     }
     skyboxFileName[index] = fileName;
     skybox[index] = loadSkyTexture(fileName, skybox[index]);
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   private Texture loadSkyTexture(String fileName, Texture prevTexture) {
@@ -776,7 +776,7 @@ public class Sky implements JsonSerializable {
     newValue = Math.min(1, Math.max(0, newValue));
     if (newValue != horizonOffset) {
       horizonOffset = newValue;
-      scene.refresh();
+      scene.refreshLighting();
     }
   }
 
@@ -1049,7 +1049,7 @@ public class Sky implements JsonSerializable {
 
   public void setColor(Vector3 color) {
     this.color.set(color);
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   public Vector3 getColor() {
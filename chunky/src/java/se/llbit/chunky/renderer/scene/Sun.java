@@ -210,7 +210,7 @@ public class Sun implements JsonSerializable {
   public void setAzimuth(double value) {
     azimuth = QuickMath.modulo(value, Math.PI * 2);
     initSun();
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   /**
@@ -219,7 +219,7 @@ public class Sun implements JsonSerializable {
   public void setAltitude(double value) {
     altitude = value;
     initSun();
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   /**
@@ -278,7 +278,7 @@ public class Sun implements JsonSerializable {
   public void setColor(Vector3 newColor) {
     this.color.set(newColor);
     initSun();
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   private void updateSkylightValues() {
@@ -301,7 +301,7 @@ public class Sun implements JsonSerializable {
   public void setIntensity(double value) {
     intensity = value;
     initSun();
-    scene.refresh();
+    scene.refreshLighting();
   }
 
   /**
@@ -321,16 +321,12 @@ public class Sun implements JsonSerializable {
     double sin_a = FastMath.sqrt(1 - cos_a * cos_a);
     double phi = 2 * Math.PI * x2;
 
-    Vector3 u = new Vector3(su);
-    Vector3 v = new Vector3(sv);
-    Vector3 w = new Vector3(sw);
+    double cu = FastMath.cos(phi) * sin_a;
+    double cv = FastMath.sin(phi) * sin_a;
 
-    u.scale(FastMath.cos(phi) * sin_a);
-    v.scale(FastMath.sin(phi) * sin_a);
-    w.scale(cos_a);
-
-    reflected.d.add(u, v);
-    reflected.d.add(w);
+    reflected.d.x = su.x * cu + sv.x * cv + sw.x * cos_a;
+    reflected.d.y = su.y * cu + sv.y * cv + sw.y * cos_a;
+    reflected.d.z = su.z * cu + sv.z * cv + sw.z * cos_a;
     reflected.d.normalize();
   }
 
@@ -375,7 +371,7 @@ public class Sun implements JsonSerializable {
   public void setDrawTexture(boolean value) {
     if (value != drawTexture) {
       drawTexture = value;
-      scene.refresh();
+      scene.refreshLighting();
     }
   }
 
@@ -106,9 +106,24 @@ public class SynchronousSceneManager implements SceneProvider, SceneManager {
   }
 
   @Override public void saveScene() throws InterruptedException {
+    synchronized (storedScene) {
+      // Copy render status over from the renderManager.
+      RenderStatus status = renderManager.getRenderStatus();
+      storedScene.renderTime = status.getRenderTime();
+      storedScene.spp = status.getSpp();
+      saveScene(storedScene);
+    }
+  }
+
+  /**
+   * Save the scene description and render dump of the given scene, for example a copy
+   * of the render made by a {@link RenderWriter}. The render status is taken from the
+   * given scene.
+   */
+  public void saveScene(Scene scene) {
     try {
-      synchronized (storedScene) {
-        String sceneName = storedScene.name();
+      synchronized (scene) {
+        String sceneName = scene.name();
         Log.info("Saving scene " + sceneName);
         File sceneDir = resolveSceneDirectory(sceneName);
         context.setSceneDirectory(sceneDir);
@@ -121,14 +136,10 @@ public class SynchronousSceneManager implements SceneProvider, SceneManager {
         }
 
         // Create backup of scene description and current render dump.
-        storedScene.backupFile(context, context.getSceneDescriptionFile(sceneName));
-        storedScene.backupFile(context, new File(sceneDir, sceneName + ".dump"));
-
-        // Copy render status over from the renderManager.
-        RenderStatus status = renderManager.getRenderStatus();
-        storedScene.renderTime = status.getRenderTime();
-        storedScene.spp = status.getSpp();
-        storedScene.saveScene(context, taskTracker);
+        scene.backupFile(context, context.getSceneDescriptionFile(sceneName));
+        scene.backupFile(context, new File(sceneDir, sceneName + ".dump"));
+
+        scene.saveScene(context, taskTracker);
         Log.info("Scene saved");
       }
     } catch (IOException e) {
@@ -250,7 +261,7 @@ public class SynchronousSceneManager implements SceneProvider, SceneManager {
    */
   protected void mergeDump(File dumpFile) {
     synchronized (scene) {
-      renderManager.withSampleBufferProtected((samples, width, height) -> {
+      renderManager.withSamplesProtected((samples, width, height) -> {
         if (width != scene.width || height != scene.height) {
           throw new Error("Failed to merge render dump - wrong canvas size.");
         }
@@ -0,0 +1,125 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Samples per pixel of each render tile, for renderers that stop rendering
+ * some tiles before the rest of the frame. It is saved next to the render
+ * dump, so that a resumed render knows how many samples each tile of the
+ * dump has. The estimated error of each tile is saved too, so that a resumed
+ * render does not need to render converged tiles again to find that they are
+ * converged.
+ *
+ * <p>The tile samples belong to the frame with the samples per pixel they
+ * were recorded for, and are ignored for other frames.
+ *
+ * <p>The tile samples are shared by the copies of a scene, so it is thread safe.
+ */
+public class TileSpp {
+  private int frameSpp = 0;
+  private int tileWidth = 0;
+  private int[] spp = new int[0];
+  private double[] error = new double[0];
+
+  /**
+   * Record the samples per pixel and the estimated error of each tile.
+   *
+   * @param frameSpp samples per pixel of the frame
+   * @param tileWidth width of the tiles
+   * @param error estimated error of each tile, infinite if it is not known
+   */
+  public synchronized void set(int frameSpp, int tileWidth, int[] spp, double[] error) {
+    this.frameSpp = frameSpp;
+    this.tileWidth = tileWidth;
+    this.spp = Arrays.copyOf(spp, spp.length);
+    this.error = Arrays.copyOf(error, spp.length);
+  }
+
+  /**
+   * @return a copy of the samples per pixel of each tile, or {@code null} if
+   * they were not recorded for the given frame and tile layout
+   */
+  public synchronized int[] get(int frameSpp, int tileWidth, int tiles) {
+    if (frameSpp != this.frameSpp || tileWidth != this.tileWidth || tiles != spp.length) {
+      return null;
+    }
+    return Arrays.copyOf(spp, spp.length);
+  }
+
+  /**
+   * @return a copy of the estimated error of each tile, or {@code null} if
+   * it was not recorded for the given frame and tile layout
+   */
+  public synchronized double[] getError(int frameSpp, int tileWidth, int tiles) {
+    if (frameSpp != this.frameSpp || tileWidth != this.tileWidth || tiles != spp.length) {
+      return null;
+    }
+    return Arrays.copyOf(error, error.length);
+  }
+
+  public synchronized boolean isEmpty() {
+    return spp.length == 0;
+  }
+
+  public synchronized void clear() {
+    frameSpp = 0;
+    tileWidth = 0;
+    spp = new int[0];
+    error = new double[0];
+  }
+
+  public synchronized TileSpp copy() {
+    TileSpp copy = new TileSpp();
+    copy.set(frameSpp, tileWidth, spp, error);
+    return copy;
+  }
+
+  synchronized void store(DataOutputStream out) throws IOException {
+    out.writeInt(frameSpp);
+    out.writeInt(tileWidth);
+    out.writeInt(spp.length);
+    for (int value : spp) {
+      out.writeInt(value);
+    }
+    for (double value : error) {
+      out.writeDouble(value);
+    }
+  }
+
+  synchronized void load(DataInputStream in) throws IOException {
+    int frameSpp = in.readInt();
+    int tileWidth = in.readInt();
+    int tiles = in.readInt();
+    if (tiles < 0) {
+      throw new IOException("Invalid tile count: " + tiles);
+    }
+    int[] spp = new int[tiles];
+    for (int i = 0; i < tiles; ++i) {
+      spp[i] = in.readInt();
+    }
+    double[] error = new double[tiles];
+    for (int i = 0; i < tiles; ++i) {
+      error[i] = in.readDouble();
+    }
+    set(frameSpp, tileWidth, spp, error);
+  }
+}
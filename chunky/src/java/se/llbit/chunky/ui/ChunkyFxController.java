@@ -775,7 +775,17 @@ public class ChunkyFxController
       if (!target.getName().endsWith(format.getExtension())) {
         target = new File(target.getPath() + format.getExtension());
       }
-      scene.saveFrame(target, format, taskTracker, renderController.getContext().numRenderThreads());
+      Renderer renderer = DefaultRenderManager.renderers.get(scene.getRenderer());
+      if (renderer instanceof CostHeatmapRenderer) {
+        // Save the heatmap that is shown instead of the render.
+        try {
+          ((CostHeatmapRenderer) renderer).saveHeatmap(target, format, taskTracker);
+        } catch (IOException e) {
+          Log.warn("Failed to save heatmap: " + target.getAbsolutePath(), e);
+        }
+      } else {
+        scene.saveFrame(target, format, taskTracker, renderController.getContext().numRenderThreads());
+      }
     }
   }
 
@@ -35,6 +35,7 @@ import se.llbit.chunky.renderer.export.PictureExportFormats;
 import se.llbit.chunky.renderer.RenderController;
 import se.llbit.chunky.renderer.export.PictureExportFormat;
 import se.llbit.chunky.renderer.scene.AsynchronousSceneManager;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.ui.DoubleAdjuster;
 import se.llbit.chunky.ui.IntegerAdjuster;
@@ -67,11 +68,15 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
   @FXML private DoubleAdjuster animationTime;
   @FXML private ChoiceBox<PictureExportFormat> outputMode;
   @FXML private ChoiceBox<String> octreeImplementation;
+  @FXML private CheckBox octreeStackTraversal;
+  @FXML private CheckBox lowDiscrepancySampling;
   @FXML private ChoiceBox<String> bvhMethod;
+  @FXML private ChoiceBox<SampleBuffer.Type> sampleBufferType;
   @FXML private IntegerAdjuster gridSize;
   @FXML private CheckBox preventNormalEmitterWithSampling;
   @FXML private ChoiceBox<String> rendererSelect;
   @FXML private ChoiceBox<String> previewSelect;
+  @FXML private DoubleAdjuster noiseThreshold;
 
   public AdvancedTab() throws IOException {
     FXMLLoader loader = new FXMLLoader(getClass().getResource("AdvancedTab.fxml"));
@@ -172,6 +177,51 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
             });
     octreeImplementation.setTooltip(new Tooltip(tooltipTextBuilder.toString()));
 
+    octreeStackTraversal.setTooltip(new Tooltip(
+        "Resume octree lookups from the previous node instead of the octree root.\n"
+            + "This does not change the render result."));
+    octreeStackTraversal.selectedProperty().addListener((observable, oldValue, newValue) ->
+        scene.setOctreeStackTraversal(newValue));
+
+    lowDiscrepancySampling.setTooltip(new Tooltip(
+        "Use low-discrepancy sequences for pixel jitter, aperture and the first bounce.\n"
+            + "This usually reduces noise at the same sample count."));
+    lowDiscrepancySampling.selectedProperty().addListener((observable, oldValue, newValue) ->
+        scene.setLowDiscrepancySampling(newValue));
+
+    StringBuilder sampleBufferTooltip = new StringBuilder();
+    for (SampleBuffer.Type type : SampleBuffer.Type.values()) {
+      sampleBufferTooltip.append(type.getName());
+      sampleBufferTooltip.append(": ");
+      sampleBufferTooltip.append(type.getDescription());
+      sampleBufferTooltip.append('\n');
+    }
+    sampleBufferTooltip.append("Changing the sample buffer clears the current render.");
+    sampleBufferType.getItems().addAll(SampleBuffer.Type.values());
+    sampleBufferType.setConverter(new StringConverter<SampleBuffer.Type>() {
+      @Override
+      public String toString(SampleBuffer.Type object) {
+        return object == null ? null : object.getName();
+      }
+
+      @Override
+      public SampleBuffer.Type fromString(String string) {
+        for (SampleBuffer.Type type : SampleBuffer.Type.values()) {
+          if (type.getName().equals(string)) {
+            return type;
+          }
+        }
+        return SampleBuffer.Type.DOUBLE;
+      }
+    });
+    sampleBufferType.getSelectionModel().selectedItemProperty()
+        .addListener((observable, oldValue, newValue) -> {
+          if (newValue != null) {
+            scene.setSampleBufferType(newValue);
+          }
+        });
+    sampleBufferType.setTooltip(new Tooltip(sampleBufferTooltip.toString()));
+
     ArrayList<String> bvhNames = new ArrayList<>();
     StringBuilder bvhMethodBuilder = new StringBuilder();
     for (BVH.Factory.BVHBuilder builder : BVH.Factory.getImplementations()) {
@@ -211,6 +261,13 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
     rendererSelect.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) ->
         scene.setRenderer(newValue));
 
+    noiseThreshold.setName("Noise threshold");
+    noiseThreshold.setTooltip("Relative noise level at which the adaptive path tracer stops rendering a tile.\n"
+        + "Set to zero to render all tiles until the target SPP.");
+    noiseThreshold.setRange(0, 0.1);
+    noiseThreshold.clampMin();
+    noiseThreshold.onValueChange(value -> scene.setNoiseThreshold(value));
+
     previewSelect.setTooltip(new Tooltip("The renderer to use for the preview."));
     previewSelect.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) ->
         scene.setPreviewRenderer(newValue));
@@ -228,12 +285,16 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
     cpuLoad.set(PersistentSettings.getCPULoad());
     rayDepth.set(scene.getRayDepth());
     octreeImplementation.getSelectionModel().select(scene.getOctreeImplementation());
+    octreeStackTraversal.setSelected(scene.isOctreeStackTraversal());
+    lowDiscrepancySampling.setSelected(scene.isLowDiscrepancySampling());
     bvhMethod.getSelectionModel().select(scene.getBvhImplementation());
+    sampleBufferType.getSelectionModel().select(scene.getSampleBufferType());
     gridSize.set(scene.getGridSize());
     preventNormalEmitterWithSampling.setSelected(scene.isPreventNormalEmitterWithSampling());
     animationTime.set(scene.getAnimationTime());
     rendererSelect.getSelectionModel().select(scene.getRenderer());
     previewSelect.getSelectionModel().select(scene.getPreviewRenderer());
+    noiseThreshold.set(scene.getNoiseThreshold());
   }
 
   @Override
@@ -29,12 +29,14 @@ import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.Tooltip;
 import javafx.scene.image.ImageView;
 import se.llbit.chunky.PersistentSettings;
 import se.llbit.chunky.map.WorldMapLoader;
 import se.llbit.chunky.renderer.RenderController;
+import se.llbit.chunky.renderer.scene.CropWindow;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.ui.ChunkyFxController;
 import se.llbit.chunky.ui.IntegerAdjuster;
@@ -75,6 +77,9 @@ public class GeneralTab extends ScrollPane implements RenderControlsTab, Initial
   @FXML private Button scale05;
   @FXML private Button scale15;
   @FXML private Button scale20;
+  @FXML private TextField cropWindow;
+  @FXML private Button applyCrop;
+  @FXML private Button clearCrop;
   @FXML private CheckBox loadPlayers;
   @FXML private CheckBox biomeColors;
   @FXML private CheckBox saveDumps;
@@ -104,6 +109,8 @@ public class GeneralTab extends ScrollPane implements RenderControlsTab, Initial
     canvasSize.valueProperty().removeListener(canvasSizeListener);
     canvasSize.setValue(String.format("%dx%d", scene.width, scene.height));
     canvasSize.valueProperty().addListener(canvasSizeListener);
+    CropWindow crop = scene.getCropWindow();
+    cropWindow.setText(crop != null ? crop.toString() : "");
     if (scene.shouldSaveDumps()) {
       dumpFrequency.setValue(scene.getDumpFrequency());
       dumpFrequency.setDisable(false);
@@ -272,6 +279,34 @@ public class GeneralTab extends ScrollPane implements RenderControlsTab, Initial
       int height = scene.canvasHeight() * 2;
       setCanvasSize(width, height);
     });
+    cropWindow.setTooltip(new Tooltip(
+        "Pixel rectangle x0,y0,x1,y1 to render on its own. The rest of the frame keeps its samples."));
+    applyCrop.setTooltip(new Tooltip("Render only the pixels inside the crop window."));
+    applyCrop.setOnAction(e -> updateCropWindow());
+    cropWindow.setOnAction(e -> updateCropWindow());
+    clearCrop.setTooltip(new Tooltip("Render the whole frame again."));
+    clearCrop.setOnAction(e -> {
+      scene.setCropWindow(null);
+      cropWindow.setText("");
+    });
+  }
+
+  private void updateCropWindow() {
+    Matcher matcher = Pattern.compile("\\s*([0-9]+)\\s*,\\s*([0-9]+)\\s*,\\s*([0-9]+)\\s*,\\s*([0-9]+)\\s*")
+        .matcher(cropWindow.getText());
+    try {
+      if (matcher.matches()) {
+        scene.setCropWindow(new CropWindow(
+            Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)),
+            Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4))));
+        CropWindow crop = scene.getCropWindow();
+        cropWindow.setText(crop != null ? crop.toString() : "");
+      } else {
+        Log.info("Failed to set crop window: format must be <x0>,<y0>,<x1>,<y1>!");
+      }
+    } catch (NumberFormatException e) {
+      Log.info("Failed to set crop window: invalid coordinates!");
+    }
   }
 
   private void updateCanvasSize() {
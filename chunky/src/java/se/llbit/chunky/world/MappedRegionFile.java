@@ -0,0 +1,434 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import se.llbit.log.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A memory-mapped region (.mca) file.
+ *
+ * <p>The file is mapped once and its location and timestamp tables are parsed
+ * once. Chunk data is copied from the mapping, so loading a chunk does not open
+ * the file. If the file is truncated while it is mapped, for example by Minecraft,
+ * reading the mapping fails and the chunk is read from the file instead.
+ *
+ * <p>Mapped files are shared through a bounded LRU cache. Looking up a cached
+ * mapping with {@link #get(File)} does not take a lock and does not check the
+ * file, so the mapping is only replaced when the file changed and
+ * {@link #refresh(File)} is called. {@link Region#parse()} does that once per region
+ * before its chunks are loaded.
+ *
+ * <p>A mapping is unmapped as soon as it is evicted or invalidated and no chunk
+ * is being read from it. On Windows a mapped file can not be truncated or deleted,
+ * so keeping stale mappings around until they are garbage collected would keep
+ * Minecraft from saving the region.
+ */
+public class MappedRegionFile {
+  /**
+   * Sector size in bytes.
+   */
+  public static final int SECTOR_SIZE = 4096;
+
+  /**
+   * Maximum number of mapped region files kept in the cache.
+   */
+  private static final int MAX_MAPPED = 64;
+
+  private static final Map<File, MappedRegionFile> cache = new ConcurrentHashMap<>();
+
+  /** Held while mapping or evicting files. Not used when looking up cached mappings. */
+  private static final Object mapLock = new Object();
+
+  private final File file;
+  private final long lastModified;
+  private final long length;
+
+  /** Read-only mapping of the whole file. */
+  private final ByteBuffer data;
+
+  /**
+   * Number of references to the mapping: one for the cache and one for each
+   * ongoing chunk read. The file is unmapped when this reaches zero.
+   */
+  private final AtomicInteger references = new AtomicInteger(1);
+
+  /** Last time this mapping was looked up, for LRU eviction. */
+  private volatile long lastUsed = System.nanoTime();
+
+  private final int[] locations = new int[Region.CHUNKS_X * Region.CHUNKS_Z];
+  private final int[] timestamps = new int[Region.CHUNKS_X * Region.CHUNKS_Z];
+
+  private MappedRegionFile(File file, long lastModified, long length) throws IOException {
+    this.file = file;
+    this.lastModified = lastModified;
+    this.length = length;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+    if (hasHeader()) {
+      try {
+        IntBuffer header = data.duplicate().asIntBuffer();
+        header.get(locations);
+        header.get(timestamps);
+      } catch (InternalError e) {
+        // The file was truncated after it was mapped.
+        unmap(data);
+        throw new IOException("Failed to read region header: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Get the mapped region file, mapping it if it is not in the cache.
+   *
+   * <p>A cached mapping is returned without checking if the file has changed,
+   * use {@link #refresh(File)} for that.
+   *
+   * @return {@code null} if the file does not exist or could not be mapped
+   */
+  public static MappedRegionFile get(File file) {
+    MappedRegionFile region = cache.get(file);
+    if (region != null) {
+      region.lastUsed = System.nanoTime();
+      return region;
+    }
+    synchronized (mapLock) {
+      region = cache.get(file);
+      if (region != null) {
+        return region;
+      }
+      return map(file, file.lastModified(), file.length());
+    }
+  }
+
+  /**
+   * Get the mapped region file, mapping it again if the modification time or
+   * length of the file changed since it was mapped, for example because
+   * Minecraft saved the region.
+   *
+   * @return {@code null} if the file does not exist or could not be mapped
+   */
+  public static MappedRegionFile refresh(File file) {
+    synchronized (mapLock) {
+      long lastModified = file.lastModified();
+      long length = file.length();
+      MappedRegionFile region = cache.get(file);
+      if (region != null) {
+        if (region.lastModified == lastModified && region.length == length) {
+          region.lastUsed = System.nanoTime();
+          return region;
+        }
+        evict(region);
+      }
+      return map(file, lastModified, length);
+    }
+  }
+
+  /**
+   * Drop the cached mapping of the given file. Must be called after writing to
+   * a region file, in case the modification time did not change.
+   */
+  public static void invalidate(File file) {
+    synchronized (mapLock) {
+      MappedRegionFile region = cache.get(file);
+      if (region != null) {
+        evict(region);
+      }
+    }
+  }
+
+  /**
+   * Drop all cached mappings.
+   */
+  public static void clear() {
+    synchronized (mapLock) {
+      for (MappedRegionFile region : cache.values()) {
+        evict(region);
+      }
+    }
+  }
+
+  /** Must be called while holding {@link #mapLock}. */
+  private static MappedRegionFile map(File file, long lastModified, long length) {
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      MappedRegionFile region = new MappedRegionFile(file, lastModified, length);
+      if (cache.size() >= MAX_MAPPED) {
+        MappedRegionFile eldest = null;
+        for (MappedRegionFile cached : cache.values()) {
+          if (eldest == null || cached.lastUsed - eldest.lastUsed < 0) {
+            eldest = cached;
+          }
+        }
+        evict(eldest);
+      }
+      cache.put(file, region);
+      return region;
+    } catch (IOException e) {
+      System.err.println("Failed to map region file: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Remove the mapping from the cache and drop the cache reference to it.
+   * Must be called while holding {@link #mapLock}.
+   */
+  private static void evict(MappedRegionFile region) {
+    if (cache.remove(region.file, region)) {
+      region.release();
+    }
+  }
+
+  /**
+   * @return {@code false} if the file has already been unmapped
+   */
+  private boolean acquire() {
+    while (true) {
+      int count = references.get();
+      if (count == 0) {
+        return false;
+      }
+      if (references.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private void release() {
+    if (references.decrementAndGet() == 0) {
+      unmap(data);
+    }
+  }
+
+  /**
+   * @return {@code true} if the file is still mapped, i.e. it has not been
+   * evicted or invalidated, or a chunk is still being read from it
+   */
+  boolean isMapped() {
+    return references.get() > 0;
+  }
+
+  public long lastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return {@code true} if the file is large enough to hold the location
+   * and timestamp tables
+   */
+  public boolean hasHeader() {
+    return length >= 2 * SECTOR_SIZE;
+  }
+
+  /**
+   * @param index chunk index in the region, {@code x + z * 32}
+   * @return the location table entry: sector offset in the upper 24 bits and
+   * sector count in the lower 8 bits, or 0 if the chunk is not present
+   */
+  public int getLocation(int index) {
+    return locations[index];
+  }
+
+  /**
+   * @param index chunk index in the region, {@code x + z * 32}
+   */
+  public int getTimestamp(int index) {
+    return timestamps[index];
+  }
+
+  /**
+   * Read chunk data from the mapped region file.
+   *
+   * @return {@code null} if the chunk could not be loaded
+   */
+  public ChunkDataSource getChunkData(ChunkPosition chunkPos) {
+    if (!acquire()) {
+      // The mapping was dropped after this region file was looked up.
+      return readChunkData(file, chunkPos);
+    }
+    try {
+      return readChunkData(chunkPos);
+    } catch (InternalError e) {
+      // The file was truncated after it was mapped. Drop the mapping and read
+      // the chunk from the file as it is now.
+      synchronized (mapLock) {
+        evict(this);
+      }
+      return readChunkData(file, chunkPos);
+    } finally {
+      release();
+    }
+  }
+
+  private ChunkDataSource readChunkData(ChunkPosition chunkPos) {
+    String regionName = file.getName();
+    if (!hasHeader()) {
+      Log.warn("Missing header in region file!");
+      return null;
+    }
+    int index = (chunkPos.x & 31) + (chunkPos.z & 31) * 32;
+    int loc = locations[index];
+    int numSectors = loc & 0xFF;
+    long sectorOffset = loc >>> 8;
+    int timestamp = timestamps[index];
+    long offset = sectorOffset * SECTOR_SIZE;
+    if (offset < 2 * SECTOR_SIZE) {
+      if (loc != 0) {
+        System.err.printf("Chunk %s in region file %s has an invalid location: offset %d is inside the header.%n", chunkPos, regionName, offset);
+      }
+      return null;
+    }
+    if (length < offset + 4) {
+      System.err.printf("Chunk %s is outside of region file %s! Expected chunk data at offset %d but file length is %d.%n", chunkPos, regionName, offset, length);
+      return null;
+    }
+
+    int chunkSize = data.getInt((int) offset);
+
+    if (chunkSize > numSectors * SECTOR_SIZE) {
+      System.err.println("Error: chunk length does not fit in allocated sectors!");
+      return null;
+    }
+
+    if (length < offset + 4 + chunkSize) {
+      System.err.printf("Chunk %s is outside of region file %s! Expected %d bytes at offset %d but file length is %d.%n", chunkPos, regionName, chunkSize, offset, length);
+      return null;
+    }
+
+    if (chunkSize <= 0) {
+      System.err.println("Error: invalid chunk size: " + chunkSize);
+      return null;
+    }
+
+    byte type = data.get((int) offset + 4);
+    if (type != 1 && type != 2) {
+      System.err.println("Error: unknown chunk data compression method: " + type + "!");
+      return null;
+    }
+
+    // The compressed data is copied out of the mapping so that the chunk is not
+    // decoded from the mapping, where a truncated file would fault outside of this method.
+    byte[] buf = new byte[chunkSize - 1];
+    ByteBuffer slice = data.duplicate();
+    slice.position((int) offset + 5);
+    slice.get(buf);
+    return chunkDataSource(timestamp, type, buf);
+  }
+
+  /**
+   * Read chunk data directly from the region file, without mapping it.
+   *
+   * @return {@code null} if the chunk could not be loaded
+   */
+  private static ChunkDataSource readChunkData(File regionFile, ChunkPosition chunkPos) {
+    int index = (chunkPos.x & 31) + (chunkPos.z & 31) * 32;
+    try (RandomAccessFile file = new RandomAccessFile(regionFile, "r")) {
+      long length = file.length();
+      if (length < 2 * SECTOR_SIZE) {
+        Log.warn("Missing header in region file!");
+        return null;
+      }
+      file.seek(4 * index);
+      int loc = file.readInt();
+      int numSectors = loc & 0xFF;
+      long offset = (long) (loc >>> 8) * SECTOR_SIZE;
+      file.seek(SECTOR_SIZE + 4 * index);
+      int timestamp = file.readInt();
+      if (offset < 2 * SECTOR_SIZE || length < offset + 5) {
+        return null;
+      }
+      file.seek(offset);
+      int chunkSize = file.readInt();
+      if (chunkSize <= 0 || chunkSize > numSectors * SECTOR_SIZE || length < offset + 4 + chunkSize) {
+        System.err.println("Error: invalid chunk size: " + chunkSize);
+        return null;
+      }
+      byte type = file.readByte();
+      if (type != 1 && type != 2) {
+        System.err.println("Error: unknown chunk data compression method: " + type + "!");
+        return null;
+      }
+      byte[] buf = new byte[chunkSize - 1];
+      file.readFully(buf);
+      return chunkDataSource(timestamp, type, buf);
+    } catch (IOException e) {
+      System.err.println("Failed to read chunk: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Unmap the buffer now instead of when it is garbage collected. The buffer
+   * must not be used afterwards. Does nothing if the JVM does not allow it.
+   */
+  private static void unmap(ByteBuffer buffer) {
+    try {
+      try {
+        // Java 9 and later.
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      } catch (NoSuchMethodException e) {
+        // Java 8.
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // The mapping is released when the buffer is garbage collected.
+    }
+  }
+
+  private static ChunkDataSource chunkDataSource(int timestamp, byte type, byte[] buf) {
+    InputStream in = new ByteArrayInputStream(buf);
+    try {
+      if (type == 1) {
+        return new ChunkDataSource(timestamp, new GZIPInputStream(in));
+      } else {
+        return new ChunkDataSource(timestamp, new InflaterInputStream(in));
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to read chunk: " + e.getMessage());
+      return null;
+    }
+  }
+}
@@ -16,15 +16,12 @@
  */
 package se.llbit.chunky.world;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
 
 import se.llbit.log.Log;
 
@@ -115,47 +112,41 @@ public class Region implements Iterable<Chunk> {
    */
   public synchronized void parse() {
     File regionFile = new File(world.getRegionDirectory(), fileName);
-    if (!regionFile.isFile()) {
+    // Checking for changes here, once per region, lets chunk loading use the
+    // cached mapping without looking at the file.
+    MappedRegionFile file = MappedRegionFile.refresh(regionFile);
+    if (file == null || regionFileTime == file.lastModified()) {
       return;
     }
-    long modtime = regionFile.lastModified();
-    if (regionFileTime == modtime) {
+    regionFileTime = file.lastModified();
+    if (!file.hasHeader()) {
+      System.err.println("Missing header in region file!");
       return;
     }
-    regionFileTime = modtime;
-    try (RandomAccessFile file = new RandomAccessFile(regionFile, "r")) {
-      long length = file.length();
-      if (length < 2 * SECTOR_SIZE) {
-        System.err.println("Missing header in region file!");
-        return;
-      }
 
-      for (int z = 0; z < 32; ++z) {
-        for (int x = 0; x < 32; ++x) {
-          ChunkPosition pos = ChunkPosition.get((position.x << 5) + x, (position.z << 5) + z);
-          Chunk chunk = getChunk(x, z);
-          int loc = file.readInt();
-          if (loc != 0) {
-            if (chunk.isEmpty()) {
-              chunk = new Chunk(pos, world);
-              setChunk(pos, chunk);
-            }
-          } else {
-            if (!chunk.isEmpty()) {
-              world.chunkDeleted(pos);
-            }
+    for (int z = 0; z < 32; ++z) {
+      for (int x = 0; x < 32; ++x) {
+        ChunkPosition pos = ChunkPosition.get((position.x << 5) + x, (position.z << 5) + z);
+        Chunk chunk = getChunk(x, z);
+        int loc = file.getLocation(x + z * 32);
+        if (loc != 0) {
+          if (chunk.isEmpty()) {
+            chunk = new Chunk(pos, world);
+            setChunk(pos, chunk);
+          }
+        } else {
+          if (!chunk.isEmpty()) {
+            world.chunkDeleted(pos);
           }
         }
       }
+    }
 
-      for (int i = 0; i < NUM_CHUNKS; ++i) {
-        chunkTimestamps[i] = file.readInt();
-      }
-
-      world.regionUpdated(position);
-    } catch (IOException e) {
-      System.err.println("Failed to read region: " + e.getMessage());
+    for (int i = 0; i < NUM_CHUNKS; ++i) {
+      chunkTimestamps[i] = file.getTimestamp(i);
     }
+
+    world.regionUpdated(position);
   }
 
   /**
@@ -187,7 +178,7 @@ public class Region implements Iterable<Chunk> {
   /**
    * Sector size in bytes.
    */
-  private final static int SECTOR_SIZE = 4096;
+  private final static int SECTOR_SIZE = MappedRegionFile.SECTOR_SIZE;
 
   /**
    * Opens an input stream for the given chunk.
@@ -211,67 +202,17 @@ public class Region implements Iterable<Chunk> {
   }
 
   /**
-   * Read chunk data from region file.
+   * Read chunk data from region file. The region file is memory-mapped and
+   * shared with other readers, see {@link MappedRegionFile}.
    *
    * @return {@code null} if the chunk could not be loaded
    */
   public static ChunkDataSource getChunkData(File regionFile, ChunkPosition chunkPos) {
-    int x = chunkPos.x & 31;
-    int z = chunkPos.z & 31;
-    int index = x + z * 32;
-    try (RandomAccessFile file = new RandomAccessFile(regionFile, "r")) {
-      long length = file.length();
-      if (length < 2 * SECTOR_SIZE) {
-        Log.warn("Missing header in region file!");
-        return null;
-      }
-      file.seek(4 * index);
-      int loc = file.readInt();
-      int numSectors = loc & 0xFF;
-      int sectorOffset = loc >> 8;
-      file.seek(SECTOR_SIZE + 4 * index);
-      int timestamp = file.readInt();
-      if (length < sectorOffset * SECTOR_SIZE + 4) {
-        System.err.printf("Chunk %s is outside of region file %s! Expected chunk data at offset %d but file length is %d.%n", chunkPos, regionFile.getName(), sectorOffset * SECTOR_SIZE, length);
-        return null;
-      }
-      file.seek(sectorOffset * SECTOR_SIZE);
-
-      int chunkSize = file.readInt();
-
-      if (chunkSize > numSectors * SECTOR_SIZE) {
-        System.err.println("Error: chunk length does not fit in allocated sectors!");
-        return null;
-      }
-
-      if (length < sectorOffset * SECTOR_SIZE + 4 + chunkSize) {
-        System.err.printf("Chunk %s is outside of region file %s! Expected %d bytes at offset %d but file length is %d.%n", chunkPos, regionFile.getName(), chunkSize, sectorOffset * SECTOR_SIZE, length);
-        return null;
-      }
-
-      byte type = file.readByte();
-      if (type != 1 && type != 2) {
-        System.err.println("Error: unknown chunk data compression method: " + type + "!");
-        return null;
-      }
-
-      if (chunkSize <= 0) {
-        System.err.println("Error: invalid chunk size: " + chunkSize);
-        return null;
-      }
-
-      byte[] buf = new byte[chunkSize - 1];
-      file.read(buf);
-      ByteArrayInputStream in = new ByteArrayInputStream(buf);
-      if (type == 1) {
-        return new ChunkDataSource(timestamp, new GZIPInputStream(in));
-      } else {
-        return new ChunkDataSource(timestamp, new InflaterInputStream(in));
-      }
-    } catch (IOException e) {
-      System.err.println("Failed to read chunk: " + e.getMessage());
+    MappedRegionFile file = MappedRegionFile.get(regionFile);
+    if (file == null) {
       return null;
     }
+    return file.getChunkData(chunkPos);
   }
 
   /**
@@ -295,6 +236,7 @@ public class Region implements Iterable<Chunk> {
     } catch (IOException e) {
       Log.warnf("Failed to delete chunk: %s", e.getMessage());
     }
+    MappedRegionFile.invalidate(regionFile);
   }
 
   /**
@@ -16,6 +16,7 @@
  */
 package se.llbit.math;
 
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
 import se.llbit.chunky.block.UnknownBlock;
 import se.llbit.chunky.chunk.BlockPalette;
 import se.llbit.chunky.plugin.PluginApi;
@@ -337,6 +338,90 @@ public class BigPackedOctree implements Octree.OctreeImplementation {
     }
   }
 
+  /**
+   * Free a whole subtree recursively
+   */
+  private void freeSubTree(long nodeIndex) {
+    long childrenIndex = getAt(nodeIndex);
+    if(childrenIndex <= 0)
+      return;
+
+    for(int i = 0; i < 8; ++i)
+      freeSubTree(childrenIndex + i);
+
+    freeSpace(childrenIndex);
+  }
+
+  /**
+   * Recursively copy the nodes of a subtree into the tree
+   * @param nodes the packed subtree nodes
+   * @param index the index in the subtree of the node to insert
+   * @return the value of the inserted node
+   */
+  private long insertSubtree(int[] nodes, int index) {
+    if(nodes[index] <= 0)
+      return valueFromType(-nodes[index]);
+
+    long childrenIndex = findSpace();
+    for(int i = 0; i < 8; ++i) {
+      setAt(childrenIndex + i, insertSubtree(nodes, nodes[index] + i));
+    }
+    return childrenIndex;
+  }
+
+  @Override
+  public void setSubtree(Subtree subtree, int x, int y, int z) {
+    int cubeDepth = subtree.depth;
+    long value = subtree.nodes[0] <= 0 ? valueFromType(-subtree.nodes[0]) : 1;
+
+    long[] parents = new long[depth];
+    long nodeIndex = 0;
+
+    // Walk down the tree until the place to insert similar to `set`
+    for(int i = depth - 1; i >= cubeDepth; --i) {
+      parents[i] = nodeIndex;
+
+      if(value <= 0 && getAt(nodeIndex) == value) { // Everything in this region is already of this blocktype.
+        return;
+      }
+
+      if(getAt(nodeIndex) <= 0) { // It's a leaf node
+        subdivideNode(nodeIndex);
+      }
+
+      int xbit = 1 & (x >> i);
+      int ybit = 1 & (y >> i);
+      int zbit = 1 & (z >> i);
+      nodeIndex = getAt(nodeIndex) + ((xbit << 2) | (ybit << 1) | zbit);
+    }
+
+    freeSubTree(nodeIndex);
+    value = insertSubtree(subtree.nodes, 0);
+    setAt(nodeIndex, value);
+    if(value > 0) {
+      return; // Branch nodes are never merged.
+    }
+
+    // Merge nodes where all children have been set to the same type, starting from the bottom.
+    for(int i = cubeDepth; i < depth; ++i) {
+      long parentIndex = parents[i];
+
+      boolean allSame = true;
+      for(int j = 0; j < 8; ++j) {
+        if(getAt(getAt(parentIndex) + j) != value) {
+          allSame = false;
+          break;
+        }
+      }
+
+      if(allSame) {
+        mergeNode(parentIndex, value);
+      } else {
+        break;
+      }
+    }
+  }
+
   private long getNodeIndex(int x, int y, int z) {
     long nodeIndex = 0;
     int level = depth;
@@ -350,6 +435,35 @@ public class BigPackedOctree implements Octree.OctreeImplementation {
     return nodeIndex;
   }
 
+  /**
+   * Gets the type and depth of the node that is (or contains) the specified block,
+   * resuming the descent from the deepest node on the stack that contains the block.
+   *
+   * x, y, z are in octree coordinates, NOT world coordinates.
+   */
+  @Override
+  public void getWithLevel(IntIntMutablePair outTypeAndLevel, Octree.NodeStack stack, int x, int y, int z) {
+    long[] nodes = stack.nodes;
+    int top = stack.find(depth, x, y, z);
+    if(top < 0) {
+      top = 0;
+      nodes[0] = 0;
+    }
+    long nodeIndex = nodes[top];
+    int level = depth - top;
+    long value;
+    while((value = getAt(nodeIndex)) > 0) {
+      level -= 1;
+      int lx = x >>> level;
+      int ly = y >>> level;
+      int lz = z >>> level;
+      nodeIndex = value + (((lx & 1) << 2) | ((ly & 1) << 1) | (lz & 1));
+      nodes[++top] = nodeIndex;
+    }
+    stack.setPosition(top + 1, x, y, z);
+    outTypeAndLevel.left(typeFromValue(value)).right(level);
+  }
+
   @Override
   public Material getMaterial(int x, int y, int z, BlockPalette palette) {
     // Building the dummy node is useless here
@@ -197,6 +197,31 @@ public class Grid {
     return pos;
   }
 
+  /**
+   * Get the number of emitters close to a given point.
+   * Use with {@link #getEmitterPosition(int, int, int, int)} to visit the emitters without
+   * allocating a list.
+   */
+  public int getEmitterCount(int x, int y, int z) {
+    int gridX = x / cellSize;
+    int gridY = y / cellSize;
+    int gridZ = z / cellSize;
+
+    if(isOutOfBounds(gridX, gridY, gridZ))
+      return 0;
+
+    return constructedGrid[2*cellIndex(gridX, gridY, gridZ)+1];
+  }
+
+  /**
+   * Get the i-th emitter close to a given point, where i is less than
+   * {@code getEmitterCount(x, y, z)}.
+   */
+  public EmitterPosition getEmitterPosition(int x, int y, int z, int i) {
+    int index = cellIndex(x / cellSize, y / cellSize, z / cellSize);
+    return emitterPositions.get(positionIndexes[constructedGrid[2*index]+i]);
+  }
+
   /**
    * Stores the grid in the given stream
    * @param out The output stream
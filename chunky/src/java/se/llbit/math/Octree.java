@@ -18,9 +18,12 @@
 package se.llbit.math;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
 import it.unimi.dsi.fastutil.ints.IntObjectImmutablePair;
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
@@ -34,6 +37,7 @@ import se.llbit.chunky.chunk.BlockPalette;
 import se.llbit.chunky.model.TexturedBlockModel;
 import se.llbit.chunky.model.WaterModel;
 import se.llbit.chunky.plugin.PluginApi;
+import se.llbit.chunky.renderer.RenderStatistics;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.world.Material;
 import se.llbit.log.Log;
@@ -78,6 +82,19 @@ public class Octree {
       outTypeAndLevel.right(level).left(getType(node));
     }
 
+    /**
+     * Like {@link #getWithLevel(IntIntMutablePair, int, int, int)}, but the descent
+     * starts at the deepest node of the previous lookup that still contains the
+     * given position instead of at the root. Stepping to a neighbouring leaf
+     * then usually only costs a few node lookups. The node stack is updated to
+     * hold the path to the found leaf.
+     *
+     * <p>The default implementation ignores the stack and descends from the root.
+     */
+    default void getWithLevel(IntIntMutablePair outTypeAndLevel, NodeStack stack, int x, int y, int z) {
+      getWithLevel(outTypeAndLevel, x, y, z);
+    }
+
     /**
      * Set a whole 2^n * 2^n * 2^n cube of blocks
      * @param cubeDepth the n
@@ -104,10 +121,264 @@ public class Octree {
         }
       }
     }
+
+    /**
+     * Replace the cube at the given position by a subtree built with
+     * {@link SubtreeBuilder}. Subtrees can be built concurrently on several
+     * threads, only this method has to be called from a single thread.
+     *
+     * <p>The default implementation expands the subtree and calls {@link #setCube}.
+     *
+     * @param x the x of the position of the min corner of the cube
+     * @param y the y of the position of the min corner of the cube
+     * @param z the z of the position of the min corner of the cube
+     */
+    default void setSubtree(Subtree subtree, int x, int y, int z) {
+      setCube(subtree.getDepth(), subtree.toTypes(), x, y, z);
+    }
   }
 
   public interface NodeId {}
 
+  /**
+   * The path from the root to the leaf found by the last octree lookup of a ray.
+   * Used by {@link OctreeImplementation#getWithLevel(IntIntMutablePair, NodeStack, int, int, int)}
+   * to resume the descent from a common ancestor of the previous and the next leaf.
+   *
+   * <p>A stack is only valid for one octree and must be cleared before it is
+   * used for another octree or after the octree was modified.
+   */
+  public static final class NodeStack {
+    /**
+     * Implementation-specific node index per level, {@code nodes[0]} is the root
+     * and {@code nodes[i]} is the node covering a cube of size {@code 2^(depth - i)}.
+     */
+    public final long[] nodes = new long[64];
+
+    /** Number of valid entries in {@code nodes}, zero if the stack is empty. */
+    public int size = 0;
+
+    /** Position of the last lookup. */
+    public int x, y, z;
+
+    public void clear() {
+      size = 0;
+    }
+
+    /**
+     * Find the deepest node on the stack that contains the given position.
+     *
+     * @return the stack index of the node to resume the descent from,
+     * or -1 if the stack is empty
+     */
+    public int find(int depth, int x, int y, int z) {
+      if (size == 0) {
+        return -1;
+      }
+      // The node at index i contains the position if the coordinates only
+      // differ from the previous position in the lowest depth - i bits.
+      int diff = (x ^ this.x) | (y ^ this.y) | (z ^ this.z);
+      int top = depth - (32 - Integer.numberOfLeadingZeros(diff));
+      return Math.max(0, Math.min(size - 1, top));
+    }
+
+    /**
+     * Record the position of a lookup whose path is {@code nodes[0..size-1]}.
+     */
+    public void setPosition(int size, int x, int y, int z) {
+      this.size = size;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+    }
+  }
+
+  /**
+   * A 2^n * 2^n * 2^n cube of blocks in packed octree form, built independently
+   * of any octree by a {@link SubtreeBuilder}.
+   *
+   * <p>Nodes use the same encoding as {@link PackedOctree}: the root is at index 0,
+   * a leaf node stores the negated block type and a branch node stores the index
+   * of its first child, the other seven children follow it.
+   */
+  public static final class Subtree {
+    final int depth;
+    final int[] nodes;
+
+    Subtree(int depth, int[] nodes) {
+      this.depth = depth;
+      this.nodes = nodes;
+    }
+
+    /**
+     * @return the n of the 2^n * 2^n * 2^n cube
+     */
+    public int getDepth() {
+      return depth;
+    }
+
+    /**
+     * @return the number of nodes in this subtree
+     */
+    public int nodeCount() {
+      return nodes.length;
+    }
+
+    /**
+     * Replace the types of the leaves of this subtree. {@link #ANY_TYPE} leaves are kept.
+     *
+     * @param types new type for each old type
+     */
+    public void remap(int[] types) {
+      for (int i = 0; i < nodes.length; ++i) {
+        int value = nodes[i];
+        if (value <= 0 && -value != ANY_TYPE) {
+          nodes[i] = -types[-value];
+        }
+      }
+    }
+
+    /**
+     * Expand the subtree into a flat array of types indexed by z then y then x,
+     * as accepted by {@link OctreeImplementation#setCube}.
+     */
+    public int[] toTypes() {
+      int[] types = new int[1 << (3 * depth)];
+      expand(types, 0, depth, 0, 0, 0);
+      return types;
+    }
+
+    private void expand(int[] types, int nodeIndex, int level, int x, int y, int z) {
+      int value = nodes[nodeIndex];
+      int size = 1 << level;
+      if (value <= 0) {
+        for (int cz = z; cz < z + size; ++cz) {
+          for (int cy = y; cy < y + size; ++cy) {
+            for (int cx = x; cx < x + size; ++cx) {
+              types[(((cz << depth) + cy) << depth) + cx] = -value;
+            }
+          }
+        }
+      } else {
+        int half = size >> 1;
+        for (int i = 0; i < 8; ++i) {
+          expand(types, value + i, level - 1,
+              x + ((i >> 2) & 1) * half, y + ((i >> 1) & 1) * half, z + (i & 1) * half);
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds {@link Subtree subtrees} from cubes of block types. The builder keeps
+   * temporary buffers between calls, so each thread should use its own builder.
+   */
+  public static final class SubtreeBuilder {
+    /**
+     * Dense, temporary representation of a tree. Level i holds the 8^i nodes
+     * of depth i in morton order.
+     */
+    private final List<int[]> tempTree = new ArrayList<>();
+    private final IntArrayList packed = new IntArrayList();
+
+    /**
+     * Helper function that separate each bit of the input number
+     * by 3 (eg 0b0110 -> 0b0001001000)
+     *                      ^--^--^--^
+     * This version only supports number with up to 8 bits
+     */
+    static private int splitBy3(int a)
+    {
+      int x = a & 0xff; // we only look at the first 8 bits
+      // Here we have the bits          abcd efgh
+      x = (x | x << 8) & 0x0f00f00f; // shift left 32 bits, OR with self, and 0001000000001111000000001111000000001111000000001111000000000000
+      // Here we have         abcd 0000 0000 efgh
+      x = (x | x << 4) & 0xc30c30c3; // shift left 32 bits, OR with self, and 0001000011000011000011000011000011000011000011000011000100000000
+      // Here we have    ab00 00cd 0000 ef00 00gh
+      x = (x | x << 2) & 0x49249249;
+      // Here we have a0 0b00 c00d 00e0 0f00 g00h
+      return x;
+    }
+
+    /**
+     * Build the subtree of a 2^n * 2^n * 2^n cube. Children whose types are
+     * all equal are merged, {@link #ANY_TYPE} matches any other type.
+     *
+     * @param cubeDepth the n
+     * @param types a flat array representation of a 3d array of the types to insert indexed by z then y then x
+     */
+    public Subtree build(int cubeDepth, int[] types) {
+      int size = 1 << cubeDepth;
+
+      for(int nextLevel = tempTree.size(); nextLevel <= cubeDepth; ++nextLevel)
+        tempTree.add(new int[1 << (3*nextLevel)]);
+
+      // Write all the types from in the last level of the temp tree in morton order
+      // (so children are back to back in the array)
+      for(int cz = 0; cz < size; ++cz) {
+        for(int cy = 0; cy < size; ++cy) {
+          for(int cx = 0; cx < size; ++cx) {
+            int linearIdx = (cz << (2*cubeDepth)) + (cy << cubeDepth) + cx;
+            int mortonIdx = (splitBy3(cx) << 2) | (splitBy3(cy) << 1) | splitBy3(cz);
+            tempTree.get(cubeDepth)[mortonIdx] = -types[linearIdx];
+          }
+        }
+      }
+
+      // Construct levels from the level deeper until the root of the temp tree
+      for(int curDepth = cubeDepth-1; curDepth >= 0; --curDepth) {
+        int numElem = (1 << (3 * curDepth));
+        int[] children = tempTree.get(curDepth+1);
+        int[] parents = tempTree.get(curDepth);
+        for(int parentIdx = 0; parentIdx < numElem; ++parentIdx)
+        {
+          int childrenIdx = parentIdx * 8;
+          boolean mergeable = true;
+          int firstType = children[childrenIdx];
+          for(int childNo = 1; childNo < 8; ++childNo) {
+            if(children[childrenIdx+childNo] > 0) {
+              mergeable = false;
+              break;
+            }
+            if(firstType == -ANY_TYPE)
+              firstType = children[childrenIdx+childNo];
+            else if(firstType != children[childrenIdx+childNo] && children[childrenIdx+childNo] != -ANY_TYPE) {
+              mergeable = false;
+              break;
+            }
+          }
+          if(mergeable)
+          {
+            parents[parentIdx] = firstType;
+          }
+          else
+          {
+            parents[parentIdx] = 1;
+          }
+        }
+      }
+
+      // Pack the branches of the dense tree, depth first like PackedOctree inserts them.
+      packed.clear();
+      packed.add(0);
+      pack(0, 0, 0);
+      return new Subtree(cubeDepth, packed.toIntArray());
+    }
+
+    private void pack(int level, int denseIdx, int packedIdx) {
+      int value = tempTree.get(level)[denseIdx];
+      if(value <= 0) {
+        packed.set(packedIdx, value);
+        return;
+      }
+      int childrenIdx = packed.size();
+      packed.size(childrenIdx + 8);
+      packed.set(packedIdx, childrenIdx);
+      for(int i = 0; i < 8; ++i)
+        pack(level+1, denseIdx*8 + i, childrenIdx + i);
+    }
+  }
+
   public interface ImplementationFactory {
     OctreeImplementation create(int depth);
     OctreeImplementation load(DataInputStream in) throws IOException;
@@ -134,6 +405,11 @@ public class Octree {
    */
   public static final int ANY_TYPE = 0x7FFFFFFE;
 
+  /**
+   * How far before a packet enter distance the march of a single ray starts.
+   */
+  private static final double SKIP_MARGIN = 0.01;
+
   /** An Octree node. */
   public static class Node {
     /**
@@ -318,6 +594,23 @@ public class Octree {
     return new Octree(getImplementationFactory(impl).load(in));
   }
 
+  /**
+   * Find the distance from each ray of the packet to the first non-empty leaf
+   * it may hit, see {@link PackedOctree#packetEnterDistance}. The distances
+   * can be passed to {@link #enterBlock(Scene, Ray, BlockPalette, IntIntMutablePair, NodeStack, double)}
+   * to skip the empty space in front of the rays.
+   *
+   * @return {@code false} if no distances were computed, because the octree is
+   * not a packed octree or the rays do not share direction signs. The rays
+   * should then be traced from their origins.
+   */
+  public boolean packetEnterDistance(RayPacket packet, BlockPalette palette) {
+    if (implementation instanceof PackedOctree) {
+      return ((PackedOctree) implementation).packetEnterDistance(packet, palette);
+    }
+    return false;
+  }
+
   /**
    * Test if a point is inside the octree.
    *
@@ -475,12 +768,83 @@ public class Octree {
    * @return {@code false} if the ray did not hit the geometry
    */
   public boolean enterBlock(Scene scene, Ray ray, BlockPalette palette) {
+    return enterBlock(scene, ray, palette, new IntIntMutablePair(0, 0));
+  }
+
+  /**
+   * Intersects the ray with the geometry inside the octree.
+   *
+   * @param typeAndLevel scratch pair used for octree lookups
+   * @return {@code false} if the ray did not hit the geometry
+   */
+  public boolean enterBlock(Scene scene, Ray ray, BlockPalette palette,
+      IntIntMutablePair typeAndLevel) {
+    return enterBlock(scene, ray, palette, typeAndLevel, null);
+  }
+
+  /**
+   * Intersects the ray with the geometry inside the octree.
+   *
+   * @param typeAndLevel scratch pair used for octree lookups
+   * @param stack node stack used to resume lookups from the previous leaf,
+   * or {@code null} to descend from the root at every step
+   * @return {@code false} if the ray did not hit the geometry
+   */
+  public boolean enterBlock(Scene scene, Ray ray, BlockPalette palette,
+      IntIntMutablePair typeAndLevel, NodeStack stack) {
+    return enterBlock(scene, ray, palette, typeAndLevel, stack, 0);
+  }
+
+  /**
+   * Intersects the ray with the geometry inside the octree, skipping empty space
+   * up to a distance found by {@link #packetEnterDistance}.
+   *
+   * @param typeAndLevel scratch pair used for octree lookups
+   * @param stack node stack used to resume lookups from the previous leaf,
+   * or {@code null} to descend from the root at every step
+   * @param enterDistance distance from the ray origin to the first non-empty
+   * leaf the ray may hit, or zero to march from the ray origin. Only used if
+   * the ray starts in air.
+   * @return {@code false} if the ray did not hit the geometry
+   */
+  public boolean enterBlock(Scene scene, Ray ray, BlockPalette palette,
+      IntIntMutablePair typeAndLevel, NodeStack stack, double enterDistance) {
+    return enterBlock(scene, ray, palette, typeAndLevel, stack, enterDistance, null);
+  }
+
+  /**
+   * Intersects the ray with the geometry inside the octree, skipping empty space
+   * up to a distance found by {@link #packetEnterDistance}.
+   *
+   * @param typeAndLevel scratch pair used for octree lookups
+   * @param stack node stack used to resume lookups from the previous leaf,
+   * or {@code null} to descend from the root at every step
+   * @param enterDistance distance from the ray origin to the first non-empty
+   * leaf the ray may hit, or zero to march from the ray origin. Only used if
+   * the ray starts in air.
+   * @param statistics counters for the traversal, or {@code null}
+   * @return {@code false} if the ray did not hit the geometry
+   */
+  public boolean enterBlock(Scene scene, Ray ray, BlockPalette palette,
+      IntIntMutablePair typeAndLevel, NodeStack stack, double enterDistance,
+      RenderStatistics statistics) {
+    double startDistance = ray.distance;
     if (!isInside(ray.o) && !enterOctree(ray))
       return false;
 
+    if (stack != null)
+      stack.clear();
+
     int depth = implementation.getDepth();
 
     double distance = 0;
+    if (enterDistance > 0 && ray.getCurrentMaterial() == Air.INSTANCE) {
+      if (enterDistance == Double.POSITIVE_INFINITY)
+        return false; // No leaf along the ray is non-empty.
+      // Start a bit before the first non-empty leaf, in the empty leaf before it,
+      // so that the march enters the leaf through the same face as without skipping.
+      distance = Math.max(0, enterDistance - (ray.distance - startDistance) - SKIP_MARGIN);
+    }
 
     // floating point division are slower than multiplication so we cache them
     // We also try to limit the number of time the ray origin is updated
@@ -492,12 +856,17 @@ public class Octree {
     double offsetY = -ray.o.y * invDy;
     double offsetZ = -ray.o.z * invDz;
 
-    IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+    if (statistics != null)
+      statistics.octreeTraversals += 1;
 
-    // Marching is done in a top-down fashion: at each step, the octree is descended from the root to find the leaf
-    // node the ray is in. Terminating the march is then decided based on the block type in that leaf node. Finally the
-    // ray is advanced to the boundary of the current leaf node and the next, ready for the next iteration.
+    // Marching is done in a top-down fashion: at each step, the octree is descended from the root (or, with a node
+    // stack, from the deepest node shared with the previous leaf) to find the leaf node the ray is in. Terminating the
+    // march is then decided based on the block type in that leaf node. Finally the ray is advanced to the boundary of
+    // the current leaf node and the next, ready for the next iteration.
     while (true) {
+      if (statistics != null)
+        statistics.octreeSteps += 1;
+
       // Add small offset past the intersection to avoid
       // recursion to the same octree node!
       int x = (int) Math.floor(ray.o.x + ray.d.x * (distance + Ray.OFFSET));
@@ -511,7 +880,11 @@ public class Octree {
       if (lx != 0 || ly != 0 || lz != 0)
         return false; // outside of octree!
 
-      implementation.getWithLevel(typeAndLevel, x, y, z);
+      if (stack != null) {
+        implementation.getWithLevel(typeAndLevel, stack, x, y, z);
+      } else {
+        implementation.getWithLevel(typeAndLevel, x, y, z);
+      }
       int type = typeAndLevel.leftInt();
       int level = typeAndLevel.rightInt();
 
@@ -621,16 +994,62 @@ public class Octree {
    * @return {@code false} if the ray doesn't hit anything
    */
   public boolean exitWater(Scene scene, Ray ray, BlockPalette palette) {
+    return exitWater(scene, ray, palette, new IntIntMutablePair(0, 0));
+  }
+
+  /**
+   * Advance the ray until it leaves the current water body.
+   *
+   * @param typeAndLevel scratch pair used for octree lookups
+   * @return {@code false} if the ray doesn't hit anything
+   */
+  public boolean exitWater(Scene scene, Ray ray, BlockPalette palette,
+      IntIntMutablePair typeAndLevel) {
+    return exitWater(scene, ray, palette, typeAndLevel, null);
+  }
+
+  /**
+   * Advance the ray until it leaves the current water body.
+   *
+   * @param typeAndLevel scratch pair used for octree lookups
+   * @param stack node stack used to resume lookups from the previous leaf,
+   * or {@code null} to descend from the root at every step
+   * @return {@code false} if the ray doesn't hit anything
+   */
+  public boolean exitWater(Scene scene, Ray ray, BlockPalette palette,
+      IntIntMutablePair typeAndLevel, NodeStack stack) {
+    return exitWater(scene, ray, palette, typeAndLevel, stack, null);
+  }
+
+  /**
+   * Advance the ray until it leaves the current water body.
+   *
+   * @param typeAndLevel scratch pair used for octree lookups
+   * @param stack node stack used to resume lookups from the previous leaf,
+   * or {@code null} to descend from the root at every step
+   * @param statistics counters for the traversal, or {@code null}
+   * @return {@code false} if the ray doesn't hit anything
+   */
+  public boolean exitWater(Scene scene, Ray ray, BlockPalette palette,
+      IntIntMutablePair typeAndLevel, NodeStack stack, RenderStatistics statistics) {
     if (!isInside(ray.o) && !enterOctree(ray))
       return false;
 
+    if (stack != null)
+      stack.clear();
+
     int depth = getDepth();
     // Marching is done in a top-down fashion: at each step, the octree is descended from the root to find the leaf
     // node the ray is in. Terminating the march is then decided based on the block type in that leaf node. Finally the
     // ray is advanced to the boundary of the current leaf node and the next, ready for the next iteration.
 
-    IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+    if (statistics != null)
+      statistics.octreeTraversals += 1;
+
     while (true) {
+      if (statistics != null)
+        statistics.octreeSteps += 1;
+
       // Add small offset past the intersection to avoid
       // recursion to the same octree node!
       int x = (int) QuickMath.floor(ray.o.x + ray.d.x * Ray.OFFSET);
@@ -645,7 +1064,11 @@ public class Octree {
         return false; // outside of octree!
 
       // Descend the tree to find the current leaf node
-      implementation.getWithLevel(typeAndLevel, x, y, z);
+      if (stack != null) {
+        implementation.getWithLevel(typeAndLevel, stack, x, y, z);
+      } else {
+        implementation.getWithLevel(typeAndLevel, x, y, z);
+      }
       int type = typeAndLevel.leftInt();
       int level = typeAndLevel.rightInt();
 
@@ -770,6 +1193,15 @@ public class Octree {
     implementation.setCube(cubeDepth, types, x, y, z);
   }
 
+  /**
+   * Replace the cube at the given position by a subtree.
+   *
+   * @see OctreeImplementation#setSubtree(Subtree, int, int, int)
+   */
+  public void setSubtree(Subtree subtree, int x, int y, int z) {
+    implementation.setSubtree(subtree, x, y, z);
+  }
+
   /**
    * Switch between any two implementation by reusing the load and store methods of
    * the octree implementations
@@ -19,6 +19,7 @@ package se.llbit.math;
 import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
 import it.unimi.dsi.fastutil.ints.IntObjectImmutablePair;
 import org.apache.commons.math3.util.Pair;
+import se.llbit.chunky.block.Air;
 import se.llbit.chunky.block.UnknownBlock;
 import se.llbit.chunky.chunk.BlockPalette;
 import se.llbit.chunky.plugin.PluginApi;
@@ -27,8 +28,6 @@ import se.llbit.chunky.world.Material;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import static se.llbit.math.Octree.*;
 
@@ -59,6 +58,18 @@ public class PackedOctree implements Octree.OctreeImplementation {
    */
   public int[] treeData;
 
+  /**
+   * Slack of the node box tests in the packet traversal, so that rounding
+   * never culls a node that a single ray would visit.
+   */
+  private static final double PACKET_SLACK = 1e-4;
+
+  /**
+   * Non-empty nodes at this level or below end the packet traversal as if
+   * they were non-empty leaves.
+   */
+  private static final int PACKET_MIN_LEVEL = 2;
+
   /**
    * The max size of an array we allow is a bit less than the max value an integer can have
    */
@@ -93,9 +104,9 @@ public class PackedOctree implements Octree.OctreeImplementation {
   private int depth;
 
   /**
-   * dense, temporary representation of a tree
+   * Builds the subtrees inserted by setCube.
    */
-  List<int[]> tempTree = new ArrayList<>();
+  private SubtreeBuilder subtreeBuilder = new SubtreeBuilder();
 
   /**
    * NodeId implementation for a int array PackedOctree.
@@ -346,25 +357,6 @@ public class PackedOctree implements Octree.OctreeImplementation {
     }
   }
 
-  /**
-   * Helper function that separate each bit of the input number
-   * by 3 (eg 0b0110 -> 0b0001001000)
-   *                      ^--^--^--^
-   * This version only supports number with up to 8 bits
-   */
-  static private int splitBy3(int a)
-  {
-    int x = a & 0xff; // we only look at the first 8 bits
-    // Here we have the bits          abcd efgh
-    x = (x | x << 8) & 0x0f00f00f; // shift left 32 bits, OR with self, and 0001000000001111000000001111000000001111000000001111000000000000
-    // Here we have         abcd 0000 0000 efgh
-    x = (x | x << 4) & 0xc30c30c3; // shift left 32 bits, OR with self, and 0001000011000011000011000011000011000011000011000011000100000000
-    // Here we have    ab00 00cd 0000 ef00 00gh
-    x = (x | x << 2) & 0x49249249;
-    // Here we have a0 0b00 c00d 00e0 0f00 g00h
-    return x;
-  }
-
   /**
    * Free a whole subtree recursively
    */
@@ -380,17 +372,19 @@ public class PackedOctree implements Octree.OctreeImplementation {
   }
 
   /**
-   * Recursively insert the temporary tree representation into the tree
-   * @param level the current level to insert
-   * @param startIdx the index in the current level of the children to insert
+   * Recursively copy the nodes of a subtree into the tree
+   * @param nodes the packed subtree nodes
+   * @param index the index in the subtree of the node to insert
+   * @return the value of the inserted node
    */
-  private int insertTempTree(int level, int startIdx) {
-    if(tempTree.get(level)[startIdx] <= 0)
-      return tempTree.get(level)[startIdx];
+  private int insertSubtree(int[] nodes, int index) {
+    if(nodes[index] <= 0)
+      return nodes[index];
 
     int childrenIdx = findSpace();
     for(int i = 0; i < 8; ++i) {
-      int value = insertTempTree(level+1, startIdx*8 + i);
+      // findSpace() may replace treeData, so the child is inserted before writing it.
+      int value = insertSubtree(nodes, nodes[index] + i);
       treeData[childrenIdx+i] = value;
     }
 
@@ -399,55 +393,13 @@ public class PackedOctree implements Octree.OctreeImplementation {
 
   @Override
   public void setCube(int cubeDepth, int[] types, int x, int y, int z) {
-    int size = 1 << cubeDepth;
-
-    for(int nextLevel = tempTree.size(); nextLevel <= cubeDepth; ++nextLevel)
-      tempTree.add(new int[1 << (3*nextLevel)]);
-
-    // Write all the types from in the last level of the temp tree in morton order
-    // (so children are back to back in the array)
-    for(int cz = 0; cz < size; ++cz) {
-      for(int cy = 0; cy < size; ++cy) {
-        for(int cx = 0; cx < size; ++cx) {
-          int linearIdx = (cz << (2*cubeDepth)) + (cy << cubeDepth) + cx;
-          int mortonIdx = (splitBy3(cx) << 2) | (splitBy3(cy) << 1) | splitBy3(cz);
-          tempTree.get(cubeDepth)[mortonIdx] = -types[linearIdx];
-        }
-      }
-    }
-
-    // Construct levels from the level deeper until the root of the temp tree
-    for(int curDepth = cubeDepth-1; curDepth >= 0; --curDepth) {
-      int numElem = (1 << (3 * curDepth));
-      for(int parentIdx = 0; parentIdx < numElem; ++parentIdx)
-      {
-        int childrenIdx = parentIdx * 8;
-        boolean mergeable = true;
-        int firstType = tempTree.get(curDepth+1)[childrenIdx];
-        for(int childNo = 1; childNo < 8; ++childNo) {
-          if(tempTree.get(curDepth+1)[childrenIdx+childNo] > 0) {
-            mergeable = false;
-            break;
-          }
-          if(firstType == -ANY_TYPE)
-            firstType = tempTree.get(curDepth+1)[childrenIdx+childNo];
-          else if(firstType != tempTree.get(curDepth+1)[childrenIdx+childNo] && tempTree.get(curDepth+1)[childrenIdx+childNo] != -ANY_TYPE) {
-            mergeable = false;
-            break;
-          }
-        }
-        if(mergeable)
-        {
-          tempTree.get(curDepth)[parentIdx] = firstType;
-        }
-        else
-        {
-          tempTree.get(curDepth)[parentIdx] = 1;
-        }
-      }
-    }
+    setSubtree(subtreeBuilder.build(cubeDepth, types), x, y, z);
+  }
 
-    int type = tempTree.get(0)[0];
+  @Override
+  public void setSubtree(Subtree subtree, int x, int y, int z) {
+    int cubeDepth = subtree.depth;
+    int type = subtree.nodes[0];
 
     int[] parents = new int[depth]; // better to put as a field to prevent allocation at each invocation?
     int nodeIndex = 0; // start at root
@@ -475,7 +427,7 @@ public class PackedOctree implements Octree.OctreeImplementation {
 
     freeSubTree(nodeIndex);
 
-    int value = insertTempTree(0, 0);
+    int value = insertSubtree(subtree.nodes, 0);
     treeData[nodeIndex] = value;
 
     // Merge nodes where all children have been set to the same type, starting from the bottom.
@@ -522,6 +474,34 @@ public class PackedOctree implements Octree.OctreeImplementation {
     outTypeAndLevel.left(getTypeFromIndex(nodeIndex)).right(level);
   }
 
+  /**
+   * Gets the type and depth of the node that is (or contains) the specified block,
+   * resuming the descent from the deepest node on the stack that contains the block.
+   *
+   * x, y, z are in octree coordinates, NOT world coordinates.
+   */
+  @Override
+  public void getWithLevel(IntIntMutablePair outTypeAndLevel, Octree.NodeStack stack, int x, int y, int z) {
+    long[] nodes = stack.nodes;
+    int top = stack.find(depth, x, y, z);
+    if(top < 0) {
+      top = 0;
+      nodes[0] = 0;
+    }
+    int nodeIndex = (int) nodes[top];
+    int level = depth - top;
+    while(treeData[nodeIndex] > 0) {
+      level -= 1;
+      int lx = x >>> level;
+      int ly = y >>> level;
+      int lz = z >>> level;
+      nodeIndex = treeData[nodeIndex] + (((lx & 1) << 2) | ((ly & 1) << 1) | (lz & 1));
+      nodes[++top] = nodeIndex;
+    }
+    stack.setPosition(top + 1, x, y, z);
+    outTypeAndLevel.left(getTypeFromIndex(nodeIndex)).right(level);
+  }
+
   /**
    * Gets the array index of the node which is (or contains) the block specified, via a binary (octnary?) search.
    *
@@ -659,7 +639,7 @@ public class PackedOctree implements Octree.OctreeImplementation {
 
   @Override
   public void startFinalization() {
-    tempTree = null; // no longer needed
+    subtreeBuilder = null; // no longer needed
   }
 
   /**
@@ -744,4 +724,135 @@ public class PackedOctree implements Octree.OctreeImplementation {
       }
     });
   }
+
+  /**
+   * Traverses the octree with a packet of rays and finds, for each ray, the distance to the
+   * first leaf whose block is not air. The result is stored in {@link RayPacket#enterDistance}.
+   *
+   * <p>The rays must share their direction signs. Then one child order visits the nodes front
+   * to back for all rays, so each node is fetched once for the whole packet and a ray is done
+   * with the first non-empty leaf it hits. Nodes that are missed by all active rays are culled
+   * together with their subtrees. Node boxes are tested with a small slack, so a grazed leaf
+   * counts as hit and the distances never overshoot the first leaf found by
+   * {@link Octree#enterBlock}.
+   *
+   * @return {@code false} if the rays do not share direction signs, in which case no
+   * distances are computed
+   */
+  public boolean packetEnterDistance(RayPacket packet, BlockPalette palette) {
+    int signs = packet.signMask();
+    if (signs < 0) {
+      return false;
+    }
+    int n = packet.size;
+    double[] ox = packet.ox, oy = packet.oy, oz = packet.oz;
+    double[] invDx = packet.invDx, invDy = packet.invDy, invDz = packet.invDz;
+    // Bounds of the ray origins and inverse directions, for the packet frustum test.
+    double oxMin = Double.POSITIVE_INFINITY, oxMax = Double.NEGATIVE_INFINITY;
+    double oyMin = Double.POSITIVE_INFINITY, oyMax = Double.NEGATIVE_INFINITY;
+    double ozMin = Double.POSITIVE_INFINITY, ozMax = Double.NEGATIVE_INFINITY;
+    double ixMin = Double.POSITIVE_INFINITY, ixMax = Double.NEGATIVE_INFINITY;
+    double iyMin = Double.POSITIVE_INFINITY, iyMax = Double.NEGATIVE_INFINITY;
+    double izMin = Double.POSITIVE_INFINITY, izMax = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; ++i) {
+      invDx[i] = 1 / packet.dx[i];
+      invDy[i] = 1 / packet.dy[i];
+      invDz[i] = 1 / packet.dz[i];
+      packet.enterDistance[i] = Double.POSITIVE_INFINITY;
+      oxMin = Math.min(oxMin, ox[i]);
+      oxMax = Math.max(oxMax, ox[i]);
+      oyMin = Math.min(oyMin, oy[i]);
+      oyMax = Math.max(oyMax, oy[i]);
+      ozMin = Math.min(ozMin, oz[i]);
+      ozMax = Math.max(ozMax, oz[i]);
+      ixMin = Math.min(ixMin, invDx[i]);
+      ixMax = Math.max(ixMax, invDx[i]);
+      iyMin = Math.min(iyMin, invDy[i]);
+      iyMax = Math.max(iyMax, invDy[i]);
+      izMin = Math.min(izMin, invDz[i]);
+      izMax = Math.max(izMax, invDz[i]);
+    }
+    int[] stackNode = packet.stackNode;
+    int[] stackLevel = packet.stackLevel;
+    int[] stackX = packet.stackX, stackY = packet.stackY, stackZ = packet.stackZ;
+
+    // Rays that have not found their first non-empty leaf.
+    long active = n == RayPacket.MAX_SIZE ? -1L : (1L << n) - 1;
+    int sp = 0;
+    stackNode[sp] = 0;
+    stackLevel[sp] = depth;
+    stackX[sp] = stackY[sp] = stackZ[sp] = 0;
+    sp += 1;
+    while (sp > 0 && active != 0) {
+      sp -= 1;
+      int node = stackNode[sp];
+      int data = treeData[node];
+      int level = stackLevel[sp];
+      int x = stackX[sp], y = stackY[sp], z = stackZ[sp];
+      int size = 1 << level;
+
+      // Near and far planes of the node box, the same for all rays in the packet.
+      double nearX = (signs & 4) != 0 ? x + size : x;
+      double farX = (signs & 4) != 0 ? x : x + size;
+      double nearY = (signs & 2) != 0 ? y + size : y;
+      double farY = (signs & 2) != 0 ? y : y + size;
+      double nearZ = (signs & 1) != 0 ? z + size : z;
+      double farZ = (signs & 1) != 0 ? z : z + size;
+
+      // Frustum test: bound the box distances of all rays with interval arithmetic
+      // and cull the node if no ray in the packet can hit it.
+      double tMinLow = Math.max(lowerProduct(nearX - oxMax, nearX - oxMin, ixMin, ixMax),
+          Math.max(lowerProduct(nearY - oyMax, nearY - oyMin, iyMin, iyMax),
+              lowerProduct(nearZ - ozMax, nearZ - ozMin, izMin, izMax)));
+      double tMaxHigh = Math.min(upperProduct(farX - oxMax, farX - oxMin, ixMin, ixMax),
+          Math.min(upperProduct(farY - oyMax, farY - oyMin, iyMin, iyMax),
+              upperProduct(farZ - ozMax, farZ - ozMin, izMin, izMax)));
+      if (tMaxHigh < 0 || tMinLow > tMaxHigh + PACKET_SLACK) {
+        continue;
+      }
+
+      if (data > 0 && level > PACKET_MIN_LEVEL) {
+        // Push the non-empty children so that they are popped front to back.
+        int half = size >> 1;
+        for (int k = 7; k >= 0; --k) {
+          int child = k ^ signs;
+          int childData = treeData[data + child];
+          if (childData <= 0 && palette.get(-childData) == Air.INSTANCE) {
+            continue;
+          }
+          stackNode[sp] = data + child;
+          stackLevel[sp] = level - 1;
+          stackX[sp] = x + ((child >> 2) & 1) * half;
+          stackY[sp] = y + ((child >> 1) & 1) * half;
+          stackZ[sp] = z + (child & 1) * half;
+          sp += 1;
+        }
+      } else {
+        // A non-empty leaf, or a small branch node that the rays march through one by one.
+        // The rays that hit it are done, the nodes are visited front to back.
+        for (long m = active; m != 0; m &= m - 1) {
+          int i = Long.numberOfTrailingZeros(m);
+          double tMin = Math.max((nearX - ox[i]) * invDx[i],
+              Math.max((nearY - oy[i]) * invDy[i], (nearZ - oz[i]) * invDz[i]));
+          double tMax = Math.min((farX - ox[i]) * invDx[i],
+              Math.min((farY - oy[i]) * invDy[i], (farZ - oz[i]) * invDz[i]));
+          if (tMax >= 0 && tMin <= tMax + PACKET_SLACK) {
+            packet.enterDistance[i] = Math.max(0, tMin - PACKET_SLACK);
+            active &= ~(1L << i);
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Lower bound of the product of a value in [a0, a1] and a value in [b0, b1]. */
+  private static double lowerProduct(double a0, double a1, double b0, double b1) {
+    return Math.min(Math.min(a0 * b0, a0 * b1), Math.min(a1 * b0, a1 * b1));
+  }
+
+  /** Upper bound of the product of a value in [a0, a1] and a value in [b0, b1]. */
+  private static double upperProduct(double a0, double a1, double b0, double b1) {
+    return Math.max(Math.max(a0 * b0, a0 * b1), Math.max(a1 * b0, a1 * b1));
+  }
 }
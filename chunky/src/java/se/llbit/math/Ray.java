@@ -148,6 +148,29 @@ public class Ray {
     specular = true;
   }
 
+  /**
+   * Reset this ray to the state of a newly constructed ray.
+   * This is used when ray objects are reused instead of allocated.
+   */
+  public void reset() {
+    d.set(0, 0, 0);
+    o.set(0, 0, 0);
+    n.set(0, 0, 0);
+    distance = 0;
+    color.set(0, 0, 0, 0);
+    emittance.set(0, 0, 0);
+    prevMaterial = Air.INSTANCE;
+    currentMaterial = Air.INSTANCE;
+    prevData = 0;
+    currentData = 0;
+    depth = 0;
+    t = 0;
+    tNext = 0;
+    u = 0;
+    v = 0;
+    specular = false;
+  }
+
   /**
    * Copy state from another ray.
    */
@@ -335,8 +358,10 @@ public class Ray {
       // This gives good-looking results, although a microfacet-based model would be more physically correct.
 
       // 1. get specular reflection direction
-      Vector3 specularDirection = new Vector3(d);
-      specularDirection.scaleAdd(-2 * ray.d.dot(ray.n), ray.n, ray.d);
+      double specularScale = -2 * ray.d.dot(ray.n);
+      double sx = specularScale * ray.n.x + ray.d.x;
+      double sy = specularScale * ray.n.y + ray.d.y;
+      double sz = specularScale * ray.n.z + ray.d.z;
 
       // 2. get diffuse reflection direction (stored in this.d)
       // get random point on unit disk
@@ -385,7 +410,9 @@ public class Ray {
 
       // 3. scale d to be roughness * dDiffuse + (1 - roughness) * dSpecular
       d.scale(roughness);
-      d.scaleAdd(1 - roughness, specularDirection);
+      d.x += (1 - roughness) * sx;
+      d.y += (1 - roughness) * sy;
+      d.z += (1 - roughness) * sz;
       d.normalize();
       o.scaleAdd(0.00001, d);
     } else {
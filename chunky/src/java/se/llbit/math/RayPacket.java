@@ -0,0 +1,127 @@
+/* Copyright (c) 2012-2014 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.util.Arrays;
+
+/**
+ * A bundle of up to {@link #MAX_SIZE} coherent rays, for example the primary
+ * rays of an 8x8 pixel block, that are traversed through the octree together.
+ *
+ * <p>The packet traversal only finds the distance at which each ray enters the
+ * first non-empty octree leaf, see {@link Octree#packetEnterDistance}. The rays
+ * are then traced one by one from that distance, so shading and everything
+ * after the first hit works on single rays as usual.
+ */
+public class RayPacket {
+  /** Maximum number of rays in a packet, one bit per ray in a {@code long} mask. */
+  public static final int MAX_SIZE = 64;
+
+  public final double[] ox = new double[MAX_SIZE];
+  public final double[] oy = new double[MAX_SIZE];
+  public final double[] oz = new double[MAX_SIZE];
+  public final double[] dx = new double[MAX_SIZE];
+  public final double[] dy = new double[MAX_SIZE];
+  public final double[] dz = new double[MAX_SIZE];
+
+  /**
+   * Distance along each ray, from its origin, to the first non-empty octree leaf
+   * it may hit. Zero if no distance could be computed, and infinite if the ray
+   * passes through the octree without hitting anything.
+   */
+  public final double[] enterDistance = new double[MAX_SIZE];
+
+  /** Number of rays in the packet. */
+  public int size = 0;
+
+  // Scratch state of the packet traversal.
+  final double[] invDx = new double[MAX_SIZE];
+  final double[] invDy = new double[MAX_SIZE];
+  final double[] invDz = new double[MAX_SIZE];
+  final int[] stackNode = new int[8 * 64];
+  final int[] stackLevel = new int[8 * 64];
+  final int[] stackX = new int[8 * 64];
+  final int[] stackY = new int[8 * 64];
+  final int[] stackZ = new int[8 * 64];
+
+  public void clear() {
+    size = 0;
+  }
+
+  public boolean isFull() {
+    return size == MAX_SIZE;
+  }
+
+  /**
+   * Add the origin and direction of a ray to the packet.
+   *
+   * @return the index of the ray in the packet
+   */
+  public int add(Ray ray) {
+    int i = size++;
+    ox[i] = ray.o.x;
+    oy[i] = ray.o.y;
+    oz[i] = ray.o.z;
+    dx[i] = ray.d.x;
+    dy[i] = ray.d.y;
+    dz[i] = ray.d.z;
+    enterDistance[i] = 0;
+    return i;
+  }
+
+  /**
+   * Set the origin and direction of the ray to those of a ray in the packet.
+   */
+  public void get(int i, Ray ray) {
+    ray.o.set(ox[i], oy[i], oz[i]);
+    ray.d.set(dx[i], dy[i], dz[i]);
+  }
+
+  /**
+   * The octree child visiting order shared by all rays: bit 2, 1 and 0 are set
+   * if the rays point in negative x, y and z direction respectively.
+   *
+   * @return the direction sign mask, or -1 if the rays do not share direction
+   * signs or a direction component is zero
+   */
+  public int signMask() {
+    if (size == 0) {
+      return -1;
+    }
+    int mask = signMask(0);
+    for (int i = 1; i < size; ++i) {
+      if (signMask(i) != mask) {
+        return -1;
+      }
+    }
+    return mask;
+  }
+
+  private int signMask(int i) {
+    if (dx[i] == 0 || dy[i] == 0 || dz[i] == 0) {
+      return -1;
+    }
+    return (dx[i] < 0 ? 4 : 0) | (dy[i] < 0 ? 2 : 0) | (dz[i] < 0 ? 1 : 0);
+  }
+
+  /**
+   * Drop all enter distances, so that the rays are traced from their origins.
+   */
+  public void clearEnterDistances() {
+    Arrays.fill(enterDistance, 0, size, 0);
+  }
+}
@@ -19,6 +19,7 @@ package se.llbit.math.bvh;
 
 import se.llbit.chunky.entity.Entity;
 import se.llbit.chunky.plugin.PluginApi;
+import se.llbit.chunky.renderer.RenderStatistics;
 import se.llbit.log.Log;
 import se.llbit.math.Intersectable;
 import se.llbit.math.Ray;
@@ -43,6 +44,17 @@ public interface BVH extends Intersectable {
   @Override
   boolean closestIntersection(Ray ray);
 
+  /**
+   * Find closest intersection between the ray and any object in the BVH, counting the
+   * tested nodes and primitives.
+   *
+   * @param statistics counters for the traversal, or {@code null}
+   * @return {@code true} if there exists any intersection
+   */
+  default boolean closestIntersection(Ray ray, RenderStatistics statistics) {
+    return closestIntersection(ray);
+  }
+
   final class Factory {
 
     public interface BVHBuilder {
@@ -88,6 +100,7 @@ public interface BVH extends Intersectable {
       MidpointBVH.registerImplementation();
       SahBVH.registerImplementation();
       SahMaBVH.registerImplementation();
+      BinnedSahBVH.registerImplementation();
       DEFAULT_IMPLEMENTATION = implementations.get("SAH_MA");
     }
 
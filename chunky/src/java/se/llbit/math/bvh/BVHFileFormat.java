@@ -0,0 +1,164 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math.bvh;
+
+import se.llbit.chunky.entity.Entity;
+import se.llbit.math.AABB;
+import se.llbit.math.Vector3;
+import se.llbit.math.primitive.Primitive;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores built BVHs so that they do not have to be rebuilt when a scene is loaded.
+ *
+ * <p>Primitives can not be serialized, so only the packed node array is stored,
+ * together with the indices of the primitives in each leaf. When loading, the
+ * primitives are generated again from the entities, in the same order as when
+ * the BVH was built. The stored BVH is only used if the BVH implementation, the
+ * number of primitives and a hash of the primitive bounds match.
+ */
+public class BVHFileFormat {
+    private static final int VERSION = 1;
+
+    /**
+     * Write a BVH. BVHs that can not be stored are written as an empty entry,
+     * so that {@link #load} returns {@code null} for them.
+     *
+     * @param implementation the name of the BVH implementation used to build the BVH
+     */
+    public static void store(DataOutputStream out, BVH bvh, String implementation) throws IOException {
+        out.writeInt(VERSION);
+        if (!(bvh instanceof BinaryBVH) || ((BinaryBVH) bvh).primitives == null) {
+            out.writeBoolean(false);
+            return;
+        }
+        BinaryBVH binary = (BinaryBVH) bvh;
+        out.writeBoolean(true);
+        out.writeUTF(implementation);
+        out.writeInt(binary.primitives.length);
+        out.writeLong(hash(binary.primitives));
+        out.writeInt(binary.depth);
+        out.writeInt(binary.packed.length);
+        for (int value : binary.packed) {
+            out.writeInt(value);
+        }
+
+        Map<Primitive, Integer> index = new IdentityHashMap<>(binary.primitives.length);
+        for (int i = 0; i < binary.primitives.length; ++i) {
+            index.put(binary.primitives[i], i);
+        }
+        out.writeInt(binary.packedPrimitives.length);
+        for (Primitive[] leaf : binary.packedPrimitives) {
+            out.writeInt(leaf.length);
+            for (Primitive primitive : leaf) {
+                out.writeInt(index.get(primitive));
+            }
+        }
+    }
+
+    /**
+     * Read a BVH written by {@link #store}.
+     *
+     * @param implementation the BVH implementation that would be used to build the BVH
+     * @param entities the entities the BVH should contain
+     * @return the loaded BVH, or {@code null} if it was not stored or does not match
+     * the entities or implementation and must be rebuilt
+     */
+    public static BVH load(DataInputStream in, String implementation, Collection<Entity> entities,
+        Vector3 worldOffset) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unknown BVH format version: " + version);
+        }
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String storedImplementation = in.readUTF();
+        int numPrimitives = in.readInt();
+        long hash = in.readLong();
+        int depth = in.readInt();
+        int[] packed = new int[in.readInt()];
+        for (int i = 0; i < packed.length; ++i) {
+            packed[i] = in.readInt();
+        }
+        int[][] leaves = new int[in.readInt()][];
+        for (int i = 0; i < leaves.length; ++i) {
+            leaves[i] = new int[in.readInt()];
+            for (int j = 0; j < leaves[i].length; ++j) {
+                leaves[i][j] = in.readInt();
+            }
+        }
+
+        if (!storedImplementation.equals(implementation)) {
+            return null;
+        }
+        List<Primitive> primitiveList = new ArrayList<>();
+        for (Entity entity : entities) {
+            primitiveList.addAll(entity.primitives(worldOffset));
+        }
+        Primitive[] primitives = primitiveList.toArray(new Primitive[0]);
+        if (primitives.length != numPrimitives || hash(primitives) != hash) {
+            return null;
+        }
+
+        Primitive[][] packedPrimitives = new Primitive[leaves.length][];
+        for (int i = 0; i < leaves.length; ++i) {
+            packedPrimitives[i] = new Primitive[leaves[i].length];
+            for (int j = 0; j < leaves[i].length; ++j) {
+                packedPrimitives[i][j] = primitives[leaves[i][j]];
+            }
+        }
+        return new StoredBVH(packed, depth, packedPrimitives, primitives);
+    }
+
+    /**
+     * Hash of the primitive bounds, in order. The BVH layout only depends on these.
+     */
+    private static long hash(Primitive[] primitives) {
+        long hash = primitives.length;
+        for (Primitive primitive : primitives) {
+            AABB bounds = primitive.bounds();
+            hash = hash * 31 + Double.doubleToLongBits(bounds.xmin);
+            hash = hash * 31 + Double.doubleToLongBits(bounds.xmax);
+            hash = hash * 31 + Double.doubleToLongBits(bounds.ymin);
+            hash = hash * 31 + Double.doubleToLongBits(bounds.ymax);
+            hash = hash * 31 + Double.doubleToLongBits(bounds.zmin);
+            hash = hash * 31 + Double.doubleToLongBits(bounds.zmax);
+        }
+        return hash;
+    }
+
+    /**
+     * A BVH read from a scene file.
+     */
+    private static class StoredBVH extends BinaryBVH {
+        StoredBVH(int[] packed, int depth, Primitive[][] packedPrimitives, Primitive[] primitives) {
+            this.packed = packed;
+            this.depth = depth;
+            this.packedPrimitives = packedPrimitives;
+            this.primitives = primitives;
+        }
+    }
+}
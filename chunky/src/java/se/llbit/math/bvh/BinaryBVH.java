@@ -20,6 +20,7 @@ package se.llbit.math.bvh;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntStack;
 import org.apache.commons.math3.util.FastMath;
+import se.llbit.chunky.renderer.RenderStatistics;
 import se.llbit.math.AABB;
 import se.llbit.math.Ray;
 import se.llbit.math.primitive.Primitive;
@@ -43,6 +44,12 @@ public abstract class BinaryBVH implements BVH {
     public int depth;
     public Primitive[][] packedPrimitives;
 
+    /**
+     * All primitives in the order they were generated from the entities, or {@code null} if
+     * unknown. Used to store the BVH in a scene file, see {@link BVHFileFormat}.
+     */
+    protected Primitive[] primitives;
+
     public static abstract class Node {
         public final AABB bb;
 
@@ -213,6 +220,11 @@ public abstract class BinaryBVH implements BVH {
      */
     @Override
     public boolean closestIntersection(Ray ray) {
+        return closestIntersection(ray, null);
+    }
+
+    @Override
+    public boolean closestIntersection(Ray ray, RenderStatistics statistics) {
         boolean hit = false;
         int currentNode = 0;
         IntStack nodesToVisit = new IntArrayList(depth/2);
@@ -222,9 +234,15 @@ public abstract class BinaryBVH implements BVH {
         double rz = 1 / ray.d.z;
 
         while (true) {
+            if (statistics != null) {
+                statistics.bvhNodes += 1;
+            }
             if (packed[currentNode] <= 0) {
                 // Is leaf
                 int primIndex = -packed[currentNode];
+                if (statistics != null) {
+                    statistics.bvhPrimitives += packedPrimitives[primIndex].length;
+                }
                 for (Primitive primitive : packedPrimitives[primIndex]) {
                     hit = primitive.intersect(ray) | hit;
                 }
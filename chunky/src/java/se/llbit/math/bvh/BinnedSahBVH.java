@@ -0,0 +1,276 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math.bvh;
+
+import se.llbit.chunky.entity.Entity;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.log.Log;
+import se.llbit.math.AABB;
+import se.llbit.math.Vector3;
+import se.llbit.math.primitive.Primitive;
+import se.llbit.util.TaskTracker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+
+/**
+ * BVH built with a binned Surface Area Heuristic. Instead of sorting the primitives
+ * along each axis, primitive centroids are counted in a fixed number of bins and
+ * only the bin boundaries are evaluated as split candidates. Subtrees are built in
+ * parallel on the common fork/join pool.
+ */
+public class BinnedSahBVH extends BinaryBVH {
+    /** Number of split candidate bins per axis. */
+    private static final int NUM_BINS = 16;
+
+    /** Ranges with fewer primitives than this are built on the current thread. */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    public static void registerImplementation() {
+        Factory.addBVHBuilder(new Factory.BVHBuilder() {
+            @Override
+            public BVH create(Collection<Entity> entities, Vector3 worldOffset, TaskTracker.Task task) {
+                task.update(1000, 0);
+                double entityScaler = 500.0 / entities.size();
+                int done = 0;
+
+                List<Primitive> primitives = new ArrayList<>();
+                for (Entity entity : entities) {
+                    primitives.addAll(entity.primitives(worldOffset));
+
+                    done++;
+                    task.updateInterval((int) (done * entityScaler), 1);
+                }
+                Primitive[] allPrimitives = primitives.toArray(new Primitive[0]);
+                primitives = null; // Allow the collection to be garbage collected during construction when only the array is used
+
+                double primitiveScaler = 500.0 / allPrimitives.length;
+                return new BinnedSahBVH(allPrimitives, i -> task.updateInterval((int) (i * primitiveScaler) + 500, 1));
+            }
+
+            @Override
+            public String getName() {
+                return "SAH_BINNED";
+            }
+
+            @Override
+            public String getDescription() {
+                return "Parallel BVH building method using binned SAH. Fastest to build for many entities.";
+            }
+        });
+    }
+
+    /** Primitive bounds, six values per primitive: xmin, xmax, ymin, ymax, zmin, zmax. */
+    private final double[] bounds;
+
+    /** Primitive indices, partitioned in place while building. */
+    private final int[] indices;
+
+    private final IntConsumer task;
+    private int progress = 0;
+
+    public BinnedSahBVH(Primitive[] primitives, IntConsumer task) {
+        this.primitives = primitives;
+        this.task = task;
+        bounds = new double[primitives.length * 6];
+        indices = new int[primitives.length];
+        for (int i = 0; i < primitives.length; ++i) {
+            AABB bb = primitives[i].bounds();
+            bounds[i * 6] = bb.xmin;
+            bounds[i * 6 + 1] = bb.xmax;
+            bounds[i * 6 + 2] = bb.ymin;
+            bounds[i * 6 + 3] = bb.ymax;
+            bounds[i * 6 + 4] = bb.zmin;
+            bounds[i * 6 + 5] = bb.zmax;
+            indices[i] = i;
+        }
+        Node root = Chunky.getCommonThreads().invoke(new BuildTask(0, primitives.length));
+        pack(root);
+        Log.info("Built SAH_BINNED BVH with depth " + this.depth);
+    }
+
+    private synchronized void reportProgress(int count) {
+        progress += count;
+        task.accept(progress);
+    }
+
+    private class BuildTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+
+        BuildTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Node compute() {
+            return build(start, end);
+        }
+    }
+
+    private double centroid(int primitive, int axis) {
+        return (bounds[primitive * 6 + axis * 2] + bounds[primitive * 6 + axis * 2 + 1]) / 2;
+    }
+
+    private Node build(int start, int end) {
+        int count = end - start;
+        if (count < SPLIT_LIMIT) {
+            Primitive[] leaf = new Primitive[count];
+            for (int i = 0; i < count; ++i) {
+                leaf[i] = primitives[indices[start + i]];
+            }
+            reportProgress(count);
+            return new Leaf(leaf);
+        }
+
+        int mid = split(start, end);
+
+        if (count >= PARALLEL_THRESHOLD) {
+            BuildTask left = new BuildTask(start, mid);
+            left.fork();
+            Node right = build(mid, end);
+            return new Group(left.join(), right);
+        } else {
+            Node left = build(start, mid);
+            return new Group(left, build(mid, end));
+        }
+    }
+
+    /**
+     * Partition the range at the bin boundary with the lowest SAH cost.
+     *
+     * @return the start of the second half
+     */
+    private int split(int start, int end) {
+        double[] cmin = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        double[] cmax = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        for (int i = start; i < end; ++i) {
+            int p = indices[i];
+            for (int axis = 0; axis < 3; ++axis) {
+                double c = centroid(p, axis);
+                cmin[axis] = Math.min(cmin[axis], c);
+                cmax[axis] = Math.max(cmax[axis], c);
+            }
+        }
+
+        int[] counts = new int[NUM_BINS];
+        double[] binBounds = new double[NUM_BINS * 6];
+        double[] rightArea = new double[NUM_BINS];
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestAxis = -1;
+        int bestBin = 0;
+        for (int axis = 0; axis < 3; ++axis) {
+            double extent = cmax[axis] - cmin[axis];
+            if (extent <= 0) {
+                continue;
+            }
+            double scale = NUM_BINS / extent;
+            Arrays.fill(counts, 0);
+            for (int bin = 0; bin < NUM_BINS; ++bin) {
+                resetBounds(binBounds, bin);
+            }
+            for (int i = start; i < end; ++i) {
+                int p = indices[i];
+                int bin = bin(centroid(p, axis), cmin[axis], scale);
+                counts[bin] += 1;
+                expandBounds(binBounds, bin, bounds, p);
+            }
+
+            // Sweep from the right to get the area of bins [bin, NUM_BINS).
+            double[] acc = new double[6];
+            resetBounds(acc, 0);
+            for (int bin = NUM_BINS - 1; bin > 0; --bin) {
+                expandBounds(acc, 0, binBounds, bin);
+                rightArea[bin] = area(acc);
+            }
+            // Sweep from the left, evaluating the split before each bin.
+            resetBounds(acc, 0);
+            int leftCount = 0;
+            for (int bin = 1; bin < NUM_BINS; ++bin) {
+                expandBounds(acc, 0, binBounds, bin - 1);
+                leftCount += counts[bin - 1];
+                int rightCount = (end - start) - leftCount;
+                if (leftCount == 0 || rightCount == 0) {
+                    continue;
+                }
+                double cost = area(acc) * leftCount + rightArea[bin] * rightCount;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestBin = bin;
+                }
+            }
+        }
+
+        if (bestAxis == -1) {
+            // All centroids are in the same bin, split the range in the middle.
+            return (start + end) / 2;
+        }
+
+        double min = cmin[bestAxis];
+        double scale = NUM_BINS / (cmax[bestAxis] - min);
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            if (bin(centroid(indices[i], bestAxis), min, scale) < bestBin) {
+                i += 1;
+            } else {
+                int tmp = indices[i];
+                indices[i] = indices[j];
+                indices[j] = tmp;
+                j -= 1;
+            }
+        }
+        return i;
+    }
+
+    private static int bin(double centroid, double min, double scale) {
+        return Math.min(NUM_BINS - 1, (int) ((centroid - min) * scale));
+    }
+
+    private static void resetBounds(double[] target, int index) {
+        for (int axis = 0; axis < 3; ++axis) {
+            target[index * 6 + axis * 2] = Double.POSITIVE_INFINITY;
+            target[index * 6 + axis * 2 + 1] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void expandBounds(double[] target, int index, double[] source, int sourceIndex) {
+        for (int axis = 0; axis < 3; ++axis) {
+            target[index * 6 + axis * 2] = Math.min(target[index * 6 + axis * 2], source[sourceIndex * 6 + axis * 2]);
+            target[index * 6 + axis * 2 + 1] = Math.max(target[index * 6 + axis * 2 + 1], source[sourceIndex * 6 + axis * 2 + 1]);
+        }
+    }
+
+    /** Surface area of bounds stored in the first six values of the array. */
+    private static double area(double[] b) {
+        double x = b[1] - b[0];
+        double y = b[3] - b[2];
+        double z = b[5] - b[4];
+        if (x < 0) {
+            return 0; // Empty bounds.
+        }
+        return 2 * (x * y + y * z + z * x);
+    }
+}
@@ -64,6 +64,7 @@ public class MidpointBVH extends BinaryBVH {
     }
 
     public MidpointBVH(Primitive[] primitives, IntConsumer task) {
+        this.primitives = primitives.clone(); // The array is reordered while building.
         Node root = constructMidpointSplit(primitives, task);
         pack(root);
         Log.info("Built MIDPOINT BVH with depth " + this.depth);
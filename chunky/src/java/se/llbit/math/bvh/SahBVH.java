@@ -64,6 +64,7 @@ public class SahBVH extends BinaryBVH {
     }
 
     public SahBVH(Primitive[] primitives, IntConsumer task) {
+        this.primitives = primitives.clone(); // The array is reordered while building.
         Node root = constructSAH(primitives, task);
         pack(root);
         Log.info("Built SAH BVH with depth " + this.depth);
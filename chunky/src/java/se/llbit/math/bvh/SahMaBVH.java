@@ -65,6 +65,7 @@ public class SahMaBVH extends BinaryBVH {
     }
 
     public SahMaBVH(Primitive[] primitives, IntConsumer task) {
+        this.primitives = primitives.clone(); // The array is reordered while building.
         Node root = constructSAH_MA(primitives, task);
         pack(root);
         Log.info("Built SAH_MA BVH with depth " + this.depth);
@@ -1,6 +1,7 @@
 package se.llbit.pfm;
 
 import se.llbit.chunky.renderer.Postprocess;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.util.TaskTracker;
 
@@ -65,7 +66,7 @@ public class PfmFileWriter implements AutoCloseable {
 
     // one or the other will be used, depending on if postprocessing is enabled.
     double[] pixel = new double[3];
-    double[] sampleBuffer = scene.getSampleBuffer();
+    SampleBuffer sampleBuffer = scene.getSamples();
 
     // write each row...
     for (int y = height-1; y >= 0; y--) {
@@ -77,8 +78,9 @@ public class PfmFileWriter implements AutoCloseable {
 
       // get the row's data as floats from raw pixel data
       // (ignore post processing because that would clip the color range and defeat the purpose of HDR)
-        for (int x = 0; x < 3*width; x++)
-          floatBuffer.put((float)sampleBuffer[y*width*3+x]);
+        for (int x = 0; x < width; x++)
+          for (int cc = 0; cc < 3; cc++)
+            floatBuffer.put((float)sampleBuffer.get(y*width+x, cc));
 
       // Write buffer to stream
       out.write(buffer.array());
@@ -0,0 +1,96 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.util;
+
+import java.util.Random;
+
+/**
+ * A xoshiro256** pseudo-random number generator.
+ *
+ * <p>Unlike {@link Random} this generator keeps its state in plain fields
+ * instead of an {@code AtomicLong}, so it must not be shared between threads.
+ * It extends {@link Random} so that it can be passed to any code that takes
+ * a random number stream.
+ */
+public class FastRandom extends Random {
+  private static final long serialVersionUID = 1L;
+
+  // Not initialized here: the fields are seeded by setSeed() from the Random constructor.
+  private long s0, s1, s2, s3;
+
+  public FastRandom(long seed) {
+    super(seed);
+  }
+
+  /**
+   * Seed the generator. The four state words are generated from the seed
+   * with SplitMix64, so similar seeds give unrelated streams.
+   */
+  @Override public void setSeed(long seed) {
+    super.setSeed(seed);
+    s0 = splitMix64(seed += 0x9E3779B97F4A7C15L);
+    s1 = splitMix64(seed += 0x9E3779B97F4A7C15L);
+    s2 = splitMix64(seed += 0x9E3779B97F4A7C15L);
+    s3 = splitMix64(seed + 0x9E3779B97F4A7C15L);
+  }
+
+  /**
+   * Create a new generator seeded from this one. The new generator can be
+   * handed to another thread.
+   */
+  public FastRandom split() {
+    return new FastRandom(nextLong());
+  }
+
+  @Override public long nextLong() {
+    long result = Long.rotateLeft(s1 * 5, 7) * 9;
+    long t = s1 << 17;
+    s2 ^= s0;
+    s3 ^= s1;
+    s1 ^= s2;
+    s0 ^= s3;
+    s2 ^= t;
+    s3 = Long.rotateLeft(s3, 45);
+    return result;
+  }
+
+  @Override protected int next(int bits) {
+    return (int) (nextLong() >>> (64 - bits));
+  }
+
+  @Override public int nextInt() {
+    return (int) (nextLong() >>> 32);
+  }
+
+  @Override public boolean nextBoolean() {
+    return nextLong() < 0;
+  }
+
+  @Override public float nextFloat() {
+    return (nextLong() >>> 40) * 0x1.0p-24f;
+  }
+
+  @Override public double nextDouble() {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+
+  private static long splitMix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
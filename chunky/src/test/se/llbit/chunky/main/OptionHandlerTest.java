@@ -126,4 +126,12 @@ public class OptionHandlerTest {
     OptionHandler handler = new OptionHandler("-bart", new Range(1), this::expectBart);
     handler.handle(Collections.singletonList("bort"));
   }
+
+  /** The -image option is only accepted with -merge-dumps. */
+  @Test public void testImageWithoutMergeDumps() {
+    CommandLineOptions cmdline = new CommandLineOptions(
+        new String[] { "-snapshot", "scene", "-image", "merged.png" });
+    assertThat(cmdline.configurationError).isTrue();
+    assertThat(cmdline.options.imageOutputFile).isEmpty();
+  }
 }
@@ -22,10 +22,16 @@ import java.util.function.Consumer;
 
 class MockSceneProvider implements SceneProvider {
   private final Scene scene;
+  private final ResetReason reason;
   private boolean change = true;
 
   public MockSceneProvider(Scene scene) {
+    this(scene, ResetReason.SCENE_LOADED);
+  }
+
+  public MockSceneProvider(Scene scene, ResetReason reason) {
     this.scene = scene;
+    this.reason = reason;
   }
 
   @Override
@@ -34,7 +40,7 @@ class MockSceneProvider implements SceneProvider {
       wait();
     }
     change = false;
-    return ResetReason.SCENE_LOADED;
+    return reason;
   }
 
   @Override public synchronized boolean pollSceneStateChange() {
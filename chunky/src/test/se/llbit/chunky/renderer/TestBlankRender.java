@@ -20,17 +20,36 @@ package se.llbit.chunky.renderer;
 import org.junit.Test;
 import se.llbit.chunky.main.Chunky;
 import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.postprocessing.PostProcessingFilters;
 import se.llbit.chunky.renderer.projection.ProjectionMode;
+import se.llbit.chunky.renderer.scene.CropWindow;
+import se.llbit.chunky.renderer.scene.DoubleSampleBuffer;
+import se.llbit.chunky.renderer.scene.RenderTuning;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.renderer.scene.Sky;
 import se.llbit.json.JsonObject;
 import se.llbit.math.Vector3;
 import se.llbit.math.Vector4;
+import se.llbit.util.ProgressListener;
+import se.llbit.util.TaskTracker;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -65,20 +84,41 @@ public class TestBlankRender {
     }
   }
 
-  /** Renders a scene and returns the resulting sample buffer. */
+  /** Renders a scene and returns a copy of the resulting sample buffer. */
   private static double[] render(Scene scene) throws InterruptedException {
+    SampleBuffer samples = renderScene(scene).getSamples();
+    DoubleSampleBuffer copy = new DoubleSampleBuffer(samples.getWidth(), samples.getHeight());
+    copy.copyFrom(samples);
+    return copy.getData();
+  }
+
+  /** Renders a scene and returns the buffered scene of the render manager. */
+  private static Scene renderScene(Scene scene) throws InterruptedException {
+    return renderScene(scene, ResetReason.SCENE_LOADED);
+  }
+
+  /**
+   * Renders a scene after a reset with the given reason and returns the
+   * buffered scene of the render manager.
+   */
+  private static Scene renderScene(Scene scene, ResetReason reason) throws InterruptedException {
     // A single worker thread is used, with fixed PRNG seed.
     // This makes the path tracing results deterministic.
     ChunkyOptions options = ChunkyOptions.getDefaults();
     options.renderThreads = 1;
+    return renderScene(scene, reason, options);
+  }
+
+  private static Scene renderScene(Scene scene, ResetReason reason, ChunkyOptions options)
+      throws InterruptedException {
     Chunky chunky = new Chunky(options);
     RenderContext context = new RenderContext(chunky);
     context.renderPoolFactory = (threads, seed) -> new RenderWorkerPool(threads, 0);
     DefaultRenderManager renderer = new DefaultRenderManager(context, true);
-    renderer.setSceneProvider(new MockSceneProvider(scene));
+    renderer.setSceneProvider(new MockSceneProvider(scene, reason));
     renderer.start();
     renderer.join();
-    return renderer.bufferedScene.getSampleBuffer();
+    return renderer.bufferedScene;
   }
 
   /** Compares two sample buffers. */
@@ -119,6 +159,516 @@ public class TestBlankRender {
     scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
     renderAndCheckSamples(scene, new double[] { 0.9, 0.8, 1.0 });
   }
+
+  /**
+   * The progressive preview fills every pixel, apart from the crosshairs.
+   */
+  @Test public void testPreviewSolidColorSky() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.PREVIEW);
+    scene.setBufferFinalization(true);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    checkPreview(renderScene(scene).getSamples(), new double[] { 0.9, 0.8, 1.0 });
+  }
+
+  /**
+   * A lighting change shades the cached primary hits of the preview again.
+   */
+  @Test public void testPreviewLightingChange() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.PREVIEW);
+    scene.setBufferFinalization(true);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    renderScene(scene);
+    scene.clearResetFlags();
+    scene.sky().setColor(new Vector3(0.1, 0.2, 0.3));
+    assertEquals(ResetReason.LIGHTING_CHANGED, scene.getResetReason());
+    checkPreview(renderScene(scene, ResetReason.LIGHTING_CHANGED).getSamples(),
+        new double[] { 0.1, 0.2, 0.3 });
+  }
+
+  /** Checks the preview color of all pixels except the crosshairs. */
+  private static void checkPreview(SampleBuffer samples, double[] expected) {
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        if (x == WIDTH / 2 || y == HEIGHT / 2) {
+          continue;
+        }
+        for (int cc = 0; cc < 3; ++cc) {
+          assertEquals(expected[cc], samples.get(y * WIDTH + x, cc), 0.005);
+        }
+      }
+    }
+  }
+
+  /**
+   * Re-render a crop window after changing the sky color. The pixels outside
+   * the window keep the old color and the frame keeps its spp.
+   */
+  @Test public void testCropWindow() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setTargetSpp(2);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    Scene first = renderScene(scene);
+    scene.getSamples().copyFrom(first.getSamples());
+    scene.spp = first.spp;
+
+    CropWindow crop = new CropWindow(2, 3, 7, 9);
+    scene.setCropWindow(crop);
+    scene.sky().setColor(new Vector3(0.1, 0.2, 0.3));
+    assertEquals(2, scene.spp);
+    Scene cropped = renderScene(scene);
+    assertEquals(2, cropped.spp);
+    assertEquals(2, cropped.getRenderSpp());
+
+    SampleBuffer samples = cropped.getSamples();
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        double[] expected = crop.contains(x, y)
+            ? new double[] { 0.1, 0.2, 0.3 }
+            : new double[] { 0.9, 0.8, 1.0 };
+        for (int cc = 0; cc < 3; ++cc) {
+          assertEquals(expected[cc], samples.get(y * WIDTH + x, cc), 0.005);
+        }
+      }
+    }
+  }
+
+  /**
+   * The crop window is rendered at least to the spp of the frame, and its spp
+   * is saved with the crop window.
+   */
+  @Test public void testCropWindowSpp() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setTargetSpp(2);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    scene.spp = 4;
+    scene.setCropWindow(new CropWindow(2, 3, 7, 9));
+    assertEquals(4, scene.getTargetSpp());
+    Scene cropped = renderScene(scene);
+    assertEquals(4, cropped.spp);
+    assertEquals(4, cropped.getRenderSpp());
+
+    cropped.setRenderSpp(3);
+    Scene loaded = new Scene();
+    loaded.importFromJson(cropped.toJson());
+    assertEquals(cropped.getCropWindow(), loaded.getCropWindow());
+    assertEquals(4, loaded.spp);
+    assertEquals(3, loaded.getRenderSpp());
+  }
+
+  /**
+   * Render with skewed tile costs from a previous render. The adapted tiles
+   * must still cover the frame exactly once per pass, and every cost cell
+   * gets measured.
+   */
+  @Test public void testRenderTuning() throws InterruptedException, IOException {
+    int width = 80;
+    int height = 40;
+    final Scene scene = new Scene();
+    scene.setCanvasSize(width, height);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setTargetSpp(2);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    RenderTuning tuning = scene.getRenderTuning();
+    tuning.setGrid(width, height, 32);
+    assertEquals(6, tuning.getCellCosts().length);
+    tuning.addMeasurement(new double[] { 1000, 1, 1, 1, 1, 50 });
+
+    Scene rendered = renderScene(scene);
+    assertEquals(2, rendered.spp);
+    SampleBuffer samples = rendered.getSamples();
+    double[] expected = { 0.9, 0.8, 1.0 };
+    for (int i = 0; i < width * height; ++i) {
+      for (int cc = 0; cc < 3; ++cc) {
+        assertEquals(expected[cc], samples.get(i, cc), 0.005);
+      }
+    }
+    for (float cost : rendered.getRenderTuning().getCellCosts()) {
+      assertTrue(cost > 0);
+    }
+
+    RenderTuning copy = new RenderTuning();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      tuning.store(out);
+    }
+    copy.load(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(3, copy.getColumns());
+    assertEquals(2, copy.getRows());
+    assertArrayEquals(tuning.getCellCosts(), copy.getCellCosts(), 0);
+    // The cost grid is not stored in the scene description.
+    assertFalse(tuning.toJson().get("cellCosts").isArray());
+  }
+
+  /**
+   * Render with a solid sky color and a target pass time, which renders
+   * several samples per pixel in each pass.
+   */
+  @Test public void testPassTime() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setTargetSpp(16);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    scene.getRenderTuning().setSppPerPass(4);
+    ChunkyOptions options = ChunkyOptions.getDefaults();
+    options.renderThreads = 1;
+    options.passTime = 1000;
+    Scene rendered = renderScene(scene, ResetReason.SCENE_LOADED, options);
+    assertEquals(16, rendered.spp);
+    assertTrue(rendered.getRenderTuning().getSppPerPass() > 1);
+    SampleBuffer samples = rendered.getSamples();
+    double[] expected = { 0.9, 0.8, 1.0 };
+    for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+      for (int cc = 0; cc < 3; ++cc) {
+        assertEquals(expected[cc], samples.get(i, cc), 0.005);
+      }
+    }
+  }
+
+  /**
+   * Collect render statistics. Every camera ray misses the scene and hits the sky.
+   */
+  @Test public void testRenderStatistics() throws InterruptedException {
+    checkRenderStatistics(DefaultRenderManager.ChunkyPathTracerID, 2);
+  }
+
+  /**
+   * Collect render statistics with the streaming renderer. The statistics of
+   * each frame must not include passes that are rendered ahead.
+   */
+  @Test public void testStreamingRenderStatistics() throws InterruptedException {
+    checkRenderStatistics(DefaultRenderManager.ChunkyStreamingPathTracerID, 4);
+  }
+
+  private static void checkRenderStatistics(String rendererId, int targetSpp)
+      throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setRenderer(rendererId);
+    scene.setTargetSpp(targetSpp);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+
+    ChunkyOptions options = ChunkyOptions.getDefaults();
+    options.renderThreads = 1;
+    options.collectStatistics = true;
+    RenderContext context = new RenderContext(new Chunky(options));
+    context.renderPoolFactory = (threads, seed) -> new RenderWorkerPool(threads, 0);
+    DefaultRenderManager renderer = new DefaultRenderManager(context, true);
+    List<RenderStatistics> passes = new ArrayList<>();
+    renderer.addRenderListener(new RenderStatusListener() {
+      @Override public void setRenderStatistics(RenderStatistics statistics) {
+        passes.add(statistics);
+      }
+      @Override public void setRenderTime(long time) {}
+      @Override public void setSamplesPerSecond(int sps) {}
+      @Override public void setSpp(int spp) {}
+      @Override public void renderStateChanged(RenderMode state) {}
+    });
+    renderer.setSceneProvider(new MockSceneProvider(scene, ResetReason.SCENE_LOADED));
+    renderer.start();
+    renderer.join();
+
+    assertEquals(targetSpp, passes.size());
+    for (int i = 0; i < passes.size(); ++i) {
+      RenderStatistics pass = passes.get(i);
+      assertEquals(i + 1, pass.spp);
+      assertEquals(1, pass.threads);
+      assertEquals(WIDTH * HEIGHT, pass.getRays(0));
+      assertEquals(WIDTH * HEIGHT, pass.getTotalRays());
+      assertEquals(WIDTH * HEIGHT, pass.skyMisses);
+      assertTrue(pass.passTime > 0);
+      assertTrue(pass.idleTime <= pass.passTime);
+      assertEquals(WIDTH * HEIGHT, pass.toJson().get("skyMisses").intValue(0));
+    }
+  }
+
+  /**
+   * Render a ray bounce heatmap. Every pixel traces one ray per sample, so the
+   * whole heatmap has the color of the most expensive pixels.
+   */
+  @Test public void testBouncesHeatmap() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setRenderer(DefaultRenderManager.ChunkyBouncesHeatmapID);
+    scene.setTargetSpp(2);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    Scene rendered = renderScene(scene);
+    assertEquals(0, rendered.spp);
+
+    CostHeatmapRenderer heatmap = (CostHeatmapRenderer)
+        DefaultRenderManager.renderers.get(DefaultRenderManager.ChunkyBouncesHeatmapID);
+    assertEquals(2, heatmap.getHeatmapSpp());
+    SampleBuffer samples = heatmap.getHeatmapSamples();
+    double[] expected = { 1.0, 0.1, 0.0 };
+    for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+      for (int cc = 0; cc < 3; ++cc) {
+        assertEquals(expected[cc], samples.get(i, cc), 0.005);
+      }
+    }
+  }
+
+  /**
+   * A heatmap render of a finished render leaves the render unchanged: the samples
+   * inside and outside the crop window, the spp and the render dump saved by the
+   * frame completion listener stay the same. The heatmap is only drawn inside the
+   * crop window.
+   */
+  @Test public void testHeatmapKeepsRender() throws InterruptedException, IOException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setTargetSpp(2);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    Scene first = renderScene(scene);
+    scene.getSamples().copyFrom(first.getSamples());
+    scene.spp = first.spp;
+
+    ChunkyOptions options = ChunkyOptions.getDefaults();
+    options.renderThreads = 1;
+    RenderContext context = new RenderContext(new Chunky(options));
+    context.renderPoolFactory = (threads, seed) -> new RenderWorkerPool(threads, 0);
+    File directory = Files.createTempDirectory("heatmap").toFile();
+    context.setSceneDirectory(directory);
+    scene.saveDump(context, new TaskTracker(ProgressListener.NONE));
+    File dump = context.getSceneFile("foobar.dump");
+    byte[] savedDump = Files.readAllBytes(dump.toPath());
+
+    CropWindow crop = new CropWindow(2, 3, 7, 9);
+    scene.setCropWindow(crop);
+    scene.setRenderer(DefaultRenderManager.ChunkyBouncesHeatmapID);
+    scene.setDumpFrequency(1);
+    DefaultRenderManager renderer = new DefaultRenderManager(context, true);
+    renderer.setOnFrameCompleted((rendered, spp) -> {
+      if (renderer.getSnapshotControl().saveRenderDump(rendered, spp)) {
+        rendered.saveDump(context, new TaskTracker(ProgressListener.NONE));
+      }
+    });
+    renderer.setSceneProvider(new MockSceneProvider(scene));
+    renderer.start();
+    renderer.join();
+
+    CostHeatmapRenderer heatmap = (CostHeatmapRenderer)
+        DefaultRenderManager.renderers.get(DefaultRenderManager.ChunkyBouncesHeatmapID);
+    assertEquals(2, heatmap.getHeatmapSpp());
+    assertEquals(2, renderer.bufferedScene.spp);
+    assertArrayEquals(savedDump, Files.readAllBytes(dump.toPath()));
+    SampleBuffer samples = renderer.bufferedScene.getSamples();
+    SampleBuffer heatmapSamples = heatmap.getHeatmapSamples();
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        double[] expected = crop.contains(x, y)
+            ? new double[] { 1.0, 0.1, 0.0 }
+            : new double[] { 0, 0, 0 };
+        for (int cc = 0; cc < 3; ++cc) {
+          assertEquals(first.getSamples().get(y * WIDTH + x, cc), samples.get(y * WIDTH + x, cc),
+              0);
+          assertEquals(expected[cc], heatmapSamples.get(y * WIDTH + x, cc), 0.005);
+        }
+      }
+    }
+    dump.delete();
+    directory.delete();
+  }
+
+  /**
+   * Render with a solid sky color using the streaming path tracer.
+   */
+  @Test public void testStreamingSolidColorSky() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setRenderer(DefaultRenderManager.ChunkyStreamingPathTracerID);
+    scene.setTargetSpp(3);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    renderAndCheckSamples(scene, new double[] { 0.9, 0.8, 1.0 });
+  }
+
+  /**
+   * Render with a solid sky color using the adaptive path tracer.
+   * The sky has no noise, so the render should stop long before the target spp.
+   */
+  @Test public void testAdaptiveSolidColorSky() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setRenderer(DefaultRenderManager.ChunkyAdaptivePathTracerID);
+    scene.setTargetSpp(1000);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    Scene rendered = renderScene(scene);
+    assertTrue("Expected the render to stop early, but it rendered " + rendered.spp + " spp.",
+        rendered.spp < 100);
+    SampleBuffer samples = rendered.getSamples();
+    assertEquals(0.9, samples.get(0, 0), 0.005);
+    assertEquals(0.8, samples.get(0, 1), 0.005);
+    assertEquals(1.0, samples.get(0, 2), 0.005);
+  }
+
+  /**
+   * When the adaptive render converges early the final frame is saved and the
+   * render completion listener is called.
+   */
+  @Test public void testAdaptiveCompletion() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setRenderer(DefaultRenderManager.ChunkyAdaptivePathTracerID);
+    scene.setTargetSpp(1000);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    ChunkyOptions options = ChunkyOptions.getDefaults();
+    options.renderThreads = 1;
+    RenderContext context = new RenderContext(new Chunky(options));
+    context.renderPoolFactory = (threads, seed) -> new RenderWorkerPool(threads, 0);
+    DefaultRenderManager renderer = new DefaultRenderManager(context, true);
+    AtomicBoolean finalFrame = new AtomicBoolean(false);
+    AtomicBoolean completed = new AtomicBoolean(false);
+    renderer.setOnFrameCompleted((rendered, spp) -> {
+      if (renderer.getSnapshotControl().saveRenderDump(rendered, spp)) {
+        finalFrame.set(true);
+      }
+    });
+    renderer.setOnRenderCompleted((time, sps) -> completed.set(true));
+    renderer.setSceneProvider(new MockSceneProvider(scene));
+    renderer.start();
+    renderer.join();
+    assertTrue(renderer.bufferedScene.spp < 1000);
+    assertTrue("The final frame was not saved.", finalFrame.get());
+    assertTrue(completed.get());
+    assertFalse(renderer.bufferedScene.getTileSpp().isEmpty());
+  }
+
+  /**
+   * A resumed adaptive render does not render the tiles that were converged
+   * when the render was saved.
+   */
+  @Test public void testAdaptiveResumeConverged() throws InterruptedException {
+    Scene rendered = renderScene(adaptiveSkyScene(1000));
+    assertTrue(rendered.spp < 1000);
+    int spp = rendered.spp;
+    // Render another scene, so that the renderer does not keep the tile state.
+    renderScene(adaptiveSkyScene(2));
+    // The completed render was paused.
+    rendered.setRenderMode(RenderMode.RENDERING);
+    Scene resumed = renderScene(rendered);
+    assertEquals(spp, resumed.spp);
+  }
+
+  private static Scene adaptiveSkyScene(int targetSpp) {
+    Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setRenderer(DefaultRenderManager.ChunkyAdaptivePathTracerID);
+    scene.setTargetSpp(targetSpp);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    return scene;
+  }
+
+  /**
+   * Plugins using the deprecated double array sample consumer see the samples of
+   * any sample buffer type, and their changes are kept.
+   */
+  @SuppressWarnings("deprecation")
+  @Test public void testDeprecatedSampleBufferConsumer() {
+    ChunkyOptions options = ChunkyOptions.getDefaults();
+    options.renderThreads = 1;
+    DefaultRenderManager renderer = new DefaultRenderManager(new RenderContext(new Chunky(options)), true);
+    Scene scene = renderer.bufferedScene;
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setSampleBufferType(SampleBuffer.Type.FLOAT);
+    scene.getSamples().setPixel(1, 0.5, 0.25, 0.125);
+    renderer.withSampleBufferProtected((samples, width, height) -> {
+      assertEquals(WIDTH * HEIGHT * 3, samples.length);
+      assertEquals(0.25, samples[4], 0);
+      samples[5] = 2;
+    });
+    assertEquals(0.5, scene.getSamples().get(1, 0), 0);
+    assertEquals(2, scene.getSamples().get(1, 2), 0);
+    renderer.shutdown();
+  }
+
+  /**
+   * Render with a solid sky color into a single precision sample buffer.
+   */
+  @Test public void testFloatSampleBuffer() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setSampleBufferType(SampleBuffer.Type.FLOAT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setTargetSpp(2);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    renderAndCheckSamples(scene, new double[] { 0.9, 0.8, 1.0 });
+  }
+
+  /**
+   * Render with a solid sky color into an off-heap sample buffer.
+   */
+  @Test public void testOffHeapSampleBuffer() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setSampleBufferType(SampleBuffer.Type.OFF_HEAP);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setTargetSpp(2);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    renderAndCheckSamples(scene, new double[] { 0.9, 0.8, 1.0 });
+  }
+
+  /**
+   * Render with the denoising post processing filter, which also samples
+   * the feature buffers.
+   */
+  @Test public void testDenoisedSolidColorSky() throws InterruptedException {
+    final Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setRenderMode(RenderMode.RENDERING);
+    scene.setPostprocess(PostProcessingFilters.getPostProcessingFilterFromId("DENOISE").get());
+    scene.setTargetSpp(2);
+    scene.setName("foobar");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    Scene rendered = renderScene(scene);
+    assertNotNull(rendered.getAlbedoBuffer());
+    renderAndCheckSamples(scene, new double[] { 0.9, 0.8, 1.0 });
+  }
+
   /**
    * Render with a gray gradient sky.
    */
@@ -0,0 +1,88 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSampler {
+  /**
+   * The first 2^k samples of each dimension pair should have one sample in
+   * each of the 2^k intervals along both axes.
+   */
+  @Test public void testStratified() {
+    int n = 64;
+    Sampler sampler = new Sampler(0);
+    for (int pixel = 0; pixel < 5; ++pixel) {
+      boolean[][] strata = new boolean[Sampler.LOW_DISCREPANCY_DIMENSIONS][n];
+      for (int i = 0; i < n; ++i) {
+        sampler.startSample(pixel, 7, i, 5);
+        for (int d = 0; d < Sampler.LOW_DISCREPANCY_DIMENSIONS; ++d) {
+          double value = sampler.nextDouble();
+          assertTrue(value >= 0 && value < 1);
+          int stratum = (int) (value * n);
+          assertTrue("duplicate stratum in dimension " + d, !strata[d][stratum]);
+          strata[d][stratum] = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Samples of a pixel do not depend on the worker that renders them.
+   */
+  @Test public void testIndependentOfWorker() {
+    Sampler a = new Sampler(1);
+    Sampler b = new Sampler(2);
+    for (int i = 0; i < 16; ++i) {
+      a.startSample(3, 4, i, 5);
+      b.startSample(3, 4, i, 5);
+      for (int d = 0; d < Sampler.LOW_DISCREPANCY_DIMENSIONS; ++d) {
+        assertEquals(a.nextDouble(), b.nextDouble(), 0);
+      }
+    }
+  }
+
+  /**
+   * Renders with different seeds draw different samples, so that their
+   * samples can be merged.
+   */
+  @Test public void testSeed() {
+    Sampler a = new Sampler(1);
+    Sampler b = new Sampler(1);
+    a.startSample(3, 4, 0, 5);
+    b.startSample(3, 4, 0, 6);
+    for (int d = 0; d < Sampler.LOW_DISCREPANCY_DIMENSIONS; ++d) {
+      assertTrue(a.nextDouble() != b.nextDouble());
+    }
+  }
+
+  @Test public void testPseudoRandomAfterEnd() {
+    Sampler sampler = new Sampler(1);
+    sampler.startSample(0, 0, 0, 0);
+    sampler.endSample();
+    double sum = 0;
+    for (int i = 0; i < 10000; ++i) {
+      double value = sampler.nextDouble();
+      assertTrue(value >= 0 && value < 1);
+      sum += value;
+    }
+    assertEquals(0.5, sum / 10000, 0.02);
+  }
+}
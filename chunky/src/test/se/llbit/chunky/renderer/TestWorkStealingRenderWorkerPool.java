@@ -0,0 +1,75 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestWorkStealingRenderWorkerPool {
+  /**
+   * Runs several passes of jobs with uneven cost and checks that awaitEmpty
+   * only returns once every job in the pass has finished.
+   */
+  @Test(timeout = 60000) public void testPasses() throws InterruptedException {
+    RenderWorkerPool pool = new WorkStealingRenderWorkerPool(4, 0);
+    try {
+      for (int pass = 0; pass < 50; ++pass) {
+        AtomicInteger done = new AtomicInteger(0);
+        List<RenderWorkerPool.RenderJobFuture> jobs = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+          int cost = (i % 7 == 0) ? 200 : 1;
+          jobs.add(pool.submit(worker -> {
+            double sum = 0;
+            for (int k = 0; k < cost * 1000; ++k) {
+              sum += worker.random.nextDouble();
+            }
+            if (sum >= 0) {
+              done.incrementAndGet();
+            }
+          }));
+        }
+        pool.awaitEmpty();
+        assertEquals(100, done.get());
+        for (RenderWorkerPool.RenderJobFuture job : jobs) {
+          assertTrue(job.isDone());
+        }
+      }
+    } finally {
+      pool.interrupt();
+    }
+  }
+
+  /**
+   * Awaiting an idle pool must not block.
+   */
+  @Test(timeout = 10000) public void testAwaitIdle() throws InterruptedException {
+    RenderWorkerPool pool = new WorkStealingRenderWorkerPool(2, 0);
+    try {
+      pool.awaitEmpty();
+      pool.submit(worker -> {}).awaitFinish();
+      pool.awaitEmpty();
+    } finally {
+      pool.interrupt();
+    }
+  }
+}
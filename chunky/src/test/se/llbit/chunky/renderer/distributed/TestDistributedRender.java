@@ -0,0 +1,219 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import org.junit.Test;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.RenderWorkerPool;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.Sky;
+import se.llbit.math.Vector3;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs a distributed render with workers connecting over localhost.
+ */
+public class TestDistributedRender {
+  private static final int WIDTH = Math.max(10, Scene.MIN_CANVAS_WIDTH);
+  private static final int HEIGHT = Math.max(10, Scene.MIN_CANVAS_HEIGHT);
+  private static final int TARGET_SPP = 12;
+
+  private static Scene createScene() {
+    Scene scene = new Scene();
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.setTargetSpp(TARGET_SPP);
+    scene.setName("distributed");
+    scene.sky().setSkyMode(Sky.SkyMode.SOLID_COLOR);
+    scene.sky().setColor(new Vector3(0.9, 0.8, 1.0));
+    return scene;
+  }
+
+  private static Thread startWorker(int port) {
+    ChunkyOptions options = ChunkyOptions.getDefaults();
+    options.renderThreads = 1;
+    RenderContext context = new RenderContext(new Chunky(options));
+    context.renderPoolFactory = RenderWorkerPool::new;
+    DistributedRenderWorker worker = new DistributedRenderWorker(context, createScene());
+    Thread thread = new Thread(() -> {
+      try {
+        worker.run(InetAddress.getLoopbackAddress().getHostAddress(), port);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * The first worker disconnects without delivering its batch. The batch
+   * should be rendered by the other workers.
+   */
+  @Test(timeout = 60000) public void testRenderWithFailingWorker() throws Exception {
+    Scene scene = createScene();
+    RenderCoordinator coordinator = new RenderCoordinator(scene, 4);
+    List<Integer> mergedSpp = new ArrayList<>();
+    coordinator.setOnBatchMerged((merged, previousSpp) -> mergedSpp.add(merged.spp));
+    ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    int port = server.getLocalPort();
+    Thread coordinatorThread = new Thread(() -> {
+      try {
+        coordinator.run(server);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    coordinatorThread.start();
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      out.writeInt(RenderCoordinator.MAGIC);
+      out.writeInt(RenderCoordinator.VERSION);
+      out.flush();
+      in.readInt();
+      assertEquals(WIDTH, in.readInt());
+      assertEquals(HEIGHT, in.readInt());
+      assertEquals(scene.getSampleSeed(), in.readInt());
+      assertEquals(0, in.readInt());
+      assertEquals(4, in.readInt());
+    }
+
+    Thread worker1 = startWorker(port);
+    Thread worker2 = startWorker(port);
+    worker1.join();
+    worker2.join();
+    coordinatorThread.join();
+
+    assertEquals(TARGET_SPP, scene.spp);
+    assertEquals(TARGET_SPP / 4, mergedSpp.size());
+    SampleBuffer samples = scene.getSamples();
+    for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+      assertEquals(0.9, samples.get(i, 0), 0.005);
+      assertEquals(0.8, samples.get(i, 1), 0.005);
+      assertEquals(1.0, samples.get(i, 2), 0.005);
+    }
+  }
+
+  /**
+   * One worker stops responding after it gets a batch, another sends a render
+   * dump that can not be decoded and a third sends a dump length that is too
+   * large. The batches should be rendered by the other workers, and the bad
+   * dumps should not modify the scene.
+   */
+  @Test(timeout = 60000) public void testRenderWithHungAndBadWorkers() throws Exception {
+    Scene scene = createScene();
+    RenderCoordinator coordinator = new RenderCoordinator(scene, 4);
+    coordinator.setBatchTimeout(500);
+    ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    int port = server.getLocalPort();
+    Thread coordinatorThread = new Thread(() -> {
+      try {
+        coordinator.run(server);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    coordinatorThread.start();
+
+    try (Socket hung = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      DataOutputStream out = new DataOutputStream(hung.getOutputStream());
+      DataInputStream in = new DataInputStream(hung.getInputStream());
+      out.writeInt(RenderCoordinator.MAGIC);
+      out.writeInt(RenderCoordinator.VERSION);
+      out.flush();
+      for (int i = 0; i < 4; ++i) {
+        in.readInt(); // Handshake.
+      }
+      assertEquals(0, in.readInt());
+      assertEquals(4, in.readInt());
+
+      try (Socket bad = new Socket(InetAddress.getLoopbackAddress(), port)) {
+        DataOutputStream badOut = new DataOutputStream(bad.getOutputStream());
+        DataInputStream badIn = new DataInputStream(bad.getInputStream());
+        badOut.writeInt(RenderCoordinator.MAGIC);
+        badOut.writeInt(RenderCoordinator.VERSION);
+        badOut.flush();
+        for (int i = 0; i < 4; ++i) {
+          badIn.readInt(); // Handshake.
+        }
+        assertEquals(4, badIn.readInt());
+        assertEquals(4, badIn.readInt());
+        // A valid header followed by a block index with the wrong block count.
+        badOut.writeInt(4 + 4 + 4 + 4 + 4 + 8 + 4 + 4);
+        badOut.write(new byte[] { 0x44, 0x55, 0x4D, 0x50 });
+        badOut.writeInt(2);
+        badOut.writeInt(WIDTH);
+        badOut.writeInt(HEIGHT);
+        badOut.writeInt(4);
+        badOut.writeLong(1000);
+        badOut.writeInt(1);
+        badOut.writeInt(0);
+        badOut.flush();
+        // The coordinator disconnects the worker.
+        assertEquals(-1, badIn.read());
+      }
+
+      try (Socket huge = new Socket(InetAddress.getLoopbackAddress(), port)) {
+        DataOutputStream hugeOut = new DataOutputStream(huge.getOutputStream());
+        DataInputStream hugeIn = new DataInputStream(huge.getInputStream());
+        hugeOut.writeInt(RenderCoordinator.MAGIC);
+        hugeOut.writeInt(RenderCoordinator.VERSION);
+        hugeOut.flush();
+        for (int i = 0; i < 4; ++i) {
+          hugeIn.readInt(); // Handshake.
+        }
+        hugeIn.readInt(); // The retried batch of the bad worker, or the next batch.
+        assertEquals(4, hugeIn.readInt());
+        // A dump length far beyond any dump of the canvas size.
+        hugeOut.writeInt(Integer.MAX_VALUE);
+        hugeOut.flush();
+        // The coordinator disconnects the worker without reading the dump.
+        assertEquals(-1, hugeIn.read());
+      }
+      synchronized (scene) {
+        assertEquals(0, scene.spp);
+      }
+
+      Thread worker1 = startWorker(port);
+      Thread worker2 = startWorker(port);
+      worker1.join();
+      worker2.join();
+    }
+    coordinatorThread.join();
+
+    assertEquals(TARGET_SPP, scene.spp);
+    SampleBuffer samples = scene.getSamples();
+    for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+      assertEquals(0.9, samples.get(i, 0), 0.005);
+      assertEquals(0.8, samples.get(i, 1), 0.005);
+      assertEquals(1.0, samples.get(i, 2), 0.005);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.postprocessing;
+
+import org.junit.Test;
+import se.llbit.chunky.renderer.scene.DoubleSampleBuffer;
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.math.ColorUtil;
+import se.llbit.util.TaskTracker;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+public class TestDenoisingFilter {
+  private static final int SIZE = 64;
+
+  /**
+   * Denoise an image with two flat halves separated by a normal discontinuity.
+   * The noise should be reduced without blurring the edge.
+   */
+  @Test public void testDenoiseKeepsEdge() {
+    double[] input = new double[SIZE * SIZE * 3];
+    double[] expected = new double[SIZE * SIZE];
+    float[] albedo = new float[SIZE * SIZE * 3];
+    float[] normal = new float[SIZE * SIZE * 3];
+    Random random = new Random(1);
+    for (int y = 0; y < SIZE; ++y) {
+      for (int x = 0; x < SIZE; ++x) {
+        int pixel = y * SIZE + x;
+        boolean left = x < SIZE / 2;
+        double value = left ? 0.2 : 0.6;
+        expected[pixel] = value;
+        for (int cc = 0; cc < 3; ++cc) {
+          input[pixel * 3 + cc] = value * (0.7 + 0.6 * random.nextDouble());
+          albedo[pixel * 3 + cc] = 0.5f;
+        }
+        normal[pixel * 3 + (left ? 0 : 1)] = 1;
+      }
+    }
+
+    BitmapImage noisy = new BitmapImage(SIZE, SIZE);
+    new GammaCorrectionFilter().processFrame(SIZE, SIZE, input, noisy, 1, TaskTracker.Task.NONE);
+    BitmapImage denoised = new BitmapImage(SIZE, SIZE);
+    DenoisingFilter filter = (DenoisingFilter)
+        PostProcessingFilters.getPostProcessingFilterFromId("DENOISE").get();
+    filter.processFrame(SIZE, SIZE, new DoubleSampleBuffer(SIZE, SIZE, input), albedo, normal,
+        denoised, 1, TaskTracker.Task.NONE);
+
+    double noisyError = 0;
+    double denoisedError = 0;
+    double edgeError = 0;
+    double[] rgb = new double[3];
+    for (int y = 0; y < SIZE; ++y) {
+      for (int x = 0; x < SIZE; ++x) {
+        double target = Math.pow(expected[y * SIZE + x], 1 / 2.2);
+        ColorUtil.getRGBComponents(noisy.getPixel(x, y), rgb);
+        noisyError += Math.abs(rgb[0] - target);
+        ColorUtil.getRGBComponents(denoised.getPixel(x, y), rgb);
+        double error = Math.abs(rgb[0] - target);
+        denoisedError += error;
+        if (x == SIZE / 2 - 1 || x == SIZE / 2) {
+          edgeError = Math.max(edgeError, error);
+        }
+      }
+    }
+    assertTrue("Denoising did not reduce the error enough: " + denoisedError + " vs " + noisyError,
+        denoisedError < noisyError / 3);
+    assertTrue("The edge was blurred, error " + edgeError, edgeError < 0.05);
+  }
+}
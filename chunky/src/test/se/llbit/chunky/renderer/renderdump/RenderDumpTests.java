@@ -18,17 +18,24 @@ package se.llbit.chunky.renderer.renderdump;
 
 import org.junit.Before;
 import org.junit.Test;
+import se.llbit.chunky.renderer.scene.SampleBuffer;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.util.ProgressListener;
 import se.llbit.util.TaskTracker;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -81,8 +88,13 @@ public class RenderDumpTests {
   }
 
   protected Scene createTestScene(int width, int height, int spp, long renderTime) {
+    return createTestScene(width, height, spp, renderTime, SampleBuffer.Type.DOUBLE);
+  }
+
+  protected Scene createTestScene(int width, int height, int spp, long renderTime, SampleBuffer.Type type) {
     Scene scene = new Scene();
     scene.setCanvasSize(width, height);
+    scene.setSampleBufferType(type);
     scene.spp = spp;
     scene.renderTime = renderTime;
     return scene;
@@ -151,10 +163,144 @@ public class RenderDumpTests {
     Scene scene = createTestScene(testWidth, testHeight, testSPP, testRenderTime);
     System.arraycopy(testSampleBuffer, 0, scene.getSampleBuffer(), 0, testSampleBuffer.length);
     ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    RenderDump.save(outputStream, scene, taskTracker);
+    RenderDump.save(outputStream, scene, taskTracker, 1);
     assertArrayEquals(getTestDump(dumpName), outputStream.toByteArray());
   }
 
+  /**
+   * Save and load a dump in the current format. The image is large enough to be
+   * split into several blocks, the last one shorter than the others.
+   */
+  @Test
+  public void saveLoadBlockCompressedFloatFormatDumpTest() throws IOException {
+    saveLoadBlockCompressedDumpTest(SampleBuffer.Type.DOUBLE);
+  }
+
+  /**
+   * Save and load a dump in the current format with single precision sample buffers.
+   */
+  @Test
+  public void saveLoadBlockCompressedFloatFormatDumpFloatBufferTest() throws IOException {
+    saveLoadBlockCompressedDumpTest(SampleBuffer.Type.FLOAT);
+  }
+
+  private void saveLoadBlockCompressedDumpTest(SampleBuffer.Type type) throws IOException {
+    int width = 420;
+    int height = 400;
+    Scene scene = createTestScene(width, height, testSPP, testRenderTime, type);
+    SampleBuffer samples = scene.getSamples();
+    for (int i = 0; i < width * height; ++i) {
+      samples.setPixel(i, (3 * i % 1013) / 7.0, ((3 * i + 1) % 1013) / 7.0, ((3 * i + 2) % 1013) / 7.0);
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    RenderDump.save(outputStream, scene, taskTracker);
+
+    Scene loaded = createTestScene(width, height, 0, 0, type);
+    RenderDump.load(new ByteArrayInputStream(outputStream.toByteArray()), loaded, taskTracker);
+    assertEquals(testSPP, loaded.spp);
+    assertEquals(testRenderTime, loaded.renderTime);
+
+    Scene merged = createTestScene(width, height, testSPP, testRenderTime, type);
+    RenderDump.merge(new ByteArrayInputStream(outputStream.toByteArray()), merged, taskTracker);
+    for (int i = 0; i < width * height; ++i) {
+      for (int cc = 0; cc < 3; ++cc) {
+        assertEquals(samples.get(i, cc), loaded.getSamples().get(i, cc), 0.0);
+        assertEquals(samples.get(i, cc) / 2, merged.getSamples().get(i, cc), 1e-12);
+      }
+    }
+  }
+
+  /**
+   * Dumps of samples that do not compress at all are not larger than the size limit
+   * used to reject invalid dumps.
+   */
+  @Test
+  public void maxDumpSizeTest() throws IOException {
+    int width = 421;
+    int height = 159;
+    Scene scene = createTestScene(width, height, testSPP, testRenderTime);
+    Random random = new Random(0);
+    for (int i = 0; i < width * height; ++i) {
+      scene.getSamples().setPixel(i, random.nextDouble(), random.nextDouble(), random.nextDouble());
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    RenderDump.save(outputStream, scene, taskTracker);
+    assertTrue(outputStream.size() <= RenderDump.maxSize(width, height));
+  }
+
+  /**
+   * Decompress a single block of a dump, found through the block index.
+   */
+  @Test
+  public void readSingleBlockTest() throws IOException {
+    int width = 420;
+    int height = 400;
+    Scene scene = createTestScene(width, height, testSPP, testRenderTime);
+    SampleBuffer samples = scene.getSamples();
+    for (int i = 0; i < width * height; ++i) {
+      samples.setPixel(i, 3 * i, 3 * i + 1, 3 * i + 2);
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    RenderDump.save(outputStream, scene, taskTracker);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+    in.skipBytes(4 + 4 + 4 + 4 + 4 + 8); // Magic number, version and header.
+    BlockIndex index = BlockIndex.read(in, width, height);
+    assertTrue(index.blocks() > 1);
+    int block = index.blockOfRow(height - 1);
+    in.skipBytes((int) index.offset(block));
+    byte[] data = new byte[index.size(block)];
+    in.readFully(data);
+    int[] count = { 0 };
+    BlockCompressedFloatDumpFormat.decompressBlock(data, index, block, (pixel, r, g, b) -> {
+      assertEquals(pixel * 3, r, 0.0);
+      assertEquals(pixel * 3 + 2, b, 0.0);
+      count[0] += 1;
+    });
+    assertEquals(index.pixels(block), count[0]);
+    assertEquals(width * height, index.firstPixel(block) + index.pixels(block));
+  }
+
+  /**
+   * Merge several dumps weighted by their spp: two block compressed dumps, merged
+   * block by block, and one dump in the older single stream format.
+   */
+  @Test
+  public void mergeDumpsTest() throws IOException {
+    int width = 420;
+    int height = 400;
+    int[] spp = { 10, 30, 60 };
+    int[] versions = { 2, 2, 1 };
+    List<File> dumps = new ArrayList<>();
+    for (int i = 0; i < spp.length; ++i) {
+      Scene scene = createTestScene(width, height, spp[i], 1000);
+      for (int pixel = 0; pixel < width * height; ++pixel) {
+        scene.getSamples().setPixel(pixel, i + 1, i + 1, i + 1);
+      }
+      File dump = File.createTempFile("merge", ".dump");
+      dump.deleteOnExit();
+      try (FileOutputStream out = new FileOutputStream(dump)) {
+        RenderDump.save(out, scene, TaskTracker.NONE, versions[i]);
+      }
+      dumps.add(dump);
+    }
+
+    Scene scene = createTestScene(width, height, 100, 1000);
+    SampleBuffer samples = scene.getSamples();
+    for (int pixel = 0; pixel < width * height; ++pixel) {
+      samples.setPixel(pixel, 4, 4, 4);
+    }
+    DumpMerger.merge(scene, dumps, taskTracker);
+    assertEquals(200, scene.spp);
+    assertEquals(4000, scene.renderTime);
+    double expected = (10 * 1 + 30 * 2 + 60 * 3 + 100 * 4) / 200.0;
+    for (int pixel = 0; pixel < width * height; ++pixel) {
+      for (int cc = 0; cc < 3; ++cc) {
+        assertEquals(expected, samples.get(pixel, cc), 1e-12);
+      }
+    }
+  }
+
   // This is just at the bottom because the strings are soooo lllooooonnnnngggggg
   private static final Map<String, String> testDumps = new HashMap<String, String>() {{
 
@@ -0,0 +1,212 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.llbit.chunky.block.Block;
+import se.llbit.chunky.block.BlockSpec;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.world.ChunkPosition;
+import se.llbit.chunky.world.World;
+import se.llbit.nbt.ByteTag;
+import se.llbit.nbt.CompoundTag;
+import se.llbit.nbt.IntArrayTag;
+import se.llbit.nbt.IntTag;
+import se.llbit.nbt.ListTag;
+import se.llbit.nbt.LongArrayTag;
+import se.llbit.nbt.NamedTag;
+import se.llbit.nbt.StringTag;
+import se.llbit.nbt.Tag;
+import se.llbit.util.TaskTracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestChunkLoading {
+  private static final String[] COLORS = {
+      "white", "orange", "magenta", "light_blue", "yellow", "lime", "pink", "gray",
+      "light_gray", "cyan", "purple", "blue", "brown", "green", "red", "black",
+  };
+
+  private static File worldDirectory;
+
+  @BeforeClass public static void writeWorld() throws IOException {
+    new Chunky(ChunkyOptions.getDefaults()); // Registers the block providers.
+    worldDirectory = Files.createTempDirectory("world").toFile();
+    worldDirectory.deleteOnExit();
+    File regionDirectory = new File(worldDirectory, "region");
+    assertTrue(regionDirectory.mkdir());
+    regionDirectory.deleteOnExit();
+    File levelDat = new File(worldDirectory, "level.dat");
+    levelDat.deleteOnExit();
+    CompoundTag data = new CompoundTag();
+    data.add("version", new IntTag(19133));
+    data.add("LevelName", new StringTag("Test"));
+    CompoundTag root = new CompoundTag();
+    root.add("Data", data);
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(levelDat)))) {
+      new NamedTag("", root).write(out);
+    }
+
+    File regionFile = new File(regionDirectory, "r.0.0.mca");
+    regionFile.deleteOnExit();
+    try (RandomAccessFile file = new RandomAccessFile(regionFile, "rw")) {
+      int[] locations = new int[32 * 32];
+      int sector = 2;
+      for (int cz = 0; cz < 4; ++cz) {
+        for (int cx = 0; cx < 4; ++cx) {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            chunkTag(cx, cz).write(out);
+          }
+          byte[] chunk = bytes.toByteArray();
+          int sectors = (chunk.length + 5 + 4095) / 4096;
+          file.seek(sector * 4096L);
+          file.writeInt(chunk.length + 1);
+          file.writeByte(2); // Zlib compression.
+          file.write(chunk);
+          locations[cx + cz * 32] = (sector << 8) | sectors;
+          sector += sectors;
+        }
+      }
+      file.setLength(sector * 4096L);
+      file.seek(0);
+      for (int location : locations) {
+        file.writeInt(location);
+      }
+    }
+  }
+
+  /**
+   * A chunk with stone at the bottom, a layer of wool with a different color in each
+   * chunk and a pattern of water above it, so that chunks add different blocks and
+   * water shapes to the palette.
+   */
+  private static NamedTag chunkTag(int cx, int cz) {
+    String[] names = {
+        "minecraft:air", "minecraft:stone", "minecraft:" + COLORS[cx + cz * 4] + "_wool", "minecraft:water"
+    };
+    long[] blockStates = new long[4096 / 16]; // Four bits per block.
+    for (int index = 0; index < 4096; ++index) {
+      int x = index & 15;
+      int z = (index >> 4) & 15;
+      int y = index >> 8;
+      long block = 0;
+      if (y == 0) {
+        block = 1;
+      } else if (y == 1) {
+        block = 2;
+      } else if (y < 4 && (x + z * 3 + cx * 5 + cz) % 7 < 3) {
+        block = 3;
+      }
+      blockStates[index >> 4] |= block << ((index & 15) * 4);
+    }
+    ListTag palette = new ListTag(Tag.TAG_COMPOUND, new ArrayList<>());
+    for (String name : names) {
+      CompoundTag block = new CompoundTag();
+      block.add("Name", new StringTag(name));
+      if (name.equals("minecraft:water")) {
+        CompoundTag properties = new CompoundTag();
+        properties.add("level", new StringTag("0"));
+        block.add("Properties", properties);
+      }
+      palette.add(block);
+    }
+    CompoundTag section = new CompoundTag();
+    section.add("Y", new ByteTag(4));
+    section.add("Palette", palette);
+    section.add("BlockStates", new LongArrayTag(blockStates));
+    ListTag sections = new ListTag(Tag.TAG_COMPOUND, new ArrayList<>());
+    sections.add(section);
+
+    CompoundTag level = new CompoundTag();
+    level.add("xPos", new IntTag(cx));
+    level.add("zPos", new IntTag(cz));
+    level.add("Sections", sections);
+    level.add("Biomes", new IntArrayTag(new int[1024]));
+    level.add("Entities", new ListTag(Tag.TAG_COMPOUND, new ArrayList<>()));
+    level.add("TileEntities", new ListTag(Tag.TAG_COMPOUND, new ArrayList<>()));
+    CompoundTag root = new CompoundTag();
+    root.add("DataVersion", new IntTag(2586));
+    root.add("Level", level);
+    return new NamedTag("", root);
+  }
+
+  private static Scene load() {
+    World world = World.loadWorld(worldDirectory, 0, World.LoggedWarnings.SILENT);
+    List<ChunkPosition> chunks = new ArrayList<>();
+    for (int cz = 0; cz < 4; ++cz) {
+      for (int cx = 0; cx < 4; ++cx) {
+        chunks.add(ChunkPosition.get(cx, cz));
+      }
+    }
+    Scene scene = new Scene();
+    scene.loadChunks(TaskTracker.NONE, world, chunks);
+    return scene;
+  }
+
+  private static byte[] octreeData(Scene scene) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      scene.getWorldOctree().store(out);
+      scene.getWaterOctree().store(out);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Block ids are assigned in chunk order, independent of the order in which the
+   * chunk loading threads finish, so the palette and octrees are the same for every load.
+   */
+  @Test public void testDeterministicPalette() throws IOException {
+    Scene first = load();
+    Scene second = load();
+    BlockSpec[] specs = first.getPalette().getBlockSpecs();
+    assertArrayEquals(specs, second.getPalette().getBlockSpecs());
+    assertArrayEquals(octreeData(first), octreeData(second));
+
+    // The wool of each chunk is first used by that chunk, so the wool ids follow the chunk order.
+    int previous = -1;
+    for (String color : COLORS) {
+      int id = -1;
+      List<Block> blocks = first.getPalette().getPalette();
+      for (int i = 0; i < blocks.size(); ++i) {
+        if (blocks.get(i).name.equals("minecraft:" + color + "_wool")) {
+          id = i;
+        }
+      }
+      assertTrue("missing " + color + " wool", id > previous);
+      previous = id;
+    }
+    assertEquals(specs.length, first.getPalette().getPalette().size());
+  }
+}
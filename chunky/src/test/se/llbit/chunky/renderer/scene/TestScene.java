@@ -19,6 +19,10 @@ package se.llbit.chunky.renderer.scene;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
 public class TestScene {
   /**
    * Test that modifying material properties does not throw an exception.
@@ -30,4 +34,27 @@ public class TestScene {
     new Scene().setSpecular("minecraft:gravel", 0.3f);
     new Scene().setIor("minecraft:gravel", 0.3f);
   }
+
+  /**
+   * A render copy does not share samples with the original, and repeated copies
+   * reuse the same sample buffer.
+   */
+  @Test public void testCopyRender() {
+    Scene scene = new Scene();
+    scene.setCanvasSize(40, 20);
+    scene.getSamples().setPixel(0, 0.5, 0.25, 1);
+
+    Scene copy = new Scene();
+    copy.copyRender(scene);
+    SampleBuffer samples = copy.getSamples();
+    assertNotSame(scene.getSamples(), samples);
+    assertEquals(0.25, samples.get(0, 1), 0);
+
+    scene.getSamples().setPixel(0, 1, 1, 1);
+    assertEquals(0.25, samples.get(0, 1), 0);
+
+    copy.copyRender(scene);
+    assertSame(samples, copy.getSamples());
+    assertEquals(1, samples.get(0, 1), 0);
+  }
 }
@@ -0,0 +1,138 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestMappedRegionFile {
+  /**
+   * Chunk locations pointing into the header, including locations with the top bit
+   * set, are rejected instead of reading outside of the mapping.
+   */
+  @Test public void testInvalidLocation() throws IOException {
+    File file = File.createTempFile("r.0.0", ".mca");
+    file.deleteOnExit();
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      out.setLength(3 * MappedRegionFile.SECTOR_SIZE);
+      out.seek(0);
+      out.writeInt(0x80000001); // Chunk (0, 0): negative sector offset.
+      out.writeInt(0x00000101); // Chunk (1, 0): sector 1, inside the header.
+    }
+    MappedRegionFile region = MappedRegionFile.get(file);
+    assertNull(region.getChunkData(ChunkPosition.get(0, 0)));
+    assertNull(region.getChunkData(ChunkPosition.get(1, 0)));
+    assertNull(region.getChunkData(ChunkPosition.get(2, 0)));
+    MappedRegionFile.invalidate(file);
+  }
+
+  /**
+   * Invalidating a region file unmaps it right away, so that it can be deleted
+   * on Windows. Chunks are then read from the file directly.
+   */
+  @Test public void testInvalidateUnmaps() throws IOException {
+    File file = writeRegion(42);
+    MappedRegionFile region = MappedRegionFile.get(file);
+    assertEquals(42, region.getChunkData(ChunkPosition.get(0, 0)).timestamp);
+    MappedRegionFile.invalidate(file);
+    assertFalse(region.isMapped());
+    assertEquals(42, region.getChunkData(ChunkPosition.get(0, 0)).timestamp);
+    assertTrue(file.delete());
+  }
+
+  /**
+   * Cached mappings are only checked against the file by refresh, which replaces
+   * and unmaps the old mapping when the file changed.
+   */
+  @Test public void testRefresh() throws IOException {
+    File file = writeRegion(1);
+    MappedRegionFile region = MappedRegionFile.get(file);
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      out.setLength(4 * MappedRegionFile.SECTOR_SIZE);
+      out.seek(MappedRegionFile.SECTOR_SIZE);
+      out.writeInt(2);
+    }
+    assertSame(region, MappedRegionFile.get(file));
+    MappedRegionFile refreshed = MappedRegionFile.refresh(file);
+    assertNotNull(refreshed);
+    assertFalse(region.isMapped());
+    assertSame(refreshed, MappedRegionFile.get(file));
+    assertEquals(2, refreshed.getChunkData(ChunkPosition.get(0, 0)).timestamp);
+    MappedRegionFile.invalidate(file);
+    assertFalse(refreshed.isMapped());
+  }
+
+  /**
+   * The least recently used mapping is unmapped when too many files are mapped.
+   */
+  @Test public void testEvictionUnmaps() throws IOException {
+    MappedRegionFile.clear();
+    File first = writeRegion(1);
+    MappedRegionFile region = MappedRegionFile.get(first);
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < 64; ++i) {
+      File file = writeRegion(1);
+      files.add(file);
+      assertNotNull(MappedRegionFile.get(file));
+    }
+    assertFalse(region.isMapped());
+    assertNotSame(region, MappedRegionFile.get(first));
+    MappedRegionFile.clear();
+    for (File file : files) {
+      assertTrue(file.delete());
+    }
+    assertTrue(first.delete());
+  }
+
+  /**
+   * Write a region file with a single chunk at (0, 0).
+   */
+  private static File writeRegion(int timestamp) throws IOException {
+    File file = File.createTempFile("r.0.0", ".mca");
+    file.deleteOnExit();
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+      out.write(new byte[] { 0 }); // End tag.
+    }
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      out.setLength(3 * MappedRegionFile.SECTOR_SIZE);
+      out.writeInt(0x00000201); // Chunk (0, 0): sector 2, one sector long.
+      out.seek(MappedRegionFile.SECTOR_SIZE);
+      out.writeInt(timestamp);
+      out.seek(2 * MappedRegionFile.SECTOR_SIZE);
+      out.writeInt(compressed.size() + 1);
+      out.writeByte(2); // Zlib compression.
+      out.write(compressed.toByteArray());
+    }
+    return file;
+  }
+}
@@ -0,0 +1,87 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that octree lookups resumed from a node stack find the same
+ * leaf as lookups that descend from the root.
+ */
+public class TestOctreeNodeStack {
+  private static final int DEPTH = 6;
+
+  private static Octree.OctreeImplementation buildOctree(String impl) {
+    Octree octree = new Octree(impl, DEPTH);
+    int size = 1 << DEPTH;
+    Random random = new Random(1);
+    for (int i = 0; i < 2000; ++i) {
+      // Mix of single blocks and uniform regions so the tree has leaves at many levels.
+      int x = random.nextInt(size);
+      int y = random.nextInt(size / 2);
+      int z = random.nextInt(size);
+      octree.set(1 + random.nextInt(4), x, y, z);
+    }
+    int[] cube = new int[16 * 16 * 16];
+    Arrays.fill(cube, 7);
+    octree.setCube(4, cube, 32, 32, 32);
+    return octree.getImplementation();
+  }
+
+  private static void checkWalk(Octree.OctreeImplementation octree) {
+    int size = 1 << DEPTH;
+    Random random = new Random(2);
+    IntIntMutablePair expected = new IntIntMutablePair(0, 0);
+    IntIntMutablePair actual = new IntIntMutablePair(0, 0);
+    Octree.NodeStack stack = new Octree.NodeStack();
+    int x = 0, y = 0, z = 0;
+    for (int i = 0; i < 20000; ++i) {
+      // Mostly neighbour steps, with occasional jumps.
+      if (random.nextInt(50) == 0) {
+        x = random.nextInt(size);
+        y = random.nextInt(size);
+        z = random.nextInt(size);
+      } else {
+        x = Math.floorMod(x + random.nextInt(3) - 1, size);
+        y = Math.floorMod(y + random.nextInt(3) - 1, size);
+        z = Math.floorMod(z + random.nextInt(3) - 1, size);
+      }
+      octree.getWithLevel(expected, x, y, z);
+      octree.getWithLevel(actual, stack, x, y, z);
+      assertEquals(expected.leftInt(), actual.leftInt());
+      assertEquals(expected.rightInt(), actual.rightInt());
+    }
+  }
+
+  @Test public void testPacked() {
+    checkWalk(buildOctree("PACKED"));
+  }
+
+  @Test public void testBigPacked() {
+    checkWalk(buildOctree("BIGPACKED"));
+  }
+
+  @Test public void testNodeBased() {
+    checkWalk(buildOctree("NODE"));
+  }
+}
@@ -0,0 +1,112 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that subtrees built independently of an octree insert the same
+ * blocks as setting the blocks one by one.
+ */
+public class TestOctreeSubtree {
+  private static final int DEPTH = 6;
+  private static final int CUBE_DEPTH = 4;
+
+  /** A cube with uniform regions, single blocks and some hidden blocks. */
+  private static int[] randomCube(Random random) {
+    int size = 1 << CUBE_DEPTH;
+    int[] types = new int[size * size * size];
+    int base = random.nextInt(3);
+    for (int z = 0; z < size; ++z) {
+      for (int y = 0; y < size; ++y) {
+        for (int x = 0; x < size; ++x) {
+          int type = y < size / 2 ? base + 1 : 0;
+          if (random.nextInt(20) == 0) {
+            type = random.nextInt(5);
+          }
+          types[(z * size + y) * size + x] = type;
+        }
+      }
+    }
+    return types;
+  }
+
+  private static void check(String impl) {
+    int size = 1 << DEPTH;
+    int cubeSize = 1 << CUBE_DEPTH;
+    Random random = new Random(3);
+    Octree octree = new Octree(impl, DEPTH);
+    Octree expected = new Octree("NODE", DEPTH);
+    Octree.SubtreeBuilder builder = new Octree.SubtreeBuilder();
+    for (int i = 0; i < 40; ++i) {
+      // Cubes are inserted several times at the same positions to test replacing subtrees.
+      int x = random.nextInt(size / cubeSize) * cubeSize;
+      int y = random.nextInt(size / cubeSize) * cubeSize;
+      int z = random.nextInt(size / cubeSize) * cubeSize;
+      int[] types = randomCube(random);
+      Octree.Subtree subtree = builder.build(CUBE_DEPTH, types);
+      assertArrayEquals(types, subtree.toTypes());
+      octree.setSubtree(subtree, x, y, z);
+      for (int cz = 0; cz < cubeSize; ++cz) {
+        for (int cy = 0; cy < cubeSize; ++cy) {
+          for (int cx = 0; cx < cubeSize; ++cx) {
+            expected.set(types[(cz * cubeSize + cy) * cubeSize + cx], x + cx, y + cy, z + cz);
+          }
+        }
+      }
+    }
+    IntIntMutablePair actualType = new IntIntMutablePair(0, 0);
+    IntIntMutablePair expectedType = new IntIntMutablePair(0, 0);
+    for (int z = 0; z < size; ++z) {
+      for (int y = 0; y < size; ++y) {
+        for (int x = 0; x < size; ++x) {
+          octree.getImplementation().getWithLevel(actualType, x, y, z);
+          expected.getImplementation().getWithLevel(expectedType, x, y, z);
+          assertEquals(expectedType.leftInt(), actualType.leftInt());
+        }
+      }
+    }
+  }
+
+  @Test public void testAnyTypeIsMerged() {
+    int size = 1 << CUBE_DEPTH;
+    int[] types = new int[size * size * size];
+    Arrays.fill(types, 2);
+    types[17] = Octree.ANY_TYPE;
+    Octree.Subtree subtree = new Octree.SubtreeBuilder().build(CUBE_DEPTH, types);
+    assertEquals(1, subtree.nodeCount());
+  }
+
+  @Test public void testPacked() {
+    check("PACKED");
+  }
+
+  @Test public void testBigPacked() {
+    check("BIGPACKED");
+  }
+
+  @Test public void testNodeBased() {
+    check("NODE");
+  }
+}
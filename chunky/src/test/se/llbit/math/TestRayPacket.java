@@ -0,0 +1,103 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
+import org.junit.Test;
+import se.llbit.chunky.block.Air;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.renderer.scene.Scene;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that rays skipping empty space by the packet enter distance hit the
+ * same surfaces as rays marching from their origin.
+ */
+public class TestRayPacket {
+  private static final int DEPTH = 6;
+
+  @Test public void testPacketEnterDistance() {
+    BlockPalette palette = new BlockPalette();
+    Octree octree = new Octree("PACKED", DEPTH);
+    int size = 1 << DEPTH;
+    Random random = new Random(1);
+    for (int i = 0; i < 3000; ++i) {
+      octree.set(palette.stoneId, random.nextInt(size), random.nextInt(size / 2),
+          random.nextInt(size));
+    }
+    octree.set(palette.stoneId, 40, 50, 40);
+
+    Scene scene = new Scene();
+    IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+    RayPacket packet = new RayPacket();
+    Ray ray = new Ray();
+    Ray single = new Ray();
+    Ray skipped = new Ray();
+    int skips = 0;
+    for (int p = 0; p < 50; ++p) {
+      // Camera inside the octree for even packets, outside for odd ones.
+      Vector3 origin = p % 2 == 0
+          ? new Vector3(size * random.nextDouble(), size * 0.9, size * random.nextDouble())
+          : new Vector3(-10, size + 10, -10);
+      Vector3 center = new Vector3(random.nextDouble() + .1, -random.nextDouble() - .1,
+          random.nextDouble() + .1);
+      packet.clear();
+      for (int i = 0; i < RayPacket.MAX_SIZE; ++i) {
+        ray.o.set(origin);
+        ray.d.set(center.x + (i % 8) * 0.01, center.y, center.z + (i / 8) * 0.01);
+        ray.d.normalize();
+        packet.add(ray);
+      }
+      assertTrue(octree.packetEnterDistance(packet, palette));
+      for (int i = 0; i < packet.size; ++i) {
+        single.setDefault();
+        packet.get(i, single);
+        single.setCurrentMaterial(Air.INSTANCE);
+        skipped.setDefault();
+        packet.get(i, skipped);
+        skipped.setCurrentMaterial(Air.INSTANCE);
+        boolean hit = octree.enterBlock(scene, single, palette, typeAndLevel, null, 0);
+        assertEquals(hit, octree.enterBlock(scene, skipped, palette, typeAndLevel, null,
+            packet.enterDistance[i]));
+        if (hit) {
+          assertEquals(single.distance, skipped.distance, 1e-9);
+          assertEquals(single.n.x, skipped.n.x, 0);
+          assertEquals(single.n.y, skipped.n.y, 0);
+          assertEquals(single.n.z, skipped.n.z, 0);
+        }
+        if (packet.enterDistance[i] > 1) {
+          skips += 1;
+        }
+      }
+    }
+    assertTrue(skips > 0);
+  }
+
+  @Test public void testMixedDirections() {
+    RayPacket packet = new RayPacket();
+    Ray ray = new Ray();
+    ray.d.set(1, -1, 1);
+    packet.add(ray);
+    ray.d.set(-1, -1, 1);
+    packet.add(ray);
+    assertEquals(-1, packet.signMask());
+  }
+}
@@ -0,0 +1,130 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math.bvh;
+
+import org.junit.Test;
+import se.llbit.chunky.entity.Entity;
+import se.llbit.chunky.resources.Texture;
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonValue;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+import se.llbit.math.Vector4;
+import se.llbit.math.primitive.Box;
+import se.llbit.math.primitive.Primitive;
+import se.llbit.util.TaskTracker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestBVHFileFormat {
+  private static final Vector3 OFFSET = new Vector3(-8, 0, -8);
+
+  static class BoxEntity extends Entity {
+    BoxEntity(Vector3 position) {
+      super(position);
+    }
+
+    @Override public Collection<Primitive> primitives(Vector3 offset) {
+      double x = position.x + offset.x;
+      double y = position.y + offset.y;
+      double z = position.z + offset.z;
+      Box box = new Box(x, x + 0.5, y, y + 0.5, z, z + 0.5);
+      Vector4 uv = new Vector4(0, 1, 0, 1);
+      Collection<Primitive> primitives = new ArrayList<>();
+      box.addFrontFaces(primitives, Texture.stone, uv);
+      box.addTopFaces(primitives, Texture.stone, uv);
+      box.addLeftFaces(primitives, Texture.stone, uv);
+      return primitives;
+    }
+
+    @Override public JsonValue toJson() {
+      return new JsonObject();
+    }
+  }
+
+  private static List<Entity> entities(long seed) {
+    Random random = new Random(seed);
+    List<Entity> entities = new ArrayList<>();
+    for (int i = 0; i < 200; ++i) {
+      entities.add(new BoxEntity(new Vector3(
+          random.nextDouble() * 16, random.nextDouble() * 16, random.nextDouble() * 16)));
+    }
+    return entities;
+  }
+
+  private static byte[] store(BVH bvh, String implementation) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      BVHFileFormat.store(out, bvh, implementation);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static BVH load(byte[] data, String implementation, Collection<Entity> entities)
+      throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+      return BVHFileFormat.load(in, implementation, entities, OFFSET);
+    }
+  }
+
+  @Test public void testRoundTrip() throws IOException {
+    List<Entity> entities = entities(1);
+    BVH built = BVH.Factory.create("SAH_MA", entities, OFFSET, TaskTracker.Task.NONE);
+    BVH loaded = load(store(built, "SAH_MA"), "SAH_MA", entities(1));
+    assertNotNull(loaded);
+
+    Random random = new Random(2);
+    Ray ray1 = new Ray();
+    Ray ray2 = new Ray();
+    for (int i = 0; i < 1000; ++i) {
+      ray1.o.set(random.nextDouble() * 16 - 8, random.nextDouble() * 16, random.nextDouble() * 16 - 8);
+      ray1.d.set(random.nextDouble() - 0.5, random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+      ray1.d.normalize();
+      ray1.t = Double.POSITIVE_INFINITY;
+      ray2.set(ray1);
+      ray2.t = Double.POSITIVE_INFINITY;
+      assertEquals(built.closestIntersection(ray1), loaded.closestIntersection(ray2));
+      assertEquals(ray1.t, ray2.t, 0);
+    }
+  }
+
+  @Test public void testChangedEntities() throws IOException {
+    BVH built = BVH.Factory.create("SAH_MA", entities(1), OFFSET, TaskTracker.Task.NONE);
+    assertNull(load(store(built, "SAH_MA"), "SAH_MA", entities(3)));
+  }
+
+  @Test public void testChangedImplementation() throws IOException {
+    BVH built = BVH.Factory.create("SAH_MA", entities(1), OFFSET, TaskTracker.Task.NONE);
+    assertNull(load(store(built, "SAH_MA"), "MIDPOINT", entities(1)));
+  }
+
+  @Test public void testEmpty() throws IOException {
+    assertNull(load(store(BVH.EMPTY, "SAH_MA"), "SAH_MA", new ArrayList<>()));
+  }
+}
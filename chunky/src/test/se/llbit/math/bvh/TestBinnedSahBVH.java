@@ -0,0 +1,62 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math.bvh;
+
+import org.junit.Test;
+import se.llbit.chunky.entity.Entity;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+import se.llbit.util.TaskTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the parallel binned SAH BVH finds the same intersections as the
+ * sequential SAH_MA BVH.
+ */
+public class TestBinnedSahBVH {
+  private static final Vector3 OFFSET = new Vector3(-32, 0, -32);
+
+  @Test public void testSameIntersections() {
+    // Enough primitives that some subtrees are built in forked tasks.
+    Random random = new Random(1);
+    List<Entity> entities = new ArrayList<>();
+    for (int i = 0; i < 2000; ++i) {
+      entities.add(new TestBVHFileFormat.BoxEntity(new Vector3(
+          random.nextDouble() * 64, random.nextDouble() * 64, random.nextDouble() * 64)));
+    }
+    BVH expected = BVH.Factory.create("SAH_MA", entities, OFFSET, TaskTracker.Task.NONE);
+    BVH actual = BVH.Factory.create("SAH_BINNED", entities, OFFSET, TaskTracker.Task.NONE);
+
+    Ray ray1 = new Ray();
+    Ray ray2 = new Ray();
+    for (int i = 0; i < 5000; ++i) {
+      ray1.o.set(random.nextDouble() * 64 - 32, random.nextDouble() * 64, random.nextDouble() * 64 - 32);
+      ray1.d.set(random.nextDouble() - 0.5, random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+      ray1.d.normalize();
+      ray1.t = Double.POSITIVE_INFINITY;
+      ray2.set(ray1);
+      ray2.t = Double.POSITIVE_INFINITY;
+      assertEquals(expected.closestIntersection(ray1), actual.closestIntersection(ray2));
+      assertEquals(ray1.t, ray2.t, 0);
+    }
+  }
+}